@@ -49,6 +49,9 @@ public class CleanupSupport extends ServerComponent {
 
 
 	//----- State variables -----
+	//
+	// These are accessed only within synchronized functions, because a forecast task executing
+	// on a task dispatcher worker thread can request a cleanup retry (see PDLSupport).
 
 	// True if cleanup is currently enabled, false if not.
 
@@ -77,7 +80,7 @@ public class CleanupSupport extends ServerComponent {
 	// Set cleanup to the disabled state.
 	// Note: This is to be called from the execution function of a cleanup task.
 
-	public void set_cleanup_disabled () {
+	public synchronized void set_cleanup_disabled () {
 
 		f_cleanup_enabled = false;
 
@@ -91,7 +94,7 @@ public class CleanupSupport extends ServerComponent {
 	// Note: This is to be called from the execution function of a cleanup task.
 	// Note: If cleanup is already enabled, the cycle is re-initialized.
 
-	public void set_cleanup_enabled () {
+	public synchronized void set_cleanup_enabled () {
 
 		// Get the current time
 
@@ -120,7 +123,7 @@ public class CleanupSupport extends ServerComponent {
 	// Set cleanup retry following a failed operation.
 	// Note: This is to be called from the execution function of a cleanup task, or from idle time code.
 
-	public void set_cleanup_retry () {
+	public synchronized void set_cleanup_retry () {
 
 		// Get the current time
 
@@ -158,7 +161,7 @@ public class CleanupSupport extends ServerComponent {
 	// Note: This is to be called from the task dispatcher, not during execution of a task.
 	// This must be called before the first task is executed from the task queue.
 
-	public void init_cleanup_disabled () {
+	public synchronized void init_cleanup_disabled () {
 		delete_all_existing_cleanup_tasks ();
 
 		f_cleanup_enabled = false;
@@ -734,7 +737,7 @@ public class CleanupSupport extends ServerComponent {
 	// This should be run during idle time, not during a MongoDB transaction.
 	// Returns true if it did work, false if not.
 
-	public boolean run_cleanup_during_idle (boolean f_verbose) {
+	public synchronized boolean run_cleanup_during_idle (boolean f_verbose) {
 
 		//--- Activity check
 
@@ -482,7 +482,9 @@ public class ExGenerateForecast extends ServerExecTask {
 
 		//--- Forecast
 
-		// Fetch parameters (model and search parameters), and calculate results
+		// Fetch parameters (model and search parameters), and calculate results.
+		// The results of the previous forecast, if any, let the sequence specific model
+		// start from the sufficient statistics of the aftershocks it already used.
 
 		ForecastParameters forecast_params = new ForecastParameters();
 		ForecastResults forecast_results = new ForecastResults();
@@ -511,7 +513,8 @@ public class ExGenerateForecast extends ServerExecTask {
 				the_injectable_text,
 				fcmain,
 				forecast_params,
-				next_forecast_lag >= sg.task_disp.get_action_config().get_seq_spec_min_lag());
+				next_forecast_lag >= sg.task_disp.get_action_config().get_seq_spec_min_lag(),
+				tstatus.forecast_results);
 		}
 
 		// An exception here triggers a ComCat retry
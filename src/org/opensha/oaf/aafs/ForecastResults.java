@@ -2,6 +2,8 @@ package org.opensha.oaf.aafs;
 
 //import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import java.time.Instant;
 
@@ -11,6 +13,7 @@ import org.opensha.oaf.util.MarshalException;
 import org.opensha.oaf.util.MarshalImpArray;
 import org.opensha.oaf.util.MarshalImpJsonReader;
 import org.opensha.oaf.util.MarshalImpJsonWriter;
+import org.opensha.oaf.util.AutoExecutorService;
 import org.opensha.oaf.util.SphLatLon;
 import org.opensha.oaf.util.SphRegion;
 
@@ -23,6 +26,7 @@ import org.opensha.oaf.rj.RJ_AftershockModel;
 import org.opensha.oaf.rj.RJ_AftershockModel_Bayesian;
 import org.opensha.oaf.rj.RJ_AftershockModel_Generic;
 import org.opensha.oaf.rj.RJ_AftershockModel_SequenceSpecific;
+import org.opensha.oaf.rj.RJ_SeqSpecStats;
 import org.opensha.oaf.rj.RJ_Summary;
 import org.opensha.oaf.rj.RJ_Summary_Bayesian;
 import org.opensha.oaf.rj.RJ_Summary_Generic;
@@ -351,10 +355,10 @@ public class ForecastResults {
 
 		try {
 
-			// Build the generic model
+			// Build the generic model, using the cache because it is the same for each forecast of a timeline
 
 			ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
-			generic_model = new RJ_AftershockModel_Generic (mainshock.getMag(), params.generic_params);
+			generic_model = RJ_AftershockModel_Generic.get_cached (mainshock.getMag(), params.generic_params);
 
 			// Save the summary
 
@@ -422,7 +426,7 @@ public class ForecastResults {
 				// Build the generic model
 
 				ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
-				generic_model = new RJ_AftershockModel_Generic (mainshock.getMag(), params.generic_params);
+				generic_model = RJ_AftershockModel_Generic.get_cached (mainshock.getMag(), params.generic_params);
 
 			} catch (Exception e) {
 				throw new RuntimeException("ForecastResults.rebuild_generic_results: Exception building generic forecast", e);
@@ -456,6 +460,13 @@ public class ForecastResults {
 
 	public RJ_AftershockModel_SequenceSpecific seq_spec_model = null;
 
+	// Sufficient statistics of the aftershocks used for the sequence specific model.
+	// A later forecast for the same timeline can start from these, so it only needs to
+	// accumulate the aftershocks that arrived since this forecast.
+	// Can be null, if not available (for example, if unmarshaled from an older version).
+
+	public RJ_SeqSpecStats seq_spec_stats = null;
+
 	// set_default_seq_spec_results - Set sequence specific results to default values.
 
 	public void set_default_seq_spec_results () {
@@ -463,12 +474,33 @@ public class ForecastResults {
 		seq_spec_json = "";
 		seq_spec_pdl = false;
 		seq_spec_model = null;
+		seq_spec_stats = null;
 		return;
 	}
 
+	// get_prior_seq_spec_stats - Get sufficient statistics that a later forecast can start from.
+	// Returns null if none are available.
+
+	public RJ_SeqSpecStats get_prior_seq_spec_stats () {
+		if (seq_spec_result_avail) {
+			return seq_spec_stats;
+		}
+		return null;
+	}
+
 	// calc_seq_spec_results - Calculate sequence specific results.
 
 	public void calc_seq_spec_results (ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec) {
+		calc_seq_spec_results (fcmain, params, f_seq_spec, null);
+		return;
+	}
+
+	// calc_seq_spec_results - Calculate sequence specific results.
+	// If prior_stats is non-null, it contains sufficient statistics from an earlier forecast for
+	// the same timeline.  If they still apply, the model is built by accumulating only the newly
+	// arrived aftershocks.  If they do not apply, they are ignored.
+
+	public void calc_seq_spec_results (ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec, RJ_SeqSpecStats prior_stats) {
 
 		// We need to have catalog results, mainshock parameters, magnitude of completeness parameters, and sequence specific parameters
 
@@ -489,11 +521,12 @@ public class ForecastResults {
 
 			ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
 			seq_spec_model = new RJ_AftershockModel_SequenceSpecific (mainshock, catalog_aftershocks,
-				params.min_days, params.max_days, params.mag_comp_params, params.seq_spec_params);
+				params.min_days, params.max_days, params.mag_comp_params, params.seq_spec_params, prior_stats);
 
-			// Save the summary
+			// Save the summary and sufficient statistics
 
 			seq_spec_summary = new RJ_Summary_SequenceSpecific (seq_spec_model);
+			seq_spec_stats = seq_spec_model.get_seq_spec_stats();
 
 			// Build the forecast
 
@@ -557,9 +590,12 @@ public class ForecastResults {
 
 				// Build the sequence specific model
 
+				// The saved sufficient statistics, if any, cover the same aftershocks
+
 				ObsEqkRupture mainshock = fcmain.get_eqk_rupture();
 				seq_spec_model = new RJ_AftershockModel_SequenceSpecific (mainshock, catalog_aftershocks,
-					params.min_days, params.max_days, params.mag_comp_params, params.seq_spec_params);
+					params.min_days, params.max_days, params.mag_comp_params, params.seq_spec_params, seq_spec_stats);
+				seq_spec_stats = seq_spec_model.get_seq_spec_stats();
 
 			} catch (Exception e) {
 				throw new RuntimeException("ForecastResults.rebuild_seq_spec_results: Exception building sequence specific forecast", e);
@@ -712,6 +748,76 @@ public class ForecastResults {
 	}
 
 
+	//----- Generic and sequence specific results -----
+
+	// Flag, true to calculate the generic and sequence specific results concurrently.
+	// This can be set false to calculate them one after the other, for example when debugging.
+
+	public static volatile boolean concurrent_model_build = true;
+
+	// calc_generic_and_seq_spec_results - Calculate generic and sequence specific results.
+	// Once the catalog is available, the generic and sequence specific models are independent,
+	// and each sets only its own fields.  So the generic results are calculated on a separate
+	// thread while the sequence specific results are calculated on this thread.
+	// If both fail, the exception from the generic results is thrown, as it would be if they
+	// were calculated one after the other.
+
+	public void calc_generic_and_seq_spec_results (final ForecastMainshock fcmain, final ForecastParameters params, boolean f_seq_spec, RJ_SeqSpecStats prior_stats) {
+
+		// If there is no sequence specific model, or concurrency is disabled, calculate in sequence
+
+		if (!( f_seq_spec && concurrent_model_build )) {
+			calc_generic_results (fcmain, params);
+			calc_seq_spec_results (fcmain, params, f_seq_spec, prior_stats);
+			return;
+		}
+
+		try (
+			AutoExecutorService auto_executor = new AutoExecutorService (1, 30000L, AutoExecutorService.AESTO_NO_WAIT);
+		){
+
+			// Start the generic results
+
+			Future<?> generic_future = auto_executor.get_executor().submit (new Runnable() {
+				@Override
+				public void run () {
+					calc_generic_results (fcmain, params);
+				}
+			});
+
+			// Sequence specific results on this thread
+
+			RuntimeException seq_spec_exception = null;
+			try {
+				calc_seq_spec_results (fcmain, params, f_seq_spec, prior_stats);
+			} catch (RuntimeException e) {
+				seq_spec_exception = e;
+			}
+
+			// Wait for the generic results
+
+			try {
+				generic_future.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException) {
+					throw (RuntimeException)cause;
+				}
+				throw new RuntimeException ("ForecastResults.calc_generic_and_seq_spec_results: Exception building generic forecast", cause);
+			}
+
+			if (seq_spec_exception != null) {
+				throw seq_spec_exception;
+			}
+
+		} catch (InterruptedException e) {
+			throw new RuntimeException ("ForecastResults.calc_generic_and_seq_spec_results: Interrupted while building generic forecast", e);
+		}
+
+		return;
+	}
+
+
 	//----- Construction -----
 
 	// Default constructor.
@@ -722,12 +828,23 @@ public class ForecastResults {
 	// If f_seq_spec is false, then sequence specific results are not calculated.
 
 	public void calc_all (long the_result_time, long the_advisory_lag, String the_injectable_text, ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec) {
+		calc_all (the_result_time, the_advisory_lag, the_injectable_text, fcmain, params, f_seq_spec, null);
+		return;
+	}
+
+	// Calculate all results.
+	// If f_seq_spec is false, then sequence specific results are not calculated.
+	// If prior_results is non-null, it contains the results of an earlier forecast for the same
+	// timeline, whose sufficient statistics may be used to speed up the sequence specific model.
+
+	public void calc_all (long the_result_time, long the_advisory_lag, String the_injectable_text, ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec,
+		ForecastResults prior_results) {
+
 		result_time = the_result_time;
 		advisory_lag = the_advisory_lag;
 		injectable_text = ((the_injectable_text == null) ? "" : the_injectable_text);
 		calc_catalog_results (fcmain, params);
-		calc_generic_results (fcmain, params);
-		calc_seq_spec_results (fcmain, params, f_seq_spec);
+		calc_generic_and_seq_spec_results (fcmain, params, f_seq_spec, (prior_results == null) ? null : prior_results.get_prior_seq_spec_stats());
 		calc_bayesian_results (fcmain, params);
 		return;
 	}
@@ -743,8 +860,7 @@ public class ForecastResults {
 		advisory_lag = the_advisory_lag;
 		injectable_text = ((the_injectable_text == null) ? "" : the_injectable_text);
 		calc_catalog_results_from_known_as (fcmain, params, known_as);
-		calc_generic_results (fcmain, params);
-		calc_seq_spec_results (fcmain, params, f_seq_spec);
+		calc_generic_and_seq_spec_results (fcmain, params, f_seq_spec, null);
 		calc_bayesian_results (fcmain, params);
 		return;
 	}
@@ -851,6 +967,7 @@ public class ForecastResults {
 			result.append ("seq_spec_json = " + seq_spec_json + "\n");
 			result.append ("seq_spec_pdl = " + seq_spec_pdl + "\n");
 			result.append ("seq_spec_model = " + ((seq_spec_model == null) ? "null" : "available") + "\n");
+			result.append ("seq_spec_stats = " + ((seq_spec_stats == null) ? "null" : "available") + "\n");
 		}
 
 		result.append ("bayesian_result_avail = " + bayesian_result_avail + "\n");
@@ -872,6 +989,7 @@ public class ForecastResults {
 	// Marshal version number.
 
 	private static final int MARSHAL_VER_1 = 23001;
+	private static final int MARSHAL_VER_2 = 23002;
 
 	private static final String M_VERSION_NAME = "ForecastResults";
 
@@ -894,7 +1012,7 @@ public class ForecastResults {
 
 		// Version
 
-		writer.marshalInt (M_VERSION_NAME, MARSHAL_VER_1);
+		writer.marshalInt (M_VERSION_NAME, MARSHAL_VER_2);
 
 		// Contents
 
@@ -923,6 +1041,7 @@ public class ForecastResults {
 			seq_spec_summary.marshal (writer, "seq_spec_summary");
 			writer.marshalJsonString ("seq_spec_json", seq_spec_json);
 			writer.marshalBoolean    ("seq_spec_pdl" , seq_spec_pdl );
+			RJ_SeqSpecStats.marshal_poly (writer, "seq_spec_stats", seq_spec_stats);
 		}
 
 		writer.marshalBoolean ("bayesian_result_avail", bayesian_result_avail);
@@ -941,7 +1060,7 @@ public class ForecastResults {
 	
 		// Version
 
-		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_1);
+		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_2);
 
 		// Contents
 
@@ -978,6 +1097,10 @@ public class ForecastResults {
 			seq_spec_json    = reader.unmarshalJsonString ("seq_spec_json");
 			seq_spec_pdl     = reader.unmarshalBoolean    ("seq_spec_pdl" );
 			seq_spec_model   = null;
+			seq_spec_stats   = null;
+			if (ver >= MARSHAL_VER_2) {
+				seq_spec_stats = RJ_SeqSpecStats.unmarshal_poly (reader, "seq_spec_stats");
+			}
 		} else {
 			set_default_seq_spec_results();
 		}
@@ -40,6 +40,7 @@ import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Updates;
 import com.mongodb.client.model.InsertOneOptions;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.ReplaceOptions;
 import com.mongodb.client.model.DeleteOptions;
@@ -239,6 +240,19 @@ public interface MongoDBCollHandle {
 		return;
 	}
 
+	// Insert a list of documents into the collection, in a single operation.
+	// Parameters:
+	//  documents = Documents to insert.  If a document does not contain an id, then an id is created.
+	//  options = Options for the insert operation, or null if none, defaults to null.
+	// Note: The driver splits the list into as many messages as needed.
+
+	public void insertMany (List<Document> documents, InsertManyOptions options);
+
+	public default void insertMany (List<Document> documents) {
+		insertMany (documents, null);
+		return;
+	}
+
 	// Replace one document.
 	// Parameters:
 	//  filter = Filter to use for query (constructed by Filters), cannot be null.
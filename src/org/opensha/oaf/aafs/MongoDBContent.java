@@ -48,6 +48,7 @@ import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Updates;
 import com.mongodb.client.model.InsertOneOptions;
+import com.mongodb.client.model.InsertManyOptions;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.model.ReplaceOptions;
 import com.mongodb.client.model.DeleteOptions;
@@ -685,6 +686,38 @@ public class MongoDBContent implements AutoCloseable {
 			return;
 		}
 
+		// Insert a list of documents into the collection, in a single operation.
+		// Parameters:
+		//  documents = Documents to insert.  If a document does not contain an id, then an id is created.
+		//  options = Options for the insert operation, or null if none, defaults to null.
+		// Note: The driver splits the list into as many messages as needed.
+
+		@Override
+		public void insertMany (List<Document> documents, InsertManyOptions options) {
+			try {
+				ClientSession client_session = get_op_session_write();
+
+				if (client_session != null) {
+					if (options != null) {
+						mongo_collection.insertMany (client_session, documents, options);
+					} else {
+						mongo_collection.insertMany (client_session, documents);
+					}
+				} else {
+					if (options != null) {
+						mongo_collection.insertMany (documents, options);
+					} else {
+						mongo_collection.insertMany (documents);
+					}
+				}
+
+			}
+			catch (MongoException e) {
+				throw new DBDriverException (make_locus(e), "MongoDBCollHandle.insertMany: MongoDB exception: " + make_coll_id_message(), e);
+			}
+			return;
+		}
+
 		// Replace one document.
 		// Parameters:
 		//  filter = Filter to use for query (constructed by Filters), cannot be null.
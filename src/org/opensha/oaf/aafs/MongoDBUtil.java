@@ -17,6 +17,7 @@ import java.util.HashMap;
 import java.util.Date;
 
 import org.bson.types.ObjectId;
+import org.bson.types.Binary;
 import com.mongodb.client.MongoCollection;
 import org.bson.Document;
 import com.mongodb.client.model.Indexes;
@@ -788,6 +789,37 @@ public class MongoDBUtil implements AutoCloseable {
 	}
 
 
+	// Read an int from a document, or return a default value if the field does not exist.
+	// This is for fields that were added after some documents were written.
+	// An exception is thrown if the field exists but the Integer is null.
+
+	public static int doc_get_int_or_default (Document doc, String name, int def_value) {
+		if (!( doc.containsKey (name) )) {
+			return def_value;
+		}
+		return doc_get_int (doc, name);
+	}
+
+
+	// Read binary data from a document.
+	// An exception is thrown if the Binary is null.
+
+	public static byte[] doc_get_binary (Document doc, String name) {
+
+		Binary x;
+		try {
+			x = doc.get (name, Binary.class);
+		} catch (Exception e) {
+			throw new DBCorruptException ("MongoDB document read: Error converting field: " + name, e);
+		}
+		if (x == null) {
+			throw new DBCorruptException ("MongoDB document read: Null field: " + name);
+		}
+
+		return x.getData();
+	}
+
+
 	// Read a double from a document.
 	// An exception is thrown if the Double is null.
 
@@ -284,18 +284,26 @@ public class PDLSupport extends ServerComponent {
 
 	// Force primary/secondary mode (used for testing):
 	// 0 = normal operation, 1 = force primary mode, 2 = force secondary mode.
+	// Access is synchronized, since forecast tasks on worker threads check the mode.
 
 	private int force_primary;
 
 
 	// Set the force primary mode.
 
-	public void set_force_primary (int the_force_primary) {
+	public synchronized void set_force_primary (int the_force_primary) {
 		force_primary = the_force_primary;
 		return;
 	}
 
 
+	// Get the force primary mode.
+
+	private synchronized int get_force_primary () {
+		return force_primary;
+	}
+
+
 
 
 	// Return true if this machine is primary for sending reports to PDL, false if secondary
@@ -304,7 +312,7 @@ public class PDLSupport extends ServerComponent {
 
 		// Check if mode is forced
 
-		switch (force_primary) {
+		switch (get_force_primary()) {
 		case 1:
 			return true;
 		case 2:
@@ -342,7 +350,7 @@ public class PDLSupport extends ServerComponent {
 	public void setup (ServerGroup the_sg) {
 		super.setup (the_sg);
 
-		force_primary = 0;
+		set_force_primary (0);
 
 		return;
 	}
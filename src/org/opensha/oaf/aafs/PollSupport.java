@@ -37,6 +37,9 @@ public class PollSupport extends ServerComponent {
 
 
 	//----- Timing variables -----
+	//
+	// Functions that use these variables are synchronized, so polling can be controlled
+	// safely when the task dispatcher runs tasks on several worker threads.
 
 	// True to poll using the ExPollComcatRun task, false to poll during idle.
 
@@ -118,7 +121,7 @@ public class PollSupport extends ServerComponent {
 	// Also deletes the poll Comcat run task, if any.
 	// Note: This is to be called from the execution function of a polling task.
 
-	public void set_polling_disabled () {
+	public synchronized void set_polling_disabled () {
 
 		if (f_poll_using_task) {
 			delete_waiting_poll_run_tasks ();
@@ -138,7 +141,7 @@ public class PollSupport extends ServerComponent {
 	// Note: This is to be called from the execution function of a polling task.
 	// Note: If polling is already enabled, the cycle is reset.
 
-	public void set_polling_enabled () {
+	public synchronized void set_polling_enabled () {
 
 		if (f_poll_using_task) {
 			delete_waiting_poll_run_tasks ();
@@ -167,7 +170,7 @@ public class PollSupport extends ServerComponent {
 	// Note: This is to be called from the task dispatcher, not during execution of a task.
 	// This must be called before the first task is executed from the task queue.
 
-	public void init_polling_disabled () {
+	public synchronized void init_polling_disabled () {
 		delete_all_existing_polling_tasks ();
 
 		f_polling_enabled = false;
@@ -185,7 +188,7 @@ public class PollSupport extends ServerComponent {
 	// Issue the poll Comcat run task.
 	// The first poll happens no earlier than the given delay after the current time, in milliseconds.
 
-	public void kick_off_polling (long delay) {
+	public synchronized void kick_off_polling (long delay) {
 
 		OpPollComcatRun poll_run_payload = new OpPollComcatRun();
 		poll_run_payload.setup ();
@@ -211,7 +214,7 @@ public class PollSupport extends ServerComponent {
 	//  1 = Do short poll.
 	//  2 = Do long poll.
 
-	public int check_if_poll_time () {
+	public synchronized int check_if_poll_time () {
 
 		// If polling is enabled ...
 
@@ -265,7 +268,7 @@ public class PollSupport extends ServerComponent {
 	//  short_delay = Delay time consumed by delayed intake commands within range of a short poll, in milliseconds.
 	// Note: For a short poll, short_delay should equal total_delay.
 
-	public void update_last_poll_time (int which_poll, long total_delay, long short_delay) {
+	public synchronized void update_last_poll_time (int which_poll, long total_delay, long short_delay) {
 
 		// Jitter allowance is 60% of the short poll time
 		// (Jitter allowances here and in check_if_poll_time should sum to 100%)
@@ -324,7 +327,7 @@ public class PollSupport extends ServerComponent {
 	// Get the recommended execution time of the next poll Comcat run command.
 	// The returned value is always at least the current time.
 
-	public long get_next_poll_time () {
+	public synchronized long get_next_poll_time () {
 
 		// It's the time of the next short poll, but at least the current time
 
@@ -340,7 +343,7 @@ public class PollSupport extends ServerComponent {
 	// This should be run during idle time, not during a MongoDB transaction.
 	// Returns true if it did work, false if not.
 
-	public boolean run_poll_during_idle (boolean f_verbose) {
+	public synchronized boolean run_poll_during_idle (boolean f_verbose) {
 		boolean result = false;
 
 		if (f_poll_using_task) {
@@ -22,14 +22,26 @@ import org.bson.types.ObjectId;
  */
 public class RecordPayload implements MarshalWriter {
 
-	// The JSON string.
+	// The JSON string, or null if the payload is binary.
 
 	private String json_string;
 
+	// The binary data, or null if the payload is a JSON string.
+
+	private byte[] binary_data;
+
 	// Constructor saves the JSON string.
 
 	public RecordPayload (String json_string) {
 		this.json_string = json_string;
+		this.binary_data = null;
+	}
+
+	// Constructor saves the binary data.
+
+	public RecordPayload (byte[] binary_data) {
+		this.json_string = null;
+		this.binary_data = binary_data;
 	}
 
 	// Get the JSON string.
@@ -38,6 +50,18 @@ public class RecordPayload implements MarshalWriter {
 		return json_string;
 	}
 
+	// Get the binary data.
+
+	public byte[] get_binary_data () {
+		return binary_data;
+	}
+
+	// Return true if the payload is binary.
+
+	public boolean is_binary () {
+		return binary_data != null;
+	}
+
 
 
 
@@ -45,7 +69,7 @@ public class RecordPayload implements MarshalWriter {
 
 	@Override
 	public String toString() {
-		String str = "RecordPayload: " + ((json_string == null) ? ("null") : ("len = " + json_string.length()));
+		String str = "RecordPayload: " + ((binary_data != null) ? ("binary len = " + binary_data.length) : ((json_string == null) ? ("null") : ("len = " + json_string.length())));
 		return str;
 	}
 
@@ -2397,6 +2397,9 @@ public class RelayLink extends ServerComponent {
 
 
 	//=====[ Subsystem Interface ]=====
+	//
+	// The functions that touch the link state are synchronized.  The task dispatcher polls the
+	// link from its own thread, while tasks running on worker threads may check the primary state.
 
 
 
@@ -2457,7 +2460,7 @@ public class RelayLink extends ServerComponent {
 	// Note: Because this can be called within a MongoDB transaction, it cannot perform
 	// extensive actions.
 
-	public void set_server_relay_mode (RelayConfig the_relay_config) {
+	public synchronized void set_server_relay_mode (RelayConfig the_relay_config) {
 
 		// Get the current time
 
@@ -2495,7 +2498,7 @@ public class RelayLink extends ServerComponent {
 	// This may switch the timeline to primary or secondary state.
 	// Returns true if it did significant work, false if not.
 
-	public boolean poll_relay_link () {
+	public synchronized boolean poll_relay_link () {
 
 		// Clear the work flag
 
@@ -2535,7 +2538,7 @@ public class RelayLink extends ServerComponent {
 	// Note: This does not determine the initial primary or secondary state.
 	// You can use poll_until_primary_known to wait for primary state to be determined.
 
-	public void init_relay_link () {
+	public synchronized void init_relay_link () {
 
 		// Get the current time
 
@@ -2609,7 +2612,7 @@ public class RelayLink extends ServerComponent {
 
 	// Return true if primary state is being negotiated.
 
-	public boolean is_prist_initializing () {
+	public synchronized boolean is_prist_initializing () {
 		if (local_status != null && get_primary_state() == PRIST_INITIALIZING) {
 			return true;
 		}
@@ -2625,7 +2628,7 @@ public class RelayLink extends ServerComponent {
 	// After calling this, no relay link functions may be called (except the sentinel),
 	// unless a new initialization is performed.
 
-	public void shutdown_relay_link () {
+	public synchronized void shutdown_relay_link () {
 
 		// Get the current time
 
@@ -2658,7 +2661,7 @@ public class RelayLink extends ServerComponent {
 	// Note: Anything other than secondary state returns true,
 	// including the case where the relay link has not been initialized.
 
-	public boolean is_primary_state () {
+	public synchronized boolean is_primary_state () {
 		if (local_status == null || get_primary_state() != PRIST_SECONDARY) {
 			return true;
 		}
@@ -2672,7 +2675,7 @@ public class RelayLink extends ServerComponent {
 	// Also updates the fixed fields in the server status.
 	// Note: This may be called only before initialization.
 
-	public void init_db_status () {
+	public synchronized void init_db_status () {
 
 		// Get the current time
 
@@ -2698,7 +2701,7 @@ public class RelayLink extends ServerComponent {
 	// This never switches the timeline to primary or secondary state.
 	// Returns true if it did significant work, false if not.
 
-	public boolean poll_relay_link_no_prist () {
+	public synchronized boolean poll_relay_link_no_prist () {
 
 		// Clear the work flag
 
@@ -2734,7 +2737,7 @@ public class RelayLink extends ServerComponent {
 
 	// Get a one-line summary of local status.
 
-	public String get_local_status_summary () {
+	public synchronized String get_local_status_summary () {
 		if (local_status == null) {
 			return "No local status";
 		}
@@ -2746,7 +2749,7 @@ public class RelayLink extends ServerComponent {
 
 	// Get a one-line summary of remote status.
 
-	public String get_remote_status_summary () {
+	public synchronized String get_remote_status_summary () {
 		if (remote_status == null) {
 			return "No remote status";
 		}
@@ -229,6 +229,12 @@ public class ServerConfig {
 		return param_set.db_err_rate;
 	}
 
+	// Format of details in new timeline entries: DETFMT_JSON or DETFMT_BINARY (see DBEntity).
+
+	public int get_tline_details_format() {
+		return param_set.tline_details_format;
+	}
+
 	// PDL enable option.
 
 	public int get_pdl_enable() {
@@ -396,6 +402,7 @@ public class ServerConfig {
 			System.out.println("is_poll_intake_blocked = " + server_config.get_is_poll_intake_blocked());
 			System.out.println("is_fc_content_blocked = " + server_config.get_is_fc_content_blocked());
 			System.out.println("db_err_rate = " + server_config.get_db_err_rate());
+			System.out.println("tline_details_format = " + server_config.get_tline_details_format());
 
 			System.out.println("pdl_enable = " + server_config.get_pdl_enable());
 			System.out.println("pdl_key_filename = " + server_config.get_pdl_key_filename());
@@ -22,6 +22,8 @@ import org.opensha.oaf.rj.OAFParameterSet;
 
 import org.opensha.oaf.pdl.PDLSenderConfig;
 
+import org.opensha.oaf.aafs.entity.DBEntity;
+
 /**
  * Configuration file for AAFS server.
  * Author: Michael Barall 06/03/2018.
@@ -30,7 +32,7 @@ import org.opensha.oaf.pdl.PDLSenderConfig;
  *
  * JSON file format:
  *
- *	"ServerConfigFile" = Integer giving file version number, currently 34001.
+ *	"ServerConfigFile" = Integer giving file version number, currently 34002.
  *	"mongo_config" = { Structure giving MongoDB configuration, see MongoDBConfig.java.
  *   }
  *  "server_name" = String giving the name used to manage the server.
@@ -52,6 +54,8 @@ import org.opensha.oaf.pdl.PDLSenderConfig;
  *	"block_poll_intake" = Integer giving poll intake blocking option: 0 = don't block, 1 = block.
  *	"block_fc_content" = Integer giving forecast content blocking option: 0 = don't block, 1 = block.
  *  "db_err_rate" = Real number giving rate of simulated database errors.
+ *  "tline_details_format" = Integer giving format of details in new timeline entries: 1 = JSON, 2 = binary.
+ *      [Version 34002 and later.  For version 34001 the format is JSON.]
  *	"pdl_enable" = Integer giving PDL enable option: 0 = none, 1 = development, 2 = production, 3 =  simulated development, 4 = simulated production, 5 = down development, 6 = down production.
  *	"pdl_key_filename" = String giving PDL signing key filename, can be empty string for none.
  *  "pdl_err_rate" = Real number giving rate of simulated PDL errors.
@@ -159,6 +163,11 @@ public class ServerConfigFile {
 
 	public double db_err_rate;
 
+	// Format of details in new timeline entries: DETFMT_JSON or DETFMT_BINARY (see DBEntity).
+	// Binary is smaller and faster, but cannot be read by older versions of the software.
+
+	public int tline_details_format;
+
 	// PDL enable option.
 
 	public static final int PDLOPT_MIN = 0;
@@ -231,6 +240,7 @@ public class ServerConfigFile {
 		block_poll_intake = 0;
 		block_fc_content = 0;
 		db_err_rate = 0.0;
+		tline_details_format = DBEntity.DETFMT_JSON;
 		pdl_enable = PDLOPT_NONE;
 		pdl_key_filename = "";
 		pdl_err_rate = 0.0;
@@ -349,6 +359,10 @@ public class ServerConfigFile {
 			throw new InvariantViolationException ("ServerConfigFile: Invalid db_err_rate: " + db_err_rate);
 		}
 
+		if (!( tline_details_format >= DBEntity.DETFMT_MIN && tline_details_format <= DBEntity.DETFMT_MAX )) {
+			throw new InvariantViolationException ("ServerConfigFile: Invalid tline_details_format: " + tline_details_format);
+		}
+
 		if (!( pdl_enable >= PDLOPT_MIN && pdl_enable <= PDLOPT_MAX )) {
 			throw new InvariantViolationException ("ServerConfigFile: Invalid pdl_enable: " + pdl_enable);
 		}
@@ -437,6 +451,7 @@ public class ServerConfigFile {
 		result.append ("block_poll_intake = " + block_poll_intake + "\n");
 		result.append ("block_fc_content = " + block_fc_content + "\n");
 		result.append ("db_err_rate = " + db_err_rate + "\n");
+		result.append ("tline_details_format = " + tline_details_format + "\n");
 
 		result.append ("pdl_enable = " + pdl_enable + "\n");
 		result.append ("pdl_key_filename = " + ((pdl_key_filename == null) ? "<null>" : pdl_key_filename) + "\n");
@@ -589,6 +604,7 @@ public class ServerConfigFile {
 	// Marshal version number.
 
 	private static final int MARSHAL_VER_1 = 34001;
+	private static final int MARSHAL_VER_2 = 34002;
 
 	private static final String M_VERSION_NAME = "ServerConfigFile";
 
@@ -691,7 +707,9 @@ public class ServerConfigFile {
 
 		// Version
 
-		writer.marshalInt (M_VERSION_NAME, MARSHAL_VER_1);
+		int ver = MARSHAL_VER_2;
+
+		writer.marshalInt (M_VERSION_NAME, ver);
 
 		// Contents
 
@@ -716,6 +734,9 @@ public class ServerConfigFile {
 		writer.marshalInt       (        "block_poll_intake", block_poll_intake);
 		writer.marshalInt       (        "block_fc_content" , block_fc_content );
 		writer.marshalDouble    (        "db_err_rate"      , db_err_rate      );
+		if (ver >= MARSHAL_VER_2) {
+			writer.marshalInt   (        "tline_details_format", tline_details_format);
+		}
 		writer.marshalInt       (        "pdl_enable"       , pdl_enable       );
 		writer.marshalString    (        "pdl_key_filename" , pdl_key_filename );
 		writer.marshalDouble    (        "pdl_err_rate"     , pdl_err_rate     );
@@ -733,7 +754,7 @@ public class ServerConfigFile {
 	
 		// Version
 
-		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_1);
+		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_2);
 
 		// Contents
 
@@ -761,6 +782,11 @@ public class ServerConfigFile {
 		block_poll_intake = reader.unmarshalInt       (        "block_poll_intake");
 		block_fc_content  = reader.unmarshalInt       (        "block_fc_content" );
 		db_err_rate       = reader.unmarshalDouble    (        "db_err_rate"      );
+		if (ver >= MARSHAL_VER_2) {
+			tline_details_format = reader.unmarshalInt    (        "tline_details_format");
+		} else {
+			tline_details_format = DBEntity.DETFMT_JSON;
+		}
 		pdl_enable        = reader.unmarshalInt       (        "pdl_enable"       );
 		pdl_key_filename  = reader.unmarshalString    (        "pdl_key_filename" );
 		pdl_err_rate      = reader.unmarshalDouble    (        "pdl_err_rate"     );
@@ -32,6 +32,8 @@ import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
 import org.opensha.oaf.util.MarshalImpArray;
 import org.opensha.oaf.util.MarshalImpJsonReader;
 import org.opensha.oaf.util.MarshalImpJsonWriter;
+import org.opensha.oaf.util.MarshalImpBinaryReader;
+import org.opensha.oaf.util.MarshalImpBinaryWriter;
 import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
 
@@ -5702,6 +5704,151 @@ public class ServerTest {
 
 
 
+	// Test #92 - Benchmark JSON and binary details for timeline entries in the database.
+
+	public static void test92(String[] args) throws Exception {
+
+		// Four or more additional arguments
+
+		if (args.length < 5) {
+			System.err.println ("ServerTest : Invalid 'test92' or 'tline_details_bench' subcommand");
+			return;
+		}
+
+		int reps = Integer.parseInt(args[1]);
+		if (reps < 1) {
+			System.err.println ("ServerTest : Repetition count must be positive in 'test92' or 'tline_details_bench' subcommand");
+			return;
+		}
+		long action_time_lo = Long.parseLong(args[2]);
+		long action_time_hi = Long.parseLong(args[3]);
+		long div_rem = Long.parseLong(args[4]);
+		long[] action_time_div_rem = null;
+		if (div_rem > 0L) {
+			action_time_div_rem = new long[2];
+			action_time_div_rem[0] = div_rem / 1000L;
+			action_time_div_rem[1] = div_rem % 1000L;
+		}
+		String event_id = null;
+		if (args.length >= 6) {
+			if (!( args[5].equalsIgnoreCase("-") )) {
+				event_id = args[5];
+			}
+		}
+		String[] comcat_ids = null;
+		if (args.length >= 7) {
+			comcat_ids = Arrays.copyOfRange (args, 6, args.length);
+		}
+
+		// Totals
+
+		int num_entries = 0;
+		int num_skipped = 0;
+		int num_mismatch = 0;
+		long json_bytes = 0L;
+		long bin_bytes = 0L;
+		long json_write_nanos = 0L;
+		long json_read_nanos = 0L;
+		long bin_write_nanos = 0L;
+		long bin_read_nanos = 0L;
+
+		// Connect to MongoDB
+
+		try (
+			MongoDBUtil mongo_instance = new MongoDBUtil();
+		){
+			try (
+
+				// Get an iterator over matching timeline entries
+
+				RecordIterator<TimelineEntry> entries = TimelineEntry.fetch_timeline_entry_range (action_time_lo, action_time_hi, event_id, comcat_ids, action_time_div_rem);
+			){
+
+				for (TimelineEntry entry : entries) {
+
+					// Get the timeline status, skip entries that do not contain one
+
+					TimelineStatus tstatus = new TimelineStatus();
+					try {
+						tstatus.unmarshal_timeline (entry);
+					} catch (Exception e) {
+						++num_skipped;
+						continue;
+					}
+					++num_entries;
+
+					String json_string = null;
+					byte[] bin_data = null;
+
+					// JSON marshal and unmarshal
+
+					long start_nanos = System.nanoTime();
+					for (int rep = 0; rep < reps; ++rep) {
+						MarshalImpJsonWriter writer = new MarshalImpJsonWriter();
+						tstatus.marshal (writer, null);
+						json_string = writer.get_json_string();
+					}
+					json_write_nanos += (System.nanoTime() - start_nanos);
+
+					start_nanos = System.nanoTime();
+					for (int rep = 0; rep < reps; ++rep) {
+						TimelineStatus json_tstatus = new TimelineStatus();
+						json_tstatus.unmarshal (new MarshalImpJsonReader (json_string), null);
+					}
+					json_read_nanos += (System.nanoTime() - start_nanos);
+
+					// Binary marshal and unmarshal
+
+					start_nanos = System.nanoTime();
+					for (int rep = 0; rep < reps; ++rep) {
+						MarshalImpBinaryWriter writer = new MarshalImpBinaryWriter();
+						tstatus.marshal (writer, null);
+						bin_data = writer.get_byte_array();
+					}
+					bin_write_nanos += (System.nanoTime() - start_nanos);
+
+					TimelineStatus bin_tstatus = null;
+					start_nanos = System.nanoTime();
+					for (int rep = 0; rep < reps; ++rep) {
+						bin_tstatus = new TimelineStatus();
+						bin_tstatus.unmarshal (new MarshalImpBinaryReader (bin_data), null);
+					}
+					bin_read_nanos += (System.nanoTime() - start_nanos);
+
+					json_bytes += json_string.getBytes ("UTF-8").length;
+					bin_bytes += bin_data.length;
+
+					// Check round trip through binary, by comparing the JSON
+
+					MarshalImpJsonWriter check_writer = new MarshalImpJsonWriter();
+					bin_tstatus.marshal (check_writer, null);
+					if (!( check_writer.get_json_string().equals (json_string) )) {
+						++num_mismatch;
+						System.out.println ("Binary round-trip mismatch: action_time = " + entry.get_action_time() + ", event_id = " + entry.get_event_id());
+					}
+				}
+			}
+		}
+
+		// Display results
+
+		System.out.println ("entries = " + num_entries + ", skipped = " + num_skipped + ", mismatch = " + num_mismatch);
+		if (num_entries > 0) {
+			double ops = ((double)num_entries) * ((double)reps);
+			System.out.println ("json bytes = " + json_bytes + ", binary bytes = " + bin_bytes
+				+ ", ratio = " + String.format ("%.3f", ((double)bin_bytes) / ((double)json_bytes)));
+			System.out.println ("json write ms/entry = " + String.format ("%.3f", ((double)json_write_nanos) / (ops * 1.0e6))
+				+ ", binary write ms/entry = " + String.format ("%.3f", ((double)bin_write_nanos) / (ops * 1.0e6)));
+			System.out.println ("json read ms/entry = " + String.format ("%.3f", ((double)json_read_nanos) / (ops * 1.0e6))
+				+ ", binary read ms/entry = " + String.format ("%.3f", ((double)bin_read_nanos) / (ops * 1.0e6)));
+		}
+
+		return;
+	}
+
+
+
+
 	// Test dispatcher.
 	
 	public static void main(String[] args) {
@@ -7274,6 +7421,27 @@ public class ServerTest {
 			return;
 		}
 
+		// Subcommand : Test #92
+		// Command format:
+		//  test92  reps  action_time_lo  action_time_hi  action_time_div_rem  [event_id  [comcat_id...]]
+		// Benchmark JSON and binary details for timeline entries in the database.
+		// Select entries as in test22, and for each one that contains a timeline status,
+		// marshal and unmarshal the status reps times in each format.
+		// Then display the total sizes and times, and the number of entries that do not round-trip.
+		// Set action_time_lo and/or action_time_hi to 0 to omit the bound.
+		// Set action_time_div_rem to 0 to omit the modulus.  Set event_id to "-" to omit it.
+
+		if (args[0].equalsIgnoreCase ("test92") || args[0].equalsIgnoreCase ("tline_details_bench")) {
+
+			try {
+				test92(args);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
 		// Unrecognized subcommand.
 
 		System.err.println ("ServerTest : Unrecognized subcommand : " + args[0]);
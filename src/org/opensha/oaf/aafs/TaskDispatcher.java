@@ -1,7 +1,10 @@
 package org.opensha.oaf.aafs;
 
 import java.util.List;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
 
 import java.io.IOException;
 import java.io.PrintStream;
@@ -12,6 +15,7 @@ import org.opensha.oaf.aafs.entity.CatalogSnapshot;
 import org.opensha.oaf.aafs.entity.TimelineEntry;
 import org.opensha.oaf.aafs.entity.AliasFamily;
 
+import org.opensha.oaf.util.AutoExecutorService;
 import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
 import org.opensha.oaf.util.SimpleUtils;
@@ -28,6 +32,11 @@ import org.opensha.oaf.rj.CompactEqkRupList;
  *
  * This class pulls tasks off the pending task queue and executes them.
  * It can run within its own thread.
+ *
+ * Tasks can optionally execute on a pool of worker threads (see set_num_workers).
+ * In that case, tasks for different timelines may execute concurrently, but tasks for
+ * any one timeline still execute one at a time, in order of execution time.
+ * Tasks whose event ID is not a timeline ID execute one at a time, with no worker busy.
  */
 public class TaskDispatcher extends ServerComponent implements Runnable {
 
@@ -123,89 +132,138 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 	//----- Task context -----
 	//
-	// These variables are used by the task dispatcher to supply context for the currently-executing task.
+	// These variables are used by the task dispatcher to supply context for the currently-executing task,
+	// and by the currently-executing task to communicate results to the task dispatcher.
+	// They are held in a TaskContext object.  Each worker thread has its own TaskContext while it
+	// executes a task; all other threads share the dispatcher's TaskContext.
 
 
-	// Effective time at which the current task began to execute.
+	private static class TaskContext {
 
-	private long dispatcher_time = 0L;
+		// Effective time at which the current task began to execute.
 
-	// True time at which the current task began to execute.
+		public long dispatcher_time = 0L;
 
-	private long dispatcher_true_time = 0L;
+		// True time at which the current task began to execute.
 
-	// Action configuration parameters for the current task.
+		public long dispatcher_true_time = 0L;
 
-	private ActionConfig dispatcher_action_config = null;
+		// Action configuration parameters for the current task.
 
+		public ActionConfig dispatcher_action_config = null;
 
+		// Time to insert in log entry for current task.
+		// Defaults to dispatcher_time.
 
+		public long taskres_log_time = 0L;
 
-	// Get the effective time at which the current task began to execute.
+		// Remark to insert in log entry for current task.
+		// Defaults to "".
 
-	public long get_time () {
-		return dispatcher_time;
+		public String taskres_log_remark = "";
+
+		// Execution time to use when staging current task.
+
+		public long taskres_exec_time = 0L;
+
+		// Stage to use when staging current task.
+
+		public int taskres_stage = 0;
+
+		// Event ID to use when staging current task, or null to leave event ID unchanged.
+
+		public String taskres_event_id = null;
+
+		// Prefix for lines that the current task writes to the log, which identifies the worker thread.
+		// Empty if the current task is not executing on a worker thread.
+
+		public String log_prefix = "";
 	}
 
 
+	// The task context for the dispatcher thread, and any other thread that is not a worker thread.
 
+	private final TaskContext main_task_context = new TaskContext();
 
-	// Get the true time at which the current task began to execute.
+	// The task context for the current worker thread, or null if the current thread is not a worker thread.
 
-	public long get_true_time () {
-		return dispatcher_true_time;
+	private final ThreadLocal<TaskContext> worker_task_context =
+		new ThreadLocal<TaskContext>() {
+			@Override protected TaskContext initialValue () {
+				return null;
+			}
+		};
+
+
+	// Get the task context for the current thread.
+
+	private TaskContext get_task_context () {
+		TaskContext tc = worker_task_context.get();
+		if (tc == null) {
+			tc = main_task_context;
+		}
+		return tc;
 	}
 
 
 
 
-	// Get the action configuration parameters for the current task.
+	// Add the worker thread prefix to each line of a message written to the log.
 
-	public ActionConfig get_action_config () {
-		return dispatcher_action_config;
+	private String add_log_prefix (String msg) {
+		String prefix = get_task_context().log_prefix;
+		if (prefix.isEmpty()) {
+			return msg;
+		}
+		return prefix + msg.replace ("\n", "\n" + prefix);
 	}
 
 
 
 
-	// Refresh the task context variables.
+	// Get the effective time at which the current task began to execute.
 
-	private void refresh_task_context () {
-		dispatcher_time = ServerClock.get_time();
-		dispatcher_true_time = ServerClock.get_true_time();
-		dispatcher_action_config = new ActionConfig();
-		return;
+	public long get_time () {
+		return get_task_context().dispatcher_time;
 	}
 
 
 
 
-	//----- Task results -----
-	//
-	// These variables are used by the currently-executing task to communicate results to the task dispatcher.
+	// Get the true time at which the current task began to execute.
 
+	public long get_true_time () {
+		return get_task_context().dispatcher_true_time;
+	}
 
-	// Time to insert in log entry for current task.
-	// Defaults to dispatcher_time.
 
-	private long taskres_log_time = 0L;
 
-	// Remark to insert in log entry for current task.
-	// Defaults to "".
 
-	private String taskres_log_remark = "";
+	// Get the action configuration parameters for the current task.
 
-	// Execution time to use when staging current task.
+	public ActionConfig get_action_config () {
+		return get_task_context().dispatcher_action_config;
+	}
 
-	private long taskres_exec_time = 0L;
 
-	// Stage to use when staging current task.
 
-	private int taskres_stage = 0;
 
-	// Event ID to use when staging current task, or null to leave event ID unchanged.
+	// Refresh the task context variables.
 
-	private String taskres_event_id = null;
+	private void refresh_task_context () {
+		TaskContext tc = get_task_context();
+		tc.dispatcher_time = ServerClock.get_time();
+		tc.dispatcher_true_time = ServerClock.get_true_time();
+		tc.dispatcher_action_config = new ActionConfig();
+		return;
+	}
+
+
+
+
+	//----- Task results -----
+	//
+	// These functions are used by the currently-executing task to communicate results to the task dispatcher.
 
 
 
@@ -213,7 +271,8 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	// Set the remark to be used in a log entry, during task disposition.
 
 	public void set_taskres_log (String log_remark) {
-		taskres_log_remark = log_remark;
+		TaskContext tc = get_task_context();
+		tc.taskres_log_remark = log_remark;
 		return;
 	}
 
@@ -223,8 +282,9 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	// Set and display the remark to be used in a log entry, during task disposition.
 
 	public void set_display_taskres_log (String log_remark) {
-		taskres_log_remark = log_remark;
-		System.err.println (log_remark);
+		TaskContext tc = get_task_context();
+		tc.taskres_log_remark = log_remark;
+		System.err.println (add_log_prefix (log_remark));
 		return;
 	}
 
@@ -234,8 +294,9 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	// Set the time and remark to be used in a log entry, during task disposition.
 
 	public void set_taskres_log (long log_time, String log_remark) {
-		taskres_log_time = log_time;
-		taskres_log_remark = log_remark;
+		TaskContext tc = get_task_context();
+		tc.taskres_log_time = log_time;
+		tc.taskres_log_remark = log_remark;
 		return;
 	}
 
@@ -245,9 +306,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	// Set the execution time and stage to be used when staging a task, during task disposition.
 
 	public void set_taskres_stage (long exec_time, int stage) {
-		taskres_exec_time = exec_time;
-		taskres_stage = stage;
-		taskres_event_id = null;
+		TaskContext tc = get_task_context();
+		tc.taskres_exec_time = exec_time;
+		tc.taskres_stage = stage;
+		tc.taskres_event_id = null;
 		return;
 	}
 
@@ -257,9 +319,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	// Set the execution time and stage to be used when staging a task, during task disposition.
 
 	public void set_taskres_stage (long exec_time, int stage, String event_id) {
-		taskres_exec_time = exec_time;
-		taskres_stage = stage;
-		taskres_event_id = event_id;
+		TaskContext tc = get_task_context();
+		tc.taskres_exec_time = exec_time;
+		tc.taskres_stage = stage;
+		tc.taskres_event_id = event_id;
 		return;
 	}
 
@@ -269,7 +332,7 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	// Display informational message, during task execution.
 
 	public void display_taskinfo (String info) {
-		System.out.println (info);
+		System.out.println (add_log_prefix (info));
 		return;
 	}
 
@@ -308,6 +371,51 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 	private boolean dispatcher_verbose = true;
 
+	// The number of worker threads used to execute tasks.
+	// If 1, tasks execute on the dispatcher thread, one at a time.
+	// If more than 1, tasks execute on a pool of worker threads (see WorkerPool).
+
+	private int num_workers = 1;
+
+
+	// Get the number of worker threads.
+
+	public int get_num_workers () {
+		return num_workers;
+	}
+
+
+	// Set the number of worker threads.
+	// This must be called before the task dispatcher is run.
+
+	public void set_num_workers (int the_num_workers) {
+		if (the_num_workers < 1) {
+			throw new IllegalArgumentException ("TaskDispatcher.set_num_workers: Invalid number of worker threads: " + the_num_workers);
+		}
+		num_workers = the_num_workers;
+		return;
+	}
+
+
+	// Get the default number of worker threads.
+	// This is set by the command line parameter -Daafsworkers=
+	// where the value is an integer giving the number of worker threads.
+	// Omitting it, or giving an invalid value, means to use 1 (no worker threads).
+
+	private static int get_default_num_workers () {
+		String s = System.getProperty ("aafsworkers");
+		if (s != null) {
+			try {
+				int n = Integer.parseInt (s);
+				if (n >= 1) {
+					return n;
+				}
+			} catch (Exception e) {
+			}
+		}
+		return 1;
+	}
+
 
 
 
@@ -402,12 +510,14 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	// Returns true if work was done.
 
 	private boolean exec_idle_time () {
+		TaskContext tc = get_task_context();
+
 
 		// Redirect time split output streams
 
 		for (TimeSplitOutputStream tsop : tsop_list) {
 			try {
-				tsop.redirect (dispatcher_true_time);
+				tsop.redirect (tc.dispatcher_true_time);
 			} catch (IOException e) {
 			}
 		}
@@ -444,6 +554,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 		summary_log_tsop = null;
 		tsop_list = new LinkedHashSet<TimeSplitOutputStream>();
 
+		// Number of worker threads
+
+		num_workers = get_default_num_workers();
+
 		// Create and initialize the server group
 
 		setup (new ServerGroup());
@@ -491,6 +605,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 			PendingTask.submit_task (event_id, sched_time, submit_time,
 									submit_id, opcode, stage, details);
 
+			// Wake up any task dispatcher in this process
+
+			TaskWakeup.signal_local_post();
+
 			// Normal return
 
 			result = true;
@@ -566,6 +684,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 			PendingTask.submit_task (event_id, sched_time, submit_time,
 									submit_id, opcode, stage, details);
 
+			// Wake up any task dispatcher in this process
+
+			TaskWakeup.signal_local_post();
+
 			// Normal return
 
 			result = true;
@@ -620,6 +742,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	@Override
 	public void run() {
 
+		// Task context for this thread
+
+		TaskContext tc = get_task_context();
+
 		// State = first connection
 
 		dispatcher_state = STATE_FIRST_CONNECT;
@@ -639,6 +765,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 		int ddbopt = MongoDBUtil.DDBOPT_SAVE_SET;
 
+		// Details format for new timeline entries
+
+		TimelineEntry.set_new_details_format ((new ServerConfig()).get_tline_details_format());
+
 		// Restart loop, continue until shutdown or failure
 
 		for (;;) {
@@ -652,6 +782,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 			try (
 				RelayLink.LinkSentinel rl_sentinel = sg.relay_link.make_link_sentinel();
 				MongoDBUtil mongo_instance = new MongoDBUtil (conopt_outer, ddbopt, null);
+				TaskWakeup task_wakeup = new TaskWakeup();
+				AutoExecutorService worker_executor = ((num_workers > 1)
+					? new AutoExecutorService (num_workers, AutoExecutorService.AESTO_FOREVER, AutoExecutorService.AESTO_NO_WAIT)
+					: null);
 			){
 
 				// If first connection ...
@@ -715,6 +849,19 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 					sg.relay_link.poll_relay_link();
 				}
 
+				// Worker threads, or null if tasks execute on this thread
+				// (Closing the executor waits for any tasks still executing on worker threads)
+
+				WorkerPool workers = null;
+				if (worker_executor != null) {
+					workers = new WorkerPool (worker_executor.get_executor(), task_wakeup, conopt_outer, conopt_inner, ddbopt);
+				}
+
+				// Start watching for new tasks, so we can wake up promptly when one is posted
+				// (if change streams are not available, we fall back to polling)
+
+				task_wakeup.start_watch (null);
+
 				// Polling loop, continue until shutdown or exception
 
 				while (dispatcher_state != STATE_SHUTDOWN) {
@@ -741,18 +888,42 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 					// Record the dispatcher active time
 
-					active_time = dispatcher_true_time;
+					active_time = tc.dispatcher_true_time;
 
 					// Get the next task on the pending queue, that's ready to execute, and activate it
 
-					long cutoff_time = dispatcher_time;
+					long cutoff_time = tc.dispatcher_time;
 					boolean f_idle = true;
 					task = null;
 
-					// If doing transactions, do a prelimiary check without starting a transaction
+					// Clear the wakeup signal, so a task posted from now on ends the next wait
+
+					task_wakeup.clear_signal();
+
+					// If using worker threads, hand off ready tasks to the workers;
+					// a task that must execute exclusively is returned, to execute below on this thread
 
+					String exclusive_event_id = null;
 					boolean f_prelim = true;
-					if (dispatcher_transact) {
+
+					if (workers != null) {
+						exclusive_event_id = workers.dispatch_ready_tasks (cutoff_time);
+						if (exclusive_event_id == null) {
+							f_prelim = false;
+
+							// If any worker is busy, wait until a worker finishes its task or a task is posted
+
+							if (!( workers.is_idle() )) {
+								f_idle = false;
+								dispatcher_state = STATE_PROCESSING;
+								task_wakeup.wait_for_signal (polling_delay);
+							}
+						}
+					}
+
+					// If doing transactions, do a prelimiary check without starting a transaction
+
+					else if (dispatcher_transact) {
 						PendingTask prelim_task = PendingTask.get_first_ready_task (cutoff_time);
 						if (prelim_task == null) {
 							f_prelim = false;
@@ -768,7 +939,11 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 							// Activate the task
 
-							task = PendingTask.activate_first_ready_task (cutoff_time);
+							if (exclusive_event_id == null) {
+								task = PendingTask.activate_first_ready_task (cutoff_time);
+							} else {
+								task = PendingTask.activate_first_ready_task (cutoff_time, exclusive_event_id);
+							}
 
 							// If we got an active task ...
 
@@ -817,19 +992,27 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 						// Get polling delay, allowing for time consumed by idle time operations
 
-						long eff_polling_delay = dispatcher_true_time + polling_delay - ServerClock.get_true_time();
+						long eff_polling_delay = tc.dispatcher_true_time + polling_delay - ServerClock.get_true_time();
 						if (eff_polling_delay > polling_delay) {
 							eff_polling_delay = polling_delay;
 						}
 
-						// Wait for the polling delay
+						// If a waiting task comes due sooner, wait only until then
+						// (but at least the minimum polling delay)
 
-						if (eff_polling_delay >= polling_delay_min) {
-							try {
-								Thread.sleep(eff_polling_delay);
-							} catch (InterruptedException e) {
+						PendingTask next_task = PendingTask.get_first_task();
+						if (next_task != null) {
+							long next_task_delay = next_task.get_exec_time() - ServerClock.get_time();
+							if (eff_polling_delay > next_task_delay) {
+								eff_polling_delay = Math.max (next_task_delay, polling_delay_min);
 							}
 						}
+
+						// Wait for the polling delay, or until a task is posted
+
+						if (eff_polling_delay >= polling_delay_min) {
+							task_wakeup.wait_for_signal (eff_polling_delay);
+						}
 					}
 				}
 
@@ -910,6 +1093,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	 */
 	public boolean run_next_task (boolean f_verbose, boolean f_adjust_time) {
 
+		// Task context for this thread
+
+		TaskContext tc = get_task_context();
+
 		boolean result = true;
 
 		// Transaction flag and connect options
@@ -933,8 +1120,8 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 			// Get task time and configuration
 
-			dispatcher_true_time = ServerClock.get_true_time();
-			dispatcher_action_config = new ActionConfig();
+			tc.dispatcher_true_time = ServerClock.get_true_time();
+			tc.dispatcher_action_config = new ActionConfig();
 
 			// Get the next task on the pending queue, and activate it
 
@@ -976,7 +1163,7 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 						if (f_adjust_time) {
 							ServerClock.advance_frozen_time (task.get_apparent_time());
 						}
-						dispatcher_time = ServerClock.get_time();
+						tc.dispatcher_time = ServerClock.get_time();
 
 						// If verbose, write message
 
@@ -1055,6 +1242,8 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	//   then the task is deleted and the execution function is not called.
 
 	private void dispatch_task (PendingTask task) {
+		TaskContext tc = get_task_context();
+
 
 		// If restarting ...
 
@@ -1075,12 +1264,12 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 		// (Note that dispatcher_time, dispatcher_true_time, and dispatcher_action_config
 		// are established by our caller)
 
-		taskres_log_time = dispatcher_time;
-		taskres_log_remark = "";
+		tc.taskres_log_time = tc.dispatcher_time;
+		tc.taskres_log_remark = "";
 
-		taskres_exec_time = 0L;
-		taskres_stage = 0;
-		taskres_event_id = null;
+		tc.taskres_exec_time = 0L;
+		tc.taskres_stage = 0;
+		tc.taskres_event_id = null;
 
 		// Say hello
 
@@ -1088,16 +1277,16 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 			if (task.is_restarted()) {
 
-				System.out.println (LOG_SEPARATOR_LINE);
-				display_taskinfo ("TASK-RESTART: " + SimpleUtils.time_to_string (dispatcher_time) + "\n"
+				display_taskinfo (LOG_SEPARATOR_LINE);
+				display_taskinfo ("TASK-RESTART: " + SimpleUtils.time_to_string (tc.dispatcher_time) + "\n"
 					+ "opcode = " + get_opcode_as_string (task.get_opcode()) + "\n"
 					+ "event_id = " + task.get_event_id() + "\n"
 					+ "stage = " + task.get_stage());
 
 			} else {
 
-				System.out.println (LOG_SEPARATOR_LINE);
-				display_taskinfo ("TASK-BEGIN: " + SimpleUtils.time_to_string (dispatcher_time) + "\n"
+				display_taskinfo (LOG_SEPARATOR_LINE);
+				display_taskinfo ("TASK-BEGIN: " + SimpleUtils.time_to_string (tc.dispatcher_time) + "\n"
 					+ "opcode = " + get_opcode_as_string (task.get_opcode()) + "\n"
 					+ "event_id = " + task.get_event_id() + "\n"
 					+ "stage = " + task.get_stage());
@@ -1139,7 +1328,7 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 			// Log the task
 
-			LogEntry.submit_log_entry (task, taskres_log_time, rescode, taskres_log_remark);
+			LogEntry.submit_log_entry (task, tc.taskres_log_time, rescode, tc.taskres_log_remark);
 
 			// Remove the task from the queue
 
@@ -1185,15 +1374,15 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 				display_taskinfo ("TASK-STAGE:\n"
 					+ "opcode = " + get_opcode_as_string (task.get_opcode()) + "\n"
 					+ "rescode = " + get_rescode_as_string (rescode) + "\n"
-					+ "taskres_exec_time = " + SimpleUtils.time_to_string (taskres_exec_time) + "\n"
-					+ "taskres_stage = " + taskres_stage + "\n"
-					+ "taskres_event_id = " + ((taskres_event_id == null) ? "null" : taskres_event_id) );
+					+ "taskres_exec_time = " + SimpleUtils.time_to_string (tc.taskres_exec_time) + "\n"
+					+ "taskres_stage = " + tc.taskres_stage + "\n"
+					+ "taskres_event_id = " + ((tc.taskres_event_id == null) ? "null" : tc.taskres_event_id) );
 			}
-			sg.log_sup.report_task_stage (task, rescode, taskres_event_id, taskres_stage, taskres_exec_time);
+			sg.log_sup.report_task_stage (task, rescode, tc.taskres_event_id, tc.taskres_stage, tc.taskres_exec_time);
 
 			// Stage the task, so it will execute again
 
-			PendingTask.stage_task (task, taskres_exec_time, taskres_stage, taskres_event_id);
+			PendingTask.stage_task (task, tc.taskres_exec_time, tc.taskres_stage, tc.taskres_event_id);
 
 			break;
 		}
@@ -1204,6 +1393,263 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 
 
+	//----- Worker threads -----
+
+
+
+
+	// Return true if a task with the given event ID must execute exclusively.
+	// Tasks with no event ID, or with one of the special event IDs (shutdown, polling,
+	// cleanup, relay, and so on), act on state that belongs to the whole server.
+	// Tasks whose event ID is a Comcat or PDL event ID (such as intake tasks) resolve aliases
+	// and may create a timeline, and two such IDs can refer to the same earthquake.
+	// So, only tasks whose event ID is a timeline ID are partitioned among the workers.
+	// All others execute on the dispatcher thread, at a time when no worker thread is busy.
+
+	private boolean is_exclusive_event_id (String event_id) {
+		return event_id == null || event_id.isEmpty() || (!( sg.alias_sup.is_timeline_id (event_id) ));
+	}
+
+
+
+
+	// Pool of worker threads, used when num_workers > 1.
+	//
+	// The dispatcher thread finds the first ready task whose event ID is not in use by
+	// any busy worker, marks the event ID in use, and hands the event ID to a worker.
+	// The worker activates and executes the first ready task for that event ID, in its own
+	// MongoDB session (and transaction, if enabled).  So, tasks for different timelines can
+	// execute concurrently, while tasks for any one timeline still execute one at a time,
+	// in order of execution time.  Only timeline IDs are handed to workers (see
+	// is_exclusive_event_id).
+	//
+	// Each busy worker has a worker ID, from 1 to num_workers, which prefixes the lines
+	// its task writes to the log.
+	//
+	// When the first ready task must execute exclusively, no more tasks are handed out
+	// until all workers finish, so later tasks cannot overtake it.
+
+	private class WorkerPool {
+
+		// The executor that runs the worker threads.
+
+		private final ExecutorService executor;
+
+		// The dispatcher's wakeup signal, raised when a worker finishes its task.
+
+		private final TaskWakeup task_wakeup;
+
+		// Connection options for worker threads.
+
+		private final int conopt_outer;
+		private final int conopt_inner;
+		private final int ddbopt;
+
+		// Event IDs of tasks currently assigned to workers.
+		// Event IDs are added only by the dispatcher thread.
+
+		private final HashSet<String> active_event_ids;
+
+		// Flags indicating which worker IDs are in use, indexed by worker ID minus 1.
+
+		private final boolean[] active_worker_ids;
+
+		// The first exception thrown by a worker, or null if none.
+
+		private Throwable worker_failure;
+
+		// The task that was executing when worker_failure was thrown, or null if none.
+
+		private PendingTask worker_failure_task;
+
+		// The worker ID that threw worker_failure.
+
+		private int worker_failure_id;
+
+
+		// Constructor.
+
+		public WorkerPool (ExecutorService executor, TaskWakeup task_wakeup, int conopt_outer, int conopt_inner, int ddbopt) {
+			this.executor = executor;
+			this.task_wakeup = task_wakeup;
+			this.conopt_outer = conopt_outer;
+			this.conopt_inner = conopt_inner;
+			this.ddbopt = ddbopt;
+			this.active_event_ids = new HashSet<String>();
+			this.active_worker_ids = new boolean[num_workers];
+			this.worker_failure = null;
+			this.worker_failure_task = null;
+			this.worker_failure_id = 0;
+		}
+
+
+		// Return true if no worker is busy.
+
+		public synchronized boolean is_idle () {
+			return active_event_ids.isEmpty();
+		}
+
+
+		// Begin handing out tasks.
+		// Returns a list of event IDs currently in use.
+		// Throws an exception if a worker failed, so the dispatcher can restart.
+
+		private synchronized List<String> begin_dispatch () {
+			if (worker_failure != null) {
+				if (worker_failure_task != null) {
+					System.err.println ("Failing task: " + worker_failure_task.toString());
+				}
+				throw new RuntimeException ("TaskDispatcher.WorkerPool: Exception while executing task on worker thread: worker_id = " + worker_failure_id, worker_failure);
+			}
+			return new ArrayList<String> (active_event_ids);
+		}
+
+
+		// Mark an event ID as in use.
+		// Returns the worker ID assigned to the event.
+
+		private synchronized int begin_event (String event_id) {
+			for (int n = 0; n < active_worker_ids.length; ++n) {
+				if (!( active_worker_ids[n] )) {
+					active_worker_ids[n] = true;
+					active_event_ids.add (event_id);
+					return n + 1;
+				}
+			}
+			throw new IllegalStateException ("TaskDispatcher.WorkerPool.begin_event: No worker ID available: event_id = " + event_id);
+		}
+
+
+		// Mark an event ID and worker ID as no longer in use, and record any exception.
+
+		private synchronized void end_event (String event_id, int worker_id, Throwable e, PendingTask task) {
+			active_event_ids.remove (event_id);
+			active_worker_ids[worker_id - 1] = false;
+			if (e != null && worker_failure == null) {
+				worker_failure = e;
+				worker_failure_task = task;
+				worker_failure_id = worker_id;
+			}
+			return;
+		}
+
+
+		// Hand ready tasks to workers.
+		// Parameters:
+		//  cutoff_time = Cutoff time, only tasks with exec_time <= cutoff_time are ready.
+		// Tasks are handed out until all workers are busy, no ready task remains, or
+		// the first ready task must execute exclusively.
+		// Returns the event ID of a task that must execute exclusively, if it can execute
+		// now because no worker is busy.  Otherwise, returns null.
+		// Note: This must be called from the dispatcher thread.
+
+		public String dispatch_ready_tasks (long cutoff_time) {
+			List<String> excluded_event_ids = begin_dispatch();
+
+			while (excluded_event_ids.size() < num_workers) {
+
+				// Find the first ready task for an event that is not in use
+
+				PendingTask prelim_task = PendingTask.get_first_ready_task (cutoff_time, excluded_event_ids);
+				if (prelim_task == null) {
+					break;
+				}
+
+				// If it must execute exclusively, return it if all workers are idle
+
+				final String event_id = prelim_task.get_event_id();
+
+				if (is_exclusive_event_id (event_id)) {
+					if (is_idle()) {
+						return event_id;
+					}
+					break;
+				}
+
+				// Hand it to a worker
+
+				final long worker_cutoff_time = cutoff_time;
+
+				final int worker_id = begin_event (event_id);
+				try {
+					executor.execute (new Runnable() {
+						@Override
+						public void run () {
+							run_worker (event_id, worker_id, worker_cutoff_time);
+						}
+					});
+				} catch (Exception e) {
+					end_event (event_id, worker_id, null, null);
+					throw e;
+				}
+
+				excluded_event_ids.add (event_id);
+			}
+
+			return null;
+		}
+
+
+		// Execute the first ready task for the given event, on a worker thread.
+
+		private void run_worker (String event_id, int worker_id, long cutoff_time) {
+			PendingTask task = null;
+			Throwable failure = null;
+
+			TaskContext tc = new TaskContext();
+			tc.log_prefix = "[worker-" + worker_id + "] ";
+			worker_task_context.set (tc);
+
+			try (
+				MongoDBUtil mongo_instance = new MongoDBUtil (conopt_outer, ddbopt, null);
+			){
+
+				// Get task time and configuration for this worker
+
+				refresh_task_context();
+
+				// Start a transaction if enabled
+
+				try (
+					MongoDBUtil mongo_inner = new MongoDBUtil (conopt_inner, ddbopt, null);
+				){
+
+					// Activate the task, if it has not been deleted meanwhile
+
+					task = PendingTask.activate_first_ready_task (cutoff_time, event_id);
+
+					// Dispatch on opcode
+
+					if (task != null) {
+						dispatch_task (task);
+					}
+
+					// If doing transactions, commit
+
+					if (dispatcher_transact) {
+						mongo_inner.set_transact_commit (true);
+					}
+
+					// No active task
+
+					task = null;
+				}
+
+			} catch (Throwable e) {
+				failure = e;
+			} finally {
+				worker_task_context.remove();
+				end_event (event_id, worker_id, failure, task);
+				task_wakeup.signal();
+			}
+
+			return;
+		}
+	}
+
+
+
+
 	//----- Test functions -----
 
 
@@ -1214,22 +1660,24 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	// It can be used when testing routines that expect the task context to be available.
 
 	public void setup_task_context () {
+		TaskContext tc = get_task_context();
+
 
-		dispatcher_time = TestMode.get_test_time();
-		dispatcher_true_time = dispatcher_time;
-		if (dispatcher_time <= 0L) {
-			dispatcher_time = ServerClock.get_time();
-			dispatcher_true_time = ServerClock.get_true_time();
+		tc.dispatcher_time = TestMode.get_test_time();
+		tc.dispatcher_true_time = tc.dispatcher_time;
+		if (tc.dispatcher_time <= 0L) {
+			tc.dispatcher_time = ServerClock.get_time();
+			tc.dispatcher_true_time = ServerClock.get_true_time();
 		}
 
-		dispatcher_action_config = new ActionConfig();
+		tc.dispatcher_action_config = new ActionConfig();
 
-		taskres_log_time = dispatcher_time;
-		taskres_log_remark = "";
+		tc.taskres_log_time = tc.dispatcher_time;
+		tc.taskres_log_remark = "";
 
-		taskres_exec_time = 0L;
-		taskres_stage = 0;
-		taskres_event_id = null;
+		tc.taskres_exec_time = 0L;
+		tc.taskres_stage = 0;
+		tc.taskres_event_id = null;
 	
 		return;
 	}
@@ -1253,15 +1701,17 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 	// This is a test function.
 
 	public boolean test_exec_idle_time () {
+		TaskContext tc = get_task_context();
+
 
-		dispatcher_time = TestMode.get_test_time();
-		dispatcher_true_time = dispatcher_time;
-		if (dispatcher_time <= 0L) {
-			dispatcher_time = ServerClock.get_time();
-			dispatcher_true_time = ServerClock.get_true_time();
+		tc.dispatcher_time = TestMode.get_test_time();
+		tc.dispatcher_true_time = tc.dispatcher_time;
+		if (tc.dispatcher_time <= 0L) {
+			tc.dispatcher_time = ServerClock.get_time();
+			tc.dispatcher_true_time = ServerClock.get_true_time();
 		}
 
-		dispatcher_action_config = new ActionConfig();
+		tc.dispatcher_action_config = new ActionConfig();
 	
 		boolean did_work = exec_idle_time();
 
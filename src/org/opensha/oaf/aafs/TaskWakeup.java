@@ -0,0 +1,318 @@
+package org.opensha.oaf.aafs;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import org.opensha.oaf.aafs.entity.PendingTask;
+
+
+/**
+ * Wakeup signal for the task dispatcher.
+ *
+ * The task dispatcher waits on this object, instead of sleeping for the full polling
+ * delay, when it has nothing to do.  The signal is raised:
+ *  - When a task is posted from within this process (see signal_local_post).
+ *  - When a task finishes on a worker thread.
+ *  - By a watcher thread, which monitors a MongoDB change stream on the pending task
+ *    collection, when a task is inserted or re-scheduled by any process (including
+ *    a relay partner or an analyst tool).
+ *
+ * Change streams are only available on a replica set.  If the change stream cannot be
+ * opened, or fails later, the watcher thread exits and the dispatcher falls back to
+ * waiting for the polling delay, as before.
+ */
+public class TaskWakeup implements Runnable, AutoCloseable {
+
+	//----- Constants -----
+
+
+	// Watcher thread status values.
+
+	public static final int WASTAT_IDLE = 1;			// Watcher thread not started.
+	public static final int WASTAT_STARTING = 2;		// Watcher thread is opening the change stream.
+	public static final int WASTAT_RUNNING = 3;			// Watcher thread is monitoring the change stream.
+	public static final int WASTAT_UNAVAILABLE = 4;		// Change stream could not be opened, or failed.
+	public static final int WASTAT_SHUTDOWN = 5;		// Watcher thread shut down normally.
+
+
+	// Return a string describing a watcher thread status.
+
+	public static String get_wastat_as_string (int wastat) {
+		switch (wastat) {
+		case WASTAT_IDLE: return "WASTAT_IDLE";
+		case WASTAT_STARTING: return "WASTAT_STARTING";
+		case WASTAT_RUNNING: return "WASTAT_RUNNING";
+		case WASTAT_UNAVAILABLE: return "WASTAT_UNAVAILABLE";
+		case WASTAT_SHUTDOWN: return "WASTAT_SHUTDOWN";
+		}
+		return "WASTAT_INVALID(" + wastat + ")";
+	}
+
+
+	// The interval between checks of the change stream, when it is empty, in milliseconds.
+	// (Each check may itself wait on the server for a change to arrive.)
+
+	private static final long WATCH_POLL_INTERVAL = 50L;
+
+
+
+
+	//----- Signal -----
+
+
+	// True if the signal has been raised since it was last cleared.
+
+	private boolean f_signaled = false;
+
+
+	// Clear the signal.
+	// The dispatcher calls this before it checks the task queue, so that any task
+	// posted after the check will cause the next wait to return immediately.
+
+	public synchronized void clear_signal () {
+		f_signaled = false;
+		return;
+	}
+
+
+	// Raise the signal, waking up the dispatcher if it is waiting.
+
+	public synchronized void signal () {
+		f_signaled = true;
+		notifyAll();
+		return;
+	}
+
+
+	// Wait until the signal is raised, or the timeout expires.
+	// Parameters:
+	//  timeout = Maximum time to wait, in milliseconds.
+	// Returns true if the signal was raised.
+	// Returns immediately if the signal was raised since it was last cleared.
+
+	public synchronized boolean wait_for_signal (long timeout) {
+		if (!( f_signaled ) && timeout > 0L) {
+			long wait_end = System.currentTimeMillis() + timeout;
+			long wait_time = timeout;
+			while (!( f_signaled ) && wait_time > 0L) {
+				try {
+					wait (wait_time);
+				} catch (InterruptedException e) {
+				}
+				wait_time = wait_end - System.currentTimeMillis();
+			}
+		}
+		return f_signaled;
+	}
+
+
+
+
+	//----- Local posting -----
+
+
+	// List of wakeup objects in this process that are currently in use.
+
+	private static final List<TaskWakeup> active_wakeups = new ArrayList<TaskWakeup>();
+
+
+	// Raise the signal on all wakeup objects in this process.
+	// This is called when a task is posted from within this process, so that a
+	// dispatcher running in this process wakes up even without a change stream.
+	// Note: The task must be visible in the database (committed) before this is called.
+
+	public static void signal_local_post () {
+		List<TaskWakeup> wakeups;
+		synchronized (active_wakeups) {
+			wakeups = new ArrayList<TaskWakeup> (active_wakeups);
+		}
+		for (TaskWakeup wakeup : wakeups) {
+			wakeup.signal();
+		}
+		return;
+	}
+
+
+
+
+	//----- Watcher thread -----
+
+
+	// Database handle for the task collection, can be null or empty for the default database.
+
+	private String db_handle = null;
+
+	// The watcher thread, or null if not started.
+
+	private Thread watch_java_thread = null;
+
+	// Current watcher thread status.
+
+	private int watch_status = WASTAT_IDLE;
+
+	// True if the watcher thread has been asked to exit.
+
+	private boolean f_exit_req = false;
+
+
+	// Get the watcher thread status.
+
+	public synchronized int get_watch_status () {
+		return watch_status;
+	}
+
+
+	// Return true if the change stream is being monitored.
+
+	public synchronized boolean is_watching () {
+		return watch_status == WASTAT_RUNNING;
+	}
+
+
+	// Set the watcher thread status.
+
+	private synchronized void set_watch_status (int the_watch_status) {
+		watch_status = the_watch_status;
+		return;
+	}
+
+
+	// Return true if the watcher thread has been asked to exit.
+
+	private synchronized boolean is_exit_requested () {
+		return f_exit_req;
+	}
+
+
+	// Wait between checks of the change stream, returning early if asked to exit.
+
+	private synchronized void wait_during_watch (long timeout) {
+		if (!( f_exit_req )) {
+			try {
+				wait (timeout);
+			} catch (InterruptedException e) {
+			}
+		}
+		return;
+	}
+
+
+	// Start the watcher thread.
+	// Parameters:
+	//  the_db_handle = Database handle, can be null or empty to select the default database.
+	// This also registers this object to receive local posting signals.
+	// Note: This can be called at most once for each object.
+
+	public void start_watch (String the_db_handle) {
+		synchronized (this) {
+			if (watch_java_thread != null || watch_status != WASTAT_IDLE) {
+				throw new IllegalStateException ("TaskWakeup.start_watch: Watcher thread has already been started");
+			}
+			db_handle = the_db_handle;
+			watch_status = WASTAT_STARTING;
+			watch_java_thread = new Thread (this);
+		}
+
+		synchronized (active_wakeups) {
+			active_wakeups.add (this);
+		}
+
+		watch_java_thread.setDaemon (true);
+		watch_java_thread.start();
+		return;
+	}
+
+
+	// Run the watcher thread.
+
+	@Override
+	public void run () {
+
+		// Connect to MongoDB, this thread has its own connection
+
+		try (
+			MongoDBUtil mongo_instance = new MongoDBUtil (MongoDBUtil.CONOPT_CONNECT, MongoDBUtil.DDBOPT_SAVE_SET, db_handle);
+		){
+
+			// Set up a change stream iterator
+
+			try (
+				RecordIterator<PendingTask> csit = PendingTask.watch_task_changes();
+			){
+				set_watch_status (WASTAT_RUNNING);
+
+				// Anything that happened before the change stream opened may have been missed
+
+				signal();
+
+				// Loop until exit requested, or exception
+
+				while (!( is_exit_requested() )) {
+
+					// If a task was posted or re-scheduled, drain the change stream and wake the dispatcher
+
+					if (csit.hasNext()) {
+						while (csit.hasNext()) {
+							csit.next();
+						}
+						signal();
+					}
+
+					// Otherwise, delay until next check
+
+					else {
+						wait_during_watch (WATCH_POLL_INTERVAL);
+					}
+				}
+			}
+		}
+
+		// Exception means change streams are not available, so the dispatcher falls back to polling
+
+		catch (Exception e) {
+			set_watch_status (WASTAT_UNAVAILABLE);
+			return;
+		}
+
+		catch (Throwable e) {
+			set_watch_status (WASTAT_UNAVAILABLE);
+			return;
+		}
+
+		// Normal termination
+
+		set_watch_status (WASTAT_SHUTDOWN);
+		return;
+	}
+
+
+	// Stop the watcher thread, and wait for it to die.
+	// Performs no operation if the thread was never started, or is already stopped.
+
+	@Override
+	public void close () {
+		Thread the_thread;
+		synchronized (this) {
+			the_thread = watch_java_thread;
+			watch_java_thread = null;
+			f_exit_req = true;
+			notifyAll();
+		}
+
+		synchronized (active_wakeups) {
+			active_wakeups.remove (this);
+		}
+
+		if (the_thread != null) {
+			while (the_thread.isAlive()) {
+				try {
+					the_thread.join();
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+
+		return;
+	}
+
+}
@@ -849,6 +849,34 @@ public class AliasFamily extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * store_alias_family_list - Store a list of alias families into the database, in a single operation.
+	 * This is primarily for restoring from backup.
+	 * All elements of the list must be AliasFamily objects.
+	 */
+	static void store_alias_family_list (List<DBEntity> entities) {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Convert to documents
+
+		List<Document> docs = new ArrayList<Document>();
+		for (DBEntity entity : entities) {
+			docs.add (((AliasFamily)entity).to_bson_doc());
+		}
+
+		// Call MongoDB to store into database
+
+		coll_handle.insertMany (docs);
+		
+		return;
+	}
+
+
+
+
 	/**
 	 * get_alias_family_for_key - Get the alias family with the given key.
 	 * @param key = Record key. Cannot be null or empty.
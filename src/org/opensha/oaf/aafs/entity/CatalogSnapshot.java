@@ -612,6 +612,34 @@ public class CatalogSnapshot extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * store_catalog_snapshot_list - Store a list of catalog snapshots into the database, in a single operation.
+	 * This is primarily for restoring from backup.
+	 * All elements of the list must be CatalogSnapshot objects.
+	 */
+	static void store_catalog_snapshot_list (List<DBEntity> entities) {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Convert to documents
+
+		List<Document> docs = new ArrayList<Document>();
+		for (DBEntity entity : entities) {
+			docs.add (((CatalogSnapshot)entity).to_bson_doc());
+		}
+
+		// Call MongoDB to store into database
+
+		coll_handle.insertMany (docs);
+		
+		return;
+	}
+
+
+
+
 	/**
 	 * get_catalog_shapshot_for_key - Get the catalog snapshot with the given key.
 	 * @param key = Record key. Cannot be null or empty.
@@ -3,6 +3,14 @@ package org.opensha.oaf.aafs.entity;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.bson.types.ObjectId;
 
@@ -19,6 +27,7 @@ import org.opensha.oaf.util.MarshalImpJsonWriter;
 import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
 import org.opensha.oaf.util.MarshalException;
+import org.opensha.oaf.util.AutoExecutorService;
 
 import org.opensha.oaf.rj.CompactEqkRupList;
 
@@ -71,6 +80,35 @@ public abstract class DBEntity implements java.io.Serializable {
 
 
 
+	//----- Details formats -----
+
+
+
+
+	// Formats for the details (payload) of an entity.
+	// Each entity records the format of its own details, so entities written in
+	// different formats can coexist in the same collection.
+	// Documents written before the format was recorded contain JSON details.
+
+	public static final int DETFMT_MIN = 1;
+	public static final int DETFMT_JSON = 1;		// JSON string, produced by MarshalImpJsonWriter.
+	public static final int DETFMT_BINARY = 2;		// BSON binary, produced by MarshalImpBinaryWriter.
+	public static final int DETFMT_MAX = 2;
+
+
+	// Return a string describing a details format.
+
+	public static String get_detfmt_as_string (int detfmt) {
+		switch (detfmt) {
+		case DETFMT_JSON: return "DETFMT_JSON";
+		case DETFMT_BINARY: return "DETFMT_BINARY";
+		}
+		return "DETFMT_INVALID(" + detfmt + ")";
+	}
+
+
+
+
 	//----- Utilities -----
 
 
@@ -316,158 +354,474 @@ public abstract class DBEntity implements java.io.Serializable {
 
 
 
-	// Back up all collections.
-	// Parameters:
-	//  writer = Destination for backup, must be able to accept multiple top-level objects.
-	//  f_verbose = True to write progress messages.
-	// Note: In case of error, throws an exception.
+	//----- Backup and restore -----
 
-	public static void backup_database (MarshalWriter writer, boolean f_verbose) {
 
-		// Feedback counters
 
-		long rec_count = 0L;			// number of records so far
-		long dot_count = 0L;			// number of dots so far
 
-		long rec_freq = 128L;			// frequency at which records produce a dot_count
-		long dot_freq = 128L;			// frequency at which dots product a doubling of the record frequency
+	// Number of records passed between threads at one time, during backup.
 
-		// Backup the collections
+	private static final int BACKUP_BATCH_SIZE = 64;
 
-		//  if (f_verbose) {
-		//  	System.out.print ("Backing up database...");
-		//  }
+	// Maximum number of records stored with a single insert operation, during restore.
 
-		try {
+	private static final int RESTORE_BATCH_SIZE = 256;
 
-			// Backup pending tasks
+	// Maximum number of batches waiting to be passed between threads.
+	// This bounds the memory used during backup and restore.
 
-			try (
-				RecordIterator<PendingTask> tasks = PendingTask.fetch_task_entry_range (0L, 0L, null, PendingTask.UNSORTED);
-			){
-				for (PendingTask task : tasks) {
-					DBEntity.marshal_poly (writer, null, task);
-					if (f_verbose) {
-						if (rec_count % rec_freq == 0L) {
-							System.out.print ((rec_count == 0L) ? "Backing up database..." : ".");
-							++dot_count;
-							if (dot_count % dot_freq == 0L) {
-								rec_freq = rec_freq * 2L;
-							}
-						}
-						++rec_count;
+	private static final int PIPE_CAPACITY = 8;
+
+	// Interval at which a thread waiting on the pipe checks for failure on the other side, in milliseconds.
+
+	private static final long PIPE_POLL_INTERVAL = 100L;
+
+	// Interval between progress reports, in milliseconds.
+
+	private static final long PROGRESS_INTERVAL = 10000L;
+
+
+
+
+	// A batch of records, all of the same type, passed between threads.
+	// An empty batch marks the end of the records from one thread.
+
+	private static class EntityBatch {
+
+		// Marshal type code of the records.
+
+		public int type;
+
+		// The records.
+
+		public List<DBEntity> entities;
+
+		// Make an empty batch.
+
+		public EntityBatch (int type) {
+			this.type = type;
+			this.entities = new ArrayList<DBEntity>();
+		}
+
+		// Return true if this marks the end of the records.
+
+		public boolean is_end () {
+			return entities.isEmpty();
+		}
+	}
+
+
+
+
+	// A bounded queue for passing batches between threads.
+	// A thread that is waiting on the pipe periodically checks if the pipe has been aborted,
+	// or if any worker thread has failed, so that a failure on one side of the pipe cannot
+	// leave the other side waiting forever.
+
+	private static class EntityPipe {
+
+		// The queue.
+
+		private final ArrayBlockingQueue<EntityBatch> queue = new ArrayBlockingQueue<EntityBatch> (PIPE_CAPACITY);
+
+		// The worker threads.
+
+		private final List<Future<?>> workers = new ArrayList<Future<?>>();
+
+		// Flag, true if the pipe has been aborted.
+
+		private volatile boolean f_abort = false;
+
+		// Add a worker thread.
+
+		public synchronized void add_worker (Future<?> worker) {
+			workers.add (worker);
+			return;
+		}
+
+		// Abort the pipe, causing any thread that is waiting on the pipe to throw an exception.
+
+		public void abort () {
+			f_abort = true;
+			return;
+		}
+
+		// Throw an exception if the pipe has been aborted, or if a worker thread has failed.
+		// If a worker thread failed, its exception is re-thrown (wrapped if it is checked).
+
+		private void check_failure () {
+			if (f_abort) {
+				throw new CancellationException ("DBEntity.EntityPipe: Operation aborted");
+			}
+			List<Future<?>> my_workers;
+			synchronized (this) {
+				my_workers = new ArrayList<Future<?>> (workers);
+			}
+			for (Future<?> worker : my_workers) {
+				if (worker.isDone()) {
+					get_result (worker);
+				}
+			}
+			return;
+		}
+
+		// Put a batch into the pipe, waiting if the pipe is full.
+
+		public void put (EntityBatch batch) {
+			for (;;) {
+				try {
+					if (queue.offer (batch, PIPE_POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+						return;
 					}
+				} catch (InterruptedException e) {
 				}
+				check_failure();
 			}
+		}
 
-			// Backup log entries
+		// Take a batch from the pipe, waiting if the pipe is empty.
 
-			try (
-				RecordIterator<LogEntry> entries = LogEntry.fetch_log_entry_range (0L, 0L, null, LogEntry.UNSORTED);
-			){
-				for (LogEntry entry : entries) {
-					DBEntity.marshal_poly (writer, null, entry);
-					if (f_verbose) {
-						if (rec_count % rec_freq == 0L) {
-							System.out.print ((rec_count == 0L) ? "Backing up database..." : ".");
-							++dot_count;
-							if (dot_count % dot_freq == 0L) {
-								rec_freq = rec_freq * 2L;
-							}
-						}
-						++rec_count;
+		public EntityBatch take () {
+			for (;;) {
+				try {
+					EntityBatch batch = queue.poll (PIPE_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+					if (batch != null) {
+						return batch;
 					}
+				} catch (InterruptedException e) {
 				}
+				check_failure();
 			}
+		}
 
-			// Backup catalog snapshots
+		// Wait for a worker thread to finish, and return its result.
+		// If the worker thread failed, its exception is re-thrown (wrapped if it is checked).
 
-			try (
-				RecordIterator<CatalogSnapshot> entries = CatalogSnapshot.fetch_catalog_snapshot_range (0L, 0L, null, CatalogSnapshot.UNSORTED);
-			){
-				for (CatalogSnapshot entry : entries) {
-					DBEntity.marshal_poly (writer, null, entry);
-					if (f_verbose) {
-						if (rec_count % rec_freq == 0L) {
-							System.out.print ((rec_count == 0L) ? "Backing up database..." : ".");
-							++dot_count;
-							if (dot_count % dot_freq == 0L) {
-								rec_freq = rec_freq * 2L;
-							}
-						}
-						++rec_count;
+		public static <T> T get_result (Future<T> worker) {
+			for (;;) {
+				try {
+					return worker.get();
+				} catch (InterruptedException e) {
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException)cause;
 					}
+					if (cause instanceof Error) {
+						throw (Error)cause;
+					}
+					throw new RuntimeException ("DBEntity.EntityPipe: Exception in worker thread", cause);
+				}
+			}
+		}
+	}
+
+
+
+
+	// Progress report for backup and restore.
+	// Progress is written periodically, with the number of records and the throughput.
+
+	private static class ProgressMeter {
+
+		// Label for progress reports, such as "Backed up".
+
+		private String label;
+
+		// Flag, true to write progress reports.
+
+		private boolean f_verbose;
+
+		// Start time, and time of the next progress report, in milliseconds since the epoch.
+
+		private long start_time;
+		private long next_report_time;
+
+		// Number of records so far.
+
+		private long rec_count;
+
+		// Constructor starts the clock.
+
+		public ProgressMeter (String label, boolean f_verbose) {
+			this.label = label;
+			this.f_verbose = f_verbose;
+			this.start_time = System.currentTimeMillis();
+			this.next_report_time = start_time + PROGRESS_INTERVAL;
+			this.rec_count = 0L;
+		}
+
+		// Add to the number of records, and write a progress report if it is time.
+
+		public void add_records (long n) {
+			rec_count += n;
+			if (f_verbose) {
+				long time_now = System.currentTimeMillis();
+				if (time_now >= next_report_time) {
+					System.out.println (label + " " + rec_count + " records, " + get_rate_string (rec_count, time_now));
+					next_report_time = time_now + PROGRESS_INTERVAL;
 				}
 			}
+			return;
+		}
+
+		// Get the number of records so far.
+
+		public long get_rec_count () {
+			return rec_count;
+		}
+
+		// Get a string describing the elapsed time and throughput, for the given number of records.
+
+		public String get_rate_string (long count, long time_now) {
+			double secs = ((double)(Math.max (1L, time_now - start_time))) / 1000.0;
+			return String.format ("%.1f seconds, %.0f records/sec", secs, ((double)count) / secs);
+		}
+
+		public String get_rate_string (long count) {
+			return get_rate_string (count, System.currentTimeMillis());
+		}
+	}
+
+
+
+
+	// Thread that fetches the records in one collection, for backup.
+	// Each fetcher has its own database connection, so all collections are read concurrently.
 
-			// Backup timeline entries
+	private static abstract class BackupFetcher implements Callable<Long> {
+
+		// The pipe that receives the records.
+
+		private EntityPipe pipe;
+
+		// Open an iterator over the collection.
+
+		protected abstract RecordIterator<? extends DBEntity> open_iterator ();
+
+		// Constructor saves the pipe.
+
+		public BackupFetcher (EntityPipe pipe) {
+			this.pipe = pipe;
+		}
+
+		// Fetch the records and send them to the pipe, followed by an end marker.
+		// Returns the number of records.
+
+		@Override
+		public Long call () {
+			long count = 0L;
 
 			try (
-				RecordIterator<TimelineEntry> entries = TimelineEntry.fetch_timeline_entry_range (0L, 0L, null, null, null, TimelineEntry.UNSORTED);
+				MongoDBUtil mongo_instance = new MongoDBUtil (MongoDBUtil.CONOPT_CONNECT, MongoDBUtil.DDBOPT_SAVE_SET, null);
+				RecordIterator<? extends DBEntity> records = open_iterator();
 			){
-				for (TimelineEntry entry : entries) {
-					DBEntity.marshal_poly (writer, null, entry);
-					if (f_verbose) {
-						if (rec_count % rec_freq == 0L) {
-							System.out.print ((rec_count == 0L) ? "Backing up database..." : ".");
-							++dot_count;
-							if (dot_count % dot_freq == 0L) {
-								rec_freq = rec_freq * 2L;
-							}
-						}
-						++rec_count;
+				EntityBatch batch = new EntityBatch (MARSHAL_NULL);
+				for (DBEntity record : records) {
+					batch.entities.add (record);
+					if (batch.entities.size() >= BACKUP_BATCH_SIZE) {
+						count += batch.entities.size();
+						pipe.put (batch);
+						batch = new EntityBatch (MARSHAL_NULL);
 					}
 				}
+				if (!( batch.is_end() )) {
+					count += batch.entities.size();
+					pipe.put (batch);
+				}
 			}
 
-			// Backup alias families
+			pipe.put (new EntityBatch (MARSHAL_NULL));
+			return count;
+		}
+	}
+
+
+
+
+	// Thread that stores records into the database, for restore.
+	// Each batch is stored with a single insert operation, while the caller reads the next records.
+
+	private static class RestoreWriter implements Callable<Long> {
+
+		// The pipe that supplies the records.
+
+		private EntityPipe pipe;
+
+		// Constructor saves the pipe.
+
+		public RestoreWriter (EntityPipe pipe) {
+			this.pipe = pipe;
+		}
+
+		// Store batches until the end marker is received.
+		// Returns the number of records.
+
+		@Override
+		public Long call () {
+			long count = 0L;
 
 			try (
-				RecordIterator<AliasFamily> entries = AliasFamily.fetch_alias_family_range (0L, 0L, null, null, null, AliasFamily.UNSORTED);
+				MongoDBUtil mongo_instance = new MongoDBUtil (MongoDBUtil.CONOPT_CONNECT, MongoDBUtil.DDBOPT_SAVE_SET, null);
 			){
-				for (AliasFamily entry : entries) {
-					DBEntity.marshal_poly (writer, null, entry);
-					if (f_verbose) {
-						if (rec_count % rec_freq == 0L) {
-							System.out.print ((rec_count == 0L) ? "Backing up database..." : ".");
-							++dot_count;
-							if (dot_count % dot_freq == 0L) {
-								rec_freq = rec_freq * 2L;
-							}
-						}
-						++rec_count;
+				for (;;) {
+					EntityBatch batch = pipe.take();
+					if (batch.is_end()) {
+						break;
 					}
+					store_entity_list (batch.type, batch.entities);
+					count += batch.entities.size();
 				}
 			}
 
-			// Backup relay items
+			return count;
+		}
+	}
+
+
+
+
+	// Store a list of records, all of the given type, into the database in a single operation.
+
+	private static void store_entity_list (int type, List<DBEntity> entities) {
+		switch (type) {
+
+		default:
+			throw new MarshalException ("DBEntity.store_entity_list: Unknown class type code: type = " + type);
+
+		case MARSHAL_PENDING_TASK:
+			PendingTask.store_task_list (entities);
+			break;
+
+		case MARSHAL_LOG_ENTRY:
+			LogEntry.store_log_entry_list (entities);
+			break;
+
+		case MARSHAL_CATALOG_SNAPSHOT:
+			CatalogSnapshot.store_catalog_snapshot_list (entities);
+			break;
+
+		case MARSHAL_TIMELINE_ENTRY:
+			TimelineEntry.store_timeline_entry_list (entities);
+			break;
+
+		case MARSHAL_ALIAS_FAMILY:
+			AliasFamily.store_alias_family_list (entities);
+			break;
+
+		case MARSHAL_RELAY_ITEM:
+			RelayItem.store_relay_item_list (entities);
+			break;
+		}
+		return;
+	}
+
+
+
+
+	// Back up all collections.
+	// Parameters:
+	//  writer = Destination for backup, must be able to accept multiple top-level objects.
+	//  f_verbose = True to write progress messages.
+	// Note: In case of error, throws an exception.
+	// Note: The collections are read concurrently, each on its own thread, so records
+	// from different collections are interleaved in the backup.  Within each collection,
+	// records appear in the order they are read.
+
+	public static void backup_database (MarshalWriter writer, boolean f_verbose) {
+
+		// Progress reporting, and the pipe that carries records from the fetchers
+
+		ProgressMeter progress = new ProgressMeter ("Backed up", f_verbose);
+		EntityPipe pipe = new EntityPipe();
+
+		// Backup the collections
+
+		if (f_verbose) {
+			System.out.println ("Backing up database...");
+		}
+
+		try {
+
+			// Make a fetcher for each collection
+
+			List<BackupFetcher> fetchers = new ArrayList<BackupFetcher>();
+
+			fetchers.add (new BackupFetcher (pipe) {
+				@Override
+				protected RecordIterator<? extends DBEntity> open_iterator () {
+					return PendingTask.fetch_task_entry_range (0L, 0L, null, PendingTask.UNSORTED);
+				}
+			});
+
+			fetchers.add (new BackupFetcher (pipe) {
+				@Override
+				protected RecordIterator<? extends DBEntity> open_iterator () {
+					return LogEntry.fetch_log_entry_range (0L, 0L, null, LogEntry.UNSORTED);
+				}
+			});
+
+			fetchers.add (new BackupFetcher (pipe) {
+				@Override
+				protected RecordIterator<? extends DBEntity> open_iterator () {
+					return CatalogSnapshot.fetch_catalog_snapshot_range (0L, 0L, null, CatalogSnapshot.UNSORTED);
+				}
+			});
+
+			fetchers.add (new BackupFetcher (pipe) {
+				@Override
+				protected RecordIterator<? extends DBEntity> open_iterator () {
+					return TimelineEntry.fetch_timeline_entry_range (0L, 0L, null, null, null, TimelineEntry.UNSORTED);
+				}
+			});
+
+			fetchers.add (new BackupFetcher (pipe) {
+				@Override
+				protected RecordIterator<? extends DBEntity> open_iterator () {
+					return AliasFamily.fetch_alias_family_range (0L, 0L, null, null, null, AliasFamily.UNSORTED);
+				}
+			});
+
+			fetchers.add (new BackupFetcher (pipe) {
+				@Override
+				protected RecordIterator<? extends DBEntity> open_iterator () {
+					return RelayItem.fetch_relay_item_range (RelayItem.UNSORTED, 0L, 0L);
+				}
+			});
+
+			// Run the fetchers, and write records as they arrive until all fetchers are done
 
 			try (
-				RecordIterator<RelayItem> items = RelayItem.fetch_relay_item_range (RelayItem.UNSORTED, 0L, 0L);
+				AutoExecutorService executor = new AutoExecutorService (fetchers.size(), AutoExecutorService.AESTO_FOREVER, AutoExecutorService.AESTO_FOREVER);
 			){
-				for (RelayItem relit : items) {
-					DBEntity.marshal_poly (writer, null, relit);
-					if (f_verbose) {
-						if (rec_count % rec_freq == 0L) {
-							System.out.print ((rec_count == 0L) ? "Backing up database..." : ".");
-							++dot_count;
-							if (dot_count % dot_freq == 0L) {
-								rec_freq = rec_freq * 2L;
+				try {
+					for (BackupFetcher fetcher : fetchers) {
+						pipe.add_worker (executor.get_executor().submit (fetcher));
+					}
+
+					int active_fetchers = fetchers.size();
+					while (active_fetchers > 0) {
+						EntityBatch batch = pipe.take();
+						if (batch.is_end()) {
+							--active_fetchers;
+						} else {
+							for (DBEntity record : batch.entities) {
+								DBEntity.marshal_poly (writer, null, record);
 							}
+							progress.add_records (batch.entities.size());
 						}
-						++rec_count;
 					}
 				}
-			}
 
-			// End-of-file indicator
+				// Make sure all fetchers stop (no effect if they are already done)
 
-			if (f_verbose) {
-				if (rec_count == 0L) {
-					System.out.print ("Backing up database...");
+				finally {
+					pipe.abort();
 				}
 			}
 
+			// End-of-file indicator
+
 			DBEntity.marshal_poly (writer, null, null);
 
 		}
@@ -476,7 +830,6 @@ public abstract class DBEntity implements java.io.Serializable {
 
 		catch (DBCorruptException e) {
 			if (f_verbose) {
-				System.out.println();
 				System.out.println ("Backup FAILED due to exception");
 			}
 			throw new DBCorruptException ("Backup FAILED due to exception", e);
@@ -484,7 +837,6 @@ public abstract class DBEntity implements java.io.Serializable {
 
 		catch (DBException e) {
 			if (f_verbose) {
-				System.out.println();
 				System.out.println ("Backup FAILED due to exception");
 			}
 			throw new DBException ("Backup FAILED due to exception", e);
@@ -492,7 +844,6 @@ public abstract class DBEntity implements java.io.Serializable {
 
 		catch (MarshalException e) {
 			if (f_verbose) {
-				System.out.println();
 				System.out.println ("Backup FAILED due to exception");
 			}
 			throw new MarshalException ("Backup FAILED due to exception", e);
@@ -500,7 +851,6 @@ public abstract class DBEntity implements java.io.Serializable {
 
 		catch (Exception e) {
 			if (f_verbose) {
-				System.out.println();
 				System.out.println ("Backup FAILED due to exception");
 			}
 			throw new RuntimeException ("Backup FAILED due to exception", e);
@@ -509,8 +859,7 @@ public abstract class DBEntity implements java.io.Serializable {
 		// Done
 
 		if (f_verbose) {
-			System.out.println();
-			System.out.println ("Backup successfully saved " + rec_count + " records");
+			System.out.println ("Backup successfully saved " + progress.get_rec_count() + " records, " + progress.get_rate_string (progress.get_rec_count()));
 		}
 	
 		return;
@@ -524,23 +873,20 @@ public abstract class DBEntity implements java.io.Serializable {
 	//  reader = Source for restore, must be able to supply multiple top-level objects.
 	//  f_verbose = True to write progress messages.
 	// Note: In case of error, throws an exception.
+	// Note: Records are grouped into batches by collection, and each batch is stored with
+	// a single insert operation on a separate thread, while this thread reads the next records.
 
 	public static void restore_database (MarshalReader reader, boolean f_verbose) {
 
-		// Feedback counters
+		// Progress reporting, and the pipe that carries records to the writer
 
-		long rec_count = 0L;			// number of records so far
-		long dot_count = 0L;			// number of dots so far
+		ProgressMeter progress = new ProgressMeter ("Restored", f_verbose);
+		EntityPipe pipe = new EntityPipe();
 
-		long rec_freq = 128L;			// frequency at which records produce a dot_count
-		long dot_freq = 128L;			// frequency at which dots product a doubling of the record frequency
+		long saved_count = 0L;
 
 		// Restore the collections
 
-		//  if (f_verbose) {
-		//  	System.out.print ("Restoring database...");
-		//  }
-
 		try {
 
 			// Abort if any collection already exists
@@ -554,24 +900,58 @@ public abstract class DBEntity implements java.io.Serializable {
 
 			make_all_indexes (false);
 
-			// Restore all records until end-of-file marker
+			if (f_verbose) {
+				System.out.println ("Restoring database...");
+			}
 
-			for (;;) {
-				DBEntity record = unmarshal_poly (reader, null);
-				if (record == null) {
-					break;
-				}
-				record.store_entity();
-
-				if (f_verbose) {
-					if (rec_count % rec_freq == 0L) {
-						System.out.print ((rec_count == 0L) ? "Restoring database..." : ".");
-						++dot_count;
-						if (dot_count % dot_freq == 0L) {
-							rec_freq = rec_freq * 2L;
+			// Run the writer, and read all records until end-of-file marker
+
+			try (
+				AutoExecutorService executor = new AutoExecutorService (1, AutoExecutorService.AESTO_FOREVER, AutoExecutorService.AESTO_FOREVER);
+			){
+				try {
+					Future<Long> writer_future = executor.get_executor().submit (new RestoreWriter (pipe));
+					pipe.add_worker (writer_future);
+
+					// Partial batches, indexed by type code
+
+					LinkedHashMap<Integer, EntityBatch> batches = new LinkedHashMap<Integer, EntityBatch>();
+
+					for (;;) {
+						DBEntity record = unmarshal_poly (reader, null);
+						if (record == null) {
+							break;
 						}
+
+						int type = record.get_marshal_type();
+						EntityBatch batch = batches.get (type);
+						if (batch == null) {
+							batch = new EntityBatch (type);
+							batches.put (type, batch);
+						}
+						batch.entities.add (record);
+						if (batch.entities.size() >= RESTORE_BATCH_SIZE) {
+							batches.remove (type);
+							pipe.put (batch);
+						}
+
+						progress.add_records (1L);
 					}
-					++rec_count;
+
+					// Send the partial batches and the end marker, then wait for the writer
+
+					for (EntityBatch batch : batches.values()) {
+						pipe.put (batch);
+					}
+					pipe.put (new EntityBatch (MARSHAL_NULL));
+
+					saved_count = EntityPipe.get_result (writer_future);
+				}
+
+				// Make sure the writer stops (no effect if it is already done)
+
+				finally {
+					pipe.abort();
 				}
 			}
 
@@ -581,7 +961,6 @@ public abstract class DBEntity implements java.io.Serializable {
 
 		catch (DBCorruptException e) {
 			if (f_verbose) {
-				System.out.println();
 				System.out.println ("Restore FAILED due to exception");
 			}
 			throw new DBCorruptException ("Restore FAILED due to exception", e);
@@ -589,7 +968,6 @@ public abstract class DBEntity implements java.io.Serializable {
 
 		catch (DBException e) {
 			if (f_verbose) {
-				System.out.println();
 				System.out.println ("Restore FAILED due to exception");
 			}
 			throw new DBException ("Restore FAILED due to exception", e);
@@ -597,7 +975,6 @@ public abstract class DBEntity implements java.io.Serializable {
 
 		catch (MarshalException e) {
 			if (f_verbose) {
-				System.out.println();
 				System.out.println ("Restore FAILED due to exception");
 			}
 			throw new MarshalException ("Restore FAILED due to exception", e);
@@ -605,7 +982,6 @@ public abstract class DBEntity implements java.io.Serializable {
 
 		catch (Exception e) {
 			if (f_verbose) {
-				System.out.println();
 				System.out.println ("Restore FAILED due to exception");
 			}
 			throw new RuntimeException ("Restore FAILED due to exception", e);
@@ -614,8 +990,7 @@ public abstract class DBEntity implements java.io.Serializable {
 		// Done
 
 		if (f_verbose) {
-			System.out.println();
-			System.out.println ("Restore successfully saved " + rec_count + " records");
+			System.out.println ("Restore successfully saved " + saved_count + " records, " + progress.get_rate_string (saved_count));
 		}
 	
 		return;
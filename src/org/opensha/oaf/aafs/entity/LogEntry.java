@@ -247,6 +247,9 @@ public class LogEntry extends DBEntity implements java.io.Serializable {
 
 		if (writer instanceof RecordPayload) {
 			RecordPayload p = (RecordPayload)writer;
+			if (p.is_binary()) {
+				throw new IllegalArgumentException("LogEntry.set_details: Binary payload is not supported");
+			}
 			details = p.get_json_string();
 			return;
 		}
@@ -855,6 +858,34 @@ public class LogEntry extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * store_log_entry_list - Store a list of log entries into the database, in a single operation.
+	 * This is primarily for restoring from backup.
+	 * All elements of the list must be LogEntry objects.
+	 */
+	static void store_log_entry_list (List<DBEntity> entities) {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Convert to documents
+
+		List<Document> docs = new ArrayList<Document>();
+		for (DBEntity entity : entities) {
+			docs.add (((LogEntry)entity).to_bson_doc());
+		}
+
+		// Call MongoDB to store into database
+
+		coll_handle.insertMany (docs);
+		
+		return;
+	}
+
+
+
+
 	/**
 	 * get_log_entry_for_key - Get the log entry with the given key.
 	 * @param key = Record key. Cannot be null or empty.
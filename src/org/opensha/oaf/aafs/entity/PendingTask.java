@@ -18,6 +18,7 @@ import org.opensha.oaf.util.MarshalException;
 
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Comparator;
 
 import com.mongodb.client.MongoCollection;
@@ -34,9 +35,12 @@ import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Updates;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
 
 import org.opensha.oaf.aafs.DBCorruptException;
 import org.opensha.oaf.aafs.RecordIteratorMongo;
+import org.opensha.oaf.aafs.RecordChangeIteratorMongo;
 import org.opensha.oaf.aafs.MongoDBCollRet;
 import org.opensha.oaf.aafs.MongoDBCollHandle;
 
@@ -221,6 +225,9 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 
 		if (writer instanceof RecordPayload) {
 			RecordPayload p = (RecordPayload)writer;
+			if (p.is_binary()) {
+				throw new IllegalArgumentException("PendingTask.set_details: Binary payload is not supported");
+			}
 			details = p.get_json_string();
 			return;
 		}
@@ -632,6 +639,27 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 
 
 
+	// Our change stream iterator class.
+
+	private static class MyChangeStreamIterator extends RecordChangeIteratorMongo<PendingTask> {
+
+		// Constructor passes thru the cursor.
+
+		public MyChangeStreamIterator (MongoCursor<ChangeStreamDocument<Document>> mongo_cursor, MongoDBCollHandle coll_handle) {
+			super (mongo_cursor, coll_handle);
+		}
+
+		// Hook routine to convert a Document to a T.
+
+		@Override
+		protected PendingTask hook_convert (Document doc, OperationType optype) {
+			return (new PendingTask()).from_bson_doc (doc);
+		}
+	}
+
+
+
+
 	//  // Make the natural sort for this collection.
 	//  // The natural sort is in increasing order of execution time.
 	//  
@@ -737,6 +765,43 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 
 
 
+	// Make a cutoff filter for this collection, restricted by event id.
+	// cutoff_time = Cutoff time, in milliseconds since the epoch.
+	// event_id = Event id. Can be null to select all events.
+	// excluded_event_ids = Event ids to exclude. Can be null or empty to exclude none.
+	// The filter selects tasks with exec_time <= cutoff_time, with the given event id (if any),
+	// and with an event id not in the list of excluded event ids.
+
+	private static Bson cutoff_filter (long cutoff_time, String event_id, Collection<String> excluded_event_ids) {
+		ArrayList<Bson> filters = new ArrayList<Bson>();
+
+		// Select entries with exec_time <= cutoff_time
+
+		filters.add (Filters.lte ("exec_time", new Long(cutoff_time)));
+
+		// Select by event_id
+
+		if (event_id != null) {
+			filters.add (Filters.eq ("event_id", event_id));
+		}
+
+		// Exclude event_ids
+
+		if (excluded_event_ids != null && !( excluded_event_ids.isEmpty() )) {
+			filters.add (Filters.nin ("event_id", excluded_event_ids));
+		}
+
+		// Return combination of filters
+
+		if (filters.size() == 1) {
+			return filters.get(0);
+		}
+		return Filters.and (filters);
+	}
+
+
+
+
 	/**
 	 * submit_task - Submit a task.
 	 * @param event_id = Event associated with this task, or "" if none. Cannot be null.
@@ -905,6 +970,34 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * store_task_list - Store a list of pending tasks into the database, in a single operation.
+	 * This is primarily for restoring from backup.
+	 * All elements of the list must be PendingTask objects.
+	 */
+	static void store_task_list (List<DBEntity> entities) {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Convert to documents
+
+		List<Document> docs = new ArrayList<Document>();
+		for (DBEntity entity : entities) {
+			docs.add (((PendingTask)entity).to_bson_doc());
+		}
+
+		// Call MongoDB to store into database
+
+		coll_handle.insertMany (docs);
+		
+		return;
+	}
+
+
+
+
 	/**
 	 * get_all_tasks_unsorted - Get a list of all pending tasks, without sorting.
 	 * This is primarily for testing and monitoring.
@@ -1119,7 +1212,8 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 	 * get_first_task - Get the first task, that is, the task with smallest execution time.
 	 * This is primarily for testing and monitoring.
 	 *
-	 * Current usage: Test only.
+	 * Current usage: Production.
+	 * The task dispatcher uses this to limit its idle wait to the time when the next task is due.
 	 */
 	public static PendingTask get_first_task () {
 
@@ -1174,6 +1268,39 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * get_first_ready_task - Get the first ready task, according to execution time, skipping some events.
+	 * @param cutoff_time = Cutoff time, in milliseconds since the epoch.
+	 * @param excluded_event_ids = Event ids to skip, can be null or empty to skip none.
+	 * Only tasks with exec_time <= cutoff_time, and whose event id is not in excluded_event_ids, are considered.
+	 * Return is null if there are no such tasks.
+	 *
+	 * Current usage: Production.
+	 * This is used by the concurrent task dispatcher to find a task for an event that is not
+	 * currently executing on another worker thread.
+	 */
+	public static PendingTask get_first_ready_task (long cutoff_time, Collection<String> excluded_event_ids) {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Get the document
+
+		Document doc = coll_handle.find_first (cutoff_filter (cutoff_time, null, excluded_event_ids), natural_sort (DEFAULT_SORT));
+
+		// Convert to task
+
+		if (doc == null) {
+			return null;
+		}
+
+		return (new PendingTask()).from_bson_doc (doc);
+	}
+
+
+
+
 	/**
 	 * activate_first_ready_task - Get and activate the first ready task, according to execution time.
 	 * @param cutoff_time = Cutoff time, in milliseconds since the epoch.
@@ -1218,6 +1345,58 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * activate_first_ready_task - Get and activate the first ready task for an event, according to execution time.
+	 * @param cutoff_time = Cutoff time, in milliseconds since the epoch.
+	 * @param event_id = Event id. Cannot be null.
+	 * Only tasks with exec_time <= cutoff_time, and with the given event id, are considered.
+	 * Return is null if there are no such tasks.
+	 * The task is marked active by setting exec_time = 0 in the database.
+	 *
+	 * Current usage: Production.
+	 * This is used by the concurrent task dispatcher, which ensures that only one thread
+	 * at a time activates and executes tasks for any given event id.
+	 */
+	public static PendingTask activate_first_ready_task (long cutoff_time, String event_id) {
+
+		// Check conditions
+
+		if (!( event_id != null )) {
+			throw new IllegalArgumentException("PendingTask.activate_first_ready_task: Invalid task parameters");
+		}
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter: exec_time <= cutoff_time and event_id == event_id
+
+		Bson filter = cutoff_filter (cutoff_time, event_id, null);
+
+		// Update: Set exec_time to 0L
+
+		Bson update = Updates.set ("exec_time", new Long(0L));
+
+		// Options: sort by exec_time, return original document value
+
+		FindOneAndUpdateOptions options = (new FindOneAndUpdateOptions()).sort(natural_sort(DEFAULT_SORT)).returnDocument(ReturnDocument.BEFORE);
+
+		// Get the document
+
+		Document doc = coll_handle.findOneAndUpdate (filter, update, options);
+
+		// Convert to task
+
+		if (doc == null) {
+			return null;
+		}
+
+		return (new PendingTask()).from_bson_doc (doc);
+	}
+
+
+
+
 	/**
 	 * stage_task - Begin a new stage of a task.
 	 * @param ptask = Existing pending task to stage.
@@ -1300,6 +1479,35 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * watch_task_changes - Iterate changes in the task collection.
+	 * Each task that is inserted, or updated to a non-zero execution time, is returned.
+	 * (Activating a task, which sets its execution time to zero, and deleting a task,
+	 * are not returned.)
+	 * Note: This requires a MongoDB server that supports change streams (a replica set).
+	 *
+	 * Current usage: Production.
+	 * This is used to wake up the task dispatcher when a task is posted or re-scheduled.
+	 */
+	public static RecordIterator<PendingTask> watch_task_changes () {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter to watch exec_time > 0L, in the fullDocument subdocument of the change stream document
+
+		Bson filter = Filters.gt ("fullDocument.exec_time", new Long(0L));
+
+		// Get the cursor and iterator
+
+		MongoCursor<ChangeStreamDocument<Document>> cursor = coll_handle.watch (filter);
+		return new MyChangeStreamIterator (cursor, coll_handle);
+	}
+
+
+
+
 	//----- Marshaling -----
 
 	// Marshal version number.
@@ -176,6 +176,9 @@ public class RelayItem extends DBEntity implements java.io.Serializable {
 
 		if (writer instanceof RecordPayload) {
 			RecordPayload p = (RecordPayload)writer;
+			if (p.is_binary()) {
+				throw new IllegalArgumentException("RelayItem.set_details: Binary payload is not supported");
+			}
 			details = p.get_json_string();
 			return;
 		}
@@ -892,6 +895,34 @@ public class RelayItem extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * store_relay_item_list - Store a list of relay items into the database, in a single operation.
+	 * This is primarily for restoring from backup.
+	 * All elements of the list must be RelayItem objects.
+	 */
+	static void store_relay_item_list (List<DBEntity> entities) {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Convert to documents
+
+		List<Document> docs = new ArrayList<Document>();
+		for (DBEntity entity : entities) {
+			docs.add (((RelayItem)entity).to_bson_doc());
+		}
+
+		// Call MongoDB to store into database
+
+		coll_handle.insertMany (docs);
+		
+		return;
+	}
+
+
+
+
 	/**
 	 * get_relay_item_for_key - Get the relay item with the given key.
 	 * @param key = Record key. Cannot be null or empty.
@@ -2,8 +2,10 @@ package org.opensha.oaf.aafs.entity;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Base64;
 
 import org.bson.types.ObjectId;
+import org.bson.types.Binary;
 
 import org.opensha.oaf.aafs.MongoDBUtil;
 import org.opensha.oaf.aafs.RecordKey;
@@ -13,6 +15,8 @@ import org.opensha.oaf.aafs.RecordIterator;
 import org.opensha.oaf.util.MarshalImpArray;
 import org.opensha.oaf.util.MarshalImpJsonReader;
 import org.opensha.oaf.util.MarshalImpJsonWriter;
+import org.opensha.oaf.util.MarshalImpBinaryReader;
+import org.opensha.oaf.util.MarshalImpBinaryWriter;
 import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
 import org.opensha.oaf.util.MarshalException;
@@ -94,9 +98,22 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 	// Details of this action.
 	// Any additional information needed is stored as a JSON string containing marshaled data.
 	// If none, this should be an empty string (not null).
+	// If details_format is DETFMT_BINARY, this is an empty string and the details are in details_bin.
 
 	private String details;
 
+	// Details of this action, in binary form.
+	// If details_format is DETFMT_BINARY, this contains the marshaled data, otherwise it is null.
+	// Details that include a forecast (catalog and model summaries) are much smaller, and
+	// much faster to marshal and unmarshal, in binary than in JSON.
+
+	private byte[] details_bin;
+
+	// Format of the details, DETFMT_JSON or DETFMT_BINARY.
+	// Documents that do not contain a format are in DETFMT_JSON.
+
+	private int details_format;
+
 //	// Details of this action.
 //	// Any additional information needed is stored as marshaled data.
 //	// Each array should have at least one element.
@@ -157,6 +174,10 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 	 * get_details - Get a reader for the details.
 	 */
 	public MarshalReader get_details() {
+		if (details_format == DETFMT_BINARY) {
+			return new MarshalImpBinaryReader (details_bin);
+		}
+
 		Object json_source;
 		if (details == null) {
 			json_source = null;
@@ -176,8 +197,11 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 	 */
 	private void set_details (MarshalWriter writer) {
 
+		details = "";
+		details_bin = null;
+		details_format = DETFMT_JSON;
+
 		if (writer == null) {
-			details = "";
 			return;
 		}
 
@@ -185,15 +209,27 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 			MarshalImpJsonWriter w = (MarshalImpJsonWriter)writer;
 			if (w.check_write_complete()) {
 				details = w.get_json_string();
-			} else {
-				details = "";
+			}
+			return;
+		}
+
+		if (writer instanceof MarshalImpBinaryWriter) {
+			MarshalImpBinaryWriter w = (MarshalImpBinaryWriter)writer;
+			if (w.is_write_complete()) {
+				details_bin = w.get_byte_array();
+				details_format = DETFMT_BINARY;
 			}
 			return;
 		}
 
 		if (writer instanceof RecordPayload) {
 			RecordPayload p = (RecordPayload)writer;
-			details = p.get_json_string();
+			if (p.is_binary()) {
+				details_bin = p.get_binary_data();
+				details_format = DETFMT_BINARY;
+			} else {
+				details = p.get_json_string();
+			}
 			return;
 		}
 
@@ -203,8 +239,12 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 
 	/**
 	 * begin_details - Get a writer to use for marhaling details.
+	 * The writer produces details in the format selected by set_new_details_format.
 	 */
 	public static MarshalWriter begin_details() {
+		if (new_details_format == DETFMT_BINARY) {
+			return new MarshalImpBinaryWriter ();
+		}
 		return new MarshalImpJsonWriter ();
 	}
 
@@ -213,6 +253,9 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 	 * get_details_as_payload - Get a writer containing the details.
 	 */
 	RecordPayload get_details_as_payload() {
+		if (details_format == DETFMT_BINARY) {
+			return new RecordPayload (details_bin);
+		}
 		return new RecordPayload (details);
 	}
 
@@ -221,18 +264,64 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 	 * get_details_description - Get a string describing the details.
 	 */
 	private String get_details_description () {
+		if (details_format == DETFMT_BINARY) {
+			return ((details_bin == null) ? "null" : ("binary len = " + details_bin.length));
+		}
 		return ((details == null) ? "null" : ("len = " + details.length()));
 	}
 
 
 	/**
 	 * dump_details - Dump details into a string, for trouble-shooting.
+	 * Binary details are dumped in base64.
 	 */
 	public String dump_details () {
+		if (details_format == DETFMT_BINARY) {
+			return ((details_bin == null) ? "null" : ("binary len = " + details_bin.length + "\n" + Base64.getEncoder().encodeToString (details_bin)));
+		}
 		return ((details == null) ? "null" : details);
 	}
 
 
+	/**
+	 * get_details_format - Get the format of the details, DETFMT_JSON or DETFMT_BINARY.
+	 */
+	public int get_details_format () {
+		return details_format;
+	}
+
+
+
+
+	// The details format used for new timeline entries, DETFMT_JSON or DETFMT_BINARY.
+	// The default is JSON, which older versions of the software can read.  The task dispatcher
+	// sets this from the server configuration (see ServerConfigFile.tline_details_format).
+
+	private static volatile int new_details_format = DETFMT_JSON;
+
+
+	/**
+	 * get_new_details_format - Get the details format used for new timeline entries.
+	 */
+	public static int get_new_details_format () {
+		return new_details_format;
+	}
+
+
+	/**
+	 * set_new_details_format - Set the details format used for new timeline entries.
+	 * Existing timeline entries are readable in either format.
+	 * Selecting DETFMT_JSON produces entries that can be read by older versions of the software.
+	 */
+	public static void set_new_details_format (int the_new_details_format) {
+		if (!( the_new_details_format >= DETFMT_MIN && the_new_details_format <= DETFMT_MAX )) {
+			throw new IllegalArgumentException ("TimelineEntry.set_new_details_format: Invalid details format: " + the_new_details_format);
+		}
+		new_details_format = the_new_details_format;
+		return;
+	}
+
+
 
 
 //	/**
@@ -512,8 +601,16 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 						.append ("action_time", new Long(action_time))
 						.append ("event_id"   , event_id)
 						.append ("comcat_ids" , Arrays.asList(comcat_ids.clone()))
-						.append ("actcode"    , new Integer(actcode))
-						.append ("details"    , details);
+						.append ("actcode"    , new Integer(actcode));
+
+		// Binary details are stored with their format, JSON details are stored as before
+
+		if (details_format == DETFMT_BINARY) {
+			doc.append ("details"       , new Binary (details_bin))
+				.append ("details_format", new Integer(details_format));
+		} else {
+			doc.append ("details"       , details);
+		}
 
 		return doc;
 	}
@@ -531,7 +628,24 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 		event_id    = MongoDBUtil.doc_get_string       (doc, "event_id"   );
 		comcat_ids  = MongoDBUtil.doc_get_string_array (doc, "comcat_ids" );
 		actcode     = MongoDBUtil.doc_get_int          (doc, "actcode"    );
-		details     = MongoDBUtil.doc_get_string       (doc, "details"    );
+
+		details_format = MongoDBUtil.doc_get_int_or_default (doc, "details_format", DETFMT_JSON);
+
+		switch (details_format) {
+
+		case DETFMT_JSON:
+			details     = MongoDBUtil.doc_get_string       (doc, "details"    );
+			details_bin = null;
+			break;
+
+		case DETFMT_BINARY:
+			details     = "";
+			details_bin = MongoDBUtil.doc_get_binary       (doc, "details"    );
+			break;
+
+		default:
+			throw new DBCorruptException ("TimelineEntry.from_bson_doc: Invalid details format: " + details_format);
+		}
 
 		return this;
 	}
@@ -762,6 +876,34 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * store_timeline_entry_list - Store a list of timeline entries into the database, in a single operation.
+	 * This is primarily for restoring from backup.
+	 * All elements of the list must be TimelineEntry objects.
+	 */
+	static void store_timeline_entry_list (List<DBEntity> entities) {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Convert to documents
+
+		List<Document> docs = new ArrayList<Document>();
+		for (DBEntity entity : entities) {
+			docs.add (((TimelineEntry)entity).to_bson_doc());
+		}
+
+		// Call MongoDB to store into database
+
+		coll_handle.insertMany (docs);
+		
+		return;
+	}
+
+
+
+
 	/**
 	 * get_timeline_entry_for_key - Get the timeline entry with the given key.
 	 * @param key = Record key. Cannot be null or empty.
@@ -972,6 +1114,7 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 	// Marshal version number.
 
 	private static final int MARSHAL_VER_1 = 11001;
+	private static final int MARSHAL_VER_2 = 11002;
 
 	private static final String M_VERSION_NAME = "TimelineEntry";
 
@@ -987,21 +1130,42 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 	@Override
 	protected void do_marshal (MarshalWriter writer) {
 
-		// Version
+		// Version, entries with JSON details are written in the original version
+
+		int ver = ((details_format == DETFMT_BINARY) ? MARSHAL_VER_2 : MARSHAL_VER_1);
 
-		writer.marshalInt (M_VERSION_NAME, MARSHAL_VER_1);
+		writer.marshalInt (M_VERSION_NAME, ver);
 
 		// Contents
 
-		MongoDBUtil.marshal_object_id (writer, "id", id);
-		writer.marshalLong        ("action_time", action_time);
-		writer.marshalString      ("event_id"   , event_id   );
-		writer.marshalStringArray ("comcat_ids" , comcat_ids );
-		writer.marshalInt         ("actcode"    , actcode    );
-		writer.marshalString      ("details"    , details    );
-//		writer.marshalLongArray   ("details_l"  , details_l  );
-//		writer.marshalDoubleArray ("details_d"  , details_d  );
-//		writer.marshalStringArray ("details_s"  , details_s  );
+		switch (ver) {
+
+		case MARSHAL_VER_1:
+
+			MongoDBUtil.marshal_object_id (writer, "id", id);
+			writer.marshalLong        ("action_time", action_time);
+			writer.marshalString      ("event_id"   , event_id   );
+			writer.marshalStringArray ("comcat_ids" , comcat_ids );
+			writer.marshalInt         ("actcode"    , actcode    );
+			writer.marshalString      ("details"    , details    );
+//			writer.marshalLongArray   ("details_l"  , details_l  );
+//			writer.marshalDoubleArray ("details_d"  , details_d  );
+//			writer.marshalStringArray ("details_s"  , details_s  );
+
+			break;
+
+		case MARSHAL_VER_2:
+
+			MongoDBUtil.marshal_object_id (writer, "id", id);
+			writer.marshalLong        ("action_time", action_time);
+			writer.marshalString      ("event_id"   , event_id   );
+			writer.marshalStringArray ("comcat_ids" , comcat_ids );
+			writer.marshalInt         ("actcode"    , actcode    );
+			writer.marshalInt         ("details_format", details_format);
+			writer.marshalString      ("details"    , Base64.getEncoder().encodeToString (details_bin));
+
+			break;
+		}
 	
 		return;
 	}
@@ -1013,19 +1177,47 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 	
 		// Version
 
-		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_1);
+		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_2);
 
 		// Contents
 
-		id          = MongoDBUtil.unmarshal_object_id (reader, "id");
-		action_time = reader.unmarshalLong        ("action_time");
-		event_id    = reader.unmarshalString      ("event_id"   );
-		comcat_ids  = reader.unmarshalStringArray ("comcat_ids" );
-		actcode     = reader.unmarshalInt         ("actcode"    );
-		details     = reader.unmarshalString      ("details"    );
-//		details_l   = reader.unmarshalLongArray   ("details_l"  );
-//		details_d   = reader.unmarshalDoubleArray ("details_d"  );
-//		details_s   = reader.unmarshalStringArray ("details_s"  );
+		switch (ver) {
+
+		case MARSHAL_VER_1:
+
+			id          = MongoDBUtil.unmarshal_object_id (reader, "id");
+			action_time = reader.unmarshalLong        ("action_time");
+			event_id    = reader.unmarshalString      ("event_id"   );
+			comcat_ids  = reader.unmarshalStringArray ("comcat_ids" );
+			actcode     = reader.unmarshalInt         ("actcode"    );
+			details     = reader.unmarshalString      ("details"    );
+//			details_l   = reader.unmarshalLongArray   ("details_l"  );
+//			details_d   = reader.unmarshalDoubleArray ("details_d"  );
+//			details_s   = reader.unmarshalStringArray ("details_s"  );
+
+			details_bin = null;
+			details_format = DETFMT_JSON;
+
+			break;
+
+		case MARSHAL_VER_2:
+
+			id          = MongoDBUtil.unmarshal_object_id (reader, "id");
+			action_time = reader.unmarshalLong        ("action_time");
+			event_id    = reader.unmarshalString      ("event_id"   );
+			comcat_ids  = reader.unmarshalStringArray ("comcat_ids" );
+			actcode     = reader.unmarshalInt         ("actcode"    );
+			details_format = reader.unmarshalInt      ("details_format", DETFMT_BINARY, DETFMT_BINARY);
+
+			try {
+				details_bin = Base64.getDecoder().decode (reader.unmarshalString ("details"));
+			} catch (IllegalArgumentException e) {
+				throw new MarshalException ("TimelineEntry.do_umarshal: Invalid binary details", e);
+			}
+			details     = "";
+
+			break;
+		}
 
 		return;
 	}
@@ -3,6 +3,8 @@ package org.opensha.oaf.oetas;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.math3.analysis.UnivariateFunction;
@@ -234,182 +236,27 @@ public class ETAS_AftershockModel_SequenceSpecific extends ETAS_AftershockModel
 						}
 		}
 		
-		double maxVal= Double.NEGATIVE_INFINITY;
-		double logLike;
-		boolean subCritFlag;
-		
-		double ams, a, k, kms, p, c, c0;
-		double kc = Math.pow(10, ac);
-		int amsIndex, aIndex, pIndex, cIndex;
-		double timeIntegralMS, NtotAS, NtotMS, Ntot;
-		
 		int Nas = relativeEventTimes.length;	//the number of aftershocks, not counting the mainshock
 		double productivityMS;
 		double[] productivityAS = new double[Nas];
-		double[] lambda = new double[Nas];
-		double[] timeDecayMS = new double[Nas];
-		double[] timeDecayAS = new double[Nas];
-		double timeIntegral;
-		
 		
 		//do productivities
 		productivityMS = Math.pow(10, alpha*(mainShock.getMag()-magComplete) );
 		for(int i=0; i<Nas; i++) //compute productivity for this aftershock
 			productivityAS[i] = Math.pow(10, alpha*(magAftershocks[i] - magComplete));	//productivity of this aftershock
 
-
-		double tStartIntegration;
-	
 		// set up timer/time estimator
-		double toc, timeEstimate, n;
+		double toc;
 		Stopwatch watch = Stopwatch.createStarted();
-		int warnTime = 3;
-		String initialMessageString = "Estimating sequence-specific model. ";
 		
-		for(pIndex=0;pIndex<num_p;pIndex++) {
-			p = p_vec[pIndex];
-
-			for(cIndex=0;cIndex<num_c;cIndex++) {
-				c0 = c_vec[cIndex];
-
-				tStartIntegration = 0;
-				
-				//compute total number at end of fit window for mainshock (unscaled by a)
-				c = c0*Math.pow(kc*productivityMS,1/p);
-				if (p == 1){
-					timeIntegralMS = Math.log(dataEndTimeDays + c) - Math.log(tStartIntegration + c);
-				} else {
-					timeIntegralMS = (Math.pow(dataEndTimeDays + c, 1-p) - Math.pow(tStartIntegration + c, 1-p)) / (1-p);
-				}
-				NtotMS = productivityMS*timeIntegralMS;
-//				if(D) System.out.println("NtotMS: " + NtotMS);
-				
-				//compute instantaneous intensities and total number for aftershocks (unscaled by a)
-				NtotAS = 0;
-				for(int i=0; i<Nas; i++){
-					//compute intensity at this moment due to mainshock (unscaled by ams)
-					c = c0*Math.pow(kc*productivityMS,1/p);
-					timeDecayMS[i] = productivityMS/Math.pow(relativeEventTimes[i] + c, p); //from the mainshock
-					
-					//compute intensity at this moment due to previous aftershocks (unscaled by a)
-					timeDecayAS[i] = 0;
-					for(int j = 0; j < i; j++){
-						if(relativeEventTimes[j] < relativeEventTimes[i])
-							c = c0*Math.pow(kc*productivityAS[j],1/p);
-							timeDecayAS[i] += productivityAS[j]/Math.pow(relativeEventTimes[i] - relativeEventTimes[j] + c, p);	//from the aftershocks
-					}
-				
-					tStartIntegration = relativeEventTimes[i];
-					
-					//compute total number at end of fit window due to this aftershock (unscaled by a)
-					c = c0*Math.pow(kc*productivityAS[i],1/p);
-					if(relativeEventTimes[i] < dataEndTimeDays){
-						if(p == 1){
-							timeIntegral = Math.log(dataEndTimeDays - relativeEventTimes[i] + c) - Math.log(tStartIntegration - relativeEventTimes[i] + c); 
-						} else {
-							timeIntegral = (Math.pow(dataEndTimeDays - relativeEventTimes[i] + c, 1-p) - Math.pow(tStartIntegration - relativeEventTimes[i] + c, 1-p)) / (1-p);
-						}
-						
-						NtotAS += productivityAS[i]*timeIntegral;	//aftershock Contributions
-						
-//						if(D) System.out.println("NtotAS: " + NtotAS);
-					}
-				}
-				
-				// loop over productivities
-				for(amsIndex=0;amsIndex<num_ams;amsIndex++) {
-					//			double ams;	//assigned in next loop
-					ams = ams_vec[amsIndex];
-					
-					for(aIndex=0;aIndex<num_a;aIndex++) {
-						a = a_vec[aIndex];
-
-						logLike = 0;
-						
-						// now put in the productivity terms and compute likelihood
-						kms = Math.pow(10,ams);
-						k = Math.pow(10, a);
-						
-						Ntot = kms*NtotMS + k*NtotAS;
-
-						logLike += -Ntot;
-						
-						for(int i=0; i<Nas; i++){
-							//compute intensity at this moment due to previous earthquakes
-							lambda[i] = kms*timeDecayMS[i]; //from the mainshock
-							lambda[i] += k*timeDecayAS[i];	//from the aftershocks
-							logLike += Math.log(lambda[i]);
-							
-//							if(D) System.out.println("logLike: " + logLike);
-						}
-						
-						//add prior regularization
-						logLike += Math.log(priorLikelihood[amsIndex][aIndex][pIndex][cIndex]);
-						
-						//check for supercritical parameters over the forecast time window
-						c = c0*Math.pow(kc,1/p);
-						n = ETAS_StatsCalc.calculateBranchingRatio(a, p, c, alpha, b, forecastMaxDays, magComplete, maxMag);
-						
-						subCritFlag = ( n < 1 );
-												
-						// fill out the likelihood matrices with the joint likelihood
-						if(Doubles.isFinite(logLike)){
-							if (subCritFlag){
-								likelihood[amsIndex][aIndex][pIndex][cIndex] = logLike;
-								subCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = logLike;
-								superCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-
-								if(maxVal<logLike ) {
-									maxVal=logLike;
-									max_ams_index=amsIndex;
-									max_a_index=aIndex;
-									max_p_index=pIndex;
-									max_c_index=cIndex;
-								}
-							} else {
-								likelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-								subCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-								superCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = logLike;
-							}
-						}else{
-							likelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-							subCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-							superCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-						}
-
-						// run the timer to see how long this is going to take
-						toc = watch.elapsed(TimeUnit.SECONDS);
-						if(toc > warnTime){
-							//check for stopRequested?
-							if (stopRequested){
-								System.out.println("Parameter estimation terminated prematurely.");
-								return;
-							}
-								
-
-							warnTime += 10;
-
-							long count = (pIndex)*(num_c*num_ams*num_a) + (cIndex)*(num_ams*num_a) + (amsIndex)*(num_a) + aIndex;
-							long total = (num_p*num_c*num_ams*num_a);
-							timeEstimate = toc * total/count;
-							System.out.format(initialMessageString + "Approximately %d seconds remaining...\n", (int) ((timeEstimate - toc)));
-							initialMessageString = "...";
-							if (progress != null){
-								progress.updateProgress(count, total, String.format("%d%% complete. %d seconds remaining", (int) (((double) count)/((double) total) * 100), (int) ((timeEstimate - toc))));
-//								progress.setProgressMessage(String.format("%d%% complete. %d seconds remaining", (int) (((double) count)/((double) total) * 100),(int) ((timeEstimate - toc))));
-								progress.repaint();
-								try {
-									Thread.sleep(100);
-								} catch (InterruptedException e) {
-									// TODO Auto-generated catch block
-									e.printStackTrace();
-								}
-							}
-						}
-					}
-				}
-			}
+		// compute the log-likelihood for each (p,c) in parallel
+		LikelihoodGrid grid = new LikelihoodGrid(relativeEventTimes, productivityAS, productivityMS, Math.pow(10, ac), true,
+				priorLikelihood, subCriticalLikelihood, superCriticalLikelihood, watch);
+		if (!grid.compute()) {
+			System.out.println("Parameter estimation terminated prematurely.");
+			return;
 		}
+		double maxVal = findMaxLikelihoodIndices();
 
 		// if not fitting MS productivity, make sure the ams_vector reflects this constraint
 		if(!fitMSProductivity){
@@ -486,173 +333,27 @@ public class ETAS_AftershockModel_SequenceSpecific extends ETAS_AftershockModel
 						}
 		}
 		
-		double maxVal= Double.NEGATIVE_INFINITY;
-		double logLike;
-		boolean subCritFlag;
-		
-		double ams, a, k, kms, p, c;
-		int amsIndex, aIndex, pIndex, cIndex;
-		double timeIntegralMS, NtotAS, NtotMS, Ntot;
-		
 		int Nas = relativeEventTimes.length;	//the number of aftershocks, not counting the mainshock
 		double productivityMS;
 		double[] productivityAS = new double[Nas];
-		double[] lambda = new double[Nas];
-		double[] timeDecayMS = new double[Nas];
-		double[] timeDecayAS = new double[Nas];
-		double timeIntegral;
-		
 		
 		//do productivities
 		productivityMS = Math.pow(10, alpha*(mainShock.getMag()-magComplete) );
 		for(int i=0; i<Nas; i++) //compute productivity for this aftershock
 			productivityAS[i] = Math.pow(10, alpha*(magAftershocks[i] - magComplete));	//productivity of this aftershock
 
-
-		double tStartIntegration;
-	
 		// set up timer/time estimator
-		double toc, timeEstimate, n;
+		double toc;
 		Stopwatch watch = Stopwatch.createStarted();
-		int warnTime = 3;
-		String initialMessageString = "Estimating sequence-specific model. ";
 		
-		for(pIndex=0;pIndex<num_p;pIndex++) {
-			p = p_vec[pIndex];
-
-			for(cIndex=0;cIndex<num_c;cIndex++) {
-				c = c_vec[cIndex];
-
-				tStartIntegration = 0;
-				
-				
-				//compute total number at end of fit window for mainshock (unscaled by a)
-				if (p == 1){
-					timeIntegralMS = Math.log(dataEndTimeDays + c) - Math.log(tStartIntegration + c);
-				} else {
-					timeIntegralMS = (Math.pow(dataEndTimeDays + c, 1-p) - Math.pow(tStartIntegration + c, 1-p)) / (1-p);
-				}
-				NtotMS = productivityMS*timeIntegralMS;
-				
-				//compute instantaneous intensities and total number for aftershocks (unscaled by a)
-				NtotAS = 0;
-				for(int i=0; i<Nas; i++){
-					//compute intensity at this moment due to mainshock (unscaled by ams)
-					timeDecayMS[i] = productivityMS/Math.pow(relativeEventTimes[i] + c, p); //from the mainshock
-					
-					//compute intensity at this moment due to previous aftershocks (unscaled by a)
-					timeDecayAS[i] = 0;
-					for(int j = 0; j < i; j++){
-						if(relativeEventTimes[j] < relativeEventTimes[i])
-							timeDecayAS[i] += productivityAS[j]/Math.pow(relativeEventTimes[i] - relativeEventTimes[j] + c, p);	//from the aftershocks
-					}
-				
-					tStartIntegration = relativeEventTimes[i];
-					
-					//compute total number at end of fit window due to this aftershock (unscaled by a)
-					if(relativeEventTimes[i] < dataEndTimeDays){
-						if(p == 1){
-							timeIntegral = Math.log(dataEndTimeDays - relativeEventTimes[i] + c) - Math.log(tStartIntegration - relativeEventTimes[i] + c); 
-						} else {
-							timeIntegral = (Math.pow(dataEndTimeDays - relativeEventTimes[i] + c, 1-p) - Math.pow(tStartIntegration - relativeEventTimes[i] + c, 1-p)) / (1-p);
-						}
-						
-						NtotAS += productivityAS[i]*timeIntegral;	//aftershock Contributions
-					}
-				}
-				
-				// loop over productivities
-				for(amsIndex=0;amsIndex<num_ams;amsIndex++) {
-					//			double ams;	//assigned in next loop
-					ams = ams_vec[amsIndex];
-					
-					for(aIndex=0;aIndex<num_a;aIndex++) {
-						a = a_vec[aIndex];
-
-						logLike = 0;
-						
-						// now put in the productivity terms and compute likelihood
-						kms = Math.pow(10,ams);
-						k = Math.pow(10, a);
-						
-						Ntot = kms*NtotMS + k*NtotAS;
-						
-						logLike += -Ntot;
-						
-						for(int i=0; i<Nas; i++){
-							//compute intensity at this moment due to previous earthquakes
-							lambda[i] = kms*timeDecayMS[i]; //from the mainshock
-							lambda[i] += k*timeDecayAS[i];	//from the aftershocks
-							logLike += Math.log(lambda[i]);
-						}
-						
-						//add prior regularization
-						logLike += Math.log(priorLikelihood[amsIndex][aIndex][pIndex][cIndex]);
-						
-						//check for supercritical parameters over the forecast time window
-						n = ETAS_StatsCalc.calculateBranchingRatio(a, p, c, alpha, b, forecastMaxDays, magComplete, maxMag);
-						
-						subCritFlag = ( n < 1 );
-
-						
-						// fill out the likelihood matrices with the joint likelihood
-						if(Doubles.isFinite(logLike)){
-							if (subCritFlag){
-								likelihood[amsIndex][aIndex][pIndex][cIndex] = logLike;
-								subCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = logLike;
-								superCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-
-								if(maxVal<logLike ) {
-									maxVal=logLike;
-									max_ams_index=amsIndex;
-									max_a_index=aIndex;
-									max_p_index=pIndex;
-									max_c_index=cIndex;
-								}
-							} else {
-								likelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-								subCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-								superCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = logLike;
-							}
-						}else{
-							likelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-							subCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-							superCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
-						}
-
-						// run the timer to see how long this is going to take
-						toc = watch.elapsed(TimeUnit.SECONDS);
-						if(toc > warnTime){
-							//check for stopRequested?
-							if (stopRequested){
-								System.out.println("Parameter estimation terminated prematurely.");
-								return;
-							}
-								
-
-							warnTime += 10;
-
-							long count = (pIndex)*(num_c*num_ams*num_a) + (cIndex)*(num_ams*num_a) + (amsIndex)*(num_a) + aIndex;
-							long total = (num_p*num_c*num_ams*num_a);
-							timeEstimate = toc * total/count;
-							System.out.format(initialMessageString + "Approximately %d seconds remaining...\n", (int) ((timeEstimate - toc)));
-							initialMessageString = "...";
-							if (progress != null){
-								progress.updateProgress(count, total, String.format("%d%% complete. %d seconds remaining", (int) (((double) count)/((double) total) * 100), (int) ((timeEstimate - toc))));
-//								progress.setProgressMessage(String.format("%d%% complete. %d seconds remaining", (int) (((double) count)/((double) total) * 100),(int) ((timeEstimate - toc))));
-								progress.repaint();
-								try {
-									Thread.sleep(100);
-								} catch (InterruptedException e) {
-									// TODO Auto-generated catch block
-									e.printStackTrace();
-								}
-							}
-						}
-					}
-				}
-			}
+		// compute the log-likelihood for each (p,c) in parallel
+		LikelihoodGrid grid = new LikelihoodGrid(relativeEventTimes, productivityAS, productivityMS, 1.0, false,
+				priorLikelihood, subCriticalLikelihood, superCriticalLikelihood, watch);
+		if (!grid.compute()) {
+			System.out.println("Parameter estimation terminated prematurely.");
+			return;
 		}
+		double maxVal = findMaxLikelihoodIndices();
 
 		// if not fitting MS productivity, make sure the ams_vector reflects this constraint
 		if(!fitMSProductivity){
@@ -681,6 +382,409 @@ public class ETAS_AftershockModel_SequenceSpecific extends ETAS_AftershockModel
 		watch.stop();
 		this.epiLikelihood = likelihood;
 	}
+
+	/**
+	 * Find the indices of the largest element of the likelihood matrix, which contains log-likelihoods.
+	 * Elements are scanned in the same order as the grid search (p, c, ams, a), so that ties are resolved
+	 * the same way.  Elements that are not finite or not subcritical hold -infinity and are never selected.
+	 * @return the largest log-likelihood, or -infinity if there is no finite subcritical element
+	 */
+	private double findMaxLikelihoodIndices() {
+		double maxVal = Double.NEGATIVE_INFINITY;
+		for(int pIndex=0;pIndex<num_p;pIndex++)
+			for(int cIndex=0;cIndex<num_c;cIndex++)
+				for(int amsIndex=0;amsIndex<num_ams;amsIndex++)
+					for(int aIndex=0;aIndex<num_a;aIndex++)
+						if(maxVal<likelihood[amsIndex][aIndex][pIndex][cIndex]) {
+							maxVal=likelihood[amsIndex][aIndex][pIndex][cIndex];
+							max_ams_index=amsIndex;
+							max_a_index=aIndex;
+							max_p_index=pIndex;
+							max_c_index=cIndex;
+						}
+		return maxVal;
+	}
+
+	// Relative tolerance for truncating the sum over earlier aftershocks in the triggering rate.
+	// Earlier aftershocks are summed from the most recent backward, and the sum stops once an upper
+	// bound on the total contribution of all the older ones is below this fraction of the sum so far.
+	// The bound uses the cumulative productivity of the older aftershocks and the time since the latest
+	// of them, so the error in each rate is at most this fraction.
+	private static final double TRIGGER_SUM_TOL = 1.0e-12;
+
+	// Number of terms between checks of the truncation bound.
+	private static final int TRIGGER_SUM_CHECK_INTERVAL = 16;
+
+	// Range of rates that are multiplied together when summing log-rates.
+	private static final double LOG_SUM_MIN_RATE = 1.0e-100;
+	private static final double LOG_SUM_MAX_RATE = 1.0e100;
+	private static final double LOG_SUM_MIN_PRODUCT = 1.0e-200;
+	private static final double LOG_SUM_MAX_PRODUCT = 1.0e200;
+
+	/**
+	 * Compute the sum over i of log(kms*timeDecayMS[i] + k*timeDecayAS[i]).
+	 * The rates are multiplied together and the logarithm is taken only when the product leaves
+	 * the range [LOG_SUM_MIN_PRODUCT, LOG_SUM_MAX_PRODUCT], which happens rarely, so there is about
+	 * one logarithm per several hundred rates instead of one per rate.  Rates outside the range
+	 * [LOG_SUM_MIN_RATE, LOG_SUM_MAX_RATE] (including zero, infinite, and NaN) are not multiplied,
+	 * but have their logarithm added directly, so the product cannot overflow or underflow.
+	 * Each multiplication adds a relative rounding error of about 1e-16, so the absolute error
+	 * in the sum is about Nas*1e-16, which is no larger than the rounding error of adding the logs.
+	 */
+	private static double sumLogRates(double kms, double[] timeDecayMS, double k, double[] timeDecayAS, int Nas) {
+		double logSum = 0;
+		double product = 1;
+		for(int i=0; i<Nas; i++){
+			double lambda = kms*timeDecayMS[i] + k*timeDecayAS[i];
+			if(lambda >= LOG_SUM_MIN_RATE && lambda <= LOG_SUM_MAX_RATE){
+				product *= lambda;
+				if(!(product >= LOG_SUM_MIN_PRODUCT && product <= LOG_SUM_MAX_PRODUCT)){
+					logSum += Math.log(product);
+					product = 1;
+				}
+			} else {
+				logSum += Math.log(lambda);
+			}
+		}
+		return logSum + Math.log(product);
+	}
+
+	/**
+	 * Grid search over (ams, a, p, c) for the log-likelihood.
+	 * For each (p,c) the rates due to the mainshock and the earlier aftershocks are computed once, and then
+	 * used for all (ams, a).  Each (p,c) cell writes only its own elements of the likelihood matrices,
+	 * so the cells are computed in parallel in a fork/join pool, one column of fixed c per task.
+	 * When c is the same for all aftershocks, the logarithms of the time differences are shared by all
+	 * the p-values in the column, so each term needs an exponential instead of a power.
+	 * When the Omori c is scaled by productivity (time-dependent Mc), the c-value of each aftershock is
+	 * computed once per cell, rather than once per pair of aftershocks.
+	 */
+	private class LikelihoodGrid {
+		private final double[] relativeEventTimes;	// sorted in increasing order
+		private final double[] productivityAS;
+		private final double[] cumProductivityAS;	// cumProductivityAS[j] = sum of productivityAS[0..j-1]
+		private final double minProductivityAS;
+		private final double productivityMS;
+		private final double kc;
+		private final boolean scaledC;				// true if c is scaled by productivity, for time-dependent Mc
+		private final double[] kms_vec;
+		private final double[] k_vec;
+		private final double[][][][] priorLikelihood;
+		private final double[][][][] subCriticalLikelihood;
+		private final double[][][][] superCriticalLikelihood;
+
+		// timer/time estimator, guarded by this object
+		private final Stopwatch watch;
+		private int warnTime = 3;
+		private String initialMessageString = "Estimating sequence-specific model. ";
+		private long cellsDone = 0;
+
+		LikelihoodGrid(double[] relativeEventTimes, double[] productivityAS, double productivityMS, double kc, boolean scaledC,
+				double[][][][] priorLikelihood, double[][][][] subCriticalLikelihood, double[][][][] superCriticalLikelihood,
+				Stopwatch watch) {
+			this.relativeEventTimes = relativeEventTimes;
+			this.productivityAS = productivityAS;
+			this.productivityMS = productivityMS;
+			this.kc = kc;
+			this.scaledC = scaledC;
+			this.priorLikelihood = priorLikelihood;
+			this.subCriticalLikelihood = subCriticalLikelihood;
+			this.superCriticalLikelihood = superCriticalLikelihood;
+			this.watch = watch;
+
+			int Nas = productivityAS.length;
+			cumProductivityAS = new double[Nas + 1];
+			double minProd = Double.POSITIVE_INFINITY;
+			for(int j=0; j<Nas; j++){
+				cumProductivityAS[j+1] = cumProductivityAS[j] + productivityAS[j];
+				minProd = Math.min(minProd, productivityAS[j]);
+			}
+			minProductivityAS = minProd;
+
+			kms_vec = new double[num_ams];
+			for(int amsIndex=0;amsIndex<num_ams;amsIndex++)
+				kms_vec[amsIndex] = Math.pow(10,ams_vec[amsIndex]);
+			k_vec = new double[num_a];
+			for(int aIndex=0;aIndex<num_a;aIndex++)
+				k_vec[aIndex] = Math.pow(10, a_vec[aIndex]);
+		}
+
+		/**
+		 * Compute all the cells, in the common fork/join pool.
+		 * @return false if stopped by stopRequested, true otherwise
+		 */
+		boolean compute() {
+			ForkJoinPool.commonPool().invoke(new LikelihoodGridTask(0, num_c));
+			return !stopRequested;
+		}
+
+		/**
+		 * Compute the triggering rate at each aftershock due to the earlier aftershocks (unscaled by a),
+		 * for all p-values, when all aftershocks have the same c-value.
+		 * @return array dimensioned [num_p][Nas]
+		 */
+		private double[][] triggerSumsSharedC(double c0) {
+			int Nas = relativeEventTimes.length;
+			double[][] sums = new double[num_p][Nas];
+			double[] logDt = new double[Nas];	// log(ti - tj + c0), filled in from jLast downward as needed
+
+			for(int i=0; i<Nas; i++){
+				double ti = relativeEventTimes[i];
+
+				// aftershocks at the same time as this one are excluded
+				int jLast = i - 1;
+				while(jLast >= 0 && relativeEventTimes[jLast] == ti)
+					jLast--;
+				int jLow = jLast + 1;
+
+				// earlier aftershocks, most recent first, stopping when the older ones are negligible
+				for(int pIndex=0;pIndex<num_p;pIndex++){
+					double p = p_vec[pIndex];
+					double sum = 0;
+					int count = 0;
+					for(int j = jLast; j >= 0; j--){
+						if(j < jLow){
+							jLow = j;
+							logDt[j] = Math.log(ti - relativeEventTimes[j] + c0);
+						}
+						sum += productivityAS[j]*Math.exp(-p*logDt[j]);
+
+						if(++count == TRIGGER_SUM_CHECK_INTERVAL){
+							count = 0;
+							if(j > 0 && p > 0){
+								if(j - 1 < jLow){
+									jLow = j - 1;
+									logDt[jLow] = Math.log(ti - relativeEventTimes[jLow] + c0);
+								}
+								if(cumProductivityAS[j]*Math.exp(-p*logDt[j-1]) <= TRIGGER_SUM_TOL*sum)
+									break;
+							}
+						}
+					}
+					sums[pIndex][i] = sum;
+				}
+			}
+			return sums;
+		}
+
+		/**
+		 * Compute the triggering rate at aftershock i due to the earlier aftershocks (unscaled by a).
+		 * @param cAS the c-value of each aftershock, or null if they all equal c0
+		 * @param cMin lower bound on the c-values, used for truncation
+		 */
+		private double triggerSum(int i, double p, double c0, double cMS, double[] cAS, double cMin) {
+			double ti = relativeEventTimes[i];
+
+			// aftershocks at the same time as this one
+			int jLast = i - 1;
+			while(jLast >= 0 && relativeEventTimes[jLast] == ti)
+				jLast--;
+
+			double sum = 0;
+			if(scaledC){
+				// with time-dependent Mc these are included, with the c-value of the latest earlier aftershock
+				// (or the mainshock), as in the original formulation of the grid search
+				double cSame = (jLast >= 0) ? cAS[jLast] : cMS;
+				for(int j = jLast + 1; j < i; j++)
+					sum += productivityAS[j]/Math.pow(cSame, p);
+			}
+
+			// earlier aftershocks, most recent first, stopping when the older ones are negligible
+			int count = 0;
+			for(int j = jLast; j >= 0; j--){
+				double c = (cAS != null) ? cAS[j] : c0;
+				sum += productivityAS[j]/Math.pow(ti - relativeEventTimes[j] + c, p);
+
+				if(++count == TRIGGER_SUM_CHECK_INTERVAL){
+					count = 0;
+					if(j > 0 && p > 0 && cumProductivityAS[j]/Math.pow(ti - relativeEventTimes[j-1] + cMin, p) <= TRIGGER_SUM_TOL*sum)
+						break;
+				}
+			}
+			return sum;
+		}
+
+		/**
+		 * Compute the log-likelihood for one column of fixed c, and all (ams, a, p).
+		 */
+		void computeColumn(int cIndex) {
+			double[][] sharedSums = scaledC ? null : triggerSumsSharedC(c_vec[cIndex]);
+			for(int pIndex=0;pIndex<num_p;pIndex++){
+				if (stopRequested)
+					return;
+				computeCell(pIndex, cIndex, scaledC ? null : sharedSums[pIndex]);
+				cellDone();
+			}
+		}
+
+		/**
+		 * Compute the log-likelihood for one (p,c), and all (ams, a).
+		 * @param sharedSums the triggering rates from triggerSumsSharedC, or null to compute them here
+		 */
+		void computeCell(int pIndex, int cIndex, double[] sharedSums) {
+			int Nas = relativeEventTimes.length;
+			double[] timeDecayMS = new double[Nas];
+			double[] timeDecayAS = new double[Nas];
+
+			double p = p_vec[pIndex];
+			double c0 = c_vec[cIndex];
+
+			// c-values for the mainshock and each aftershock, and c for the branching ratio
+			double cMS, cMin, cBranch;
+			double[] cAS = null;
+			if(scaledC){
+				cMS = c0*Math.pow(kc*productivityMS,1/p);
+				cAS = new double[Nas];
+				for(int j=0; j<Nas; j++)
+					cAS[j] = c0*Math.pow(kc*productivityAS[j],1/p);
+				cMin = c0*Math.pow(kc*minProductivityAS,1/p);
+				cBranch = c0*Math.pow(kc,1/p);
+			} else {
+				cMS = c0;
+				cMin = c0;
+				cBranch = c0;
+			}
+
+			//compute total number at end of fit window for mainshock (unscaled by a)
+			double timeIntegralMS;
+			if (p == 1){
+				timeIntegralMS = Math.log(dataEndTimeDays + cMS) - Math.log(cMS);
+			} else {
+				timeIntegralMS = (Math.pow(dataEndTimeDays + cMS, 1-p) - Math.pow(cMS, 1-p)) / (1-p);
+			}
+			double NtotMS = productivityMS*timeIntegralMS;
+
+			//compute instantaneous intensities and total number for aftershocks (unscaled by a)
+			double NtotAS = 0;
+			for(int i=0; i<Nas; i++){
+				double ti = relativeEventTimes[i];
+
+				//compute intensity at this moment due to mainshock (unscaled by ams)
+				timeDecayMS[i] = productivityMS/Math.pow(ti + cMS, p); //from the mainshock
+
+				//compute intensity at this moment due to previous aftershocks (unscaled by a)
+				timeDecayAS[i] = (sharedSums != null) ? sharedSums[i] : triggerSum(i, p, c0, cMS, cAS, cMin);
+
+				//compute total number at end of fit window due to this aftershock (unscaled by a)
+				if(ti < dataEndTimeDays){
+					double c = (cAS != null) ? cAS[i] : c0;
+					double timeIntegral;
+					if(p == 1){
+						timeIntegral = Math.log(dataEndTimeDays - ti + c) - Math.log(c);
+					} else {
+						timeIntegral = (Math.pow(dataEndTimeDays - ti + c, 1-p) - Math.pow(c, 1-p)) / (1-p);
+					}
+					NtotAS += productivityAS[i]*timeIntegral;	//aftershock Contributions
+				}
+			}
+
+			//check for supercritical parameters over the forecast time window (independent of ams)
+			boolean[] subCritFlag = new boolean[num_a];
+			for(int aIndex=0;aIndex<num_a;aIndex++)
+				subCritFlag[aIndex] = ( ETAS_StatsCalc.calculateBranchingRatio(a_vec[aIndex], p, cBranch, alpha, b, forecastMaxDays, magComplete, maxMag) < 1 );
+
+			// loop over productivities
+			for(int amsIndex=0;amsIndex<num_ams;amsIndex++) {
+				double kms = kms_vec[amsIndex];
+
+				for(int aIndex=0;aIndex<num_a;aIndex++) {
+					double k = k_vec[aIndex];
+
+					// now put in the productivity terms and compute likelihood
+					double logLike = -(kms*NtotMS + k*NtotAS);
+
+					logLike += sumLogRates(kms, timeDecayMS, k, timeDecayAS, Nas);
+
+					//add prior regularization
+					logLike += Math.log(priorLikelihood[amsIndex][aIndex][pIndex][cIndex]);
+
+					// fill out the likelihood matrices with the joint likelihood
+					if(Doubles.isFinite(logLike)){
+						if (subCritFlag[aIndex]){
+							likelihood[amsIndex][aIndex][pIndex][cIndex] = logLike;
+							subCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = logLike;
+							superCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
+						} else {
+							likelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
+							subCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
+							superCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = logLike;
+						}
+					}else{
+						likelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
+						subCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
+						superCriticalLikelihood[amsIndex][aIndex][pIndex][cIndex] = Double.NEGATIVE_INFINITY;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Count a completed cell, and report the estimated time remaining.
+		 */
+		void cellDone() {
+			boolean repainted = false;
+
+			synchronized(this){
+				cellsDone++;
+
+				// run the timer to see how long this is going to take
+				double toc = watch.elapsed(TimeUnit.SECONDS);
+				if(toc > warnTime){
+					warnTime += 10;
+
+					long count = cellsDone*num_ams*num_a;
+					long total = ((long)num_p)*num_c*num_ams*num_a;
+					double timeEstimate = toc * total/count;
+					System.out.format(initialMessageString + "Approximately %d seconds remaining...\n", (int) ((timeEstimate - toc)));
+					initialMessageString = "...";
+					if (progress != null){
+						progress.updateProgress(count, total, String.format("%d%% complete. %d seconds remaining", (int) (((double) count)/((double) total) * 100), (int) ((timeEstimate - toc))));
+						progress.repaint();
+						repainted = true;
+					}
+				}
+			}
+
+			// give the progress display time to repaint, without holding up the other workers
+			if (repainted){
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// TODO Auto-generated catch block
+					e.printStackTrace();
+				}
+			}
+		}
+
+		/**
+		 * Fork/join task that computes a range of columns, indexed by cIndex.
+		 */
+		private class LikelihoodGridTask extends RecursiveAction {
+			private static final long serialVersionUID = 1L;
+
+			private final int lo;
+			private final int hi;
+
+			LikelihoodGridTask(int lo, int hi) {
+				this.lo = lo;
+				this.hi = hi;
+			}
+
+			@Override
+			protected void compute() {
+				if(hi - lo > 1){
+					int mid = (lo + hi) >>> 1;
+					invokeAll(new LikelihoodGridTask(lo, mid), new LikelihoodGridTask(mid, hi));
+					return;
+				}
+				for(int cIndex = lo; cIndex < hi; cIndex++){
+					if (stopRequested)
+						return;
+					computeColumn(cIndex);
+				}
+			}
+		}
+	}
 	
 	
 //	/**
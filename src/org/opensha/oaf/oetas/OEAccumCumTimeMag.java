@@ -2,6 +2,7 @@ package org.opensha.oaf.oetas;
 
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.List;
 
 import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
@@ -14,6 +15,11 @@ import static org.opensha.oaf.oetas.OEConstants.INFILL_METH_POISSON;
 import static org.opensha.oaf.oetas.OEConstants.INFILL_METH_STERILE;
 import static org.opensha.oaf.oetas.OEConstants.INFILL_METH_MAX;
 
+import static org.opensha.oaf.oetas.OEConstants.ACC_METH_MIN;
+import static org.opensha.oaf.oetas.OEConstants.ACC_METH_ARRAY;
+import static org.opensha.oaf.oetas.OEConstants.ACC_METH_HISTOGRAM;
+import static org.opensha.oaf.oetas.OEConstants.ACC_METH_MAX;
+
 
 // Operational ETAS catalog accumulator for a cumulative time/magnitude grid.
 // Author: Michael Barall 01/18/2020.
@@ -26,8 +32,18 @@ import static org.opensha.oaf.oetas.OEConstants.INFILL_METH_MAX;
 // During accumulation, the counts for the n-th rupture are stored in the
 // n-th element of each column.  After accumulation, each bin is sorted,
 // so that fractiles may be extracted.
+//
+// Alternatively, with the histogram accumulation method, each bin holds an
+// exact histogram of rupture counts.  Memory use is then independent of the
+// number of catalogs.  Each consumer accumulates its own partial histograms
+// without synchronization, and the partials are merged at the end of accumulation.
+// Fractiles and probabilities of occurrence are identical to the array method.
+//
+// As an ensemble monitor, the convergence error is the largest, over all bins,
+// of the standard error of the probability of occurrence, and of the relative
+// standard error of each fractile selected with set_conv_fractiles.
 
-public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
+public class OEAccumCumTimeMag implements OEEnsembleAccumulator, OEEnsembleMonitor {
 
 	//----- Control variables -----
 
@@ -35,6 +51,14 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 	private int infill_meth;
 
+	// The accumulation method used (see OEConstants.ACC_METH_XXXXX).
+
+	private int acc_meth;
+
+	// The fractiles monitored for convergence, in addition to probabilities of occurrence.
+
+	private double[] conv_fractiles;
+
 
 
 
@@ -79,6 +103,22 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 	private int[][][] acc_counts;
 
+	// The accumulated histograms, used for the histogram accumulation method.
+	// Dimension: acc_hist[time_bins][mag_bins]
+	// This is null until the end of accumulation.
+
+	private OECountHistogram[][] acc_hist;
+
+	// The partial histograms, one for each consumer that has stored a catalog.
+	// Used for the histogram accumulation method during accumulation.
+
+	private ArrayList<PartialHistogram> acc_partials;
+
+	// The accumulation epoch, which is incremented each time accumulation begins.
+	// A partial histogram belongs to the current accumulation only if its epoch matches.
+
+	private int acc_epoch;
+
 
 
 
@@ -91,6 +131,8 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 	public void clear () {
 		infill_meth = 0;
+		acc_meth = 0;
+		conv_fractiles = new double[0];
 
 		time_bins = 0;
 		mag_bins = 0;
@@ -100,6 +142,9 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 		acc_capacity = 0;
 		acc_size = 0;
 		acc_counts = new int[0][0][0];
+		acc_hist = null;
+		acc_partials = new ArrayList<PartialHistogram>();
+		acc_epoch = 0;
 
 		return;
 	}
@@ -124,6 +169,22 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 	// Note: The function stores copies of the given arrays.
 
 	public void setup (int the_infill_meth, double[] the_time_values, double[] the_mag_values) {
+		setup (the_infill_meth, ACC_METH_ARRAY, the_time_values, the_mag_values);
+		return;
+	}
+
+
+
+
+	// Set up to begin accumulating, with a selected accumulation method.
+	// Parameters:
+	//  the_infill_meth = The infill method to use.
+	//  the_acc_meth = The accumulation method to use.
+	//  the_time_values = The time values to define the bins, in days, must be in increasing order.
+	//  the_mag_values = The magnitude values to define the bins, must be in increasing order.
+	// Note: The function stores copies of the given arrays.
+
+	public void setup (int the_infill_meth, int the_acc_meth, double[] the_time_values, double[] the_mag_values) {
 
 		// Parameter validation
 
@@ -131,6 +192,10 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 			throw new IllegalArgumentException ("OEAccumCumTimeMag.setup: Invalid infill method: " + the_infill_meth);
 		}
 
+		if (!( the_acc_meth >= ACC_METH_MIN && the_acc_meth <= ACC_METH_MAX )) {
+			throw new IllegalArgumentException ("OEAccumCumTimeMag.setup: Invalid accumulation method: " + the_acc_meth);
+		}
+
 		if (!( the_time_values != null && the_time_values.length >= 2 )) {
 			throw new IllegalArgumentException ("OEAccumCumTimeMag.setup: Missing time values");
 		}
@@ -154,6 +219,7 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 		// Copy parameters
 
 		infill_meth = the_infill_meth;
+		acc_meth = the_acc_meth;
 
 		time_bins = the_time_values.length - 1;
 		mag_bins = the_mag_values.length - 1;
@@ -165,13 +231,125 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 		acc_capacity = 0;
 		acc_size = 0;
 		acc_counts = null;
+		acc_hist = null;
+		acc_partials = new ArrayList<PartialHistogram>();
+
+		return;
+	}
+
+
 
+
+	// Set the fractiles to monitor for convergence.
+	// Parameters:
+	//  the_conv_fractiles = Fractiles, each between 0.0 and 1.0.
+	// Probabilities of occurrence are always monitored.
+	// Note: The function stores a copy of the given array.
+
+	public void set_conv_fractiles (double... the_conv_fractiles) {
+		for (double fractile : the_conv_fractiles) {
+			if (!( fractile >= 0.0 && fractile <= 1.0 )) {
+				throw new IllegalArgumentException ("OEAccumCumTimeMag.set_conv_fractiles: Invalid fractile: " + fractile);
+			}
+		}
+		conv_fractiles = Arrays.copyOf (the_conv_fractiles, the_conv_fractiles.length);
 		return;
 	}
 
 
 
 
+	//----- Partial histograms -----
+
+
+
+
+	// Partial histograms, holding the counts from the catalogs seen by one consumer.
+
+	private class PartialHistogram {
+
+		// The accumulation epoch when this partial was created.
+
+		public int epoch;
+
+		// The histogram for each bin.
+		// Dimension: hist[time_bins][mag_bins]
+
+		public OECountHistogram[][] hist;
+
+		// Constructor makes empty histograms for the current epoch.
+
+		public PartialHistogram () {
+			epoch = acc_epoch;
+			hist = new OECountHistogram[time_bins][mag_bins];
+			for (int time_ix = 0; time_ix < time_bins; ++time_ix) {
+				for (int mag_ix = 0; mag_ix < mag_bins; ++mag_ix) {
+					hist[time_ix][mag_ix] = new OECountHistogram();
+				}
+			}
+		}
+
+		// Add the counts for one catalog.
+		// Dimension: counts[time_bins][mag_bins]
+
+		public void add (int[][] counts) {
+			for (int time_ix = 0; time_ix < time_bins; ++time_ix) {
+				for (int mag_ix = 0; mag_ix < mag_bins; ++mag_ix) {
+					hist[time_ix][mag_ix].add (counts[time_ix][mag_ix]);
+				}
+			}
+			return;
+		}
+	}
+
+
+
+
+	// Store the counts for one catalog into the accumulator.
+	// Parameters:
+	//  counts = Cumulated counts for the catalog, dimension counts[time_bins][mag_bins].
+	//  partial = The consumer's partial histograms, or null if none yet.
+	// Returns the consumer's partial histograms, which the consumer should pass
+	// in the next call (null if not using the histogram accumulation method).
+	// Threading: Can be called simultaneously from multiple consumers.
+
+	private PartialHistogram store_catalog_counts (int[][] counts, PartialHistogram partial) {
+
+		// Histogram method, add to the partial, creating and registering it if needed
+
+		if (acc_meth == ACC_METH_HISTOGRAM) {
+			PartialHistogram my_partial = partial;
+			if (my_partial == null || my_partial.epoch != acc_epoch) {
+				my_partial = new PartialHistogram();
+				synchronized (this) {
+					acc_partials.add (my_partial);
+				}
+			}
+			my_partial.add (counts);
+			return my_partial;
+		}
+
+		// Array method, get the index for this catalog
+
+		int catix;
+
+		synchronized (this) {
+			if (acc_size >= acc_capacity) {
+				throw new IllegalStateException ("OEAccumCumTimeMag.store_catalog_counts: No room in accumulator");
+			}
+			catix = acc_size;
+			++acc_size;
+		}
+
+		// Store our counts into the accumulator
+
+		OEStatsCalc.set_each_array_column (acc_counts, catix, counts);
+		return null;
+	}
+
+
+
+
 	//----- Consumers -----
 
 
@@ -192,6 +370,10 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 		private int[][] csr_counts;
 
+		// The partial histograms, used for the histogram accumulation method.
+
+		private PartialHistogram csr_partial;
+
 
 		//----- Construction -----
 
@@ -200,6 +382,7 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 		public ConsumerNone () {
 			f_open = false;
 			csr_counts = new int[time_bins][mag_bins];
+			csr_partial = null;
 		}
 
 		//----- Open/Close methods (Implementation of OECatalogConsumer) -----
@@ -239,21 +422,9 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 				OEStatsCalc.cumulate_2d_array (csr_counts, true, false);
 
-				// Get the index for this catalog
-
-				int catix;
-
-				synchronized (OEAccumCumTimeMag.this) {
-					if (acc_size >= acc_capacity) {
-						throw new IllegalStateException ("OEAccumCumTimeMag.ConsumerNone.close: No room in accumulator");
-					}
-					catix = acc_size;
-					++acc_size;
-				}
-
 				// Store our counts into the accumulator
 
-				OEStatsCalc.set_each_array_column (acc_counts, catix, csr_counts);
+				csr_partial = store_catalog_counts (csr_counts, csr_partial);
 			}
 
 			return;
@@ -386,6 +557,10 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 		private int[][] csr_counts;
 
+		// The partial histograms, used for the histogram accumulation method.
+
+		private PartialHistogram csr_partial;
+
 		// Count in each time bin, in the current generation.
 		// Dimension: cur_gen_counts[time_bins]
 
@@ -404,6 +579,7 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 		public ConsumerScale () {
 			f_open = false;
 			csr_counts = new int[time_bins][mag_bins];
+			csr_partial = null;
 			cur_gen_counts = new int[time_bins];
 			infill_mag_bin_hi = 0;
 		}
@@ -445,21 +621,9 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 				OEStatsCalc.cumulate_2d_array (csr_counts, true, false);
 
-				// Get the index for this catalog
-
-				int catix;
-
-				synchronized (OEAccumCumTimeMag.this) {
-					if (acc_size >= acc_capacity) {
-						throw new IllegalStateException ("OEAccumCumTimeMag.ConsumerNone.close: No room in accumulator");
-					}
-					catix = acc_size;
-					++acc_size;
-				}
-
 				// Store our counts into the accumulator
 
-				OEStatsCalc.set_each_array_column (acc_counts, catix, csr_counts);
+				csr_partial = store_catalog_counts (csr_counts, csr_partial);
 			}
 
 			return;
@@ -632,6 +796,10 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 		private int[][] csr_counts;
 
+		// The partial histograms, used for the histogram accumulation method.
+
+		private PartialHistogram csr_partial;
+
 		// The accumulated expected values.
 		// Dimension: csr_counts[time_bins][mag_bins]
 		// Each bin contains the total expected number of ruptures below
@@ -668,6 +836,7 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 		public ConsumerPoisson () {
 			f_open = false;
 			csr_counts = new int[time_bins][mag_bins];
+			csr_partial = null;
 			csr_expected = new double[time_bins][mag_bins];
 			cur_gen_rates = new double[time_bins];
 			infill_mag_bin_hi = 0;
@@ -711,21 +880,9 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 				OEStatsCalc.cumulate_2d_array (csr_counts, true, false);
 
-				// Get the index for this catalog
-
-				int catix;
-
-				synchronized (OEAccumCumTimeMag.this) {
-					if (acc_size >= acc_capacity) {
-						throw new IllegalStateException ("OEAccumCumTimeMag.ConsumerNone.close: No room in accumulator");
-					}
-					catix = acc_size;
-					++acc_size;
-				}
-
 				// Store our counts into the accumulator
 
-				OEStatsCalc.set_each_array_column (acc_counts, catix, csr_counts);
+				csr_partial = store_catalog_counts (csr_counts, csr_partial);
 			}
 
 			return;
@@ -973,6 +1130,10 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 		private int[][] csr_counts;
 
+		// The partial histograms, used for the histogram accumulation method.
+
+		private PartialHistogram csr_partial;
+
 
 		//----- Construction -----
 
@@ -981,6 +1142,7 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 		public ConsumerSterile () {
 			f_open = false;
 			csr_counts = new int[time_bins][mag_bins];
+			csr_partial = null;
 		}
 
 		//----- Open/Close methods (Implementation of OECatalogConsumer) -----
@@ -1020,21 +1182,9 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 				OEStatsCalc.cumulate_2d_array (csr_counts, true, false);
 
-				// Get the index for this catalog
-
-				int catix;
-
-				synchronized (OEAccumCumTimeMag.this) {
-					if (acc_size >= acc_capacity) {
-						throw new IllegalStateException ("OEAccumCumTimeMag.ConsumerNone.close: No room in accumulator");
-					}
-					catix = acc_size;
-					++acc_size;
-				}
-
 				// Store our counts into the accumulator
 
-				OEStatsCalc.set_each_array_column (acc_counts, catix, csr_counts);
+				csr_partial = store_catalog_counts (csr_counts, csr_partial);
 			}
 
 			return;
@@ -1247,6 +1397,17 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 	@Override
 	public void begin_accumulation (int capacity) {
+
+		// Histogram method, discard any prior partials and start a new epoch
+
+		if (acc_meth == ACC_METH_HISTOGRAM) {
+			acc_capacity = Math.max (acc_capacity, capacity);
+			acc_size = 0;
+			acc_hist = null;
+			acc_partials = new ArrayList<PartialHistogram>();
+			++acc_epoch;
+			return;
+		}
 	
 		// Allocate the accumulator
 
@@ -1277,6 +1438,13 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 	@Override
 	public void increase_capacity (int capacity) {
 	
+		// Histogram method, just record the capacity since histograms never fill up
+
+		if (acc_meth == ACC_METH_HISTOGRAM) {
+			acc_capacity = Math.max (acc_capacity, capacity);
+			return;
+		}
+
 		// If increasing capacity, resize accumulator
 
 		if (capacity > acc_capacity) {
@@ -1299,6 +1467,23 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 	@Override
 	public void end_accumulation () {
+
+		// Histogram method, merge the partials, so fractiles are available
+
+		if (acc_meth == ACC_METH_HISTOGRAM) {
+			acc_hist = new OECountHistogram[time_bins][mag_bins];
+			for (int time_ix = 0; time_ix < time_bins; ++time_ix) {
+				for (int mag_ix = 0; mag_ix < mag_bins; ++mag_ix) {
+					acc_hist[time_ix][mag_ix] = new OECountHistogram();
+					for (PartialHistogram partial : acc_partials) {
+						acc_hist[time_ix][mag_ix].merge (partial.hist[time_ix][mag_ix]);
+					}
+				}
+			}
+			acc_partials = new ArrayList<PartialHistogram>();
+			acc_size = acc_hist[0][0].get_total();
+			return;
+		}
 	
 		// Sort each column, so fractiles are available
 
@@ -1310,6 +1495,121 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 
 
+	//----- Implementation of OEEnsembleMonitor -----
+
+
+
+
+	// Minimum number of catalogs needed to estimate the convergence error.
+
+	private static final int MIN_CONV_CATALOGS = 30;
+
+
+
+
+	// Get the estimated error of the monitored statistics.
+	// Returns the largest, over all bins, of:
+	//  - The standard error of the probability of occurrence, sqrt(p*(1-p)/N).
+	//  - For each monitored fractile q, half the spread between the values at ranks
+	//    N*q - sqrt(N*q*(1-q)) and N*q + sqrt(N*q*(1-q)), divided by max(1, value at rank N*q).
+	//    This is the order-statistic (binomial) estimate of the standard error of the
+	//    fractile, relative to its value.  One count is subtracted from the spread,
+	//    because counts are integers, so a fractile cannot be resolved more finely.
+	// Catalogs are independent, so these estimates apply without batching.
+	// Returns infinity if fewer than MIN_CONV_CATALOGS catalogs have been accumulated.
+	// Threading: No other thread should be accessing this object,
+	// and none of its consumers can be open.
+
+	@Override
+	public double get_convergence_error () {
+
+		// Get the histogram of counts in each bin, so far
+
+		OECountHistogram[][] hists = null;
+		int n_cats = acc_size;
+
+		if (acc_meth == ACC_METH_HISTOGRAM) {
+			hists = new OECountHistogram[time_bins][mag_bins];
+			for (int time_ix = 0; time_ix < time_bins; ++time_ix) {
+				for (int mag_ix = 0; mag_ix < mag_bins; ++mag_ix) {
+					hists[time_ix][mag_ix] = new OECountHistogram();
+					for (PartialHistogram partial : acc_partials) {
+						if (partial.epoch == acc_epoch) {
+							hists[time_ix][mag_ix].merge (partial.hist[time_ix][mag_ix]);
+						}
+					}
+				}
+			}
+			n_cats = hists[0][0].get_total();
+		}
+
+		if (n_cats < MIN_CONV_CATALOGS) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		double n = (double)n_cats;
+		double max_error = 0.0;
+		int[] column = null;
+
+		for (int time_ix = 0; time_ix < time_bins; ++time_ix) {
+			for (int mag_ix = 0; mag_ix < mag_bins; ++mag_ix) {
+
+				// Get the number of catalogs with at least one rupture in the bin, and sorted counts if needed
+
+				int occur;
+				if (acc_meth == ACC_METH_HISTOGRAM) {
+					occur = hists[time_ix][mag_ix].get_count_above (0);
+				} else {
+					occur = 0;
+					int[] counts = acc_counts[time_ix][mag_ix];
+					for (int i = 0; i < n_cats; ++i) {
+						if (counts[i] > 0) {
+							++occur;
+						}
+					}
+					if (conv_fractiles.length > 0) {
+						column = Arrays.copyOf (counts, n_cats);
+						Arrays.sort (column);
+					}
+				}
+
+				// Standard error of the probability of occurrence
+
+				double p = ((double)occur) / n;
+				max_error = Math.max (max_error, Math.sqrt (p * (1.0 - p) / n));
+
+				// Relative standard error of each fractile
+
+				for (double q : conv_fractiles) {
+					double rank = q * (n - 1.0);
+					double spread = Math.sqrt (n * q * (1.0 - q));
+					int r_mid = (int)Math.round (rank);
+					int r_lo = Math.max (0, (int)Math.round (rank - spread));
+					int r_hi = Math.min (n_cats - 1, (int)Math.round (rank + spread));
+
+					int v_mid, v_lo, v_hi;
+					if (acc_meth == ACC_METH_HISTOGRAM) {
+						v_mid = hists[time_ix][mag_ix].get_sorted_value (r_mid);
+						v_lo = hists[time_ix][mag_ix].get_sorted_value (r_lo);
+						v_hi = hists[time_ix][mag_ix].get_sorted_value (r_hi);
+					} else {
+						v_mid = column[r_mid];
+						v_lo = column[r_lo];
+						v_hi = column[r_hi];
+					}
+
+					double err = 0.5 * ((double)(Math.max (0, v_hi - v_lo - 1))) / Math.max (1.0, (double)v_mid);
+					max_error = Math.max (max_error, err);
+				}
+			}
+		}
+
+		return max_error;
+	}
+
+
+
+
 	//----- Readout functions -----
 
 
@@ -1357,6 +1657,13 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 	}
 
 
+	// Get the accumulation method.
+
+	public int get_acc_meth () {
+		return acc_meth;
+	}
+
+
 
 
 	// Get a fractile.
@@ -1375,6 +1682,15 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 		if (n >= acc_size) {
 			n = acc_size - 1;
 		}
+		if (acc_meth == ACC_METH_HISTOGRAM) {
+			int[][] result = new int[time_bins][mag_bins];
+			for (int time_ix = 0; time_ix < time_bins; ++time_ix) {
+				for (int mag_ix = 0; mag_ix < mag_bins; ++mag_ix) {
+					result[time_ix][mag_ix] = acc_hist[time_ix][mag_ix].get_sorted_value (n);
+				}
+			}
+			return result;
+		}
 		return OEStatsCalc.get_each_array_column (acc_counts, n);
 	}
 
@@ -1388,6 +1704,15 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 	// at least one rupture occurs.
 
 	public double[][] get_prob_occur_array () {
+		if (acc_meth == ACC_METH_HISTOGRAM) {
+			double[][] result = new double[time_bins][mag_bins];
+			for (int time_ix = 0; time_ix < time_bins; ++time_ix) {
+				for (int mag_ix = 0; mag_ix < mag_bins; ++mag_ix) {
+					result[time_ix][mag_ix] = ((double)(acc_hist[time_ix][mag_ix].get_count_above (0))) / ((double)acc_size);
+				}
+			}
+			return result;
+		}
 		return OEStatsCalc.probex_each_array_column (acc_counts, 0, 0, acc_size);
 	}
 
@@ -1471,6 +1796,7 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 	// Marshal version number.
 
 	private static final int MARSHAL_VER_1 = 77001;
+	private static final int MARSHAL_VER_2 = 77002;
 
 	private static final String M_VERSION_NAME = "OEAccumCumTimeMag";
 
@@ -1480,7 +1806,7 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 		// Version
 
-		int ver = MARSHAL_VER_1;
+		int ver = MARSHAL_VER_2;
 
 		writer.marshalInt (M_VERSION_NAME, ver);
 
@@ -1504,6 +1830,40 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 		}
 		break;
 
+		case MARSHAL_VER_2: {
+
+			writer.marshalInt         ("infill_meth" , infill_meth );
+			writer.marshalInt         ("acc_meth"    , acc_meth    );
+
+			writer.marshalInt         ("time_bins"   , time_bins   );
+			writer.marshalInt         ("mag_bins"    , mag_bins    );
+			writer.marshalDoubleArray ("time_values" , time_values );
+			writer.marshalDoubleArray ("mag_values"  , mag_values  );
+
+			writer.marshalInt         ("acc_capacity", acc_capacity);
+			writer.marshalInt         ("acc_size"    , acc_size    );
+
+			// For the histogram method, write the distinct values and their counts for each bin
+
+			if (acc_meth == ACC_METH_HISTOGRAM) {
+				int[][][] hist_values = new int[time_bins][mag_bins][];
+				int[][][] hist_counts = new int[time_bins][mag_bins][];
+				for (int time_ix = 0; time_ix < time_bins; ++time_ix) {
+					for (int mag_ix = 0; mag_ix < mag_bins; ++mag_ix) {
+						OECountHistogram hist = ((acc_hist == null) ? (new OECountHistogram()) : acc_hist[time_ix][mag_ix]);
+						hist_values[time_ix][mag_ix] = hist.get_values();
+						hist_counts[time_ix][mag_ix] = hist.get_counts (hist_values[time_ix][mag_ix]);
+					}
+				}
+				writer.marshalInt3DArray  ("hist_values" , hist_values );
+				writer.marshalInt3DArray  ("hist_counts" , hist_counts );
+			} else {
+				writer.marshalInt3DArray  ("acc_counts"  , acc_counts  );
+			}
+
+		}
+		break;
+
 		}
 
 		return;
@@ -1515,7 +1875,7 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 	
 		// Version
 
-		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_1);
+		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_2);
 
 		// Contents
 
@@ -1534,6 +1894,46 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 			acc_size     = reader.unmarshalInt         ("acc_size"    );
 			acc_counts   = reader.unmarshalInt3DArray  ("acc_counts"  );
 
+			acc_meth = ACC_METH_ARRAY;
+			acc_hist = null;
+
+		}
+		break;
+
+		case MARSHAL_VER_2: {
+
+			infill_meth  = reader.unmarshalInt         ("infill_meth" );
+			acc_meth     = reader.unmarshalInt         ("acc_meth", ACC_METH_MIN, ACC_METH_MAX);
+
+			time_bins    = reader.unmarshalInt         ("time_bins"   );
+			mag_bins     = reader.unmarshalInt         ("mag_bins"    );
+			time_values  = reader.unmarshalDoubleArray ("time_values" );
+			mag_values   = reader.unmarshalDoubleArray ("mag_values"  );
+
+			acc_capacity = reader.unmarshalInt         ("acc_capacity");
+			acc_size     = reader.unmarshalInt         ("acc_size"    );
+
+			// For the histogram method, rebuild the histogram for each bin
+
+			if (acc_meth == ACC_METH_HISTOGRAM) {
+				int[][][] hist_values = reader.unmarshalInt3DArray  ("hist_values" );
+				int[][][] hist_counts = reader.unmarshalInt3DArray  ("hist_counts" );
+				acc_counts = new int[0][0][0];
+				acc_hist = new OECountHistogram[time_bins][mag_bins];
+				for (int time_ix = 0; time_ix < time_bins; ++time_ix) {
+					for (int mag_ix = 0; mag_ix < mag_bins; ++mag_ix) {
+						try {
+							acc_hist[time_ix][mag_ix] = (new OECountHistogram()).set (hist_values[time_ix][mag_ix], hist_counts[time_ix][mag_ix]);
+						} catch (Exception e) {
+							throw new MarshalException ("OEAccumCumTimeMag.do_umarshal: Invalid histogram: time_ix = " + time_ix + ", mag_ix = " + mag_ix, e);
+						}
+					}
+				}
+			} else {
+				acc_counts   = reader.unmarshalInt3DArray  ("acc_counts"  );
+				acc_hist = null;
+			}
+
 		}
 		break;
 
@@ -1593,6 +1993,20 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 	//  tbegin = Begin time for forecast, in days.
 
 	public void typical_test_setup (int the_infill_meth, double tbegin) {
+		typical_test_setup (the_infill_meth, ACC_METH_ARRAY, tbegin);
+		return;
+	}
+
+
+
+
+	// Set up using typical values for time and magnitude, with a selected accumulation method.
+	// Parameters:
+	//  the_infill_meth = The infill method to use.
+	//  the_acc_meth = The accumulation method to use.
+	//  tbegin = Begin time for forecast, in days.
+
+	public void typical_test_setup (int the_infill_meth, int the_acc_meth, double tbegin) {
 	
 		// Make time array for day, week, month, year
 
@@ -1614,7 +2028,7 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 		// Do the setup
 
-		setup (the_infill_meth, the_time_values, the_mag_values);
+		setup (the_infill_meth, the_acc_meth, the_time_values, the_mag_values);
 		return;
 	}
 
@@ -1826,49 +2240,253 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 
 
-	// Perform a typical test run, multi-threaded version.
+	// Perform a test run comparing the array and histogram accumulation methods.
 	// Parameters:
 	//  test_cat_params = Catalog parameters.
 	//  mag_main = Mainshock magnitude.
 	//  the_infill_meth = Infill method to use.
 	//  num_cats = Number of catalogs to run.
-	//  num_threads = Number of threads to use.
-	//  max_runtime = Maximum running time allowed.
-	// All catalogs use the same parameters, and are seeded with
-	// a single earthquake.
+	// All catalogs use the same parameters, and are seeded with a single earthquake.
+	// Both accumulators consume the same catalogs, so their outputs should be identical,
+	// provided the infill method does not draw random numbers within the consumer
+	// (that is, any method except INFILL_METH_POISSON).
 
-	public static void typical_test_run_mt (OECatalogParams test_cat_params, double mag_main, int the_infill_meth, int num_cats, int num_threads, long max_runtime) {
+	public static void typical_test_run_compare (OECatalogParams test_cat_params, double mag_main, int the_infill_meth, int num_cats) {
 
 		// Say hello
 
 		System.out.println ();
 		System.out.println ("Generating " + num_cats + " catalogs");
-		System.out.println ("Using " + num_threads + " threads");
-		System.out.println ("With " + max_runtime + " maximum runtime");
 		System.out.println ();
 
-		// Make the accumulator and set up the bins
+		// Make the accumulators and set up the bins
 
-		OEAccumCumTimeMag time_mag_accum = new OEAccumCumTimeMag();
-		time_mag_accum.typical_test_setup (the_infill_meth, test_cat_params.tbegin);
+		OEAccumCumTimeMag array_accum = new OEAccumCumTimeMag();
+		array_accum.typical_test_setup (the_infill_meth, ACC_METH_ARRAY, test_cat_params.tbegin);
 
-		// Create the list of accumulators
+		OEAccumCumTimeMag hist_accum = new OEAccumCumTimeMag();
+		hist_accum.typical_test_setup (the_infill_meth, ACC_METH_HISTOGRAM, test_cat_params.tbegin);
 
-		ArrayList<OEEnsembleAccumulator> accumulators = new ArrayList<OEEnsembleAccumulator>();
-		accumulators.add (time_mag_accum);
+		OEEnsembleAccumulator[] accumulators = new OEEnsembleAccumulator[2];
+		accumulators[0] = array_accum;
+		accumulators[1] = hist_accum;
 
-		// Create the first generation info
+		// Begin accumulation, passing the number of catalogs
 
-		OEGenerationInfo test_gen_info = (new OEGenerationInfo()).set (
-			test_cat_params.mref,	// gen_mag_min
-			test_cat_params.msup	// gen_mag_max
-		);
+		for (OEEnsembleAccumulator accumulator : accumulators) {
+			accumulator.begin_accumulation (num_cats);
+		}
 
-		// Create the mainshock rupture
+		// Get the random number generator, scanner, storage, and generator
 
-		OERupture mainshock_rup = new OERupture();
+		OERandomGenerator rangen = OERandomGenerator.get_thread_rangen();
 
-		double k_prod = OEStatsCalc.calc_k_corr (
+		OECatalogScanner cat_scanner = new OECatalogScanner();
+		cat_scanner.setup (accumulators);
+
+		OECatalogStorage cat_storage = new OECatalogStorage();
+
+		OECatalogGenerator cat_generator = new OECatalogGenerator();
+
+		// Loop over number of catalogs ...
+
+		for (int ncat = 0; ncat < num_cats; ++ncat) {
+
+			// Build the catalog, seeded with the mainshock
+
+			cat_storage.begin_catalog (test_cat_params);
+
+			OEGenerationInfo test_gen_info = (new OEGenerationInfo()).set (
+				test_cat_params.mref,	// gen_mag_min
+				test_cat_params.msup	// gen_mag_max
+			);
+
+			cat_storage.begin_generation (test_gen_info);
+
+			OERupture mainshock_rup = new OERupture();
+
+			double k_prod = OEStatsCalc.calc_k_corr (
+				mag_main,			// m0
+				test_cat_params,	// cat_params
+				test_gen_info		// gen_info
+			);
+
+			mainshock_rup.set (
+				0.0,			// t_day
+				mag_main,		// rup_mag
+				k_prod,			// k_prod
+				-1,				// rup_parent
+				0.0,			// x_km
+				0.0				// y_km
+			);
+
+			cat_storage.add_rup (mainshock_rup);
+
+			cat_storage.end_generation();
+
+			cat_generator.setup (rangen, cat_storage, false);
+			cat_generator.calc_all_gen();
+			cat_generator.forget();
+
+			// Scan the catalog into both accumulators
+
+			cat_scanner.open();
+			cat_scanner.scan (cat_storage, rangen);
+			cat_scanner.close();
+		}
+
+		// End accumulation
+
+		for (OEEnsembleAccumulator accumulator : accumulators) {
+			accumulator.end_accumulation ();
+		}
+
+		// Display results from the histogram accumulator
+
+		System.out.println (hist_accum.typical_test_outputs_to_string());
+
+		// Compare fractiles and probabilities of occurrence
+
+		int mismatches = 0;
+		double[] fractiles = {0.0, 0.01, 0.025, 0.16, 0.50, 0.84, 0.975, 0.99, 1.0};
+
+		for (double fractile : fractiles) {
+			int[][] array_fractile = array_accum.get_fractile_array (fractile);
+			int[][] hist_fractile = hist_accum.get_fractile_array (fractile);
+			for (int time_ix = 0; time_ix < array_accum.time_bins; ++time_ix) {
+				for (int mag_ix = 0; mag_ix < array_accum.mag_bins; ++mag_ix) {
+					if (array_fractile[time_ix][mag_ix] != hist_fractile[time_ix][mag_ix]) {
+						++mismatches;
+					}
+				}
+			}
+		}
+
+		double[][] array_prob = array_accum.get_prob_occur_array ();
+		double[][] hist_prob = hist_accum.get_prob_occur_array ();
+		for (int time_ix = 0; time_ix < array_accum.time_bins; ++time_ix) {
+			for (int mag_ix = 0; mag_ix < array_accum.mag_bins; ++mag_ix) {
+				if (array_prob[time_ix][mag_ix] != hist_prob[time_ix][mag_ix]) {
+					++mismatches;
+				}
+			}
+		}
+
+		System.out.println ("array size = " + array_accum.get_size() + ", histogram size = " + hist_accum.get_size());
+		System.out.println ("mismatches = " + mismatches);
+
+		return;
+	}
+
+
+
+
+	// Perform a typical test run, multi-threaded version.
+	// Parameters:
+	//  test_cat_params = Catalog parameters.
+	//  mag_main = Mainshock magnitude.
+	//  the_infill_meth = Infill method to use.
+	//  num_cats = Number of catalogs to run.
+	//  num_threads = Number of threads to use.
+	//  max_runtime = Maximum running time allowed.
+	// All catalogs use the same parameters, and are seeded with
+	// a single earthquake.
+
+	public static void typical_test_run_mt (OECatalogParams test_cat_params, double mag_main, int the_infill_meth, int num_cats, int num_threads, long max_runtime) {
+		typical_test_run_mt (test_cat_params, mag_main, the_infill_meth, num_cats, num_threads, max_runtime, 0L, false);
+		return;
+	}
+
+
+
+
+	// Perform a typical test run, multi-threaded version, with optional per-catalog random streams.
+	// Parameters:
+	//  test_cat_params = Catalog parameters.
+	//  mag_main = Mainshock magnitude.
+	//  the_infill_meth = Infill method to use.
+	//  num_cats = Number of catalogs to run.
+	//  num_threads = Number of threads to use.
+	//  max_runtime = Maximum running time allowed.
+	//  master_seed = Master seed for per-catalog random streams, or 0L if not used.
+	//  f_streaming = True to generate and scan each catalog in a single pass.
+	// Returns the accumulator.
+	// All catalogs use the same parameters, and are seeded with
+	// a single earthquake.
+
+	public static OEAccumCumTimeMag typical_test_run_mt (OECatalogParams test_cat_params, double mag_main, int the_infill_meth, int num_cats, int num_threads, long max_runtime, long master_seed, boolean f_streaming) {
+
+		// Say hello
+
+		System.out.println ();
+		System.out.println ("Generating " + num_cats + " catalogs");
+		System.out.println ("Using " + num_threads + " threads");
+		System.out.println ("With " + max_runtime + " maximum runtime");
+		System.out.println ("With " + master_seed + " master seed");
+		System.out.println ("With streaming = " + f_streaming);
+		System.out.println ();
+
+		// Make the accumulator and set up the bins
+
+		OEAccumCumTimeMag time_mag_accum = new OEAccumCumTimeMag();
+		time_mag_accum.typical_test_setup (the_infill_meth, test_cat_params.tbegin);
+
+		// Create the list of accumulators
+
+		ArrayList<OEEnsembleAccumulator> accumulators = new ArrayList<OEEnsembleAccumulator>();
+		accumulators.add (time_mag_accum);
+
+		// Set up the ensemble parameters
+
+		OEEnsembleParams ensemble_params = typical_test_ensemble_params (test_cat_params, mag_main, accumulators, num_cats);
+		ensemble_params.set_master_seed (master_seed);
+		ensemble_params.set_streaming (f_streaming);
+
+		// Create the ensemble generator
+
+		OEEnsembleGenerator ensemble_generator = new OEEnsembleGenerator();
+
+		// Generate the catalogs
+
+		long progress_time = 10000L;
+		ensemble_generator.generate_all_catalogs (ensemble_params, num_threads, max_runtime, progress_time);
+
+		// Display thread throughput
+
+		System.out.println ();
+		System.out.println (ensemble_generator.get_thread_stats_as_string());
+
+		// Display results
+
+		System.out.println (time_mag_accum.typical_test_outputs_to_string());
+
+		return time_mag_accum;
+	}
+
+
+
+
+	// Make typical ensemble parameters, with catalogs seeded with a single earthquake.
+	// Parameters:
+	//  test_cat_params = Catalog parameters.
+	//  mag_main = Mainshock magnitude.
+	//  accumulators = List of accumulators.
+	//  num_cats = Number of catalogs to run.
+
+	public static OEEnsembleParams typical_test_ensemble_params (OECatalogParams test_cat_params, double mag_main, List<OEEnsembleAccumulator> accumulators, int num_cats) {
+
+		// Create the first generation info
+
+		OEGenerationInfo test_gen_info = (new OEGenerationInfo()).set (
+			test_cat_params.mref,	// gen_mag_min
+			test_cat_params.msup	// gen_mag_max
+		);
+
+		// Create the mainshock rupture
+
+		OERupture mainshock_rup = new OERupture();
+
+		double k_prod = OEStatsCalc.calc_k_corr (
 			mag_main,			// m0
 			test_cat_params,	// cat_params
 			test_gen_info		// gen_info
@@ -1903,20 +2521,7 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 			num_cats			// num_catalogs
 		);
 
-		// Create the ensemble generator
-
-		OEEnsembleGenerator ensemble_generator = new OEEnsembleGenerator();
-
-		// Generate the catalogs
-
-		long progress_time = 10000L;
-		ensemble_generator.generate_all_catalogs (ensemble_params, num_threads, max_runtime, progress_time);
-
-		// Display results
-
-		System.out.println (time_mag_accum.typical_test_outputs_to_string());
-
-		return;
+		return ensemble_params;
 	}
 
 
@@ -2343,6 +2948,438 @@ public class OEAccumCumTimeMag implements OEEnsembleAccumulator {
 
 
 
+		// Subcommand : Test #5
+		// Command format:
+		//  test5  n  p  c  b  alpha  gen_size_target  gen_count_max  mag_main  tbegin  infill_meth  num_cats
+		// Build a catalog with the given parameters.
+		// The "n" is the branch ratio; "a" is computed from it.
+		// Accumulate using both the array and histogram methods, and check that
+		// they produce the same fractiles and probability of occurrence.
+		// Then display the accumulated fractiles and probability of occurrence.
+		// Note that infill_meth should not be INFILL_METH_POISSON.
+
+		if (args[0].equalsIgnoreCase ("test5")) {
+
+			// 11 additional arguments
+
+			if (args.length != 12) {
+				System.err.println ("OEAccumCumTimeMag : Invalid 'test5' subcommand");
+				return;
+			}
+
+			try {
+
+				double n = Double.parseDouble (args[1]);
+				double p = Double.parseDouble (args[2]);
+				double c = Double.parseDouble (args[3]);
+				double b = Double.parseDouble (args[4]);
+				double alpha = Double.parseDouble (args[5]);
+				int gen_size_target = Integer.parseInt (args[6]);
+				int gen_count_max = Integer.parseInt (args[7]);
+				double mag_main = Double.parseDouble (args[8]);
+				double the_tbegin = Double.parseDouble (args[9]);
+				int the_infill_meth = Integer.parseInt (args[10]);
+				int num_cats = Integer.parseInt (args[11]);
+
+				// Say hello
+
+				System.out.println ("Comparing accumulation methods with given parameters");
+				System.out.println ("n = " + n);
+				System.out.println ("p = " + p);
+				System.out.println ("c = " + c);
+				System.out.println ("b = " + b);
+				System.out.println ("alpha = " + alpha);
+				System.out.println ("gen_size_target = " + gen_size_target);
+				System.out.println ("gen_count_max = " + gen_count_max);
+				System.out.println ("mag_main = " + mag_main);
+				System.out.println ("the_tbegin = " + the_tbegin);
+				System.out.println ("the_infill_meth = " + the_infill_meth);
+				System.out.println ("num_cats = " + num_cats);
+
+				// Set up catalog parameters
+
+				double a = 0.0;			// for the moment
+				OECatalogParams test_cat_params = (new OECatalogParams()).set_to_typical (
+					a,
+					p,
+					c,
+					b,
+					alpha,
+					gen_size_target,
+					gen_count_max
+				);
+
+				// Compute productivity "a" for the given branch ratio
+
+				System.out.println ();
+				System.out.println ("Branch ratio calculation");
+
+				a = OEStatsCalc.calc_inv_branch_ratio (n, test_cat_params);
+				test_cat_params.a = a;
+				System.out.println ("a = " + a);
+
+				// Adjust forecast time
+
+				test_cat_params.tbegin = the_tbegin;
+				test_cat_params.tend = the_tbegin + 365.0;
+
+				// Do the test run
+
+				typical_test_run_compare (test_cat_params, mag_main, the_infill_meth, num_cats);
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #6
+		// Command format:
+		//  test6  n  p  c  b  alpha  gen_size_target  gen_count_max  mag_main  tbegin  infill_meth  num_cats
+		//         master_seed  num_threads_1  num_threads_2  catalog_index
+		// Build catalogs with the given parameters, using per-catalog random streams.
+		// The "n" is the branch ratio; "a" is computed from it.
+		// Generate the ensemble twice, with two different numbers of threads,
+		// and check that the accumulated fractiles and probability of occurrence are identical.
+		// Then regenerate one catalog by itself, twice, and check the results agree.
+
+		if (args[0].equalsIgnoreCase ("test6")) {
+
+			// 15 additional arguments
+
+			if (args.length != 16) {
+				System.err.println ("OEAccumCumTimeMag : Invalid 'test6' subcommand");
+				return;
+			}
+
+			try {
+
+				double n = Double.parseDouble (args[1]);
+				double p = Double.parseDouble (args[2]);
+				double c = Double.parseDouble (args[3]);
+				double b = Double.parseDouble (args[4]);
+				double alpha = Double.parseDouble (args[5]);
+				int gen_size_target = Integer.parseInt (args[6]);
+				int gen_count_max = Integer.parseInt (args[7]);
+				double mag_main = Double.parseDouble (args[8]);
+				double the_tbegin = Double.parseDouble (args[9]);
+				int the_infill_meth = Integer.parseInt (args[10]);
+				int num_cats = Integer.parseInt (args[11]);
+				long master_seed = Long.parseLong (args[12]);
+				int num_threads_1 = Integer.parseInt (args[13]);
+				int num_threads_2 = Integer.parseInt (args[14]);
+				int catalog_index = Integer.parseInt (args[15]);
+
+				// Say hello
+
+				System.out.println ("Generating reproducible catalogs with given parameters");
+				System.out.println ("n = " + n);
+				System.out.println ("p = " + p);
+				System.out.println ("c = " + c);
+				System.out.println ("b = " + b);
+				System.out.println ("alpha = " + alpha);
+				System.out.println ("gen_size_target = " + gen_size_target);
+				System.out.println ("gen_count_max = " + gen_count_max);
+				System.out.println ("mag_main = " + mag_main);
+				System.out.println ("the_tbegin = " + the_tbegin);
+				System.out.println ("the_infill_meth = " + the_infill_meth);
+				System.out.println ("num_cats = " + num_cats);
+				System.out.println ("master_seed = " + master_seed);
+				System.out.println ("num_threads_1 = " + num_threads_1);
+				System.out.println ("num_threads_2 = " + num_threads_2);
+				System.out.println ("catalog_index = " + catalog_index);
+
+				// Set up catalog parameters
+
+				double a = 0.0;			// for the moment
+				OECatalogParams test_cat_params = (new OECatalogParams()).set_to_typical (
+					a,
+					p,
+					c,
+					b,
+					alpha,
+					gen_size_target,
+					gen_count_max
+				);
+
+				// Compute productivity "a" for the given branch ratio
+
+				System.out.println ();
+				System.out.println ("Branch ratio calculation");
+
+				a = OEStatsCalc.calc_inv_branch_ratio (n, test_cat_params);
+				test_cat_params.a = a;
+				System.out.println ("a = " + a);
+
+				// Adjust forecast time
+
+				test_cat_params.tbegin = the_tbegin;
+				test_cat_params.tend = the_tbegin + 365.0;
+
+				// Do the two test runs, and compare
+
+				OEAccumCumTimeMag accum_1 = typical_test_run_mt (test_cat_params, mag_main, the_infill_meth, num_cats, num_threads_1, -1L, master_seed, false);
+				OEAccumCumTimeMag accum_2 = typical_test_run_mt (test_cat_params, mag_main, the_infill_meth, num_cats, num_threads_2, -1L, master_seed, false);
+
+				boolean f_same = accum_1.typical_test_outputs_to_string().equals (accum_2.typical_test_outputs_to_string());
+				System.out.println ("Ensemble outputs identical = " + f_same);
+
+				// Regenerate one catalog twice, and compare
+
+				OEEnsembleParams ensemble_params = typical_test_ensemble_params (test_cat_params, mag_main, new ArrayList<OEEnsembleAccumulator>(), num_cats);
+				ensemble_params.set_master_seed (master_seed);
+
+				OECatalogStorage cat_1 = OEEnsembleGenerator.gen_single_catalog (ensemble_params, catalog_index);
+				OECatalogStorage cat_2 = OEEnsembleGenerator.gen_single_catalog (ensemble_params, catalog_index);
+
+				System.out.println ();
+				System.out.println ("Catalog " + catalog_index + ": gens = " + cat_1.get_gen_count() + ", size = " + cat_1.size());
+				System.out.println ("Single catalog identical = " + cat_1.dump_to_string().equals (cat_2.dump_to_string()));
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #7
+		// Command format:
+		//  test7  n  p  c  b  alpha  gen_size_target  gen_count_max  mag_main  tbegin  infill_meth  num_cats
+		//         master_seed  num_threads
+		// Build catalogs with the given parameters, using per-catalog random streams.
+		// The "n" is the branch ratio; "a" is computed from it.
+		// Generate the ensemble twice, first generating and then scanning each catalog,
+		// and then generating and scanning each catalog in a single pass.
+		// Check that the accumulated fractiles and probability of occurrence are identical.
+		// Note that infill_meth should be INFILL_METH_NONE or INFILL_METH_SCALE, because
+		// other infill methods draw random numbers in a different order when streaming.
+
+		if (args[0].equalsIgnoreCase ("test7")) {
+
+			// 13 additional arguments
+
+			if (args.length != 14) {
+				System.err.println ("OEAccumCumTimeMag : Invalid 'test7' subcommand");
+				return;
+			}
+
+			try {
+
+				double n = Double.parseDouble (args[1]);
+				double p = Double.parseDouble (args[2]);
+				double c = Double.parseDouble (args[3]);
+				double b = Double.parseDouble (args[4]);
+				double alpha = Double.parseDouble (args[5]);
+				int gen_size_target = Integer.parseInt (args[6]);
+				int gen_count_max = Integer.parseInt (args[7]);
+				double mag_main = Double.parseDouble (args[8]);
+				double the_tbegin = Double.parseDouble (args[9]);
+				int the_infill_meth = Integer.parseInt (args[10]);
+				int num_cats = Integer.parseInt (args[11]);
+				long master_seed = Long.parseLong (args[12]);
+				int num_threads = Integer.parseInt (args[13]);
+
+				// Say hello
+
+				System.out.println ("Comparing stored and streaming catalogs with given parameters");
+				System.out.println ("n = " + n);
+				System.out.println ("p = " + p);
+				System.out.println ("c = " + c);
+				System.out.println ("b = " + b);
+				System.out.println ("alpha = " + alpha);
+				System.out.println ("gen_size_target = " + gen_size_target);
+				System.out.println ("gen_count_max = " + gen_count_max);
+				System.out.println ("mag_main = " + mag_main);
+				System.out.println ("the_tbegin = " + the_tbegin);
+				System.out.println ("the_infill_meth = " + the_infill_meth);
+				System.out.println ("num_cats = " + num_cats);
+				System.out.println ("master_seed = " + master_seed);
+				System.out.println ("num_threads = " + num_threads);
+
+				// Set up catalog parameters
+
+				double a = 0.0;			// for the moment
+				OECatalogParams test_cat_params = (new OECatalogParams()).set_to_typical (
+					a,
+					p,
+					c,
+					b,
+					alpha,
+					gen_size_target,
+					gen_count_max
+				);
+
+				// Compute productivity "a" for the given branch ratio
+
+				System.out.println ();
+				System.out.println ("Branch ratio calculation");
+
+				a = OEStatsCalc.calc_inv_branch_ratio (n, test_cat_params);
+				test_cat_params.a = a;
+				System.out.println ("a = " + a);
+
+				// Adjust forecast time
+
+				test_cat_params.tbegin = the_tbegin;
+				test_cat_params.tend = the_tbegin + 365.0;
+
+				// Do the two test runs, and compare
+
+				long time_1 = System.currentTimeMillis();
+				OEAccumCumTimeMag accum_1 = typical_test_run_mt (test_cat_params, mag_main, the_infill_meth, num_cats, num_threads, -1L, master_seed, false);
+				long time_2 = System.currentTimeMillis();
+				OEAccumCumTimeMag accum_2 = typical_test_run_mt (test_cat_params, mag_main, the_infill_meth, num_cats, num_threads, -1L, master_seed, true);
+				long time_3 = System.currentTimeMillis();
+
+				boolean f_same = accum_1.typical_test_outputs_to_string().equals (accum_2.typical_test_outputs_to_string());
+				System.out.println ("Stored time = " + (time_2 - time_1) + " ms, streaming time = " + (time_3 - time_2) + " ms");
+				System.out.println ("Ensemble outputs identical = " + f_same);
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #8
+		// Command format:
+		//  test8  n  p  c  b  alpha  gen_size_target  gen_count_max  mag_main  tbegin  infill_meth  acc_meth
+		//         num_cats  max_cats  conv_tolerance  master_seed  num_threads
+		// Build catalogs with the given parameters, using per-catalog random streams and
+		// adaptive ensemble sizing.  Begin with num_cats catalogs, and add rounds of catalogs
+		// until the convergence error is at most conv_tolerance, or max_cats catalogs are made.
+		// The median and 97.5 percentile are monitored, in addition to probabilities.
+		// The "n" is the branch ratio; "a" is computed from it.
+		// Display the number of rounds and catalogs, and the results.
+
+		if (args[0].equalsIgnoreCase ("test8")) {
+
+			// 16 additional arguments
+
+			if (args.length != 17) {
+				System.err.println ("OEAccumCumTimeMag : Invalid 'test8' subcommand");
+				return;
+			}
+
+			try {
+
+				double n = Double.parseDouble (args[1]);
+				double p = Double.parseDouble (args[2]);
+				double c = Double.parseDouble (args[3]);
+				double b = Double.parseDouble (args[4]);
+				double alpha = Double.parseDouble (args[5]);
+				int gen_size_target = Integer.parseInt (args[6]);
+				int gen_count_max = Integer.parseInt (args[7]);
+				double mag_main = Double.parseDouble (args[8]);
+				double the_tbegin = Double.parseDouble (args[9]);
+				int the_infill_meth = Integer.parseInt (args[10]);
+				int the_acc_meth = Integer.parseInt (args[11]);
+				int num_cats = Integer.parseInt (args[12]);
+				int max_cats = Integer.parseInt (args[13]);
+				double conv_tolerance = Double.parseDouble (args[14]);
+				long master_seed = Long.parseLong (args[15]);
+				int num_threads = Integer.parseInt (args[16]);
+
+				// Say hello
+
+				System.out.println ("Generating catalogs with adaptive ensemble sizing");
+				System.out.println ("n = " + n);
+				System.out.println ("p = " + p);
+				System.out.println ("c = " + c);
+				System.out.println ("b = " + b);
+				System.out.println ("alpha = " + alpha);
+				System.out.println ("gen_size_target = " + gen_size_target);
+				System.out.println ("gen_count_max = " + gen_count_max);
+				System.out.println ("mag_main = " + mag_main);
+				System.out.println ("the_tbegin = " + the_tbegin);
+				System.out.println ("the_infill_meth = " + the_infill_meth);
+				System.out.println ("the_acc_meth = " + the_acc_meth);
+				System.out.println ("num_cats = " + num_cats);
+				System.out.println ("max_cats = " + max_cats);
+				System.out.println ("conv_tolerance = " + conv_tolerance);
+				System.out.println ("master_seed = " + master_seed);
+				System.out.println ("num_threads = " + num_threads);
+
+				// Set up catalog parameters
+
+				double a = 0.0;			// for the moment
+				OECatalogParams test_cat_params = (new OECatalogParams()).set_to_typical (
+					a,
+					p,
+					c,
+					b,
+					alpha,
+					gen_size_target,
+					gen_count_max
+				);
+
+				// Compute productivity "a" for the given branch ratio
+
+				System.out.println ();
+				System.out.println ("Branch ratio calculation");
+
+				a = OEStatsCalc.calc_inv_branch_ratio (n, test_cat_params);
+				test_cat_params.a = a;
+				System.out.println ("a = " + a);
+
+				// Adjust forecast time
+
+				test_cat_params.tbegin = the_tbegin;
+				test_cat_params.tend = the_tbegin + 365.0;
+
+				// Make the accumulator and set up the bins
+
+				OEAccumCumTimeMag time_mag_accum = new OEAccumCumTimeMag();
+				time_mag_accum.typical_test_setup (the_infill_meth, the_acc_meth, test_cat_params.tbegin);
+				time_mag_accum.set_conv_fractiles (0.5, 0.975);
+
+				ArrayList<OEEnsembleAccumulator> accumulators = new ArrayList<OEEnsembleAccumulator>();
+				accumulators.add (time_mag_accum);
+
+				// Set up the ensemble parameters
+
+				OEEnsembleParams ensemble_params = typical_test_ensemble_params (test_cat_params, mag_main, accumulators, num_cats);
+				ensemble_params.set_master_seed (master_seed);
+				ensemble_params.set_adaptive (max_cats, conv_tolerance);
+
+				// Generate the catalogs
+
+				System.out.println ();
+				OEEnsembleGenerator ensemble_generator = new OEEnsembleGenerator();
+				ensemble_generator.generate_all_catalogs (ensemble_params, num_threads, -1L, 10000L);
+
+				// Display results
+
+				System.out.println ();
+				System.out.println ("Rounds = " + ensemble_generator.get_round_count());
+				System.out.println ("Catalogs = " + ensemble_generator.get_catalog_count());
+				System.out.println ("Convergence error = " + ensemble_generator.get_conv_error());
+				System.out.println ("Converged = " + ensemble_generator.is_converged());
+				System.out.println ();
+				System.out.println (time_mag_accum.typical_test_outputs_to_string());
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("OEAccumCumTimeMag : Unrecognized subcommand : " + args[0]);
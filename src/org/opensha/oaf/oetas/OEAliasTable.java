@@ -0,0 +1,246 @@
+package org.opensha.oaf.oetas;
+
+
+// Class to hold a Walker/Vose alias table for sampling a discrete distribution.
+//
+// Given weights w[0], w[1], ... w[len-1], an alias table permits drawing an
+// index v, with probability proportional to w[v], in constant time per sample.
+// Building the table takes time proportional to len.  This is useful when
+// the number of samples drawn from the same distribution is comparable to
+// or larger than the number of weights (for example, assigning the ruptures
+// of a new generation to their parents).
+//
+// The table consists of len columns.  A sample is drawn by choosing a column i
+// uniformly at random, and then returning i with probability col_prob[i],
+// or col_alias[i] with probability 1 - col_prob[i].
+//
+// An element with zero weight is never returned.  This matches the behavior of
+// OERandomGenerator.cumulative_pick, where only the first element in a run of
+// equal cumulative values can be chosen.
+//
+// Only one thread at a time can use one of these objects.  After the table
+// is built it can be re-used for any number of samples, and the object
+// can be re-used to build another table.
+
+public class OEAliasTable {
+
+	//----- Constants -----
+
+	// Default size of workspace arrays.
+
+	private static final int DEF_WORKSPACE_CAPACITY = 1000;
+
+
+
+
+	//----- Table -----
+
+	// The number of columns in the table.
+
+	private int table_len;
+
+	// Current workspace capacity.
+
+	private int workspace_capacity;
+
+	// Probability of returning the column index itself, for each column.
+
+	private double[] col_prob;
+
+	// Alias to return when the column index is not returned, for each column.
+
+	private int[] col_alias;
+
+	// Work list used while building the table.
+	// Indexes with scaled weight < 1 are pushed from the bottom,
+	// and indexes with scaled weight >= 1 are pushed from the top.
+
+	private int[] work_list;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Clear to default values.
+
+	public void clear () {
+		table_len = 0;
+		workspace_capacity = DEF_WORKSPACE_CAPACITY;
+		col_prob = new double[workspace_capacity];
+		col_alias = new int[workspace_capacity];
+		work_list = new int[workspace_capacity];
+		return;
+	}
+
+
+
+
+	// Default constructor.
+
+	public OEAliasTable () {
+		clear();
+	}
+
+
+
+
+	// Get the number of columns in the table.
+
+	public int get_table_len () {
+		return table_len;
+	}
+
+
+
+
+	//----- Building -----
+
+
+
+
+	// Build the table from an array of cumulative weights.
+	// Parameters:
+	//  x = Array of cumulative weights, x[i] = w[0] + ... + w[i].
+	//  len = Length of array (uses x[0] through x[len-1]), must be > 0.
+	// Requires 0 <= x[0] <= x[1] <= ... <= x[len-1], and x[len-1] > 0.
+	// The layout of x is the same as for OERandomGenerator.cumulative_sample,
+	// so the same array can be passed to either one.
+
+	public void build_from_cumulative (double[] x, int len) {
+
+		// Ensure workspace arrays are large enough
+
+		if (len > workspace_capacity) {
+			do {
+				workspace_capacity = workspace_capacity * 2;
+			} while (len > workspace_capacity);
+
+			col_prob = new double[workspace_capacity];
+			col_alias = new int[workspace_capacity];
+			work_list = new int[workspace_capacity];
+		}
+
+		table_len = len;
+
+		// Scale factor so the average column has scaled weight 1
+
+		double scale = ((double)len) / x[len - 1];
+
+		// Fill in scaled weights, and sort indexes into small and large,
+		// also remember an index with the largest weight for use as a fallback
+
+		int n_small = 0;
+		int n_large = len;
+		int i_fallback = 0;
+		double prev_x = 0.0;
+		double max_w = -1.0;
+
+		for (int i = 0; i < len; ++i) {
+			double w = x[i] - prev_x;
+			prev_x = x[i];
+			if (w > max_w) {
+				max_w = w;
+				i_fallback = i;
+			}
+			double sw = w * scale;
+			col_prob[i] = sw;
+			if (sw < 1.0) {
+				work_list[n_small++] = i;
+			} else {
+				work_list[--n_large] = i;
+			}
+		}
+
+		// Pair each small index with a large index, which donates its excess
+
+		while (n_small > 0 && n_large < len) {
+			int i_small = work_list[--n_small];
+			int i_large = work_list[n_large];
+
+			col_alias[i_small] = i_large;
+
+			double sw = (col_prob[i_large] + col_prob[i_small]) - 1.0;
+			col_prob[i_large] = sw;
+
+			// If the large index has become small, move it to the small list
+
+			if (sw < 1.0) {
+				++n_large;
+				work_list[n_small++] = i_large;
+			}
+		}
+
+		// Any remaining large indexes are full columns
+
+		while (n_large < len) {
+			int i_large = work_list[n_large++];
+			col_prob[i_large] = 1.0;
+			col_alias[i_large] = i_large;
+		}
+
+		// Any remaining small indexes are due to rounding error; they are treated
+		// as full columns, except that a zero weight is redirected to the fallback
+
+		while (n_small > 0) {
+			int i_small = work_list[--n_small];
+			if (col_prob[i_small] > 0.0) {
+				col_prob[i_small] = 1.0;
+				col_alias[i_small] = i_small;
+			} else {
+				col_prob[i_small] = 0.0;
+				col_alias[i_small] = i_fallback;
+			}
+		}
+
+		return;
+	}
+
+
+
+
+	//----- Sampling -----
+
+
+
+
+	// Pick an element from the table.
+	// Parameters:
+	//  u1 = Random number uniformly distributed between 0 and 1, used to choose the column.
+	//  u2 = Random number uniformly distributed between 0 and 1, used to choose within the column.
+	// Returns an integer v such that 0 <= v < len, where the probability
+	// of choosing v is proportional to w[v].
+	// Note: Two random numbers are used, rather than splitting one into integer and
+	// fractional parts, because random number resolution is typically 32 bits,
+	// which would leave too few bits for the fractional part in a large table.
+
+	public int pick (double u1, double u2) {
+		int i = (int)(u1 * ((double)table_len));
+		if (i >= table_len) {
+			i = table_len - 1;
+		}
+		if (u2 < col_prob[i]) {
+			return i;
+		}
+		return col_alias[i];
+	}
+
+
+
+
+	// Sample an element from the table.
+	// Parameters:
+	//  rangen = Random number generator to use.
+	// Returns an integer v such that 0 <= v < len, where the probability
+	// of choosing v is proportional to w[v].
+
+	public int sample (OERandomGenerator rangen) {
+		double u1 = rangen.uniform_sample (0.0, 1.0);
+		double u2 = rangen.uniform_sample (0.0, 1.0);
+		return pick (u1, u2);
+	}
+
+}
@@ -56,6 +56,15 @@ public interface OECatalogBuilder extends OECatalogView {
 
 	// public void get_rup (int i_gen, int j_rup, OERupture rup);		// inherited
 
+	// Get a segment of consecutive ruptures in the i-th generation, for bulk access.
+	// Parameters:
+	//  i_gen = Generation number.
+	//  j_rup = First rupture number, within the generation.
+	//  seg = Structure to receive the segment.
+	// Returns the number of ruptures in the segment, or 0 if j_rup is at or past the end of the generation.
+
+	// public default int get_rup_segment (int i_gen, int j_rup, OERupSegment seg);		// inherited
+
 	// Construct a string that summarizes the catalog contents.
 	// This displays the catalog size and generation count,
 	// parameters, and info for each generation.
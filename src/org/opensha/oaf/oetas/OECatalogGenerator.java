@@ -1,7 +1,13 @@
 package org.opensha.oaf.oetas;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import static org.opensha.oaf.oetas.OEConstants.TINY_OMORI_RATE;
 import static org.opensha.oaf.oetas.OEConstants.SMALL_EXPECTED_COUNT;
+import static org.opensha.oaf.oetas.OEConstants.PARENT_METH_BSEARCH;
+import static org.opensha.oaf.oetas.OEConstants.PARENT_METH_ALIAS;
 
 
 // Class for generating an Operational ETAS catalog.
@@ -12,6 +18,8 @@ import static org.opensha.oaf.oetas.OEConstants.SMALL_EXPECTED_COUNT;
 // generations.
 //
 // Only one thread at a time can use one of these objects.
+// However, if fork/join mode is enabled (see set_fork_join), then a very large
+// generation is split into blocks that are processed by sub-tasks in a fork/join pool.
 //
 // After a catalog has been generated, this object can be re-used
 // to generate another catalog.
@@ -24,6 +32,15 @@ public class OECatalogGenerator {
 
 	private static final int DEF_WORKSPACE_CAPACITY = 1000;
 
+	// Default size of per-parent child arrays.
+
+	private static final int DEF_CHILD_CAPACITY = 64;
+
+	// Number of ruptures per block, in fork/join mode.
+	// This is fixed, so the result does not depend on the parallelism of the pool.
+
+	private static final int FJ_BLOCK_SIZE = 8192;
+
 
 
 
@@ -106,6 +123,46 @@ public class OECatalogGenerator {
 
 	private int[] work_child_count;
 
+	// Alias table, used to assign parents when cat_params.parent_meth == PARENT_METH_ALIAS.
+
+	private OEAliasTable work_alias_table;
+
+	// Segment used for bulk access to ruptures in the current generation.
+
+	private OERupSegment work_segment;
+
+	// Precomputed Omori and G-R constants for the catalog and the next generation.
+
+	private OEOmoriGRKernel work_kernel;
+
+	// Child times, magnitudes, and productivities, for the children of one rupture.
+	// Each array has length child_capacity.
+
+	private int child_capacity;
+	private double[] work_child_t_day;
+	private double[] work_child_mag;
+	private double[] work_child_k_prod;
+
+
+
+
+	//----- Fork/join -----
+
+	// The fork/join pool, or null if fork/join mode is disabled.
+
+	private ForkJoinPool fj_pool;
+
+	// The generation size at which fork/join mode is used.
+
+	private int fj_threshold;
+
+	// Per-block workspace, for blocks of the current generation.
+	// This is allocated for each fork/join generation, and released once the children are
+	// added to the catalog, so large workspaces are not retained between generations.
+
+	private FJBlock[] fj_blocks;
+	private int fj_block_count;
+
 
 
 
@@ -129,6 +186,17 @@ public class OECatalogGenerator {
 		workspace_capacity = DEF_WORKSPACE_CAPACITY;
 		work_omori_rate = new double[workspace_capacity];
 		work_child_count = new int[workspace_capacity];
+		work_alias_table = new OEAliasTable();
+		work_segment = new OERupSegment();
+		work_kernel = new OEOmoriGRKernel();
+		child_capacity = DEF_CHILD_CAPACITY;
+		work_child_t_day = new double[child_capacity];
+		work_child_mag = new double[child_capacity];
+		work_child_k_prod = new double[child_capacity];
+		fj_pool = null;
+		fj_threshold = 0;
+		fj_blocks = new FJBlock[0];
+		fj_block_count = 0;
 		return;
 	}
 
@@ -170,6 +238,10 @@ public class OECatalogGenerator {
 		// Get the catalog parameters
 
 		this.cat_builder.get_cat_params (cat_params);
+
+		// Precompute the Omori and G-R constants for this catalog
+
+		work_kernel.set_params (cat_params);
 		return;
 	}
 
@@ -191,6 +263,33 @@ public class OECatalogGenerator {
 
 
 
+	// Enable or disable fork/join mode.
+	// Parameters:
+	//  fj_pool = Fork/join pool to use, or null to disable fork/join mode.
+	//  fj_threshold = Generation size at which fork/join mode is used, must be > 0 if fj_pool is non-null.
+	// In fork/join mode, when the current generation has at least fj_threshold ruptures,
+	// it is divided into blocks of a fixed size.  Sub-tasks scan the blocks for Omori rates,
+	// and then each sub-task draws its block's child count and samples its children,
+	// using its own random stream derived from a seed drawn from the catalog's generator.
+	// The children are added to the catalog in block order, so the catalog depends only on
+	// the catalog's random stream, and not on the number of threads or scheduling order.
+	// Note: The result is statistically equivalent to, but not the same as, the result
+	// without fork/join mode.  The total number of children is the sum of independent
+	// Poisson counts for the blocks, which has the same distribution as a single count.
+	// Note: Setup retains this setting, so it can be made once when the generator is allocated.
+
+	public void set_fork_join (ForkJoinPool fj_pool, int fj_threshold) {
+		if (fj_pool != null && fj_threshold <= 0) {
+			throw new IllegalArgumentException ("OECatalogGenerator.set_fork_join: Invalid threshold: fj_threshold = " + fj_threshold);
+		}
+		this.fj_pool = fj_pool;
+		this.fj_threshold = fj_threshold;
+		return;
+	}
+
+
+
+
 	// Get the random number generator.
 
 	public OERandomGenerator get_rangen () {
@@ -209,6 +308,24 @@ public class OECatalogGenerator {
 
 
 
+	// Ensure the per-parent child arrays can hold the given number of children.
+
+	private void ensure_child_capacity (int needed) {
+		if (needed > child_capacity) {
+			do {
+				child_capacity = child_capacity * 2;
+			} while (needed > child_capacity);
+
+			work_child_t_day = new double[child_capacity];
+			work_child_mag = new double[child_capacity];
+			work_child_k_prod = new double[child_capacity];
+		}
+		return;
+	}
+
+
+
+
 	// Calculate the next generation.
 	// Returns the number of earthquakes in the new generation.
 	// If the return value is zero, then no generation was added,
@@ -250,6 +367,12 @@ public class OECatalogGenerator {
 			return 0;
 		}
 
+		// If fork/join mode is enabled and the generation is large, split it into blocks
+
+		if (fj_pool != null && cur_gen_size >= fj_threshold) {
+			return calc_next_gen_fj (cur_i_gen, cur_gen_size);
+		}
+
 		// Ensure workspace arrays are large enough for the current generation
 
 		if (cur_gen_size > workspace_capacity) {
@@ -263,41 +386,135 @@ public class OECatalogGenerator {
 
 		// Scan the current generation ...
 
+		// (Ruptures are read in segments, directly from the catalog's arrays)
+
 		double total_omori_rate = 0.0;
 
+		for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ) {
+
+			// Get the next segment of ruptures in the current generation
+
+			int seg_length = cat_builder.get_rup_segment (cur_i_gen, cur_j_rup, work_segment);
+			final double[] seg_t_day = work_segment.t_day;
+			final float[] seg_k_prod = work_segment.k_prod;
+			final int seg_offset = work_segment.offset;
+
+			// Calculate their expected rates in the forecast interval, and accumulate the total
+
+			total_omori_rate = work_kernel.omori_rate_cum_batch (seg_t_day, seg_k_prod, seg_offset, work_omori_rate, cur_j_rup, seg_length, total_omori_rate);
+
+			// Initialize child counts
+
+			Arrays.fill (work_child_count, cur_j_rup, cur_j_rup + seg_length, 0);
+			cur_j_rup += seg_length;
+		}
+
+		// Get expected count for next generation, and its magnitude range in next_gen_info
+
+		double expected_count = calc_next_gen_expected_count (total_omori_rate);
+
+		if (expected_count <= 0.0) {
+			return 0;
+		}
+
+		// The size of the next generation is a Poisson random variable
+		// with the expected value
+
+		int next_gen_size = rangen.poisson_sample_checked (expected_count);
+
+		// If it's zero, we're done
+
+		if (next_gen_size <= 0) {
+			return 0;
+		}
+
+		// Distribute the child earthquakes over the possible parents
+		// with probability proportional to each parent's expected rate
+
+		distribute_children (rangen, cat_params.parent_meth, work_omori_rate, work_child_count, cur_gen_size, next_gen_size, work_alias_table);
+
+		// Begin a new generation
+
+		cat_builder.begin_generation (next_gen_info);
+
+		// Precompute the G-R and productivity constants for the next generation
+
+		work_kernel.set_mag_range (next_gen_info);
+
+		// Scan the current generation ...
+
 		for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ++cur_j_rup) {
 
-			// Get the rupture in the current generation
+			// Get the child count, and check it's non-zero
+
+			int child_count = work_child_count[cur_j_rup];
+			if (child_count > 0) {
+
+				// Get the rupture in the current generation
 
-			cat_builder.get_rup (cur_i_gen, cur_j_rup, cur_rup);
+				cat_builder.get_rup (cur_i_gen, cur_j_rup, cur_rup);
 
-			// Calculate its expected rate in the forecast interval
+				// Assign times, magnitudes, and productivities to all the children at once
 
-			double omori_rate = cur_rup.k_prod * OERandomGenerator.omori_rate_shifted (
-				cat_params.p,			// p
-				cat_params.c,			// c
-				cur_rup.t_day,			// t0
-				cat_params.teps,		// teps
-				cat_params.tbegin,		// t1
-				cat_params.tend			// t2
-				);
+				ensure_child_capacity (child_count);
+				rangen.omori_gr_sample_batch (work_kernel, cur_rup.t_day, work_child_t_day, work_child_mag, 0, child_count);
+				work_kernel.k_corr_batch (work_child_mag, 0, work_child_k_prod, 0, child_count);
 
-			// Accumulate the total
+				// Loop over children
 
-			total_omori_rate += omori_rate;
-			work_omori_rate[cur_j_rup] = total_omori_rate;
+				for (int n = 0; n < child_count; ++n) {
+				
+					// Time, magnitude, and productivity for this child
 
-			// Initialize child count
+					next_rup.t_day = work_child_t_day[n];
+					next_rup.rup_mag = work_child_mag[n];
+					next_rup.k_prod = work_child_k_prod[n];
 
-			work_child_count[cur_j_rup] = 0;
+					// Assign a parent to this child
+
+					next_rup.rup_parent = cur_j_rup;
+
+					// Assign coordinates to this child
+					// (Since this is temporal ETAS, just copy the parent coordinates)
+
+					next_rup.x_km = cur_rup.x_km;
+					next_rup.y_km = cur_rup.y_km;
+
+					// Save the rupture
+
+					cat_builder.add_rup (next_rup);
+				}
+			}
 		}
 
+		// End the generation
+
+		cat_builder.end_generation ();
+
+		// Return the size of the new generation
+
+		return next_gen_size;
+	}
+
+
+
+
+	// Get the expected size and magnitude range of the next generation.
+	// Parameters:
+	//  total_omori_rate = Total Omori rate of the current generation in the forecast interval.
+	// Returns the expected number of earthquakes in the next generation, or 0.0 if the
+	// next generation should be empty.  If the return is non-zero, the magnitude range
+	// of the next generation is stored in next_gen_info.
+	// Note: This is used by both calc_next_gen and calc_next_gen_fj.
+
+	private double calc_next_gen_expected_count (double total_omori_rate) {
+
 		// To avoid divide-by-zero, stop if total rate is extremely small
 		// (Note that OERandomGenerator.gr_inv_rate will not overflow even if
 		// the requested rate is very large, because its return is logarithmic)
 
 		if (total_omori_rate < TINY_OMORI_RATE) {
-			return 0;
+			return 0.0;
 		}
 
 		// Get expected count and magnitude range for next generation,
@@ -337,139 +554,398 @@ public class OECatalogGenerator {
 		// Very small expected counts are treated as zero
 
 		if (expected_count < SMALL_EXPECTED_COUNT) {
-			return 0;
+			return 0.0;
 		}
 
-		// The size of the next generation is a Poisson random variable
-		// with the expected value
+		// Set up generation info for the next generation
 
-		int next_gen_size = rangen.poisson_sample_checked (expected_count);
+		next_gen_info.set (
+			next_mag_min,				// gen_mag_min,
+			cat_params.mag_max_sim		// gen_mag_max
+			);
 
-		// If it's zero, we're done
+		return expected_count;
+	}
 
-		if (next_gen_size <= 0) {
-			return 0;
+
+
+
+	// Distribute child earthquakes over the possible parents.
+	// Parameters:
+	//  rangen = Random number generator to use.
+	//  parent_meth = Method used to assign parents (see OEConstants.PARENT_METH_XXXXX).
+	//  omori_rate = Cumulative Omori rate for each parent, as in work_omori_rate.
+	//  child_count = Child count for each parent, must be zero on entry, incremented for each child.
+	//  parent_count = Number of parents, must be > 0.
+	//  children = Number of children to distribute.
+	//  alias_table = Alias table workspace, used if parent_meth == PARENT_METH_ALIAS.
+	// Each child is assigned to a parent with probability proportional to the
+	// parent's Omori rate.  All methods produce the same distribution, but
+	// consume random numbers differently, so results for a given seed differ.
+	// Note: This is static so that OECatalogScanner can use it to distribute
+	// sterile ruptures.
+
+	public static void distribute_children (OERandomGenerator rangen, int parent_meth, double[] omori_rate,
+			int[] child_count, int parent_count, int children, OEAliasTable alias_table) {
+
+		switch (parent_meth) {
+
+		default:
+			throw new IllegalArgumentException ("OECatalogGenerator.distribute_children: Invalid parent method: " + parent_meth);
+
+		// Binary search of the cumulative rate, O(log(parent_count)) per child
+
+		case PARENT_METH_BSEARCH:
+			for (int n = 0; n < children; ++n) {
+				int i_parent = rangen.cumulative_sample (omori_rate, parent_count);
+				child_count[i_parent]++;
+			}
+			break;
+
+		// Alias table, O(parent_count) to build and O(1) per child
+
+		case PARENT_METH_ALIAS:
+			alias_table.build_from_cumulative (omori_rate, parent_count);
+			for (int n = 0; n < children; ++n) {
+				int i_parent = alias_table.sample (rangen);
+				child_count[i_parent]++;
+			}
+			break;
 		}
 
-		// Distribute the child earthquakes over the possible parents
-		// with probability proportional to each parent's expected rate
+		return;
+	}
+
+
 
-		for (int n = 0; n < next_gen_size; ++n) {
-			int i_parent = rangen.cumulative_sample (work_omori_rate, cur_gen_size);
-			work_child_count[i_parent]++;
+
+	// Calculate all generations.
+	// Returns the number of generations.
+	// Note: Before calling this function (after calling setup),
+	// you must call cat_builder.begin_catalog() and create the first
+	// generation to seed the catalog.
+	// Note: This function calls cat_builder.end_catalog();
+
+	public int calc_all_gen () {
+
+		// Get the catalog parameters
+		// (in case they have changed since setup was called)
+
+		this.cat_builder.get_cat_params (cat_params);
+
+		// Make generations until end of catalog
+
+		int gen_size = cat_builder.get_gen_size (0);
+		while (gen_size > 0) {
+			gen_size = calc_next_gen();
 		}
 
-		// Set up generation info for the next generation
+		// End the catalog
 
-		next_gen_info.set (
-			next_mag_min,				// gen_mag_min,
-			cat_params.mag_max_sim		// gen_mag_max
-			);
+		cat_builder.end_catalog();
 
-		// Begin a new generation
+		// Return number of generations
 
-		cat_builder.begin_generation (next_gen_info);
+		return cat_builder.get_gen_count();
+	}
 
-		// Scan the current generation ...
 
-		for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ++cur_j_rup) {
 
-			// Get the child count, and check it's non-zero
 
-			int child_count = work_child_count[cur_j_rup];
-			if (child_count > 0) {
+	//----- Fork/join generation -----
 
-				// Get the rupture in the current generation
 
-				cat_builder.get_rup (cur_i_gen, cur_j_rup, cur_rup);
 
-				// Loop over children
 
-				for (int n = 0; n < child_count; ++n) {
-				
-					// Assign a time to this child
+	// Workspace for one block of the current generation, in fork/join mode.
 
-					next_rup.t_day = rangen.omori_sample_shifted (
-						cat_params.p,			// p
-						cat_params.c,			// c
-						cur_rup.t_day,			// t0
-						cat_params.tbegin,		// t1
-						cat_params.tend			// t2
-						);
+	private class FJBlock {
 
-					// Assign a magnitude to this child
+		// Index of the first rupture in the block, and number of ruptures in the block.
 
-					next_rup.rup_mag = rangen.gr_sample (
-						cat_params.b,				// b
-						next_gen_info.gen_mag_min,	// m1
-						next_gen_info.gen_mag_max	// m2
-						);
+		public int lo;
+		public int len;
 
-					// Assign a productivity to this child
+		// Random number generator for the block's stream, made by the catalog's generator.
 
-					next_rup.k_prod = OEStatsCalc.calc_k_corr (
-						next_rup.rup_mag,		// m0
-						cat_params,				// cat_params
-						next_gen_info			// gen_info
-						);
+		public OERandomGenerator blk_rangen;
 
-					// Assign a parent to this child
+		// Cumulative Omori rate and child count for each rupture in the block.
+		// Cumulative rates start from zero at the start of the block.
 
-					next_rup.rup_parent = cur_j_rup;
+		public double[] cum_rate;
+		public int[] child_count;
 
-					// Assign coordinates to this child
-					// (Since this is temporal ETAS, just copy the parent coordinates)
+		// Total Omori rate for the block.
 
-					next_rup.x_km = cur_rup.x_km;
-					next_rup.y_km = cur_rup.y_km;
+		public double total_rate;
 
-					// Save the rupture
+		// Alias table, segment, and parent rupture workspace.
 
-					cat_builder.add_rup (next_rup);
+		public OEAliasTable alias_table;
+		public OERupSegment segment;
+		public OERupture parent_rup;
+
+		// Children of ruptures in the block, in order, and the number of children.
+		// The arrays are allocated when the number of children is known, and are null
+		// (with out_capacity == 0) if the block has never had children.
+
+		public int children;
+		public int out_capacity;
+		public double[] out_t_day;
+		public double[] out_mag;
+		public double[] out_k_prod;
+		public int[] out_parent;
+		public double[] out_x_km;
+		public double[] out_y_km;
+
+		// Constructor allocates workspace for the given range of ruptures.
+		// The output arrays are not allocated until sample_children.
+
+		public FJBlock (int lo, int len) {
+			this.lo = lo;
+			this.len = len;
+			blk_rangen = null;
+			cum_rate = new double[len];
+			child_count = new int[len];
+			total_rate = 0.0;
+			alias_table = new OEAliasTable();
+			segment = new OERupSegment();
+			parent_rup = new OERupture();
+			children = 0;
+			out_capacity = 0;
+			out_t_day = null;
+			out_mag = null;
+			out_k_prod = null;
+			out_parent = null;
+			out_x_km = null;
+			out_y_km = null;
+		}
+
+		// Allocate the output arrays, discarding existing contents.
+
+		private void alloc_out (int capacity) {
+			out_capacity = capacity;
+			out_t_day = new double[capacity];
+			out_mag = new double[capacity];
+			out_k_prod = new double[capacity];
+			out_parent = new int[capacity];
+			out_x_km = new double[capacity];
+			out_y_km = new double[capacity];
+			return;
+		}
+
+		// Phase 1: Compute the cumulative Omori rates for the block.
+		// Same as the rate scan in calc_next_gen, but restricted to the block.
+
+		public void scan_rates (int cur_i_gen) {
+			double total = 0.0;
+			for (int j = 0; j < len; ) {
+				int seg_length = Math.min (cat_builder.get_rup_segment (cur_i_gen, lo + j, segment), len - j);
+				total = work_kernel.omori_rate_cum_batch (segment.t_day, segment.k_prod, segment.offset, cum_rate, j, seg_length, total);
+				j += seg_length;
+			}
+			Arrays.fill (child_count, 0, len, 0);
+			total_rate = total;
+			return;
+		}
+
+		// Phase 2: Draw the number of children, distribute them over the block, and sample them.
+		// Parameters:
+		//  cur_i_gen = Current generation number.
+		//  gen_seed = Master seed for the block random streams.
+		//  block_index = Index of this block, which selects its stream.
+		//  count_per_rate = Expected number of children per unit of Omori rate.
+
+		public void sample_children (int cur_i_gen, long gen_seed, int block_index, double count_per_rate) {
+			children = 0;
+
+			// Make a generator for this block's stream, of the same kind as the catalog's generator
+
+			blk_rangen = rangen.make_stream_rangen (gen_seed, block_index);
+
+			// Number of children for the block
+
+			if (!( total_rate >= TINY_OMORI_RATE )) {
+				return;
+			}
+			int block_children = blk_rangen.poisson_sample_checked (count_per_rate * total_rate);
+			if (block_children <= 0) {
+				return;
+			}
+
+			// Distribute over the ruptures in the block
+
+			distribute_children (blk_rangen, cat_params.parent_meth, cum_rate, child_count, len, block_children, alias_table);
+
+			if (block_children > out_capacity) {
+				alloc_out (block_children);
+			}
+
+			// Sample the children, in parent order
+
+			for (int j = 0; j < len; ++j) {
+				int n = child_count[j];
+				if (n > 0) {
+					cat_builder.get_rup (cur_i_gen, lo + j, parent_rup);
+					blk_rangen.omori_gr_sample_batch (work_kernel, parent_rup.t_day, out_t_day, out_mag, children, n);
+					work_kernel.k_corr_batch (out_mag, children, out_k_prod, children, n);
+					Arrays.fill (out_parent, children, children + n, lo + j);
+					Arrays.fill (out_x_km, children, children + n, parent_rup.x_km);
+					Arrays.fill (out_y_km, children, children + n, parent_rup.y_km);
+					children += n;
 				}
 			}
+			return;
 		}
+	}
 
-		// End the generation
 
-		cat_builder.end_generation ();
 
-		// Return the size of the new generation
 
-		return next_gen_size;
+	// Fork/join task to process a range of blocks.
+
+	private class FJBlockTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int phase;		// 1 = scan rates, 2 = sample children
+		private final int blo;			// range of blocks
+		private final int bhi;
+		private final int cur_i_gen;
+		private final long gen_seed;
+		private final double count_per_rate;
+
+		public FJBlockTask (int phase, int blo, int bhi, int cur_i_gen, long gen_seed, double count_per_rate) {
+			this.phase = phase;
+			this.blo = blo;
+			this.bhi = bhi;
+			this.cur_i_gen = cur_i_gen;
+			this.gen_seed = gen_seed;
+			this.count_per_rate = count_per_rate;
+		}
+
+		@Override
+		protected void compute () {
+			if (bhi - blo > 1) {
+				int bmid = (blo + bhi) >>> 1;
+				invokeAll (
+					new FJBlockTask (phase, blo, bmid, cur_i_gen, gen_seed, count_per_rate),
+					new FJBlockTask (phase, bmid, bhi, cur_i_gen, gen_seed, count_per_rate)
+				);
+			}
+			else if (bhi - blo == 1) {
+				if (phase == 1) {
+					fj_blocks[blo].scan_rates (cur_i_gen);
+				} else {
+					fj_blocks[blo].sample_children (cur_i_gen, gen_seed, blo, count_per_rate);
+				}
+			}
+			return;
+		}
 	}
 
 
 
 
-	// Calculate all generations.
-	// Returns the number of generations.
-	// Note: Before calling this function (after calling setup),
-	// you must call cat_builder.begin_catalog() and create the first
-	// generation to seed the catalog.
-	// Note: This function calls cat_builder.end_catalog();
+	// Calculate the next generation, in fork/join mode.
+	// Parameters:
+	//  cur_i_gen = Current generation number, which is the last generation in the catalog.
+	//  cur_gen_size = Number of ruptures in the current generation, must be > 0.
+	// Returns the number of earthquakes in the new generation, as in calc_next_gen.
+	// Note: This function is nearly the same as calc_next_gen(), except that the rate scan
+	// and child sampling are done by sub-tasks, each on one block of the current generation.
 
-	public int calc_all_gen () {
+	private int calc_next_gen_fj (int cur_i_gen, int cur_gen_size) {
 
-		// Get the catalog parameters
-		// (in case they have changed since setup was called)
+		// Set up the blocks, and release them when done
 
-		this.cat_builder.get_cat_params (cat_params);
+		fj_block_count = (cur_gen_size + FJ_BLOCK_SIZE - 1) / FJ_BLOCK_SIZE;
+		fj_blocks = new FJBlock[fj_block_count];
+		for (int b = 0; b < fj_block_count; ++b) {
+			int lo = b * FJ_BLOCK_SIZE;
+			fj_blocks[b] = new FJBlock (lo, Math.min (FJ_BLOCK_SIZE, cur_gen_size - lo));
+		}
 
-		// Make generations until end of catalog
+		try {
+			return calc_next_gen_fj_blocks (cur_i_gen, cur_gen_size);
+		} finally {
+			fj_blocks = new FJBlock[0];
+			fj_block_count = 0;
+		}
+	}
 
-		int gen_size = cat_builder.get_gen_size (0);
-		while (gen_size > 0) {
-			gen_size = calc_next_gen();
+
+
+
+	// Calculate the next generation, in fork/join mode, after the blocks are set up.
+	// Parameters and return value are the same as calc_next_gen_fj.
+
+	private int calc_next_gen_fj_blocks (int cur_i_gen, int cur_gen_size) {
+
+		// Scan the current generation, and total the block rates in block order
+
+		fj_pool.invoke (new FJBlockTask (1, 0, fj_block_count, cur_i_gen, 0L, 0.0));
+
+		double total_omori_rate = 0.0;
+		for (int b = 0; b < fj_block_count; ++b) {
+			total_omori_rate += fj_blocks[b].total_rate;
 		}
 
-		// End the catalog
+		// Get expected count for next generation, and its magnitude range in next_gen_info
 
-		cat_builder.end_catalog();
+		double expected_count = calc_next_gen_expected_count (total_omori_rate);
 
-		// Return number of generations
+		if (expected_count <= 0.0) {
+			return 0;
+		}
 
-		return cat_builder.get_gen_count();
+		// Precompute the G-R and productivity constants for the next generation
+
+		work_kernel.set_mag_range (next_gen_info);
+
+		// Draw the seed for the block streams, then sample the children of each block
+
+		long gen_seed = rangen.stream_seed_sample();
+
+		fj_pool.invoke (new FJBlockTask (2, 0, fj_block_count, cur_i_gen, gen_seed, expected_count / total_omori_rate));
+
+		int next_gen_size = 0;
+		for (int b = 0; b < fj_block_count; ++b) {
+			next_gen_size += fj_blocks[b].children;
+		}
+
+		// If it's zero, we're done
+
+		if (next_gen_size <= 0) {
+			return 0;
+		}
+
+		// Begin a new generation, and add the children in block order
+
+		cat_builder.begin_generation (next_gen_info);
+
+		for (int b = 0; b < fj_block_count; ++b) {
+			FJBlock blk = fj_blocks[b];
+			for (int n = 0; n < blk.children; ++n) {
+				next_rup.set (
+					blk.out_t_day[n],
+					blk.out_mag[n],
+					blk.out_k_prod[n],
+					blk.out_parent[n],
+					blk.out_x_km[n],
+					blk.out_y_km[n]
+				);
+				cat_builder.add_rup (next_rup);
+			}
+		}
+
+		// End the generation
+
+		cat_builder.end_generation ();
+
+		// Return the size of the new generation
+
+		return next_gen_size;
 	}
 
 
@@ -564,11 +1040,31 @@ public class OECatalogGenerator {
 	// branching that occurs as aftershocks appear later in the forecast window.
 
 	public static class TestBranchRatioRanGen extends OERandomGenerator {
+		public TestBranchRatioRanGen () {
+			super();
+		}
+		public TestBranchRatioRanGen (long master_seed, long stream_index) {
+			super (master_seed, stream_index);
+		}
+		@Override
+		public OERandomGenerator make_stream_rangen (long master_seed, long stream_index) {
+			return new TestBranchRatioRanGen (master_seed, stream_index);
+		}
 		@Override
 		public double omori_sample_shifted (double p, double c, double t0, double t1, double t2) {
 			double u = 0.0;
 			return OERandomGenerator.omori_rescale_shifted (p, c, t0, t1, t2, u);
 		}
+		@Override
+		public void omori_gr_sample_batch (OEOmoriGRKernel kernel, double t0, double[] t_out, double[] m_out, int off, int n) {
+			for (int i = off; i < off + n; ++i) {
+				t_out[i] = 0.0;
+				m_out[i] = uniform_sample (0.0, 1.0);
+			}
+			kernel.omori_rescale_shifted_batch (t0, t_out, off, t_out, off, n);
+			kernel.gr_rescale_batch (m_out, off, m_out, off, n);
+			return;
+		}
 	}
 
 
@@ -1493,6 +1989,410 @@ public class OECatalogGenerator {
 
 
 
+		// Subcommand : Test #7
+		// Command format:
+		//  test7  parent_count  child_count  reps
+		// Benchmark the methods of assigning children to parents.
+		// Make parent_count parents with Gutenberg-Richter magnitudes (b = 1, alpha = 1)
+		// and times uniformly distributed in a year.  Then reps times, distribute
+		// child_count children with each method, and display the time per child.
+		// Also display chi-square per degree of freedom of the total child counts,
+		// which should be close to 1 for each method.
+
+		if (args[0].equalsIgnoreCase ("test7")) {
+
+			// 3 additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("OECatalogGenerator : Invalid 'test7' subcommand");
+				return;
+			}
+
+			try {
+
+				int parent_count = Integer.parseInt (args[1]);
+				int child_count = Integer.parseInt (args[2]);
+				int reps = Integer.parseInt (args[3]);
+
+				// Say hello
+
+				System.out.println ("Benchmarking parent assignment methods");
+				System.out.println ("parent_count = " + parent_count);
+				System.out.println ("child_count = " + child_count);
+				System.out.println ("reps = " + reps);
+
+				// Get the random number generator
+
+				OERandomGenerator rangen = OERandomGenerator.get_thread_rangen();
+
+				// Make the cumulative Omori rates
+
+				double[] omori_rate = new double[parent_count];
+				double total_omori_rate = 0.0;
+				for (int j = 0; j < parent_count; ++j) {
+					double mag = rangen.gr_sample (1.0, 3.0, 9.5);
+					double t0 = rangen.uniform_sample (0.0, 365.0);
+					total_omori_rate += Math.pow (10.0, mag - 3.0) * OERandomGenerator.omori_rate_shifted (
+						1.08, 0.01, t0, 0.00001, 1.0, 366.0);
+					omori_rate[j] = total_omori_rate;
+				}
+
+				// Loop over methods
+
+				OEAliasTable alias_table = new OEAliasTable();
+				int[] work_child_count = new int[parent_count];
+				long[] total_child_count = new long[parent_count];
+
+				for (int parent_meth = OEConstants.PARENT_METH_MIN; parent_meth <= OEConstants.PARENT_METH_MAX; ++parent_meth) {
+
+					// Warm up
+
+					for (int rep = 0; rep < Math.min (reps, 5); ++rep) {
+						java.util.Arrays.fill (work_child_count, 0);
+						distribute_children (rangen, parent_meth, omori_rate, work_child_count, parent_count, child_count, alias_table);
+					}
+
+					// Timed runs
+
+					java.util.Arrays.fill (total_child_count, 0L);
+					long elapsed_nanos = 0L;
+
+					for (int rep = 0; rep < reps; ++rep) {
+						java.util.Arrays.fill (work_child_count, 0);
+						long start_nanos = System.nanoTime();
+						distribute_children (rangen, parent_meth, omori_rate, work_child_count, parent_count, child_count, alias_table);
+						elapsed_nanos += (System.nanoTime() - start_nanos);
+						for (int j = 0; j < parent_count; ++j) {
+							total_child_count[j] += work_child_count[j];
+						}
+					}
+
+					// Chi-square, pooling parents with small expected counts into one cell
+
+					double total_children = ((double)child_count) * ((double)reps);
+					double chi2 = 0.0;
+					int dof = -1;
+					double pool_expected = 0.0;
+					long pool_observed = 0L;
+					double prev_rate = 0.0;
+					for (int j = 0; j < parent_count; ++j) {
+						double expected = total_children * (omori_rate[j] - prev_rate) / total_omori_rate;
+						prev_rate = omori_rate[j];
+						if (expected >= 5.0) {
+							double d = ((double)(total_child_count[j])) - expected;
+							chi2 += d * d / expected;
+							++dof;
+						} else {
+							pool_expected += expected;
+							pool_observed += total_child_count[j];
+						}
+					}
+					if (pool_expected > 0.0) {
+						double d = ((double)pool_observed) - pool_expected;
+						chi2 += d * d / pool_expected;
+						++dof;
+					}
+
+					// Display results
+
+					System.out.println ();
+					System.out.println (OEConstants.get_parent_method_as_string (parent_meth));
+					System.out.println ("nanoseconds per child = " + String.format ("%.2f", ((double)elapsed_nanos) / total_children));
+					System.out.println ("milliseconds per generation = " + String.format ("%.3f", ((double)elapsed_nanos) / (((double)reps) * 1.0e6)));
+					System.out.println ("chi-square per dof = " + String.format ("%.4f", chi2 / ((double)(Math.max (dof, 1)))) + " (dof = " + dof + ")");
+				}
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #8
+		// Command format:
+		//  test8  rup_count  reps
+		// Benchmark per-rupture access against bulk segment access.
+		// Fill a one-generation catalog with rup_count random ruptures, in both
+		// OECatalogStorage and OECatalogWindowStorage.  Then reps times, compute the
+		// total Omori rate of the generation, first reading each rupture with get_rup
+		// and then reading segments with get_rup_segment, and display the time per rupture.
+		// The two totals should be identical.
+
+		if (args[0].equalsIgnoreCase ("test8")) {
+
+			// 2 additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("OECatalogGenerator : Invalid 'test8' subcommand");
+				return;
+			}
+
+			try {
+
+				int rup_count = Integer.parseInt (args[1]);
+				int reps = Integer.parseInt (args[2]);
+
+				// Say hello
+
+				System.out.println ("Benchmarking per-rupture and segment access");
+				System.out.println ("rup_count = " + rup_count);
+				System.out.println ("reps = " + reps);
+
+				// Set up catalog parameters
+
+				OECatalogParams test_cat_params = (new OECatalogParams()).set_to_typical (
+					0.0,		// a
+					1.08,		// p
+					0.01,		// c
+					1.0,		// b
+					1.0,		// alpha
+					100,		// gen_size_target
+					100			// gen_count_max
+				);
+
+				// Get the random number generator
+
+				OERandomGenerator rangen = OERandomGenerator.get_thread_rangen();
+
+				// Loop over storage types
+
+				OECatalogBuilder[] builders = new OECatalogBuilder[2];
+				builders[0] = new OECatalogStorage();
+				builders[1] = new OECatalogWindowStorage();
+
+				OEGenerationInfo gen_info = (new OEGenerationInfo()).set (3.0, 9.5);
+				OERupture rup = new OERupture();
+				OERupSegment seg = new OERupSegment();
+
+				for (OECatalogBuilder builder : builders) {
+
+					// Fill the catalog
+
+					builder.begin_catalog (test_cat_params);
+					builder.begin_generation (gen_info);
+					for (int j = 0; j < rup_count; ++j) {
+						double mag = rangen.gr_sample (1.0, 3.0, 9.5);
+						double t0 = rangen.uniform_sample (0.0, 365.0);
+						builder.add_rup (rup.set (t0, mag, Math.pow (10.0, mag - 3.0), -1, 0.0, 0.0));
+					}
+					builder.end_generation();
+					builder.end_catalog();
+
+					// Timed runs, for each access method
+
+					double total_rup = 0.0;
+					double total_seg = 0.0;
+					long nanos_rup = 0L;
+					long nanos_seg = 0L;
+
+					for (int rep = -Math.min (reps, 5); rep < reps; ++rep) {
+
+						// Per-rupture access
+
+						long start_nanos = System.nanoTime();
+						double sum = 0.0;
+						for (int j = 0; j < rup_count; ++j) {
+							builder.get_rup (0, j, rup);
+							sum += rup.k_prod * OERandomGenerator.omori_rate_shifted (
+								test_cat_params.p, test_cat_params.c, rup.t_day, test_cat_params.teps, test_cat_params.tbegin, test_cat_params.tend);
+						}
+						if (rep >= 0) {
+							nanos_rup += (System.nanoTime() - start_nanos);
+						}
+						total_rup = sum;
+
+						// Segment access
+
+						start_nanos = System.nanoTime();
+						sum = 0.0;
+						for (int j = 0; j < rup_count; ) {
+							int seg_length = builder.get_rup_segment (0, j, seg);
+							for (int k = 0; k < seg_length; ++k, ++j) {
+								sum += ((double)(seg.k_prod[seg.offset + k])) * OERandomGenerator.omori_rate_shifted (
+									test_cat_params.p, test_cat_params.c, seg.t_day[seg.offset + k], test_cat_params.teps, test_cat_params.tbegin, test_cat_params.tend);
+							}
+						}
+						if (rep >= 0) {
+							nanos_seg += (System.nanoTime() - start_nanos);
+						}
+						total_seg = sum;
+					}
+
+					// Display results
+
+					double total_rups = ((double)rup_count) * ((double)reps);
+
+					System.out.println ();
+					System.out.println (builder.getClass().getSimpleName());
+					System.out.println ("get_rup: nanoseconds per rupture = " + String.format ("%.2f", ((double)nanos_rup) / total_rups) + ", total rate = " + total_rup);
+					System.out.println ("get_rup_segment: nanoseconds per rupture = " + String.format ("%.2f", ((double)nanos_seg) / total_rups) + ", total rate = " + total_seg);
+					System.out.println ("identical = " + (total_rup == total_seg));
+				}
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #9
+		// Command format:
+		//  test9  n  p  c  b  alpha  gen_size_target  gen_count_max  mag_main  fj_threshold  master_seed
+		// Build a catalog with the given parameters, three times, using the random stream
+		// for catalog 0 of the master seed.  First without fork/join mode, and then in
+		// fork/join mode using pools with parallelism 1 and 4.
+		// The "n" is the branch ratio; "a" is computed from it.
+		// Display the generation sizes and time for each, and check that the two
+		// fork/join catalogs are identical.
+
+		if (args[0].equalsIgnoreCase ("test9")) {
+
+			// 10 additional arguments
+
+			if (args.length != 11) {
+				System.err.println ("OECatalogGenerator : Invalid 'test9' subcommand");
+				return;
+			}
+
+			try {
+
+				double n = Double.parseDouble (args[1]);
+				double p = Double.parseDouble (args[2]);
+				double c = Double.parseDouble (args[3]);
+				double b = Double.parseDouble (args[4]);
+				double alpha = Double.parseDouble (args[5]);
+				int gen_size_target = Integer.parseInt (args[6]);
+				int gen_count_max = Integer.parseInt (args[7]);
+				double mag_main = Double.parseDouble (args[8]);
+				int fj_threshold = Integer.parseInt (args[9]);
+				long master_seed = Long.parseLong (args[10]);
+
+				// Say hello
+
+				System.out.println ("Generating catalogs with and without fork/join mode");
+				System.out.println ("n = " + n);
+				System.out.println ("p = " + p);
+				System.out.println ("c = " + c);
+				System.out.println ("b = " + b);
+				System.out.println ("alpha = " + alpha);
+				System.out.println ("gen_size_target = " + gen_size_target);
+				System.out.println ("gen_count_max = " + gen_count_max);
+				System.out.println ("mag_main = " + mag_main);
+				System.out.println ("fj_threshold = " + fj_threshold);
+				System.out.println ("master_seed = " + master_seed);
+
+				// Set up catalog parameters, with "a" computed for the given branch ratio
+
+				OECatalogParams test_cat_params = (new OECatalogParams()).set_to_typical (
+					0.0,
+					p,
+					c,
+					b,
+					alpha,
+					gen_size_target,
+					gen_count_max
+				);
+				test_cat_params.a = OEStatsCalc.calc_inv_branch_ratio (n, test_cat_params);
+				System.out.println ("a = " + test_cat_params.a);
+
+				OEGenerationInfo test_gen_info = (new OEGenerationInfo()).set (
+					test_cat_params.mref,	// gen_mag_min
+					test_cat_params.msup	// gen_mag_max
+				);
+
+				OERupture mainshock_rup = (new OERupture()).set (
+					0.0,			// t_day
+					mag_main,		// rup_mag
+					OEStatsCalc.calc_k_corr (mag_main, test_cat_params, test_gen_info),	// k_prod
+					-1,				// rup_parent
+					0.0,			// x_km
+					0.0				// y_km
+				);
+
+				// Loop over configurations
+
+				int[] parallelism = {0, 1, 4};
+				OECatalogStorage[] catalogs = new OECatalogStorage[parallelism.length];
+				OERandomGenerator rangen = new OERandomGenerator (master_seed, 0L);
+
+				for (int ncfg = 0; ncfg < parallelism.length; ++ncfg) {
+					ForkJoinPool pool = ((parallelism[ncfg] == 0) ? null : new ForkJoinPool (parallelism[ncfg]));
+
+					// Seed the catalog with the mainshock
+
+					rangen.set_stream (master_seed, 0L);
+					OECatalogStorage cat_storage = new OECatalogStorage();
+					cat_storage.begin_catalog (test_cat_params);
+					cat_storage.begin_generation (test_gen_info);
+					cat_storage.add_rup (mainshock_rup);
+					cat_storage.end_generation();
+
+					// Generate the catalog
+
+					long start_time = System.currentTimeMillis();
+
+					OECatalogGenerator cat_generator = new OECatalogGenerator();
+					cat_generator.set_fork_join (pool, fj_threshold);
+					cat_generator.setup (rangen, cat_storage, false);
+					cat_generator.calc_all_gen();
+					cat_generator.forget();
+
+					long elapsed_time = System.currentTimeMillis() - start_time;
+
+					if (pool != null) {
+						pool.shutdown();
+					}
+					catalogs[ncfg] = cat_storage;
+
+					// Display generation sizes
+
+					System.out.println ();
+					System.out.println ("parallelism = " + parallelism[ncfg] + ", ruptures = " + cat_storage.size() + ", time = " + elapsed_time + " ms");
+					StringBuilder sb = new StringBuilder();
+					sb.append ("gen sizes:");
+					for (int i_gen = 0; i_gen < cat_storage.get_gen_count(); ++i_gen) {
+						sb.append (" ");
+						sb.append (cat_storage.get_gen_size (i_gen));
+					}
+					System.out.println (sb.toString());
+				}
+
+				// Compare the fork/join catalogs
+
+				boolean f_identical = (catalogs[1].get_gen_count() == catalogs[2].get_gen_count());
+				OERupture rup1 = new OERupture();
+				OERupture rup2 = new OERupture();
+				for (int i_gen = 0; f_identical && i_gen < catalogs[1].get_gen_count(); ++i_gen) {
+					f_identical = (catalogs[1].get_gen_size (i_gen) == catalogs[2].get_gen_size (i_gen));
+					for (int j_rup = 0; f_identical && j_rup < catalogs[1].get_gen_size (i_gen); ++j_rup) {
+						catalogs[1].get_rup (i_gen, j_rup, rup1);
+						catalogs[2].get_rup (i_gen, j_rup, rup2);
+						f_identical = (rup1.t_day == rup2.t_day && rup1.rup_mag == rup2.rup_mag
+							&& rup1.k_prod == rup2.k_prod && rup1.rup_parent == rup2.rup_parent);
+					}
+				}
+
+				System.out.println ();
+				System.out.println ("Fork/join catalogs identical = " + f_identical);
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("OECatalogStorage : Unrecognized subcommand : " + args[0]);
@@ -6,6 +6,10 @@ import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
 import org.opensha.oaf.util.MarshalException;
 
+import static org.opensha.oaf.oetas.OEConstants.PARENT_METH_MIN;
+import static org.opensha.oaf.oetas.OEConstants.PARENT_METH_BSEARCH;
+import static org.opensha.oaf.oetas.OEConstants.PARENT_METH_MAX;
+
 
 // Class to store parameters for an Operational ETAS catalog.
 // Author: Michael Barall 12/02/2019.
@@ -132,6 +136,13 @@ public class OECatalogParams {
 
 	public int gen_count_max;
 
+	// The method used to assign parents to the ruptures in a new generation
+	// (see OEConstants.PARENT_METH_XXXXX).  All methods produce the same
+	// distribution; they differ only in speed and in the sequence of random
+	// numbers consumed.
+
+	public int parent_meth;
+
 
 
 
@@ -162,6 +173,7 @@ public class OECatalogParams {
 		mag_eps         = 0.0;
 		gen_size_target = 0;
 		gen_count_max   = 0;
+		parent_meth     = PARENT_METH_BSEARCH;
 		return;
 	}
 
@@ -198,7 +210,8 @@ public class OECatalogParams {
 		double mag_max_hi,
 		double mag_eps,
 		int gen_size_target,
-		int gen_count_max
+		int gen_count_max,
+		int parent_meth
 	) {
 		this.a               = a;
 		this.p               = p;
@@ -219,6 +232,7 @@ public class OECatalogParams {
 		this.mag_eps         = mag_eps;
 		this.gen_size_target = gen_size_target;
 		this.gen_count_max   = gen_count_max;
+		this.parent_meth     = parent_meth;
 		return this;
 	}
 
@@ -247,6 +261,7 @@ public class OECatalogParams {
 		this.mag_eps         = other.mag_eps;
 		this.gen_size_target = other.gen_size_target;
 		this.gen_count_max   = other.gen_count_max;
+		this.parent_meth     = other.parent_meth;
 		return this;
 	}
 
@@ -280,6 +295,7 @@ public class OECatalogParams {
 		result.append ("mag_eps = "         + mag_eps         + "\n");
 		result.append ("gen_size_target = " + gen_size_target + "\n");
 		result.append ("gen_count_max = "   + gen_count_max   + "\n");
+		result.append ("parent_meth = "     + OEConstants.get_parent_method_as_string (parent_meth) + "\n");
 
 		return result.toString();
 	}
@@ -292,6 +308,7 @@ public class OECatalogParams {
 	// Marshal version number.
 
 	private static final int MARSHAL_VER_1 = 76001;
+	private static final int MARSHAL_VER_2 = 76002;
 
 	private static final String M_VERSION_NAME = "OECatalogParams";
 
@@ -301,7 +318,7 @@ public class OECatalogParams {
 
 		// Version
 
-		int ver = MARSHAL_VER_1;
+		int ver = MARSHAL_VER_2;
 
 		writer.marshalInt (M_VERSION_NAME, ver);
 
@@ -334,6 +351,32 @@ public class OECatalogParams {
 		}
 		break;
 
+		case MARSHAL_VER_2: {
+
+			writer.marshalDouble ("a"              , a              );
+			writer.marshalDouble ("p"              , p              );
+			writer.marshalDouble ("c"              , c              );
+			writer.marshalDouble ("b"              , b              );
+			writer.marshalDouble ("alpha"          , alpha          );
+			writer.marshalDouble ("mref"           , mref           );
+			writer.marshalDouble ("msup"           , msup           );
+			writer.marshalDouble ("tbegin"         , tbegin         );
+			writer.marshalDouble ("tend"           , tend           );
+			writer.marshalDouble ("teps"           , teps           );
+			writer.marshalDouble ("mag_min_sim"    , mag_min_sim    );
+			writer.marshalDouble ("mag_max_sim"    , mag_max_sim    );
+			writer.marshalDouble ("mag_min_lo"     , mag_min_lo     );
+			writer.marshalDouble ("mag_min_hi"     , mag_min_hi     );
+			writer.marshalDouble ("mag_max_lo"     , mag_max_lo     );
+			writer.marshalDouble ("mag_max_hi"     , mag_max_hi     );
+			writer.marshalDouble ("mag_eps"        , mag_eps        );
+			writer.marshalInt    ("gen_size_target", gen_size_target);
+			writer.marshalInt    ("gen_count_max"  , gen_count_max  );
+			writer.marshalInt    ("parent_meth"    , parent_meth    );
+
+		}
+		break;
+
 		}
 
 		return;
@@ -345,7 +388,7 @@ public class OECatalogParams {
 	
 		// Version
 
-		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_1);
+		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_2);
 
 		// Contents
 
@@ -372,6 +415,33 @@ public class OECatalogParams {
 			mag_eps         = reader.unmarshalDouble ("mag_eps"        );
 			gen_size_target = reader.unmarshalInt    ("gen_size_target");
 			gen_count_max   = reader.unmarshalInt    ("gen_count_max"  );
+			parent_meth     = PARENT_METH_BSEARCH;
+
+		}
+		break;
+
+		case MARSHAL_VER_2: {
+
+			a               = reader.unmarshalDouble ("a"              );
+			p               = reader.unmarshalDouble ("p"              );
+			c               = reader.unmarshalDouble ("c"              );
+			b               = reader.unmarshalDouble ("b"              );
+			alpha           = reader.unmarshalDouble ("alpha"          );
+			mref            = reader.unmarshalDouble ("mref"           );
+			msup            = reader.unmarshalDouble ("msup"           );
+			tbegin          = reader.unmarshalDouble ("tbegin"         );
+			tend            = reader.unmarshalDouble ("tend"           );
+			teps            = reader.unmarshalDouble ("teps"           );
+			mag_min_sim     = reader.unmarshalDouble ("mag_min_sim"    );
+			mag_max_sim     = reader.unmarshalDouble ("mag_max_sim"    );
+			mag_min_lo      = reader.unmarshalDouble ("mag_min_lo"     );
+			mag_min_hi      = reader.unmarshalDouble ("mag_min_hi"     );
+			mag_max_lo      = reader.unmarshalDouble ("mag_max_lo"     );
+			mag_max_hi      = reader.unmarshalDouble ("mag_max_hi"     );
+			mag_eps         = reader.unmarshalDouble ("mag_eps"        );
+			gen_size_target = reader.unmarshalInt    ("gen_size_target");
+			gen_count_max   = reader.unmarshalInt    ("gen_count_max"  );
+			parent_meth     = reader.unmarshalInt    ("parent_meth"    , PARENT_METH_MIN, PARENT_METH_MAX);
 
 		}
 		break;
@@ -450,6 +520,7 @@ public class OECatalogParams {
 			&& this.mag_eps         == other.mag_eps     
 			&& this.gen_size_target == other.gen_size_target
 			&& this.gen_count_max   == other.gen_count_max  
+			&& this.parent_meth     == other.parent_meth    
 		) {
 			return true;
 		}
@@ -483,6 +554,7 @@ public class OECatalogParams {
 		this.mag_eps         = 0.0002;
 		this.gen_size_target = rangen.uniform_int_sample (200, 500);
 		this.gen_count_max   = rangen.uniform_int_sample (50, 150);
+		this.parent_meth     = rangen.uniform_int_sample (PARENT_METH_MIN, PARENT_METH_MAX);
 		return this;
 	}
 
@@ -520,6 +592,7 @@ public class OECatalogParams {
 		this.mag_eps         = 0.0002;
 		this.gen_size_target = gen_size_target;
 		this.gen_count_max   = gen_count_max;
+		this.parent_meth     = PARENT_METH_BSEARCH;
 		return this;
 	}
 
@@ -32,6 +32,11 @@ public class OECatalogScanComm {
 
 	public OERandomGenerator rangen;
 
+	// The catalog number within the ensemble, or -1 if not known.
+	// This is set by the scanner's caller, and may be used to label output.
+
+	public int i_cat;
+
 
 	//----- Per-generation data -----
 
@@ -125,6 +130,7 @@ public class OECatalogScanComm {
 		gen_info = new OEGenerationInfo();
 		next_gen_info = new OEGenerationInfo();
 		rup = new OERupture();
+		i_cat = -1;
 	}
 
 
@@ -139,6 +145,7 @@ public class OECatalogScanComm {
 		result.append ("OECatalogScanComm:" + "\n");
 
 		result.append ("cat_params = " + cat_params.toString());
+		result.append ("i_cat = " + i_cat + "\n");
 
 		result.append ("Per-generation data:" + "\n");
 		result.append ("i_gen = " + i_gen + "\n");
@@ -256,6 +263,7 @@ public class OECatalogScanComm {
 
 	public void forget () {
 		rangen = null;
+		i_cat = -1;
 		return;
 	}
 
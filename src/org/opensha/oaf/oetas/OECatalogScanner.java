@@ -1,5 +1,7 @@
 package org.opensha.oaf.oetas;
 
+import java.util.Arrays;
+
 import static org.opensha.oaf.oetas.OEConstants.TINY_OMORI_RATE;
 import static org.opensha.oaf.oetas.OEConstants.SMALL_EXPECTED_COUNT;
 
@@ -83,6 +85,29 @@ public class OECatalogScanner {
 
 	private int[] work_child_count;
 
+	// Alias table, used to assign parents when the catalog uses PARENT_METH_ALIAS.
+
+	private OEAliasTable work_alias_table;
+
+	// Segment used for bulk access to ruptures in the current generation.
+
+	private OERupSegment work_segment;
+
+	// Precomputed Omori and G-R constants for the catalog and the sterile magnitude range.
+
+	private OEOmoriGRKernel work_kernel;
+
+	// Default size of per-parent child arrays.
+
+	private static final int DEF_CHILD_CAPACITY = 64;
+
+	// Child times and magnitudes, for the children of one rupture.
+	// Each array has length child_capacity.
+
+	private int child_capacity;
+	private double[] work_child_t_day;
+	private double[] work_child_mag;
+
 
 
 
@@ -121,6 +146,12 @@ public class OECatalogScanner {
 		workspace_capacity = DEF_WORKSPACE_CAPACITY;
 		work_omori_rate = new double[workspace_capacity];
 		work_child_count = new int[workspace_capacity];
+		work_alias_table = new OEAliasTable();
+		work_segment = new OERupSegment();
+		work_kernel = new OEOmoriGRKernel();
+		child_capacity = DEF_CHILD_CAPACITY;
+		work_child_t_day = new double[child_capacity];
+		work_child_mag = new double[child_capacity];
 
 		// Not open
 
@@ -222,6 +253,19 @@ public class OECatalogScanner {
 
 
 
+	// Set the catalog number, which is passed to the consumers in the communication area.
+	// Parameters:
+	//  i_cat = Catalog number within the ensemble, or -1 if not known.
+	// This applies to the next call to scan or gen_and_scan, after which it reverts to -1.
+
+	public void set_catalog_index (int i_cat) {
+		comm.i_cat = i_cat;
+		return;
+	}
+
+
+
+
 	// Scan the catalog.
 	// Parameters:
 	//  view = Catalog view.
@@ -245,6 +289,121 @@ public class OECatalogScanner {
 			consumer.begin_catalog (comm);
 		}
 
+		// Scan the seed generation
+
+		scan_seed_gen (view);
+
+		// Loop over ETAS generations...
+
+		for (int i_gen = 1; i_gen < view.get_gen_count(); ++i_gen) {
+
+			// Scan the generation
+
+			scan_gen (view, i_gen);
+		}
+
+		// Tell the consumers we are ending a catalog
+
+		for (OECatalogConsumer consumer : consumers) {
+			consumer.end_catalog (comm);
+		}
+
+		// Forget retained objects
+
+		comm.forget();
+
+		return;
+	}
+
+
+
+
+	// Generate and scan the catalog, in a single pass.
+	// Parameters:
+	//  cat_generator = Catalog generator, which must be set up to generate into cat_builder.
+	//  cat_builder = Catalog builder, which must contain the seed generation.
+	//  rangen = Random number generator to use.
+	// Returns the number of generations.
+	// Each generation is passed to the consumers as soon as the following generation
+	// has been generated, so the builder only needs to retain the previous, current,
+	// and next generations.  This permits using OECatalogWindowStorage, so that the
+	// entire catalog is never in memory.
+	// Note: This function calls cat_builder.end_catalog(), as does
+	// OECatalogGenerator.calc_all_gen().
+	// Note: Generating and scanning draw from the same random number generator in
+	// interleaved order, so results differ from calc_all_gen followed by scan, unless
+	// the consumers do not use random numbers.  The distribution of results is the same.
+
+	public int gen_and_scan (OECatalogGenerator cat_generator, OECatalogBuilder cat_builder, OERandomGenerator rangen) {
+
+		// There must be at least one generation
+
+		if (cat_builder.get_gen_count() < 1) {
+			throw new IllegalArgumentException ("OECatalogScanner.gen_and_scan -- Empty catalog");
+		}
+
+		// Set up the per-catalog information
+
+		comm.setup_cat_from_view (cat_builder, rangen);
+
+		// Tell the consumers we are beginning a catalog
+
+		for (OECatalogConsumer consumer : consumers) {
+			consumer.begin_catalog (comm);
+		}
+
+		// Generate the first ETAS generation, so the seed generation knows if it is final
+
+		if (cat_builder.get_gen_size (0) > 0) {
+			cat_generator.calc_next_gen();
+		}
+
+		// Scan the seed generation
+
+		scan_seed_gen (cat_builder);
+
+		// Loop over ETAS generations...
+
+		for (int i_gen = 1; i_gen < cat_builder.get_gen_count(); ++i_gen) {
+
+			// Generate the following generation, which also determines if this is the final generation
+			// (the generator creates a generation only if the prior one is the last in the catalog)
+
+			if (i_gen == cat_builder.get_gen_count() - 1) {
+				cat_generator.calc_next_gen();
+			}
+
+			// Scan the generation
+
+			scan_gen (cat_builder, i_gen);
+		}
+
+		// End the catalog
+
+		cat_builder.end_catalog();
+
+		// Tell the consumers we are ending a catalog
+
+		for (OECatalogConsumer consumer : consumers) {
+			consumer.end_catalog (comm);
+		}
+
+		// Forget retained objects
+
+		comm.forget();
+
+		return cat_builder.get_gen_count();
+	}
+
+
+
+
+	// Scan the seed generation.
+	// Parameters:
+	//  view = Catalog view.
+
+	private void scan_seed_gen (OECatalogView view) {
+
 		// Set up the per-generation information for the seeds
 
 		comm.setup_gen_from_view (view, 0);
@@ -276,60 +435,58 @@ public class OECatalogScanner {
 			consumer.end_seed_generation (comm);
 		}
 
-		// Loop over ETAS generations...
-
-		for (int i_gen = 1; i_gen < view.get_gen_count(); ++i_gen) {
+		return;
+	}
 
-			// Set up the per-generation information
 
-			comm.setup_gen_from_view (view, i_gen);
 
-			// Tell the consumers we are beginning the generation
 
-			for (OECatalogConsumer consumer : consumers) {
-				consumer.begin_generation (comm);
-			}
+	// Scan an ETAS generation.
+	// Parameters:
+	//  view = Catalog view.
+	//  i_gen = Generation number, must be >= 1.
 
-			// Loop over ruptures in the generation
+	private void scan_gen (OECatalogView view, int i_gen) {
 
-			for (int j_rup = 0; j_rup < comm.gen_size; ++j_rup) {
-		
-				// Set up the per-rupture information
+		// Set up the per-generation information
 
-				comm.setup_rup_from_view (view, j_rup);
+		comm.setup_gen_from_view (view, i_gen);
 
-				// Pass rupture to the consumers
+		// Tell the consumers we are beginning the generation
 
-				for (OECatalogConsumer consumer : consumers) {
-					consumer.next_rup (comm);
-				}
-			}
+		for (OECatalogConsumer consumer : consumers) {
+			consumer.begin_generation (comm);
+		}
 
-			// If sterile ruptures are needed ...
+		// Loop over ruptures in the generation
 
-			if (comm.is_sterile_mag()) {
+		for (int j_rup = 0; j_rup < comm.gen_size; ++j_rup) {
 
-				// Calculate the sterile ruptures
+			// Set up the per-rupture information
 
-				calc_sterile_rups (view);
-			}
+			comm.setup_rup_from_view (view, j_rup);
 
-			// Tell the consumers we are ending the generation
+			// Pass rupture to the consumers
 
 			for (OECatalogConsumer consumer : consumers) {
-				consumer.end_generation (comm);
+				consumer.next_rup (comm);
 			}
 		}
 
-		// Tell the consumers we are ending a catalog
+		// If sterile ruptures are needed ...
 
-		for (OECatalogConsumer consumer : consumers) {
-			consumer.end_catalog (comm);
+		if (comm.is_sterile_mag()) {
+
+			// Calculate the sterile ruptures
+
+			calc_sterile_rups (view);
 		}
 
-		// Forget retained objects
+		// Tell the consumers we are ending the generation
 
-		comm.forget();
+		for (OECatalogConsumer consumer : consumers) {
+			consumer.end_generation (comm);
+		}
 
 		return;
 	}
@@ -373,35 +530,33 @@ public class OECatalogScanner {
 			work_child_count = new int[workspace_capacity];
 		}
 
-		// Scan the current generation ...
+		// Precompute the Omori constants for this catalog
 
-		double total_omori_rate = 0.0;
+		work_kernel.set_params (comm.cat_params);
 
-		for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ++cur_j_rup) {
+		// Scan the current generation ...
+
+		// (Ruptures are read in segments, directly from the catalog's arrays)
 
-			// Get the rupture in the current generation
+		double total_omori_rate = 0.0;
 
-			view.get_rup (cur_i_gen, cur_j_rup, cur_rup);
+		for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ) {
 
-			// Calculate its expected rate in the forecast interval
+			// Get the next segment of ruptures in the current generation
 
-			double omori_rate = cur_rup.k_prod * OERandomGenerator.omori_rate_shifted (
-				comm.cat_params.p,			// p
-				comm.cat_params.c,			// c
-				cur_rup.t_day,				// t0
-				comm.cat_params.teps,		// teps
-				comm.cat_params.tbegin,		// t1
-				comm.cat_params.tend		// t2
-				);
+			int seg_length = view.get_rup_segment (cur_i_gen, cur_j_rup, work_segment);
+			final double[] seg_t_day = work_segment.t_day;
+			final float[] seg_k_prod = work_segment.k_prod;
+			final int seg_offset = work_segment.offset;
 
-			// Accumulate the total
+			// Calculate their expected rates in the forecast interval, and accumulate the total
 
-			total_omori_rate += omori_rate;
-			work_omori_rate[cur_j_rup] = total_omori_rate;
+			total_omori_rate = work_kernel.omori_rate_cum_batch (seg_t_day, seg_k_prod, seg_offset, work_omori_rate, cur_j_rup, seg_length, total_omori_rate);
 
-			// Initialize child count
+			// Initialize child counts
 
-			work_child_count[cur_j_rup] = 0;
+			Arrays.fill (work_child_count, cur_j_rup, cur_j_rup + seg_length, 0);
+			cur_j_rup += seg_length;
 		}
 
 		// Stop if total rate is extremely small
@@ -439,15 +594,16 @@ public class OECatalogScanner {
 		// Distribute the child earthquakes over the possible parents
 		// with probability proportional to each parent's expected rate
 
-		for (int n = 0; n < sterile_rup_count; ++n) {
-			int i_parent = comm.rangen.cumulative_sample (work_omori_rate, cur_gen_size);
-			work_child_count[i_parent]++;
-		}
+		OECatalogGenerator.distribute_children (comm.rangen, comm.cat_params.parent_meth, work_omori_rate, work_child_count, cur_gen_size, sterile_rup_count, work_alias_table);
 
 		// Sterile rupture index, beginning after the ETAS ruptures
 
 		comm.j_rup = comm.gen_size;
 
+		// Precompute the G-R constants for the sterile magnitude range
+
+		work_kernel.set_mag_range (comm.sterile_mag, comm.gen_info.gen_mag_min);
+
 		// Scan the current generation ...
 
 		for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ++cur_j_rup) {
@@ -461,27 +617,27 @@ public class OECatalogScanner {
 
 				view.get_rup (cur_i_gen, cur_j_rup, cur_rup);
 
+				// Assign times and magnitudes to all the children at once
+
+				if (child_count > child_capacity) {
+					do {
+						child_capacity = child_capacity * 2;
+					} while (child_count > child_capacity);
+
+					work_child_t_day = new double[child_capacity];
+					work_child_mag = new double[child_capacity];
+				}
+
+				comm.rangen.omori_gr_sample_batch (work_kernel, cur_rup.t_day, work_child_t_day, work_child_mag, 0, child_count);
+
 				// Loop over children
 
 				for (int n = 0; n < child_count; ++n) {
 				
-					// Assign a time to this child
-
-					comm.rup.t_day = comm.rangen.omori_sample_shifted (
-						comm.cat_params.p,			// p
-						comm.cat_params.c,			// c
-						cur_rup.t_day,				// t0
-						comm.cat_params.tbegin,		// t1
-						comm.cat_params.tend		// t2
-						);
-
-					// Assign a magnitude to this child
-
-					comm.rup.rup_mag = comm.rangen.gr_sample (
-						comm.cat_params.b,			// b
-						comm.sterile_mag,			// m1
-						comm.gen_info.gen_mag_min	// m2
-						);
+					// Time and magnitude for this child
+
+					comm.rup.t_day = work_child_t_day[n];
+					comm.rup.rup_mag = work_child_mag[n];
 
 					// Assign a productivity to this child, zero for sterile
 
@@ -383,6 +383,44 @@ public class OECatalogStorage implements OECatalogBuilder {
 
 
 
+	// Get a segment of consecutive ruptures in the i-th generation, for bulk access.
+	// Parameters:
+	//  i_gen = Generation number.
+	//  j_rup = First rupture number, within the generation.
+	//  seg = Structure to receive the segment.
+	// Returns the number of ruptures in the segment, or 0 if j_rup is at or past the end of the generation.
+	// The segment refers directly to our storage blocks, so it ends at the end of a block;
+	// a generation that spans several blocks is returned as several segments.
+
+	@Override
+	public int get_rup_segment (int i_gen, int j_rup, OERupSegment seg) {
+		int remaining = gen_size[i_gen] - j_rup;
+		if (remaining <= 0) {
+			seg.offset = 0;
+			seg.length = 0;
+			return 0;
+		}
+
+		int index = gen_start[i_gen] + j_rup;
+
+		int block = index >> RUP_BLOCK_SHIFT;
+		int offset = index & RUP_BLOCK_MASK;
+
+		return seg.set (
+			offset,
+			Math.min (remaining, RUP_BLOCK_SIZE - offset),
+			t_day[block],
+			rup_mag[block],
+			k_prod[block],
+			rup_parent[block],
+			x_km[block],
+			y_km[block]
+		);
+	}
+
+
+
+
 	//----- Implementation of OECatalogBuilder -----
 
 
@@ -56,6 +56,22 @@ public interface OECatalogView {
 
 	public void get_rup (int i_gen, int j_rup, OERupture rup);
 
+	// Get a segment of consecutive ruptures in the i-th generation, for bulk access.
+	// Parameters:
+	//  i_gen = Generation number.
+	//  j_rup = First rupture number, within the generation.
+	//  seg = Structure to receive the segment.
+	// Returns the number of ruptures in the segment, which is at least 1 if
+	// j_rup < get_gen_size(i_gen), or 0 if j_rup is at or past the end of the generation.
+	// The segment may contain fewer than the remaining ruptures of the generation,
+	// so callers should loop until the entire generation is covered.
+	// The default implementation copies ruptures using get_rup.  Implementations that
+	// store ruptures in primitive arrays should override this to return their own arrays.
+
+	public default int get_rup_segment (int i_gen, int j_rup, OERupSegment seg) {
+		return seg.copy_from_view (this, i_gen, j_rup, 1024);
+	}
+
 	// Construct a string that summarizes the catalog contents.
 	// This displays the catalog size and generation count,
 	// parameters, and info for each generation.
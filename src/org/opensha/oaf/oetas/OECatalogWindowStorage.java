@@ -0,0 +1,465 @@
+package org.opensha.oaf.oetas;
+
+import java.util.Arrays;
+
+
+// Class to store a sliding window of generations of an Operational ETAS catalog.
+//
+// This is a catalog builder that retains only the most recent WINDOW_GENS
+// generations.  When a new generation begins, the storage for the oldest
+// retained generation is re-used.  Per-generation information (size and
+// magnitude range) is retained for all generations, because it is small.
+//
+// It is intended for use with OECatalogScanner.gen_and_scan, which interleaves
+// generating and scanning, so that a catalog can be consumed without ever being
+// entirely in memory.  Generating generation i+1 requires generation i, and
+// scanning generation i requires generations i-1 (to generate sterile ruptures)
+// and i+1 (to know the next generation's magnitude range, and whether i is the
+// final generation); so three generations are retained.
+//
+// Rupture values are stored with the same precision as OECatalogStorage, so a
+// catalog generated into this object is identical to one generated into
+// OECatalogStorage with the same random number sequence.
+//
+// Attempting to read a rupture from a generation that is no longer retained
+// throws IllegalStateException.
+
+public class OECatalogWindowStorage implements OECatalogBuilder {
+
+	//----- Constants -----
+
+	// The number of generations retained.
+
+	public static final int WINDOW_GENS = 3;
+
+	// The initial per-slot rupture capacity.
+
+	private static final int INIT_SLOT_CAPACITY = 1024;
+
+	// The initial per-generation capacity.
+
+	private static final int INIT_GEN_CAPACITY = 128;
+
+
+
+
+	//----- Per-Catalog storage -----
+
+	// Parameters for this catalog.
+
+	private OECatalogParams cat_params;
+
+	// The total number of ruptures added to the catalog, including those no longer retained.
+
+	private int rup_count;
+
+
+
+
+	//----- Per-Generation storage -----
+
+	// The current number of generations.
+
+	private int gen_count;
+
+	// Per-generation array containing the number of ruptures in the generation.
+
+	private int[] gen_size;
+
+	// Per-generation array containing the minimum magnitude for the generation.
+
+	private double[] gen_mag_min;
+
+	// Per-generation array containing the maximum magnitude for the generation.
+
+	private double[] gen_mag_max;
+
+
+
+
+	//----- Per-Rupture storage -----
+
+	// Each generation i is stored in slot i % WINDOW_GENS.
+	// Each array has dimension [WINDOW_GENS][slot_capacity[slot]].
+
+	// Rupture capacity of each slot.
+
+	private int[] slot_capacity;
+
+	// Rupture time, in days.
+
+	private double[][] t_day;
+
+	// Rupture magnitude.
+
+	private float[][] rup_mag;
+
+	// Productivity "k" value.
+
+	private float[][] k_prod;
+
+	// The parent rupture number, relative to the start of the prior generation.
+
+	private int[][] rup_parent;
+
+	// The x coordinate, in km.
+
+	private float[][] x_km;
+
+	// The y coordinate, in km.
+
+	private float[][] y_km;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Clear to default values, and perform initial memory allocation.
+	// Any previously-allocated memory is discarded.
+
+	public void clear () {
+		cat_params.clear();
+		rup_count = 0;
+
+		gen_count = 0;
+		gen_size = new int[INIT_GEN_CAPACITY];
+		gen_mag_min = new double[INIT_GEN_CAPACITY];
+		gen_mag_max = new double[INIT_GEN_CAPACITY];
+
+		slot_capacity = new int[WINDOW_GENS];
+		t_day = new double[WINDOW_GENS][];
+		rup_mag = new float[WINDOW_GENS][];
+		k_prod = new float[WINDOW_GENS][];
+		rup_parent = new int[WINDOW_GENS][];
+		x_km = new float[WINDOW_GENS][];
+		y_km = new float[WINDOW_GENS][];
+
+		for (int slot = 0; slot < WINDOW_GENS; ++slot) {
+			slot_capacity[slot] = INIT_SLOT_CAPACITY;
+			t_day[slot] = new double[INIT_SLOT_CAPACITY];
+			rup_mag[slot] = new float[INIT_SLOT_CAPACITY];
+			k_prod[slot] = new float[INIT_SLOT_CAPACITY];
+			rup_parent[slot] = new int[INIT_SLOT_CAPACITY];
+			x_km[slot] = new float[INIT_SLOT_CAPACITY];
+			y_km[slot] = new float[INIT_SLOT_CAPACITY];
+		}
+		return;
+	}
+
+
+
+
+	// Default constructor.
+
+	public OECatalogWindowStorage () {
+		cat_params = new OECatalogParams();
+		clear();
+	}
+
+
+
+
+	// Re-initialize to an empty catalog.
+	// Previously-allocated memory is retained and re-used.
+
+	public void re_init () {
+		rup_count = 0;
+		gen_count = 0;
+		return;
+	}
+
+
+
+
+	// Return true if the i-th generation is still retained.
+
+	public boolean is_retained (int i_gen) {
+		return i_gen >= 0 && i_gen < gen_count && i_gen >= gen_count - WINDOW_GENS;
+	}
+
+
+
+
+	// Ensure that a slot can hold the given number of ruptures.
+	// Existing contents are preserved.
+
+	private void ensure_capacity_slot (int slot, int needed) {
+		if (needed > slot_capacity[slot]) {
+			int cap = slot_capacity[slot];
+			do {
+				cap = cap * 2;
+			} while (needed > cap);
+
+			slot_capacity[slot] = cap;
+			t_day[slot] = Arrays.copyOf (t_day[slot], cap);
+			rup_mag[slot] = Arrays.copyOf (rup_mag[slot], cap);
+			k_prod[slot] = Arrays.copyOf (k_prod[slot], cap);
+			rup_parent[slot] = Arrays.copyOf (rup_parent[slot], cap);
+			x_km[slot] = Arrays.copyOf (x_km[slot], cap);
+			y_km[slot] = Arrays.copyOf (y_km[slot], cap);
+		}
+		return;
+	}
+
+
+
+
+	//----- Implementation of OECatalogView -----
+
+
+
+
+	// Get parameters for the catalog.
+	// Parameters:
+	//  cat_params = Structure to receive the catalog parameters.
+
+	@Override
+	public void get_cat_params (OECatalogParams cat_params) {
+		cat_params.copy_from (this.cat_params);
+		return;
+	}
+
+
+
+
+	// Get the total number of ruptures in the catalog.
+	// Note: This includes ruptures in generations that are no longer retained.
+
+	@Override
+	public int size () {
+		return rup_count;
+	}
+
+
+
+
+	// Get the number of generations in the catalog.
+
+	@Override
+	public int get_gen_count () {
+		return gen_count;
+	}
+
+
+
+
+	// Get the number of ruptures in the i-th generation.
+	// Parameters:
+	//  i_gen = Generation number.
+
+	@Override
+	public int get_gen_size (int i_gen) {
+		return gen_size[i_gen];
+	}
+
+
+
+
+	// Get information about the i-th generation in the catalog.
+	// Parameters:
+	//  i_gen = Generation number.
+	//  gen_info = Structure to receive the generation information.
+
+	@Override
+	public void get_gen_info (int i_gen, OEGenerationInfo gen_info) {
+		gen_info.set (
+			gen_mag_min[i_gen],
+			gen_mag_max[i_gen]
+		);
+		return;
+	}
+
+
+
+
+	// Get the j-th rupture in the i-th generation in the catalog.
+	// Parameters:
+	//  i_gen = Generation number, must be one of the retained generations.
+	//  j_rup = Rupture number, within the generation.
+	//  rup = Structure to receive the rupture information.
+
+	@Override
+	public void get_rup (int i_gen, int j_rup, OERupture rup) {
+		if (!( is_retained (i_gen) )) {
+			throw new IllegalStateException ("OECatalogWindowStorage.get_rup: Generation is not retained: i_gen = " + i_gen + ", gen_count = " + gen_count);
+		}
+
+		int slot = i_gen % WINDOW_GENS;
+
+		rup.set (
+			t_day[slot][j_rup],
+			(double)(rup_mag[slot][j_rup]),
+			(double)(k_prod[slot][j_rup]),
+			rup_parent[slot][j_rup],
+			(double)(x_km[slot][j_rup]),
+			(double)(y_km[slot][j_rup])
+		);
+
+		return;
+	}
+
+
+
+
+	// Get a segment of consecutive ruptures in the i-th generation, for bulk access.
+	// Parameters:
+	//  i_gen = Generation number, must be one of the retained generations.
+	//  j_rup = First rupture number, within the generation.
+	//  seg = Structure to receive the segment.
+	// Returns the number of ruptures in the segment, or 0 if j_rup is at or past the end of the generation.
+	// The segment refers directly to our storage, and contains the rest of the generation.
+
+	@Override
+	public int get_rup_segment (int i_gen, int j_rup, OERupSegment seg) {
+		if (!( is_retained (i_gen) )) {
+			throw new IllegalStateException ("OECatalogWindowStorage.get_rup_segment: Generation is not retained: i_gen = " + i_gen + ", gen_count = " + gen_count);
+		}
+
+		int remaining = gen_size[i_gen] - j_rup;
+		if (remaining <= 0) {
+			seg.offset = 0;
+			seg.length = 0;
+			return 0;
+		}
+
+		int slot = i_gen % WINDOW_GENS;
+
+		return seg.set (
+			j_rup,
+			remaining,
+			t_day[slot],
+			rup_mag[slot],
+			k_prod[slot],
+			rup_parent[slot],
+			x_km[slot],
+			y_km[slot]
+		);
+	}
+
+
+
+
+	//----- Implementation of OECatalogBuilder -----
+
+
+
+
+	// Begin construction of a catalog.
+	// Parameters:
+	//  cat_params = Parameters to use for this catalog.
+	// This method clears the internal data structures and sets up
+	// an empty catalog with zero generations.
+	// Note: This function does not retain cat_params; it copies the contents.
+
+	@Override
+	public void begin_catalog (OECatalogParams cat_params) {
+
+		// Re-initialize, re-using existing memory
+
+		re_init();
+
+		// Save the parameters
+
+		this.cat_params.copy_from (cat_params);
+		return;
+	}
+
+
+
+
+	// End construction of a catalog.
+
+	@Override
+	public void end_catalog () {
+		return;
+	}
+
+
+
+
+	// Begin a new generation of a catalog.
+	// Parameters:
+	//  gen_info = Structure containing the generation information to set.
+	// This method increments the number of generations, and creates a
+	// new empty generation, discarding the oldest retained generation if needed.
+	// Note: This function does not retain gen_info; it copies the contents.
+
+	@Override
+	public void begin_generation (OEGenerationInfo gen_info) {
+
+		// Get the index of the new generation
+
+		int i_gen = gen_count;
+
+		// Count the new generation, and allocate storage if needed
+
+		++gen_count;
+
+		if (gen_count > gen_size.length) {
+			int cap = gen_size.length * 2;
+			gen_size = Arrays.copyOf (gen_size, cap);
+			gen_mag_min = Arrays.copyOf (gen_mag_min, cap);
+			gen_mag_max = Arrays.copyOf (gen_mag_max, cap);
+		}
+
+		// Zero size, and save generation information
+
+		gen_size[i_gen] = 0;
+		gen_mag_min[i_gen] = gen_info.gen_mag_min;
+		gen_mag_max[i_gen] = gen_info.gen_mag_max;
+
+		return;
+	}
+
+
+
+
+	// End a generation of a catalog.
+
+	@Override
+	public void end_generation () {
+		return;
+	}
+
+
+
+
+	// Add a rupture to the current generation of a catalog.
+	// Parameters:
+	//  rup = Structure containing the rupture information to set.
+	// Note: Ruptures can only be added to the generation currently being built.
+	// Note: This function does not retain rup; it copies the contents.
+
+	@Override
+	public void add_rup (OERupture rup) {
+
+		// Get the slot and index of the new rupture, and allocate storage if needed
+
+		int i_gen = gen_count - 1;
+		int slot = i_gen % WINDOW_GENS;
+		int index = gen_size[i_gen];
+
+		ensure_capacity_slot (slot, index + 1);
+
+		// Count the new rupture
+
+		gen_size[i_gen]++;
+		++rup_count;
+
+		// Save rupture information
+
+		t_day[slot][index] = rup.t_day;
+		rup_mag[slot][index] = (float)(rup.rup_mag);
+		k_prod[slot][index] = (float)(rup.k_prod);
+		rup_parent[slot][index] = rup.rup_parent;
+		x_km[slot][index] = (float)(rup.x_km);
+		y_km[slot][index] = (float)(rup.y_km);
+
+		return;
+	}
+
+}
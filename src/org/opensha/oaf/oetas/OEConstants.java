@@ -85,4 +85,38 @@ public class OEConstants {
 		return "INFILL_METH_INVALID(" + infill_meth + ")";
 	}
 
+	// Methods for assigning parents to the ruptures in a new generation.
+
+	public static final int PARENT_METH_MIN		= 1;
+	public static final int PARENT_METH_BSEARCH	= 1;	// Binary search of cumulative Omori rate, O(log n) per child
+	public static final int PARENT_METH_ALIAS	= 2;	// Walker/Vose alias table, O(1) per child
+	public static final int PARENT_METH_MAX		= 2;
+
+	// Return a string describing the parent assignment method.
+
+	public static String get_parent_method_as_string (int parent_meth) {
+		switch (parent_meth) {
+		case PARENT_METH_BSEARCH: return "PARENT_METH_BSEARCH";
+		case PARENT_METH_ALIAS: return "PARENT_METH_ALIAS";
+		}
+		return "PARENT_METH_INVALID(" + parent_meth + ")";
+	}
+
+	// Methods for accumulating per-catalog counts in an ensemble accumulator.
+
+	public static final int ACC_METH_MIN		= 1;
+	public static final int ACC_METH_ARRAY		= 1;	// Store every catalog's count, sort to get fractiles
+	public static final int ACC_METH_HISTOGRAM	= 2;	// Exact histogram of counts, memory independent of number of catalogs
+	public static final int ACC_METH_MAX		= 2;
+
+	// Return a string describing the accumulation method.
+
+	public static String get_acc_method_as_string (int acc_meth) {
+		switch (acc_meth) {
+		case ACC_METH_ARRAY: return "ACC_METH_ARRAY";
+		case ACC_METH_HISTOGRAM: return "ACC_METH_HISTOGRAM";
+		}
+		return "ACC_METH_INVALID(" + acc_meth + ")";
+	}
+
 }
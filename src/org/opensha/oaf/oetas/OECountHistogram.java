@@ -0,0 +1,381 @@
+package org.opensha.oaf.oetas;
+
+import java.util.Arrays;
+
+
+// Class to hold an exact histogram of non-negative integer counts.
+//
+// This is used to accumulate the number of ruptures in a bin, over many catalogs,
+// without storing one value per catalog.  It records how many times each distinct
+// count has been seen, so that fractiles and probabilities of exceedence can be
+// recovered exactly, as if all the values had been stored and sorted.
+//
+// Small counts (which is the common case) are held in a dense array indexed by
+// count.  Larger counts are held in an open-addressing hash table keyed by count.
+// Memory use is proportional to the number of distinct large counts, which is
+// limited by the spread of the distribution and not by the number of catalogs.
+//
+// Histograms are mergeable, so each worker thread can accumulate its own
+// histogram without synchronization, and the results can be combined at the end.
+//
+// Only one thread at a time can use one of these objects.
+
+public class OECountHistogram {
+
+	//----- Constants -----
+
+	// The number of counts held in the dense array, which covers counts 0 through DENSE_SIZE-1.
+
+	private static final int DENSE_SIZE = 256;
+
+	// Initial capacity of the hash table, must be a power of 2.
+
+	private static final int INIT_SPARSE_CAPACITY = 16;
+
+	// Marker for an empty hash table slot.
+
+	private static final int EMPTY_KEY = -1;
+
+
+
+
+	//----- Contents -----
+
+	// Total number of values recorded.
+
+	private int total;
+
+	// Number of times each count 0 through DENSE_SIZE-1 has been seen.
+
+	private int[] dense_counts;
+
+	// Hash table keys (counts >= DENSE_SIZE), or EMPTY_KEY for an empty slot.
+	// Null if no large counts have been seen.
+
+	private int[] sparse_keys;
+
+	// Hash table values (number of times the corresponding key has been seen).
+
+	private int[] sparse_counts;
+
+	// Number of occupied slots in the hash table.
+
+	private int sparse_size;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Clear to empty.
+
+	public void clear () {
+		total = 0;
+		dense_counts = new int[DENSE_SIZE];
+		sparse_keys = null;
+		sparse_counts = null;
+		sparse_size = 0;
+		return;
+	}
+
+
+
+
+	// Default constructor.
+
+	public OECountHistogram () {
+		clear();
+	}
+
+
+
+
+	// Get the total number of values recorded.
+
+	public int get_total () {
+		return total;
+	}
+
+
+
+
+	//----- Accumulation -----
+
+
+
+
+	// Find the hash table slot for a key, or the empty slot where it should go.
+
+	private int find_slot (int key) {
+		int mask = sparse_keys.length - 1;
+		int slot = (key * 0x9E3779B1) >>> 7;
+		for (;;) {
+			slot &= mask;
+			int k = sparse_keys[slot];
+			if (k == key || k == EMPTY_KEY) {
+				return slot;
+			}
+			++slot;
+		}
+	}
+
+
+
+
+	// Grow the hash table so it can hold at least one more key at load factor <= 1/2.
+
+	private void ensure_sparse_capacity () {
+		if (sparse_keys == null) {
+			sparse_keys = new int[INIT_SPARSE_CAPACITY];
+			sparse_counts = new int[INIT_SPARSE_CAPACITY];
+			Arrays.fill (sparse_keys, EMPTY_KEY);
+			return;
+		}
+
+		if (2 * (sparse_size + 1) <= sparse_keys.length) {
+			return;
+		}
+
+		int[] old_keys = sparse_keys;
+		int[] old_counts = sparse_counts;
+
+		sparse_keys = new int[old_keys.length * 2];
+		sparse_counts = new int[old_keys.length * 2];
+		Arrays.fill (sparse_keys, EMPTY_KEY);
+
+		for (int i = 0; i < old_keys.length; ++i) {
+			if (old_keys[i] != EMPTY_KEY) {
+				int slot = find_slot (old_keys[i]);
+				sparse_keys[slot] = old_keys[i];
+				sparse_counts[slot] = old_counts[i];
+			}
+		}
+		return;
+	}
+
+
+
+
+	// Record a value, multiple times.
+	// Parameters:
+	//  value = Value to record, must be >= 0.
+	//  times = Number of times to record it, must be >= 0.
+
+	public void add (int value, int times) {
+		if (value < DENSE_SIZE) {
+			dense_counts[value] += times;
+		} else {
+			ensure_sparse_capacity();
+			int slot = find_slot (value);
+			if (sparse_keys[slot] == EMPTY_KEY) {
+				sparse_keys[slot] = value;
+				sparse_counts[slot] = 0;
+				++sparse_size;
+			}
+			sparse_counts[slot] += times;
+		}
+		total += times;
+		return;
+	}
+
+
+
+
+	// Record a value.
+	// Parameters:
+	//  value = Value to record, must be >= 0.
+
+	public void add (int value) {
+		add (value, 1);
+		return;
+	}
+
+
+
+
+	// Merge another histogram into this one.
+	// Parameters:
+	//  other = Histogram to merge, it is not modified.
+
+	public void merge (OECountHistogram other) {
+		for (int v = 0; v < DENSE_SIZE; ++v) {
+			dense_counts[v] += other.dense_counts[v];
+		}
+		total += other.total;
+
+		// Large values are added through add(), which also increments total, so undo that
+
+		if (other.sparse_keys != null) {
+			int saved_total = total;
+			for (int i = 0; i < other.sparse_keys.length; ++i) {
+				if (other.sparse_keys[i] != EMPTY_KEY) {
+					add (other.sparse_keys[i], other.sparse_counts[i]);
+				}
+			}
+			total = saved_total;
+		}
+		return;
+	}
+
+
+
+
+	//----- Readout -----
+
+
+
+
+	// Get the distinct values that have been recorded, in increasing order.
+
+	public int[] get_values () {
+		int dense_distinct = 0;
+		for (int v = 0; v < DENSE_SIZE; ++v) {
+			if (dense_counts[v] != 0) {
+				++dense_distinct;
+			}
+		}
+
+		int[] result = new int[dense_distinct + sparse_size];
+		int n = 0;
+		for (int v = 0; v < DENSE_SIZE; ++v) {
+			if (dense_counts[v] != 0) {
+				result[n++] = v;
+			}
+		}
+
+		if (sparse_keys != null) {
+			int sparse_lo = n;
+			for (int i = 0; i < sparse_keys.length; ++i) {
+				if (sparse_keys[i] != EMPTY_KEY && sparse_counts[i] != 0) {
+					result[n++] = sparse_keys[i];
+				}
+			}
+			Arrays.sort (result, sparse_lo, n);
+		}
+
+		return (n == result.length) ? result : Arrays.copyOf (result, n);
+	}
+
+
+
+
+	// Get the number of times a value has been recorded.
+
+	public int get_count (int value) {
+		if (value < DENSE_SIZE) {
+			return dense_counts[value];
+		}
+		if (sparse_keys == null) {
+			return 0;
+		}
+		int slot = find_slot (value);
+		if (sparse_keys[slot] == EMPTY_KEY) {
+			return 0;
+		}
+		return sparse_counts[slot];
+	}
+
+
+
+
+	// Get the value at a given position in sorted order.
+	// Parameters:
+	//  n = Position, must satisfy 0 <= n < get_total().
+	// Returns the value that would be at index n, if all recorded values
+	// were stored in an array and sorted into increasing order.
+
+	public int get_sorted_value (int n) {
+		if (!( n >= 0 && n < total )) {
+			throw new IllegalArgumentException ("OECountHistogram.get_sorted_value: Index out of range: n = " + n + ", total = " + total);
+		}
+
+		// Search the dense array
+
+		int cum = 0;
+		for (int v = 0; v < DENSE_SIZE; ++v) {
+			cum += dense_counts[v];
+			if (cum > n) {
+				return v;
+			}
+		}
+
+		// Search the sparse values in increasing order
+
+		int[] values = get_values();
+		for (int i = 0; i < values.length; ++i) {
+			if (values[i] >= DENSE_SIZE) {
+				cum += get_count (values[i]);
+				if (cum > n) {
+					return values[i];
+				}
+			}
+		}
+
+		// Should never get here
+
+		throw new IllegalStateException ("OECountHistogram.get_sorted_value: Histogram is inconsistent: n = " + n + ", total = " + total);
+	}
+
+
+
+
+	// Get the number of recorded values that are strictly greater than v.
+
+	public int get_count_above (int v) {
+		int below = 0;
+		for (int w = 0; w < DENSE_SIZE && w <= v; ++w) {
+			below += dense_counts[w];
+		}
+		if (v >= DENSE_SIZE && sparse_keys != null) {
+			for (int i = 0; i < sparse_keys.length; ++i) {
+				if (sparse_keys[i] != EMPTY_KEY && sparse_keys[i] <= v) {
+					below += sparse_counts[i];
+				}
+			}
+		}
+		return total - below;
+	}
+
+
+
+
+	//----- Marshaling support -----
+
+
+
+
+	// Get the number of times each value in get_values() has been recorded.
+	// Parameters:
+	//  values = Array returned by get_values().
+
+	public int[] get_counts (int[] values) {
+		int[] result = new int[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			result[i] = get_count (values[i]);
+		}
+		return result;
+	}
+
+
+
+
+	// Set the histogram from arrays of values and counts.
+	// Parameters:
+	//  values = Distinct values, each >= 0.
+	//  counts = Number of times each value has been recorded.
+
+	public OECountHistogram set (int[] values, int[] counts) {
+		if (values.length != counts.length) {
+			throw new IllegalArgumentException ("OECountHistogram.set: Array length mismatch: values.length = " + values.length + ", counts.length = " + counts.length);
+		}
+		clear();
+		for (int i = 0; i < values.length; ++i) {
+			add (values[i], counts[i]);
+		}
+		return this;
+	}
+
+}
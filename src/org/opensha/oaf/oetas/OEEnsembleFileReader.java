@@ -0,0 +1,639 @@
+package org.opensha.oaf.oetas;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.opensha.oaf.oetas.OEEnsembleFileWriter.FILE_MAGIC;
+import static org.opensha.oaf.oetas.OEEnsembleFileWriter.FILE_VERSION;
+import static org.opensha.oaf.oetas.OEEnsembleFileWriter.RECORD_MAGIC;
+import static org.opensha.oaf.oetas.OEEnsembleFileWriter.FILE_HEADER_SIZE;
+import static org.opensha.oaf.oetas.OEEnsembleFileWriter.RECORD_HEADER_SIZE;
+import static org.opensha.oaf.oetas.OEEnsembleFileWriter.GEN_ENTRY_SIZE;
+import static org.opensha.oaf.oetas.OEEnsembleFileWriter.INDEX_ENTRY_SIZE;
+
+
+// Class to read an ensemble of Operational ETAS catalogs from a compact binary file.
+//
+// The file is written by OEEnsembleFileWriter, which describes the format.
+//
+// The file is memory-mapped, in regions of up to MAX_REGION_SIZE bytes, each
+// holding a whole number of catalog records.  Each catalog is presented as an
+// OECatalogView whose rupture columns are typed buffer views of the mapping,
+// so a catalog can be scanned without copying it into the heap.  Use
+// load_catalog() to copy a catalog into a catalog builder if needed.
+//
+// Catalogs are numbered 0 through get_catalog_count()-1 in the order they
+// appear in the file, which is the order they were written.  The catalog number
+// within the ensemble, which was used to select its random number stream, is
+// available from get_cat_index().
+//
+// Multiple threads may read from the same object, provided each thread obtains
+// its own views.
+
+public class OEEnsembleFileReader implements AutoCloseable {
+
+	//----- Constants -----
+
+	// Maximum size of one mapped region, in bytes.
+
+	private static final long MAX_REGION_SIZE = 1L << 30;
+
+	// Maximum number of ruptures copied into a segment at once.
+
+	private static final int MAX_SEGMENT_LENGTH = 4096;
+
+
+
+
+	//----- File state -----
+
+	// Name of the file, for error messages.
+
+	private String filename;
+
+	// The open file channel, or null if not open.
+
+	private FileChannel channel;
+
+	// Number of catalogs in the file.
+
+	private int catalog_count;
+
+	// For each catalog: the catalog number, rupture count, mapped region, and offset within the region.
+
+	private int[] cat_index;
+	private int[] cat_rup_count;
+	private int[] cat_region;
+	private int[] cat_region_offset;
+
+	// The mapped regions.
+
+	private List<ByteBuffer> regions;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Default constructor.
+
+	public OEEnsembleFileReader () {
+		filename = null;
+		channel = null;
+		catalog_count = 0;
+		regions = null;
+	}
+
+
+
+
+	// Open a file, and map it into memory.
+	// Parameters:
+	//  the_filename = Name of the file.
+
+	public void open (String the_filename) {
+		if (channel != null) {
+			throw new IllegalStateException ("OEEnsembleFileReader.open: File is already open: " + filename);
+		}
+
+		filename = the_filename;
+
+		try {
+			channel = FileChannel.open ((new File (filename)).toPath(), StandardOpenOption.READ);
+			long file_size = channel.size();
+
+			// Read and check the header
+
+			ByteBuffer header = channel.map (FileChannel.MapMode.READ_ONLY, 0L, FILE_HEADER_SIZE).order (ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt (0) != FILE_MAGIC) {
+				throw new IllegalArgumentException ("OEEnsembleFileReader.open: File is not an ensemble file: " + filename);
+			}
+			if (header.getInt (4) != FILE_VERSION) {
+				throw new IllegalArgumentException ("OEEnsembleFileReader.open: Unsupported file version: " + header.getInt (4) + ", file: " + filename);
+			}
+			long index_offset = header.getLong (8);
+			catalog_count = header.getInt (16);
+			if (index_offset == 0L) {
+				throw new IllegalArgumentException ("OEEnsembleFileReader.open: File was not closed after writing: " + filename);
+			}
+			if (index_offset + ((long)INDEX_ENTRY_SIZE) * ((long)catalog_count) > file_size) {
+				throw new IllegalArgumentException ("OEEnsembleFileReader.open: File is truncated: " + filename);
+			}
+
+			// Read the index
+
+			ByteBuffer index = channel.map (FileChannel.MapMode.READ_ONLY, index_offset, ((long)INDEX_ENTRY_SIZE) * ((long)catalog_count)).order (ByteOrder.LITTLE_ENDIAN);
+
+			long[] rec_offset = new long[catalog_count + 1];
+			cat_index = new int[catalog_count];
+			cat_rup_count = new int[catalog_count];
+			for (int n = 0; n < catalog_count; ++n) {
+				rec_offset[n] = index.getLong (n * INDEX_ENTRY_SIZE);
+				cat_index[n] = index.getInt (n * INDEX_ENTRY_SIZE + 8);
+				cat_rup_count[n] = index.getInt (n * INDEX_ENTRY_SIZE + 12);
+			}
+			rec_offset[catalog_count] = index_offset;
+
+			// Group consecutive records into regions, and map each region
+
+			cat_region = new int[catalog_count];
+			cat_region_offset = new int[catalog_count];
+			regions = new ArrayList<ByteBuffer>();
+
+			int n = 0;
+			while (n < catalog_count) {
+				long region_start = rec_offset[n];
+				int m = n + 1;
+				while (m < catalog_count && rec_offset[m + 1] - region_start <= MAX_REGION_SIZE) {
+					++m;
+				}
+				long region_size = rec_offset[m] - region_start;
+				if (region_size > (long)Integer.MAX_VALUE) {
+					throw new IllegalArgumentException ("OEEnsembleFileReader.open: Catalog record is too large, file: " + filename);
+				}
+
+				MappedByteBuffer region = channel.map (FileChannel.MapMode.READ_ONLY, region_start, region_size);
+				region.order (ByteOrder.LITTLE_ENDIAN);
+				for (int k = n; k < m; ++k) {
+					cat_region[k] = regions.size();
+					cat_region_offset[k] = (int)(rec_offset[k] - region_start);
+				}
+				regions.add (region);
+				n = m;
+			}
+		}
+		catch (IOException e) {
+			close();
+			throw new RuntimeException ("OEEnsembleFileReader.open: I/O error reading file: " + filename, e);
+		}
+		return;
+	}
+
+
+
+
+	// Close the file.
+	// Note: Views obtained from this object remain usable until they are
+	// garbage collected, because the mappings outlive the channel.
+
+	@Override
+	public void close () {
+		if (channel != null) {
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				throw new RuntimeException ("OEEnsembleFileReader.close: I/O error closing file: " + filename, e);
+			}
+			finally {
+				channel = null;
+			}
+		}
+		return;
+	}
+
+
+
+
+	// Get the number of catalogs in the file.
+
+	public int get_catalog_count () {
+		return catalog_count;
+	}
+
+
+
+
+	// Get the catalog number within the ensemble, for the n-th catalog in the file.
+	// Returns -1 if the catalog number was not known when the file was written.
+
+	public int get_cat_index (int n) {
+		return cat_index[n];
+	}
+
+
+
+
+	// Get the total number of ruptures, for the n-th catalog in the file.
+
+	public int get_rup_count (int n) {
+		return cat_rup_count[n];
+	}
+
+
+
+
+	// Get a view of the n-th catalog in the file.
+	// The view reads directly from the memory mapping.
+
+	public CatalogView get_catalog_view (int n) {
+		if (!( n >= 0 && n < catalog_count )) {
+			throw new IllegalArgumentException ("OEEnsembleFileReader.get_catalog_view: Catalog number out of range: n = " + n + ", catalog_count = " + catalog_count);
+		}
+		return new CatalogView (regions.get (cat_region[n]), cat_region_offset[n]);
+	}
+
+
+
+
+	// Copy the n-th catalog in the file into a catalog builder.
+	// Parameters:
+	//  n = Catalog number within the file.
+	//  cat_builder = Catalog builder to receive the catalog.
+
+	public void load_catalog (int n, OECatalogBuilder cat_builder) {
+		CatalogView view = get_catalog_view (n);
+
+		OECatalogParams cat_params = new OECatalogParams();
+		OEGenerationInfo gen_info = new OEGenerationInfo();
+		OERupture rup = new OERupture();
+
+		view.get_cat_params (cat_params);
+		cat_builder.begin_catalog (cat_params);
+
+		for (int i_gen = 0; i_gen < view.get_gen_count(); ++i_gen) {
+			view.get_gen_info (i_gen, gen_info);
+			cat_builder.begin_generation (gen_info);
+			int gen_size = view.get_gen_size (i_gen);
+			for (int j_rup = 0; j_rup < gen_size; ++j_rup) {
+				view.get_rup (i_gen, j_rup, rup);
+				cat_builder.add_rup (rup);
+			}
+			cat_builder.end_generation();
+		}
+
+		cat_builder.end_catalog();
+		return;
+	}
+
+
+
+
+	//----- Catalog view -----
+
+
+
+
+	// View of one catalog record, backed by the memory mapping.
+
+	public static class CatalogView implements OECatalogView {
+
+		// The record, as a buffer beginning at the start of the record.
+
+		private ByteBuffer rec;
+
+		// Number of generations and ruptures.
+
+		private int gen_count;
+		private int rup_count;
+
+		// Offset of the per-generation index within the record.
+
+		private int gen_index_pos;
+
+		// Rupture columns.
+
+		private DoubleBuffer t_day;
+		private FloatBuffer rup_mag;
+		private FloatBuffer k_prod;
+		private IntBuffer rup_parent;
+		private FloatBuffer x_km;
+		private FloatBuffer y_km;
+
+		// Make a typed view of one column.
+
+		private static ByteBuffer column (ByteBuffer rec, int pos, int bytes) {
+			ByteBuffer b = rec.duplicate();
+			b.position (pos);
+			b.limit (pos + bytes);
+			return b.slice().order (ByteOrder.LITTLE_ENDIAN);
+		}
+
+		// Construct a view of the record at the given offset in the region.
+
+		public CatalogView (ByteBuffer region, int offset) {
+			ByteBuffer r = region.duplicate();
+			r.position (offset);
+			rec = r.slice().order (ByteOrder.LITTLE_ENDIAN);
+
+			if (rec.getInt (0) != RECORD_MAGIC) {
+				throw new IllegalStateException ("OEEnsembleFileReader.CatalogView: Invalid catalog record");
+			}
+			gen_count = rec.getInt (8);
+			rup_count = rec.getInt (12);
+
+			gen_index_pos = RECORD_HEADER_SIZE;
+			int pos = gen_index_pos + GEN_ENTRY_SIZE * gen_count;
+			t_day = column (rec, pos, 8 * rup_count).asDoubleBuffer();
+			pos += 8 * rup_count;
+			rup_mag = column (rec, pos, 4 * rup_count).asFloatBuffer();
+			pos += 4 * rup_count;
+			k_prod = column (rec, pos, 4 * rup_count).asFloatBuffer();
+			pos += 4 * rup_count;
+			rup_parent = column (rec, pos, 4 * rup_count).asIntBuffer();
+			pos += 4 * rup_count;
+			x_km = column (rec, pos, 4 * rup_count).asFloatBuffer();
+			pos += 4 * rup_count;
+			y_km = column (rec, pos, 4 * rup_count).asFloatBuffer();
+		}
+
+		// Get the catalog number within the ensemble, or -1 if not known.
+
+		public int get_cat_index () {
+			return rec.getInt (4);
+		}
+
+		// Get the index of the first rupture of the i-th generation, within the columns.
+
+		public int get_gen_start (int i_gen) {
+			return rec.getInt (gen_index_pos + GEN_ENTRY_SIZE * i_gen + 16);
+		}
+
+		// Get the rupture time column, which can be scanned directly.
+		// Rupture j_rup of generation i_gen is at index get_gen_start(i_gen) + j_rup.
+
+		public DoubleBuffer get_t_day_column () {
+			return t_day.duplicate();
+		}
+
+		// Get the rupture magnitude column, which can be scanned directly.
+
+		public FloatBuffer get_rup_mag_column () {
+			return rup_mag.duplicate();
+		}
+
+		//----- Implementation of OECatalogView -----
+
+		// Get parameters for the catalog.
+
+		@Override
+		public void get_cat_params (OECatalogParams cat_params) {
+			OEEnsembleFileWriter.read_cat_params (rec, 16, cat_params);
+			return;
+		}
+
+		// Get the total number of ruptures in the catalog.
+
+		@Override
+		public int size () {
+			return rup_count;
+		}
+
+		// Get the number of generations in the catalog.
+
+		@Override
+		public int get_gen_count () {
+			return gen_count;
+		}
+
+		// Get the number of ruptures in the i-th generation.
+
+		@Override
+		public int get_gen_size (int i_gen) {
+			return rec.getInt (gen_index_pos + GEN_ENTRY_SIZE * i_gen + 20);
+		}
+
+		// Get information about the i-th generation in the catalog.
+
+		@Override
+		public void get_gen_info (int i_gen, OEGenerationInfo gen_info) {
+			int pos = gen_index_pos + GEN_ENTRY_SIZE * i_gen;
+			gen_info.set (
+				rec.getDouble (pos),
+				rec.getDouble (pos + 8)
+			);
+			return;
+		}
+
+		// Get the j-th rupture in the i-th generation in the catalog.
+
+		@Override
+		public void get_rup (int i_gen, int j_rup, OERupture rup) {
+			int index = get_gen_start (i_gen) + j_rup;
+			rup.set (
+				t_day.get (index),
+				(double)(rup_mag.get (index)),
+				(double)(k_prod.get (index)),
+				rup_parent.get (index),
+				(double)(x_km.get (index)),
+				(double)(y_km.get (index))
+			);
+			return;
+		}
+
+		// Get a segment of consecutive ruptures in the i-th generation, for bulk access.
+		// The ruptures are bulk-copied from the mapping into the segment's own arrays.
+
+		@Override
+		public int get_rup_segment (int i_gen, int j_rup, OERupSegment seg) {
+			int n = Math.min (MAX_SEGMENT_LENGTH, get_gen_size (i_gen) - j_rup);
+			if (n <= 0) {
+				seg.offset = 0;
+				seg.length = 0;
+				return 0;
+			}
+
+			int index = get_gen_start (i_gen) + j_rup;
+			seg.set_to_owned (n);
+
+			((DoubleBuffer)(t_day.duplicate().position (index))).get (seg.t_day, 0, n);
+			((FloatBuffer)(rup_mag.duplicate().position (index))).get (seg.rup_mag, 0, n);
+			((FloatBuffer)(k_prod.duplicate().position (index))).get (seg.k_prod, 0, n);
+			((IntBuffer)(rup_parent.duplicate().position (index))).get (seg.rup_parent, 0, n);
+			((FloatBuffer)(x_km.duplicate().position (index))).get (seg.x_km, 0, n);
+			((FloatBuffer)(y_km.duplicate().position (index))).get (seg.y_km, 0, n);
+			return n;
+		}
+	}
+
+
+
+
+	//----- Testing -----
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("OEEnsembleFileReader : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  n  p  c  b  alpha  gen_size_target  gen_count_max  mag_main  tbegin  num_cats
+		//         master_seed  num_threads  filename
+		// Generate an ensemble of catalogs with the given parameters and master seed,
+		// writing them to the given file with OEEnsembleFileWriter.  Then read the file
+		// back through memory mapping, and check that every catalog is identical to
+		// the catalog regenerated individually from its catalog number.  Also time a
+		// scan of the whole file, counting ruptures with magnitude >= mag_main - 2.
+		// Note: master_seed must be non-zero.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// 13 additional arguments
+
+			if (args.length != 14) {
+				System.err.println ("OEEnsembleFileReader : Invalid 'test1' subcommand");
+				return;
+			}
+
+			try {
+
+				double n = Double.parseDouble (args[1]);
+				double p = Double.parseDouble (args[2]);
+				double c = Double.parseDouble (args[3]);
+				double b = Double.parseDouble (args[4]);
+				double alpha = Double.parseDouble (args[5]);
+				int gen_size_target = Integer.parseInt (args[6]);
+				int gen_count_max = Integer.parseInt (args[7]);
+				double mag_main = Double.parseDouble (args[8]);
+				double tbegin = Double.parseDouble (args[9]);
+				int num_cats = Integer.parseInt (args[10]);
+				long master_seed = Long.parseLong (args[11]);
+				int num_threads = Integer.parseInt (args[12]);
+				String filename = args[13];
+
+				// Say hello
+
+				System.out.println ("Writing and reading an ensemble file");
+				System.out.println ("n = " + n);
+				System.out.println ("p = " + p);
+				System.out.println ("c = " + c);
+				System.out.println ("b = " + b);
+				System.out.println ("alpha = " + alpha);
+				System.out.println ("gen_size_target = " + gen_size_target);
+				System.out.println ("gen_count_max = " + gen_count_max);
+				System.out.println ("mag_main = " + mag_main);
+				System.out.println ("tbegin = " + tbegin);
+				System.out.println ("num_cats = " + num_cats);
+				System.out.println ("master_seed = " + master_seed);
+				System.out.println ("num_threads = " + num_threads);
+				System.out.println ("filename = " + filename);
+
+				// Set up catalog parameters
+
+				double a = 0.0;			// for the moment
+				OECatalogParams test_cat_params = (new OECatalogParams()).set_to_typical (
+					a,
+					p,
+					c,
+					b,
+					alpha,
+					gen_size_target,
+					gen_count_max
+				);
+
+				test_cat_params.a = OEStatsCalc.calc_inv_branch_ratio (n, test_cat_params);
+				test_cat_params.tbegin = tbegin;
+				test_cat_params.tend = tbegin + 365.0;
+
+				// Generate the ensemble into the file
+
+				OEEnsembleFileWriter file_writer = new OEEnsembleFileWriter();
+				file_writer.open (filename);
+
+				ArrayList<OEEnsembleAccumulator> accumulators = new ArrayList<OEEnsembleAccumulator>();
+				accumulators.add (file_writer);
+
+				OEEnsembleParams ensemble_params = OEAccumCumTimeMag.typical_test_ensemble_params (test_cat_params, mag_main, accumulators, num_cats);
+				ensemble_params.set_master_seed (master_seed);
+
+				long start_nanos = System.nanoTime();
+				OEEnsembleGenerator ensemble_generator = new OEEnsembleGenerator();
+				ensemble_generator.generate_all_catalogs (ensemble_params, num_threads, -1L, 10000L);
+				file_writer.close();
+				long gen_nanos = System.nanoTime() - start_nanos;
+
+				System.out.println ();
+				System.out.println ("Catalogs written = " + file_writer.get_catalog_count());
+				System.out.println ("File size = " + (new File (filename)).length() + " bytes");
+				System.out.println ("Generate and write time = " + (gen_nanos / 1000000L) + " ms");
+
+				// Read it back
+
+				try (
+					OEEnsembleFileReader file_reader = new OEEnsembleFileReader();
+				) {
+					file_reader.open (filename);
+					int catalog_count = file_reader.get_catalog_count();
+
+					// Scan all ruptures through the mapped columns
+
+					start_nanos = System.nanoTime();
+					long total_rups = 0L;
+					long big_rups = 0L;
+					float big_mag = (float)(mag_main - 2.0);
+					for (int k = 0; k < catalog_count; ++k) {
+						CatalogView view = file_reader.get_catalog_view (k);
+						FloatBuffer mags = view.get_rup_mag_column();
+						int rup_count = view.size();
+						for (int j = 0; j < rup_count; ++j) {
+							if (mags.get (j) >= big_mag) {
+								++big_rups;
+							}
+						}
+						total_rups += (long)rup_count;
+					}
+					long scan_nanos = System.nanoTime() - start_nanos;
+
+					System.out.println ();
+					System.out.println ("Catalogs read = " + catalog_count);
+					System.out.println ("Total ruptures = " + total_rups);
+					System.out.println ("Ruptures with magnitude >= " + big_mag + " = " + big_rups);
+					System.out.println ("Scan time = " + (scan_nanos / 1000000L) + " ms");
+
+					// Check each catalog against the regenerated catalog
+
+					int mismatches = 0;
+					for (int k = 0; k < catalog_count; ++k) {
+						String from_file = file_reader.get_catalog_view (k).dump_to_string();
+						String regen = OEEnsembleGenerator.gen_single_catalog (ensemble_params, file_reader.get_cat_index (k)).dump_to_string();
+						if (!( from_file.equals (regen) )) {
+							++mismatches;
+						}
+					}
+
+					System.out.println ();
+					System.out.println ("Catalogs not matching regenerated catalog = " + mismatches);
+				}
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("OEEnsembleFileReader : Unrecognized subcommand : " + args[0]);
+		return;
+
+	}
+
+}
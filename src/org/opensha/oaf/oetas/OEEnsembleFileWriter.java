@@ -0,0 +1,753 @@
+package org.opensha.oaf.oetas;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+// Class to write an ensemble of Operational ETAS catalogs to a compact binary file.
+//
+// This is an ensemble accumulator, so it can be added to the accumulators of an
+// ensemble generator.  Each consumer collects one catalog, and when the catalog
+// ends, appends it to the file as a single record.  Records are appended in the
+// order catalogs complete, under a lock, so worker threads write sequentially
+// without interleaving.  A catalog can also be written directly from any
+// catalog view, using write_catalog().
+//
+// The file is columnar: within each record, each rupture field is stored as one
+// contiguous array, so it can be read through memory-mapped typed buffer views
+// (see OEEnsembleFileReader) without deserializing the catalog into the heap.
+// All values are little-endian.  Rupture values are stored with the same
+// precision as OECatalogStorage.
+//
+// File layout:
+//
+//   File header (FILE_HEADER_SIZE bytes):
+//     int    magic = FILE_MAGIC
+//     int    version = FILE_VERSION
+//     long   index_offset = Offset of the catalog index, or 0 if the file was not closed.
+//     int    catalog_count = Number of catalogs in the file.
+//     int    reserved (zero)
+//     long   reserved (zero)
+//
+//   Catalog records, in the order written, each beginning on an 8-byte boundary:
+//     int    magic = RECORD_MAGIC
+//     int    cat_index = Catalog number within the ensemble, or -1 if not known.
+//     int    gen_count = Number of generations.
+//     int    rup_count = Total number of ruptures.
+//     double[CAT_PARAMS_DOUBLES]  Catalog parameters (see write_cat_params).
+//     int[CAT_PARAMS_INTS]        Catalog parameters (see write_cat_params).
+//     int    reserved (zero)
+//     Per-generation index, gen_count entries of GEN_ENTRY_SIZE bytes:
+//       double gen_mag_min
+//       double gen_mag_max
+//       int    gen_start = Index of the first rupture of the generation.
+//       int    gen_size = Number of ruptures in the generation.
+//     double[rup_count]  t_day
+//     float[rup_count]   rup_mag
+//     float[rup_count]   k_prod
+//     int[rup_count]     rup_parent
+//     float[rup_count]   x_km
+//     float[rup_count]   y_km
+//     Padding to an 8-byte boundary.
+//
+//   Catalog index, catalog_count entries of INDEX_ENTRY_SIZE bytes:
+//     long   record_offset = Offset of the record in the file.
+//     int    cat_index = Catalog number, as in the record.
+//     int    rup_count = Total number of ruptures, as in the record.
+//
+// Note: Only ETAS ruptures are written; sterile ruptures are not part of the catalog.
+
+public class OEEnsembleFileWriter implements OEEnsembleAccumulator, AutoCloseable {
+
+	//----- Constants -----
+
+	// Magic number at the start of the file ("OECF").
+
+	public static final int FILE_MAGIC = 0x4F454346;
+
+	// File format version.
+
+	public static final int FILE_VERSION = 1;
+
+	// Magic number at the start of each catalog record ("OECR").
+
+	public static final int RECORD_MAGIC = 0x4F454352;
+
+	// Size of the file header, in bytes.
+
+	public static final int FILE_HEADER_SIZE = 32;
+
+	// Number of double and int catalog parameters stored in each record.
+
+	public static final int CAT_PARAMS_DOUBLES = 17;
+	public static final int CAT_PARAMS_INTS = 3;
+
+	// Size of the fixed part of a catalog record, in bytes.
+
+	public static final int RECORD_HEADER_SIZE = 16 + (8 * CAT_PARAMS_DOUBLES) + (4 * CAT_PARAMS_INTS) + 4;
+
+	// Size of one entry in the per-generation index, in bytes.
+
+	public static final int GEN_ENTRY_SIZE = 24;
+
+	// Size of all rupture columns, per rupture, in bytes.
+
+	public static final int RUP_COLUMNS_SIZE = 8 + (5 * 4);
+
+	// Size of one entry in the catalog index, in bytes.
+
+	public static final int INDEX_ENTRY_SIZE = 16;
+
+	// Initial capacities.
+
+	private static final int INIT_RUP_CAPACITY = 1024;
+	private static final int INIT_GEN_CAPACITY = 128;
+	private static final int INIT_INDEX_CAPACITY = 1024;
+
+
+
+
+	//----- Layout functions -----
+
+
+
+
+	// Get the size of a catalog record, in bytes.
+	// Parameters:
+	//  gen_count = Number of generations.
+	//  rup_count = Total number of ruptures.
+
+	public static long record_size (int gen_count, int rup_count) {
+		long size = ((long)RECORD_HEADER_SIZE)
+					+ ((long)GEN_ENTRY_SIZE) * ((long)gen_count)
+					+ ((long)RUP_COLUMNS_SIZE) * ((long)rup_count);
+		return (size + 7L) & (~7L);
+	}
+
+
+
+
+	// Write catalog parameters into a buffer, at its current position.
+
+	public static void write_cat_params (ByteBuffer buf, OECatalogParams cat_params) {
+		buf.putDouble (cat_params.a);
+		buf.putDouble (cat_params.p);
+		buf.putDouble (cat_params.c);
+		buf.putDouble (cat_params.b);
+		buf.putDouble (cat_params.alpha);
+		buf.putDouble (cat_params.mref);
+		buf.putDouble (cat_params.msup);
+		buf.putDouble (cat_params.tbegin);
+		buf.putDouble (cat_params.tend);
+		buf.putDouble (cat_params.teps);
+		buf.putDouble (cat_params.mag_min_sim);
+		buf.putDouble (cat_params.mag_max_sim);
+		buf.putDouble (cat_params.mag_min_lo);
+		buf.putDouble (cat_params.mag_min_hi);
+		buf.putDouble (cat_params.mag_max_lo);
+		buf.putDouble (cat_params.mag_max_hi);
+		buf.putDouble (cat_params.mag_eps);
+		buf.putInt (cat_params.gen_size_target);
+		buf.putInt (cat_params.gen_count_max);
+		buf.putInt (cat_params.parent_meth);
+		return;
+	}
+
+
+
+
+	// Read catalog parameters from a buffer, at the given absolute position.
+
+	public static void read_cat_params (ByteBuffer buf, int pos, OECatalogParams cat_params) {
+		cat_params.a           = buf.getDouble (pos);       pos += 8;
+		cat_params.p           = buf.getDouble (pos);       pos += 8;
+		cat_params.c           = buf.getDouble (pos);       pos += 8;
+		cat_params.b           = buf.getDouble (pos);       pos += 8;
+		cat_params.alpha       = buf.getDouble (pos);       pos += 8;
+		cat_params.mref        = buf.getDouble (pos);       pos += 8;
+		cat_params.msup        = buf.getDouble (pos);       pos += 8;
+		cat_params.tbegin      = buf.getDouble (pos);       pos += 8;
+		cat_params.tend        = buf.getDouble (pos);       pos += 8;
+		cat_params.teps        = buf.getDouble (pos);       pos += 8;
+		cat_params.mag_min_sim = buf.getDouble (pos);       pos += 8;
+		cat_params.mag_max_sim = buf.getDouble (pos);       pos += 8;
+		cat_params.mag_min_lo  = buf.getDouble (pos);       pos += 8;
+		cat_params.mag_min_hi  = buf.getDouble (pos);       pos += 8;
+		cat_params.mag_max_lo  = buf.getDouble (pos);       pos += 8;
+		cat_params.mag_max_hi  = buf.getDouble (pos);       pos += 8;
+		cat_params.mag_eps     = buf.getDouble (pos);       pos += 8;
+		cat_params.gen_size_target = buf.getInt (pos);      pos += 4;
+		cat_params.gen_count_max   = buf.getInt (pos);      pos += 4;
+		cat_params.parent_meth     = buf.getInt (pos);      pos += 4;
+		return;
+	}
+
+
+
+
+	//----- File state -----
+
+	// Name of the file, for error messages.
+
+	private String filename;
+
+	// The open file channel, or null if not open.
+
+	private FileChannel channel;
+
+	// Offset in the file where the next record is written.
+
+	private long next_offset;
+
+	// The catalog index: record offset, catalog number, and rupture count of each record.
+
+	private int catalog_count;
+	private long[] index_offset;
+	private int[] index_cat;
+	private int[] index_rup_count;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Default constructor.
+
+	public OEEnsembleFileWriter () {
+		filename = null;
+		channel = null;
+		next_offset = 0L;
+		catalog_count = 0;
+		index_offset = null;
+		index_cat = null;
+		index_rup_count = null;
+	}
+
+
+
+
+	// Open the file, and write the file header.
+	// Parameters:
+	//  the_filename = Name of the file; any existing file is overwritten.
+
+	public synchronized void open (String the_filename) {
+		if (channel != null) {
+			throw new IllegalStateException ("OEEnsembleFileWriter.open: File is already open: " + filename);
+		}
+
+		filename = the_filename;
+		catalog_count = 0;
+		index_offset = new long[INIT_INDEX_CAPACITY];
+		index_cat = new int[INIT_INDEX_CAPACITY];
+		index_rup_count = new int[INIT_INDEX_CAPACITY];
+
+		try {
+			channel = FileChannel.open ((new File (filename)).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+			// The header has a zero index offset until the file is closed
+
+			write_header (0L);
+			next_offset = FILE_HEADER_SIZE;
+		}
+		catch (IOException e) {
+			channel = null;
+			throw new RuntimeException ("OEEnsembleFileWriter.open: I/O error opening file: " + filename, e);
+		}
+		return;
+	}
+
+
+
+
+	// Close the file, after writing the catalog index and completing the file header.
+	// If the file is not open, this does nothing.
+
+	@Override
+	public synchronized void close () {
+		if (channel == null) {
+			return;
+		}
+
+		try {
+
+			// Write the index
+
+			ByteBuffer buf = ByteBuffer.allocate (INDEX_ENTRY_SIZE * catalog_count).order (ByteOrder.LITTLE_ENDIAN);
+			for (int n = 0; n < catalog_count; ++n) {
+				buf.putLong (index_offset[n]);
+				buf.putInt (index_cat[n]);
+				buf.putInt (index_rup_count[n]);
+			}
+			buf.flip();
+			write_fully (buf, next_offset);
+
+			// Complete the header
+
+			write_header (next_offset);
+			channel.close();
+		}
+		catch (IOException e) {
+			throw new RuntimeException ("OEEnsembleFileWriter.close: I/O error writing file: " + filename, e);
+		}
+		finally {
+			channel = null;
+		}
+		return;
+	}
+
+
+
+
+	// Get the number of catalogs written.
+
+	public synchronized int get_catalog_count () {
+		return catalog_count;
+	}
+
+
+
+
+	// Write the file header.
+
+	private void write_header (long the_index_offset) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate (FILE_HEADER_SIZE).order (ByteOrder.LITTLE_ENDIAN);
+		buf.putInt (FILE_MAGIC);
+		buf.putInt (FILE_VERSION);
+		buf.putLong (the_index_offset);
+		buf.putInt (catalog_count);
+		buf.putInt (0);
+		buf.putLong (0L);
+		buf.flip();
+		write_fully (buf, 0L);
+		return;
+	}
+
+
+
+
+	// Write the entire contents of a buffer, at the given file offset.
+
+	private void write_fully (ByteBuffer buf, long offset) throws IOException {
+		long pos = offset;
+		while (buf.hasRemaining()) {
+			pos += channel.write (buf, pos);
+		}
+		return;
+	}
+
+
+
+
+	// Append a record to the file.
+	// Parameters:
+	//  buf = Buffer containing the complete record, positioned at the start.
+	//  cat_index = Catalog number.
+	//  rup_count = Total number of ruptures.
+	// Threading: Can be called simultaneously from multiple consumers.
+
+	private synchronized void append_record (ByteBuffer buf, int cat_index, int rup_count) {
+		if (channel == null) {
+			throw new IllegalStateException ("OEEnsembleFileWriter.append_record: File is not open");
+		}
+
+		if (catalog_count == index_offset.length) {
+			int cap = catalog_count * 2;
+			index_offset = Arrays.copyOf (index_offset, cap);
+			index_cat = Arrays.copyOf (index_cat, cap);
+			index_rup_count = Arrays.copyOf (index_rup_count, cap);
+		}
+
+		index_offset[catalog_count] = next_offset;
+		index_cat[catalog_count] = cat_index;
+		index_rup_count[catalog_count] = rup_count;
+
+		try {
+			long size = buf.remaining();
+			write_fully (buf, next_offset);
+			next_offset += size;
+		}
+		catch (IOException e) {
+			throw new RuntimeException ("OEEnsembleFileWriter.append_record: I/O error writing file: " + filename, e);
+		}
+
+		++catalog_count;
+		return;
+	}
+
+
+
+
+	//----- Record building -----
+
+
+
+
+	// Class to hold one catalog in columnar form while it is being collected,
+	// and encode it as a record.
+
+	private static class RecordBuilder {
+
+		// Catalog parameters and number.
+
+		public OECatalogParams cat_params;
+		public int cat_index;
+
+		// Per-generation data.
+
+		public int gen_count;
+		public double[] gen_mag_min;
+		public double[] gen_mag_max;
+		public int[] gen_start;
+		public int[] gen_size;
+
+		// Per-rupture columns.
+
+		public int rup_count;
+		public double[] t_day;
+		public float[] rup_mag;
+		public float[] k_prod;
+		public int[] rup_parent;
+		public float[] x_km;
+		public float[] y_km;
+
+		// Buffer used to encode the record, re-used if large enough.
+
+		private ByteBuffer buf;
+
+		// Constructor.
+
+		public RecordBuilder () {
+			cat_params = new OECatalogParams();
+			gen_mag_min = new double[INIT_GEN_CAPACITY];
+			gen_mag_max = new double[INIT_GEN_CAPACITY];
+			gen_start = new int[INIT_GEN_CAPACITY];
+			gen_size = new int[INIT_GEN_CAPACITY];
+			t_day = new double[INIT_RUP_CAPACITY];
+			rup_mag = new float[INIT_RUP_CAPACITY];
+			k_prod = new float[INIT_RUP_CAPACITY];
+			rup_parent = new int[INIT_RUP_CAPACITY];
+			x_km = new float[INIT_RUP_CAPACITY];
+			y_km = new float[INIT_RUP_CAPACITY];
+			buf = null;
+			begin_catalog (-1);
+		}
+
+		// Begin a catalog.
+
+		public void begin_catalog (int the_cat_index) {
+			cat_index = the_cat_index;
+			gen_count = 0;
+			rup_count = 0;
+			return;
+		}
+
+		// Begin a generation.
+
+		public void begin_generation (OEGenerationInfo gen_info) {
+			if (gen_count == gen_size.length) {
+				int cap = gen_count * 2;
+				gen_mag_min = Arrays.copyOf (gen_mag_min, cap);
+				gen_mag_max = Arrays.copyOf (gen_mag_max, cap);
+				gen_start = Arrays.copyOf (gen_start, cap);
+				gen_size = Arrays.copyOf (gen_size, cap);
+			}
+			gen_mag_min[gen_count] = gen_info.gen_mag_min;
+			gen_mag_max[gen_count] = gen_info.gen_mag_max;
+			gen_start[gen_count] = rup_count;
+			gen_size[gen_count] = 0;
+			++gen_count;
+			return;
+		}
+
+		// Add a rupture to the current generation.
+
+		public void add_rup (OERupture rup) {
+			if (rup_count == t_day.length) {
+				int cap = rup_count * 2;
+				t_day = Arrays.copyOf (t_day, cap);
+				rup_mag = Arrays.copyOf (rup_mag, cap);
+				k_prod = Arrays.copyOf (k_prod, cap);
+				rup_parent = Arrays.copyOf (rup_parent, cap);
+				x_km = Arrays.copyOf (x_km, cap);
+				y_km = Arrays.copyOf (y_km, cap);
+			}
+			t_day[rup_count] = rup.t_day;
+			rup_mag[rup_count] = (float)(rup.rup_mag);
+			k_prod[rup_count] = (float)(rup.k_prod);
+			rup_parent[rup_count] = rup.rup_parent;
+			x_km[rup_count] = (float)(rup.x_km);
+			y_km[rup_count] = (float)(rup.y_km);
+			++rup_count;
+			gen_size[gen_count - 1]++;
+			return;
+		}
+
+		// Encode the record, and return a buffer positioned at its start.
+
+		public ByteBuffer encode () {
+			long size = record_size (gen_count, rup_count);
+			if (size > (long)Integer.MAX_VALUE) {
+				throw new IllegalArgumentException ("OEEnsembleFileWriter.RecordBuilder.encode: Catalog is too large: rup_count = " + rup_count);
+			}
+
+			if (buf == null || buf.capacity() < (int)size) {
+				buf = ByteBuffer.allocate (Math.max ((int)size, 2 * ((buf == null) ? 0 : buf.capacity()))).order (ByteOrder.LITTLE_ENDIAN);
+			}
+			buf.clear();
+
+			buf.putInt (RECORD_MAGIC);
+			buf.putInt (cat_index);
+			buf.putInt (gen_count);
+			buf.putInt (rup_count);
+			write_cat_params (buf, cat_params);
+			buf.putInt (0);
+
+			for (int i = 0; i < gen_count; ++i) {
+				buf.putDouble (gen_mag_min[i]);
+				buf.putDouble (gen_mag_max[i]);
+				buf.putInt (gen_start[i]);
+				buf.putInt (gen_size[i]);
+			}
+
+			buf.asDoubleBuffer().put (t_day, 0, rup_count);
+			buf.position (buf.position() + 8 * rup_count);
+			buf.asFloatBuffer().put (rup_mag, 0, rup_count);
+			buf.position (buf.position() + 4 * rup_count);
+			buf.asFloatBuffer().put (k_prod, 0, rup_count);
+			buf.position (buf.position() + 4 * rup_count);
+			buf.asIntBuffer().put (rup_parent, 0, rup_count);
+			buf.position (buf.position() + 4 * rup_count);
+			buf.asFloatBuffer().put (x_km, 0, rup_count);
+			buf.position (buf.position() + 4 * rup_count);
+			buf.asFloatBuffer().put (y_km, 0, rup_count);
+			buf.position (buf.position() + 4 * rup_count);
+
+			while (buf.position() < (int)size) {
+				buf.put ((byte)0);
+			}
+
+			buf.flip();
+			return buf;
+		}
+	}
+
+
+
+
+	// Write a catalog to the file.
+	// Parameters:
+	//  cat_index = Catalog number, or -1 if not known.
+	//  view = Catalog view; every generation must be available.
+	// Threading: Can be called simultaneously from multiple threads.
+
+	public void write_catalog (int cat_index, OECatalogView view) {
+		RecordBuilder builder = new RecordBuilder();
+		builder.begin_catalog (cat_index);
+		view.get_cat_params (builder.cat_params);
+
+		OEGenerationInfo gen_info = new OEGenerationInfo();
+		OERupture rup = new OERupture();
+		OERupSegment seg = new OERupSegment();
+
+		int gen_count = view.get_gen_count();
+		for (int i_gen = 0; i_gen < gen_count; ++i_gen) {
+			view.get_gen_info (i_gen, gen_info);
+			builder.begin_generation (gen_info);
+			int gen_size = view.get_gen_size (i_gen);
+			for (int j_rup = 0; j_rup < gen_size; ) {
+				int seg_length = view.get_rup_segment (i_gen, j_rup, seg);
+				for (int k = 0; k < seg_length; ++k, ++j_rup) {
+					seg.get_rup (k, rup);
+					builder.add_rup (rup);
+				}
+			}
+		}
+
+		append_record (builder.encode(), builder.cat_index, builder.rup_count);
+		return;
+	}
+
+
+
+
+	//----- Consumers -----
+
+
+
+
+	// Consumer that collects each catalog and appends it to the file.
+
+	private class ConsumerWriter implements OECatalogConsumer {
+
+		// True if consumer is open.
+
+		private boolean f_open;
+
+		// The catalog being collected, re-used for each catalog.
+
+		private RecordBuilder builder;
+
+		// Default constructor.
+
+		public ConsumerWriter () {
+			f_open = false;
+			builder = new RecordBuilder();
+		}
+
+		//----- Open/Close methods (Implementation of OECatalogConsumer) -----
+
+		// Open the catalog consumer.
+
+		@Override
+		public void open () {
+			builder.begin_catalog (-1);
+			f_open = true;
+			return;
+		}
+
+		// Close the catalog consumer.
+
+		@Override
+		public void close () {
+			f_open = false;
+			return;
+		}
+
+		//----- Data methods (Implementation of OECatalogConsumer) -----
+
+		// Begin consuming a catalog.
+
+		@Override
+		public void begin_catalog (OECatalogScanComm comm) {
+			builder.begin_catalog (comm.i_cat);
+			builder.cat_params.copy_from (comm.cat_params);
+			return;
+		}
+
+		// End consuming a catalog, and append it to the file.
+
+		@Override
+		public void end_catalog (OECatalogScanComm comm) {
+			append_record (builder.encode(), builder.cat_index, builder.rup_count);
+			return;
+		}
+
+		// Begin consuming the first (seed) generation of a catalog.
+
+		@Override
+		public void begin_seed_generation (OECatalogScanComm comm) {
+			builder.begin_generation (comm.gen_info);
+			return;
+		}
+
+		// End consuming the first (seed) generation of a catalog.
+
+		@Override
+		public void end_seed_generation (OECatalogScanComm comm) {
+			return;
+		}
+
+		// Next rupture in the first (seed) generation of a catalog.
+
+		@Override
+		public void next_seed_rup (OECatalogScanComm comm) {
+			builder.add_rup (comm.rup);
+			return;
+		}
+
+		// Begin consuming the next generation of a catalog.
+
+		@Override
+		public void begin_generation (OECatalogScanComm comm) {
+			builder.begin_generation (comm.gen_info);
+			return;
+		}
+
+		// End consuming a generation of a catalog.
+
+		@Override
+		public void end_generation (OECatalogScanComm comm) {
+			return;
+		}
+
+		// Next rupture in the current generation of a catalog.
+
+		@Override
+		public void next_rup (OECatalogScanComm comm) {
+			builder.add_rup (comm.rup);
+			return;
+		}
+
+		// Next sterile rupture in the current generation of a catalog.
+		// Sterile ruptures are not written.
+
+		@Override
+		public void next_sterile_rup (OECatalogScanComm comm) {
+			return;
+		}
+	}
+
+
+
+
+	//----- Implementation of OEEnsembleAccumulator -----
+
+
+
+
+	// Make a catalog consumer.
+	// Threading: Can be called in multiple threads.
+
+	@Override
+	public OECatalogConsumer make_consumer () {
+		return new ConsumerWriter();
+	}
+
+
+
+
+	// Begin accumulating catalogs.
+	// The file must already be open.
+
+	@Override
+	public void begin_accumulation (int capacity) {
+		synchronized (this) {
+			if (channel == null) {
+				throw new IllegalStateException ("OEEnsembleFileWriter.begin_accumulation: File is not open");
+			}
+		}
+		return;
+	}
+
+
+
+
+	// Increase the capacity of the accumulator.
+	// Records are appended as they arrive, so there is nothing to do.
+
+	@Override
+	public void increase_capacity (int capacity) {
+		return;
+	}
+
+
+
+
+	// End accumulating catalogs.
+	// The file remains open, so the caller can write more catalogs before closing it.
+
+	@Override
+	public void end_accumulation () {
+		return;
+	}
+
+}
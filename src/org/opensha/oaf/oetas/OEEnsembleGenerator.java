@@ -7,7 +7,9 @@ import java.util.ArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opensha.oaf.util.AutoExecutorService;
 import org.opensha.oaf.util.AutoCountDownLatch;
@@ -21,6 +23,26 @@ import org.opensha.oaf.util.SimpleUtils;
 // This is a multi-threaded catalog ensemble generator.  Each catalog is
 // seeded, generated, scanned, accumulated, and then discarded.  Multiple
 // threads permit multiple catalogs to be generated simultaneously.
+//
+// Work is handed out to threads in chunks, which are ranges of consecutive
+// catalog indexes, taken from an atomic counter without locking.  Chunk sizes
+// shrink as the remaining work decreases, so that threads finish at about
+// the same time.  Each thread keeps its own throughput counters, which can
+// be read while running or after termination.
+//
+// If the ensemble parameters contain a master seed, then each catalog is
+// generated with its own random stream, determined by the master seed and
+// the catalog number.  Results are then reproducible, independent of the
+// number of threads and of which thread generates which catalog, and any
+// single catalog can be regenerated by itself with gen_single_catalog.
+//
+// If the ensemble parameters select adaptive sizing, catalogs are generated in
+// rounds.  When a round finishes and all threads are idle, the accumulators that
+// implement OEEnsembleMonitor report the estimated error of their statistics.
+// If it exceeds the tolerance, the accumulators' capacity is increased and
+// another round is launched, sized from the estimated number of catalogs needed.
+// Catalog numbers continue from one round to the next, so with a master seed,
+// the first N catalogs are the same whatever the final ensemble size.
 
 public class OEEnsembleGenerator {
 
@@ -40,6 +62,14 @@ public class OEEnsembleGenerator {
 
 	private long start_time;
 
+	// The time that the most recent thread exited, in milliseconds since the epoch, or 0L if none yet.
+
+	private long end_time;
+
+	// The maximum number of catalogs in a work chunk, or 0 to select automatically.
+
+	private int max_chunk_size;
+
 
 	// Get the ensemble parameters.
 
@@ -59,6 +89,38 @@ public class OEEnsembleGenerator {
 		return start_time;
 	}
 
+	// Get the time that the most recent thread exited, in milliseconds since the epoch, or 0L if none yet.
+	// Once all threads have terminated, this is the time that generation finished.
+
+	public synchronized long get_end_time () {
+		return end_time;
+	}
+
+	// Record that a thread is exiting.
+
+	private synchronized void note_thread_exit () {
+		end_time = Math.max (end_time, System.currentTimeMillis());
+		return;
+	}
+
+	// Get the maximum number of catalogs in a work chunk, or 0 if selected automatically.
+
+	public int get_max_chunk_size () {
+		return max_chunk_size;
+	}
+
+	// Set the maximum number of catalogs in a work chunk, or 0 to select automatically.
+	// Setting 1 gives one catalog per work unit, as in the original scheme.
+	// Must be called before launching threads.
+
+	public void set_max_chunk_size (int the_max_chunk_size) {
+		if (!( the_max_chunk_size >= 0 )) {
+			throw new IllegalArgumentException ("OEEnsembleGenerator.set_max_chunk_size: Invalid chunk size: " + the_max_chunk_size);
+		}
+		max_chunk_size = the_max_chunk_size;
+		return;
+	}
+
 
 
 
@@ -68,30 +130,87 @@ public class OEEnsembleGenerator {
 
 	private CountDownLatch count_down_latch;
 
-	// The number of catalogs generated so far.
+	// The index of the next catalog to be handed out.
+	// This can exceed the number of catalogs, once all work is handed out.
+
+	private AtomicInteger next_catalog;
+
+	// The chunk size limit in effect for the current run.
+
+	private int eff_chunk_size;
+
+	// The number of catalogs to generate in the current round.
+	// This is ensemble_params.num_catalogs, unless using adaptive sizing.
+
+	private int catalog_limit;
+
+	// The number of rounds launched, which is 1 unless using adaptive sizing.
 
-	private int catalog_count;
+	private int round_count;
+
+	// The most recent convergence error, if using adaptive sizing.
+
+	private double conv_error;
+
+	// The number of catalogs when the convergence error was computed.
+
+	private int conv_catalog_count;
 
 	// Flag that can be set to request termination of all threads as soon as possible.
 
-	private boolean req_termination;
+	private volatile boolean req_termination;
 
 	// List of thread abort messages.
 
 	private ArrayList<String> abort_messages;
 
+	// Throughput counters for each thread.
+	// Dimension: thread_counters[num_threads]
+
+	private ThreadCounters[] thread_counters;
+
+
+	// Divisor used to select chunk size, as a multiple of the number of threads.
+	// Each chunk is about 1/(num_threads*CHUNK_DIVISOR) of the remaining work,
+	// so there are always several chunks per thread left to balance the load.
+
+	private static final int CHUNK_DIVISOR = 4;
+
+	// Default maximum chunk size.
 
-	// Get the next work unit.
-	// If there is more work to do, return the current catalog number and increment the catalog count.
-	// If there is no more work to do, return -1.
+	private static final int DEF_MAX_CHUNK_SIZE = 64;
 
-	private synchronized int get_work_unit () {
-		if (req_termination || catalog_count >= ensemble_params.num_catalogs) {
-			return -1;
+	// Minimum and maximum factors by which each adaptive round grows the ensemble.
+
+	private static final double MIN_ROUND_GROWTH = 1.25;
+	private static final double MAX_ROUND_GROWTH = 4.0;
+
+
+	// Get the next work chunk.
+	// Parameters:
+	//  chunk = Receives the range of catalog indexes to process.
+	// If there is more work to do, return true and set chunk to a non-empty range.
+	// If there is no more work to do, return false.
+	// Threading: Lock-free, may be called simultaneously from all threads.
+
+	private boolean get_work_chunk (WorkChunk chunk) {
+		int num_catalogs = catalog_limit;
+		for (;;) {
+			if (req_termination) {
+				return false;
+			}
+			int lo = next_catalog.get();
+			int remaining = num_catalogs - lo;
+			if (remaining <= 0) {
+				return false;
+			}
+			int size = Math.max (1, Math.min (eff_chunk_size, remaining / (num_threads * CHUNK_DIVISOR)));
+			if (next_catalog.compareAndSet (lo, lo + size)) {
+				chunk.lo = lo;
+				chunk.hi = lo + size;
+				return true;
+			}
 		}
-		int result = catalog_count;
-		++catalog_count;
-		return result;
 	}
 
 
@@ -144,11 +263,19 @@ public class OEEnsembleGenerator {
 		ensemble_params = null;
 		num_threads = 0;
 		start_time = 0L;
+		end_time = 0L;
+		max_chunk_size = 0;
 
 		count_down_latch = null;
-		catalog_count = 0;
+		next_catalog = null;
+		catalog_limit = 0;
+		round_count = 0;
+		conv_error = Double.POSITIVE_INFINITY;
+		conv_catalog_count = 0;
+		eff_chunk_size = 1;
 		req_termination = false;
 		abort_messages = null;
+		thread_counters = null;
 		return;
 	}
 
@@ -169,6 +296,47 @@ public class OEEnsembleGenerator {
 
 
 
+	// A range of catalog indexes handed out to a thread.
+
+	private static class WorkChunk {
+
+		// The first catalog index in the range.
+
+		public int lo;
+
+		// The last catalog index in the range, plus one.
+
+		public int hi;
+	}
+
+
+
+
+	// Throughput counters for one thread.
+	// Each counter is written only by its own thread, and may be read by any thread.
+
+	private static class ThreadCounters {
+
+		// Number of catalogs completed.
+
+		public volatile int catalogs;
+
+		// Number of ruptures in all completed catalogs.
+
+		public volatile long ruptures;
+
+		// Number of work chunks obtained.
+
+		public volatile int chunks;
+
+		// Time spent generating catalogs, in nanoseconds.
+
+		public volatile long busy_nanos;
+	}
+
+
+
+
 	// One thread in the generator.
 
 	private class GeneratorThread implements Runnable {
@@ -220,6 +388,12 @@ public class OEEnsembleGenerator {
 					//System.out.println ("Exception from OEEnsembleGenerator thread number " + thread_number);
 					//e.printStackTrace();
 				}
+
+				// Record the exit time, before the latch is advanced
+
+				finally {
+					note_thread_exit();
+				}
 			}
 
 			return;
@@ -231,8 +405,15 @@ public class OEEnsembleGenerator {
 		private void gen_catalogs () {
 
 			// Get the random number generator
-
-			OERandomGenerator rangen = OERandomGenerator.get_thread_rangen();
+			// (if using per-catalog streams, it is set to the catalog's stream before each catalog)
+
+			long master_seed = ensemble_params.master_seed;
+			OERandomGenerator rangen;
+			if (master_seed == 0L) {
+				rangen = OERandomGenerator.get_thread_rangen();
+			} else {
+				rangen = new OERandomGenerator (master_seed, 0L);
+			}
 
 			// Create a seeder for our initializer, which we re-use for each catalog
 
@@ -249,71 +430,189 @@ public class OEEnsembleGenerator {
 			cat_scanner.setup (ensemble_params.accumulators);
 
 			// Allocate the storage (which is also the builder), which we re-use for each catalog
-
-			OECatalogStorage cat_storage = new OECatalogStorage();
+			// (if streaming, it only holds the few generations needed to generate and scan)
+
+			boolean f_streaming = ensemble_params.f_streaming;
+			OECatalogBuilder cat_storage;
+			if (f_streaming) {
+				cat_storage = new OECatalogWindowStorage();
+			} else {
+				cat_storage = new OECatalogStorage();
+			}
 
 			// Allocate a generator, which we re-use for each catalog
 
-			OECatalogGenerator cat_generator = new OECatalogGenerator();
+			OECatalogGenerator cat_generator = make_cat_generator (ensemble_params);
 
-			// Loop over number of catalogs ...
+			// Our throughput counters, and local copies so each update is a single write
+			// (counters carry over from prior rounds when using adaptive sizing)
 
-			for (int ncat = get_work_unit(); ncat >= 0; ncat = get_work_unit()) {
+			ThreadCounters counters = thread_counters[thread_number];
+			int my_catalogs = counters.catalogs;
+			long my_ruptures = counters.ruptures;
+			int my_chunks = counters.chunks;
+			long my_busy_nanos = counters.busy_nanos;
 
-				// Set up the seeder communication area
+			// Loop over work chunks ...
 
-				seed_comm.setup_seed_comm (cat_storage, rangen);
+			WorkChunk chunk = new WorkChunk();
 
-				// Open the seeder
+			while (get_work_chunk (chunk)) {
+				++my_chunks;
+				counters.chunks = my_chunks;
+				long chunk_start_nanos = System.nanoTime();
 
-				seeder.open();
+				// Loop over catalogs in the chunk, stopping early if termination is requested ...
 
-				// Seed the catalog
+				for (int ncat = chunk.lo; ncat < chunk.hi && !(req_termination); ++ncat) {
 
-				seeder.seed_catalog (seed_comm);
+					// If using per-catalog streams, switch to this catalog's stream
 
-				// Close the seeder
+					if (master_seed != 0L) {
+						rangen.set_stream (master_seed, ncat);
+					}
 
-				seeder.close();
+					// Seed, generate, and scan the catalog
 
-				// Set up the catalog generator
-				
-				cat_generator.setup (rangen, cat_storage, false);
+					gen_one_catalog (seeder, seed_comm, cat_generator, cat_storage, cat_scanner, rangen, f_streaming, ncat);
 
-				// Calculate all generations and end the catalog
+					// Count the catalog
 
-				cat_generator.calc_all_gen();
+					++my_catalogs;
+					my_ruptures += (long)(cat_storage.size());
+					counters.ruptures = my_ruptures;
+					counters.catalogs = my_catalogs;
+				}
 
-				// Tell the generator to forget the catalog
+				my_busy_nanos += (System.nanoTime() - chunk_start_nanos);
+				counters.busy_nanos = my_busy_nanos;
+			}
 
-				cat_generator.forget();
-		
+		return;
+		}
+
+	}
+
+
+
+
+	//----- Service functions -----
+
+
+
+
+	// Make a catalog generator for the given ensemble parameters.
+	// The generator is set up for fork/join if the parameters select it.
+
+	private static OECatalogGenerator make_cat_generator (OEEnsembleParams the_ensemble_params) {
+		OECatalogGenerator cat_generator = new OECatalogGenerator();
+		if (the_ensemble_params.fj_threshold > 0) {
+			cat_generator.set_fork_join (ForkJoinPool.commonPool(), the_ensemble_params.fj_threshold);
+		}
+		return cat_generator;
+	}
+
+
+
+
+	// Seed, generate, and scan one catalog.
+	// Parameters:
+	//  seeder = Seeder for the ensemble's initializer.
+	//  seed_comm = Seeder communication area.
+	//  cat_generator = Catalog generator, from make_cat_generator.
+	//  cat_storage = Catalog storage, which receives the catalog.
+	//  cat_scanner = Scanner for the accumulators, or null to skip scanning (not permitted if streaming).
+	//  rangen = Random number generator, positioned at the start of the catalog's stream if using per-catalog streams.
+	//  f_streaming = True to generate and scan in a single pass.
+	//  ncat = The catalog number.
+	// This is the single path used for generating catalogs, both for the ensemble and for
+	// gen_single_catalog, so that a catalog can be regenerated exactly.
+	// Note: When streaming, the scanner draws random numbers between generations (for sterile
+	// ruptures), so the scan cannot be skipped without changing the catalog.  When not streaming,
+	// the catalog is complete before the scan begins.
+
+	private static void gen_one_catalog (OECatalogSeeder seeder, OECatalogSeedComm seed_comm, OECatalogGenerator cat_generator,
+			OECatalogBuilder cat_storage, OECatalogScanner cat_scanner, OERandomGenerator rangen, boolean f_streaming, int ncat) {
+
+		// Set up the seeder communication area
+
+		seed_comm.setup_seed_comm (cat_storage, rangen);
+
+		// Open the seeder
+
+		seeder.open();
+
+		// Seed the catalog
+
+		seeder.seed_catalog (seed_comm);
+
+		// Close the seeder
+
+		seeder.close();
+
+		// Set up the catalog generator
+	
+		cat_generator.setup (rangen, cat_storage, false);
+
+		// If streaming ...
+
+		if (f_streaming) {
+
+			// Open the consumers
+
+			cat_scanner.open();
+
+			// Generate and scan the catalog in a single pass
+
+			cat_scanner.set_catalog_index (ncat);
+			cat_scanner.gen_and_scan (cat_generator, cat_storage, rangen);
+
+			// Close the consumers
+
+			cat_scanner.close();
+
+			// Tell the generator to forget the catalog
+
+			cat_generator.forget();
+		}
+
+		// Otherwise, generate then scan ...
+
+		else {
+
+			// Calculate all generations and end the catalog
+
+			cat_generator.calc_all_gen();
+
+			// Tell the generator to forget the catalog
+
+			cat_generator.forget();
+
+			// If scanning ...
+
+			if (cat_scanner != null) {
+	
 				// Open the consumers
 
 				cat_scanner.open();
 
 				// Scan the catalog
 
+				cat_scanner.set_catalog_index (ncat);
 				cat_scanner.scan (cat_storage, rangen);
 
 				// Close the consumers
 
 				cat_scanner.close();
 			}
-
-		return;
 		}
 
+		return;
 	}
 
 
 
 
-	//----- Service functions -----
-
-
-
-
 	// Perform pre-launch operations.
 	// Parameters:
 	//  the_ensemble_params = The ensemble parameters.
@@ -327,6 +626,28 @@ public class OEEnsembleGenerator {
 			throw new IllegalArgumentException ("OEEnsembleGenerator.pre_launch: Invalid number of catalogs: " + the_ensemble_params.num_catalogs);
 		}
 
+		if (!( the_ensemble_params.fj_threshold >= 0 )) {
+			throw new IllegalArgumentException ("OEEnsembleGenerator.pre_launch: Invalid fork/join threshold: " + the_ensemble_params.fj_threshold);
+		}
+
+		if (the_ensemble_params.is_adaptive()) {
+			if (!( the_ensemble_params.max_catalogs >= the_ensemble_params.num_catalogs )) {
+				throw new IllegalArgumentException ("OEEnsembleGenerator.pre_launch: Invalid maximum number of catalogs: " + the_ensemble_params.max_catalogs + ", num_catalogs = " + the_ensemble_params.num_catalogs);
+			}
+			if (!( the_ensemble_params.conv_tolerance > 0.0 )) {
+				throw new IllegalArgumentException ("OEEnsembleGenerator.pre_launch: Invalid convergence tolerance: " + the_ensemble_params.conv_tolerance);
+			}
+			boolean f_monitor = false;
+			for (OEEnsembleAccumulator accumulator : the_ensemble_params.accumulators) {
+				if (accumulator instanceof OEEnsembleMonitor) {
+					f_monitor = true;
+				}
+			}
+			if (!( f_monitor )) {
+				throw new IllegalArgumentException ("OEEnsembleGenerator.pre_launch: Adaptive sizing requires an accumulator that implements OEEnsembleMonitor");
+			}
+		}
+
 		// Save the parameters
 
 		ensemble_params = the_ensemble_params;
@@ -368,16 +689,43 @@ public class OEEnsembleGenerator {
 		// Record the start time
 
 		start_time = System.currentTimeMillis();
+		synchronized (this) {
+			end_time = 0L;
+		}
 
 		// Initialize communication variables
 
-		count_down_latch = new CountDownLatch (num_threads);
-		catalog_count = 0;
+		next_catalog = new AtomicInteger (0);
+		catalog_limit = ensemble_params.num_catalogs;
+		round_count = 0;
+		conv_error = Double.POSITIVE_INFINITY;
+		conv_catalog_count = 0;
+		eff_chunk_size = ((max_chunk_size > 0) ? max_chunk_size : DEF_MAX_CHUNK_SIZE);
 		req_termination = false;
 		abort_messages = new ArrayList<String>();
 
+		thread_counters = new ThreadCounters[num_threads];
+		for (int thread_number = 0; thread_number < num_threads; ++thread_number) {
+			thread_counters[thread_number] = new ThreadCounters();
+		}
+
 		// Create and launch the threads
 
+		launch_round (executor);
+		return;
+	}
+
+
+
+
+	// Launch the threads for one round, which generates catalogs up to catalog_limit.
+	// Parameters:
+	//  executor = The executor to use for launching the threads.
+
+	private void launch_round (Executor executor) {
+		count_down_latch = new CountDownLatch (num_threads);
+		++round_count;
+
 		for (int thread_number = 0; thread_number < num_threads; ++thread_number) {
 			executor.execute (new GeneratorThread (thread_number));
 		}
@@ -388,12 +736,205 @@ public class OEEnsembleGenerator {
 
 
 
-	// Get the number of catalogs processed or being processed.
+	// Check convergence after a round, and launch another round if needed.
+	// Parameters:
+	//  executor = The executor to use for launching the threads.
+	// Returns true if another round was launched, false if generation is complete.
+	// This must be called only when all threads have terminated.
+	// If not using adaptive sizing, or if prompt termination was requested, or if
+	// a thread aborted, then this function just returns false.
+
+	public boolean launch_next_round (Executor executor) {
+		if (!( ensemble_params.is_adaptive() ) || get_req_termination() || get_abort_message_count() > 0) {
+			return false;
+		}
+
+		// Get the largest error reported by any monitor
+
+		conv_error = 0.0;
+		for (OEEnsembleAccumulator accumulator : ensemble_params.accumulators) {
+			if (accumulator instanceof OEEnsembleMonitor) {
+				conv_error = Math.max (conv_error, ((OEEnsembleMonitor)accumulator).get_convergence_error());
+			}
+		}
+
+		// Done if converged, or if at maximum size
+
+		int done = next_catalog.get();
+		conv_catalog_count = done;
+		if (conv_error <= ensemble_params.conv_tolerance || done >= ensemble_params.max_catalogs) {
+			return false;
+		}
+
+		// Error decreases as 1/sqrt(N), so estimate the required size from the squared error ratio,
+		// limiting the growth of any one round so that a poor early estimate cannot overshoot
+
+		double ratio = conv_error / ensemble_params.conv_tolerance;
+		double growth = Math.max (MIN_ROUND_GROWTH, Math.min (MAX_ROUND_GROWTH, ratio * ratio));
+		catalog_limit = (int)Math.min ((double)(ensemble_params.max_catalogs), Math.ceil (((double)done) * growth));
+
+		// Increase capacity and launch
+
+		for (OEEnsembleAccumulator accumulator : ensemble_params.accumulators) {
+			accumulator.increase_capacity (catalog_limit);
+		}
+
+		launch_round (executor);
+		return true;
+	}
+
+
+
+
+	// Get the number of rounds launched.
+
+	public int get_round_count () {
+		return round_count;
+	}
+
+
+
+
+	// Get the most recent convergence error, or infinity if not known.
+	// This is available after generation completes, if using adaptive sizing.
+
+	public double get_conv_error () {
+		return conv_error;
+	}
+
+
+
+
+	// Return true if adaptive sizing stopped because the results converged.
+
+	public boolean is_converged () {
+		return ensemble_params != null && ensemble_params.is_adaptive() && conv_error <= ensemble_params.conv_tolerance;
+	}
+
+
+
+
+	// Get the number of catalogs processed, that is, handed out to threads.
 	// This may be called while running to monitor progress,
 	// or after termination to obtain the number of catalogs generated.
+	// Note: If prompt termination is requested, a thread may stop partway through its
+	// chunk, so after termination this can exceed get_completed_catalog_count.
+
+	public int get_catalog_count () {
+		if (next_catalog == null) {
+			return 0;
+		}
+		return Math.min (next_catalog.get(), catalog_limit);
+	}
+
+
+
+
+	// Get the number of catalogs completed by all threads.
+	// This may be called while running, or after termination.
+
+	public int get_completed_catalog_count () {
+		if (thread_counters == null) {
+			return 0;
+		}
+		int result = 0;
+		for (ThreadCounters counters : thread_counters) {
+			result += counters.catalogs;
+		}
+		return result;
+	}
+
+
+
+
+	// Get the number of catalogs processed by one thread.
+	// Parameters:
+	//  thread_number = Thread number, 0 <= thread_number < get_num_threads().
+	// This may be called while running, or after termination.
+
+	public int get_thread_catalog_count (int thread_number) {
+		return thread_counters[thread_number].catalogs;
+	}
+
+
+
+
+	// Get the total number of ruptures in the catalogs processed by one thread.
+	// Parameters:
+	//  thread_number = Thread number, 0 <= thread_number < get_num_threads().
+	// This may be called while running, or after termination.
+
+	public long get_thread_rupture_count (int thread_number) {
+		return thread_counters[thread_number].ruptures;
+	}
+
+
+
+
+	// Get the number of work chunks obtained by one thread.
+	// Parameters:
+	//  thread_number = Thread number, 0 <= thread_number < get_num_threads().
+	// This may be called while running, or after termination.
+
+	public int get_thread_chunk_count (int thread_number) {
+		return thread_counters[thread_number].chunks;
+	}
+
+
+
+
+	// Get the time one thread has spent generating catalogs, in milliseconds.
+	// Parameters:
+	//  thread_number = Thread number, 0 <= thread_number < get_num_threads().
+	// This may be called while running, or after termination.
+	// Note: Time is updated at the end of each work chunk.
+
+	public long get_thread_busy_time (int thread_number) {
+		return thread_counters[thread_number].busy_nanos / 1000000L;
+	}
+
+
+
+
+	// Get a string describing the throughput of each thread.
+	// This may be called while running, or after termination.
+	// The last line gives the total throughput and the scaling efficiency, which is the
+	// ratio of total busy time to (elapsed time * number of threads).
+	// After termination, the elapsed time runs up to when the last thread exited.
+
+	public String get_thread_stats_as_string () {
+		StringBuilder result = new StringBuilder();
+		if (thread_counters == null) {
+			return result.toString();
+		}
+
+		long finish_time = (is_terminated() ? get_end_time() : System.currentTimeMillis());
+		long elapsed_time = Math.max (1L, finish_time - start_time);
+		long total_busy_time = 0L;
+		long total_ruptures = 0L;
+		int total_catalogs = 0;
 
-	public synchronized int get_catalog_count () {
-		return catalog_count;
+		for (int thread_number = 0; thread_number < num_threads; ++thread_number) {
+			int catalogs = get_thread_catalog_count (thread_number);
+			long ruptures = get_thread_rupture_count (thread_number);
+			int chunks = get_thread_chunk_count (thread_number);
+			long busy_time = get_thread_busy_time (thread_number);
+
+			total_catalogs += catalogs;
+			total_ruptures += ruptures;
+			total_busy_time += busy_time;
+
+			result.append (String.format ("thread %d: catalogs = %d, ruptures = %d, chunks = %d, busy = %.3f s, catalogs/s = %.1f\n",
+				thread_number, catalogs, ruptures, chunks, ((double)busy_time)/1000.0,
+				((double)catalogs) * 1000.0 / ((double)Math.max (1L, busy_time))));
+		}
+
+		result.append (String.format ("total: catalogs = %d, ruptures = %d, elapsed = %.3f s, catalogs/s = %.1f, efficiency = %.3f\n",
+			total_catalogs, total_ruptures, ((double)elapsed_time)/1000.0,
+			((double)total_catalogs) * 1000.0 / ((double)elapsed_time),
+			((double)total_busy_time) / (((double)elapsed_time) * ((double)num_threads))));
+
+		return result.toString();
 	}
 
 
@@ -401,7 +942,7 @@ public class OEEnsembleGenerator {
 
 	// Set a request to terminate all threads promptly.
 
-	public synchronized void request_termination () {
+	public void request_termination () {
 		req_termination = true;
 		return;
 	}
@@ -413,7 +954,7 @@ public class OEEnsembleGenerator {
 	// This may be called while running to monitor progress,
 	// or after termination to check if prompt termination occurred.
 
-	public synchronized boolean get_req_termination () {
+	public boolean get_req_termination () {
 		return req_termination;
 	}
 
@@ -655,7 +1196,8 @@ public class OEEnsembleGenerator {
 	//  the_num_threads = The number of threads to use, must be > 0.
 	//  max_runtime = Maximum runtime requested, in milliseconds, can be -1L for no limit.
 	//  progress_time = Time interval for progress messages, in milliseconds, can be -1L for no progress messages.
-	// This combines the function of pre_launch, launch_threads, await_termination, and post_termination.
+	// This combines the function of pre_launch, launch_threads, await_termination, launch_next_round, and post_termination.
+	// If using adaptive sizing, max_runtime applies to all rounds together.
 
 	public void generate_all_catalogs (OEEnsembleParams the_ensemble_params, Executor executor, int the_num_threads, long max_runtime, long progress_time) {
 	
@@ -676,6 +1218,16 @@ public class OEEnsembleGenerator {
 
 			f_terminated = await_termination (max_runtime, progress_time);
 
+			// If using adaptive sizing, check convergence and possibly continue
+
+			if (f_terminated && launch_next_round (executor)) {
+				f_terminated = false;
+				if (progress_time >= 0L) {
+					System.out.println ("Convergence error " + String.format ("%.5f", conv_error) + " after " + conv_catalog_count + " ETAS catalogs, extending to " + catalog_limit + " catalogs");
+				}
+				continue;
+			}
+
 			// Display progress message if desired
 
 			if (progress_time >= 0L) {
@@ -732,6 +1284,75 @@ public class OEEnsembleGenerator {
 
 
 
+	// Generate a single catalog from an ensemble, by itself.
+	// Parameters:
+	//  the_ensemble_params = The ensemble parameters, which must contain a nonzero master seed.
+	//  catalog_index = The catalog number, 0 <= catalog_index < the_ensemble_params.get_catalog_limit().
+	// Returns the catalog.
+	// The catalog is identical to the one generated for the same catalog number
+	// when generating the entire ensemble, including when the ensemble uses fork/join
+	// or streaming.  The accumulators are not used, except when streaming.
+	// When streaming, the catalog depends on the random numbers that the scan draws
+	// between generations, so the catalog is scanned by the accumulators, exactly as in
+	// the ensemble.  In that case, the caller should supply fresh accumulators configured
+	// like those of the ensemble; they receive begin_accumulation(1), the one catalog,
+	// and end_accumulation, and their contents can then be discarded.
+	// Threading: The initializer and accumulators must not be in use by any other thread.
+
+	public static OECatalogStorage gen_single_catalog (OEEnsembleParams the_ensemble_params, int catalog_index) {
+
+		// Validate parameters
+
+		if (the_ensemble_params.master_seed == 0L) {
+			throw new IllegalArgumentException ("OEEnsembleGenerator.gen_single_catalog: No master seed");
+		}
+
+		if (!( catalog_index >= 0 && catalog_index < the_ensemble_params.get_catalog_limit() )) {
+			throw new IllegalArgumentException ("OEEnsembleGenerator.gen_single_catalog: Invalid catalog index: " + catalog_index + ", catalog limit = " + the_ensemble_params.get_catalog_limit());
+		}
+
+		// Random number generator positioned at the start of the catalog's stream
+
+		OERandomGenerator rangen = new OERandomGenerator (the_ensemble_params.master_seed, 0L);
+		rangen.set_stream (the_ensemble_params.master_seed, catalog_index);
+
+		// Seed and generate the catalog, in the same way as gen_catalogs
+		// (the storage holds the entire catalog even when streaming, so it can be returned)
+
+		boolean f_streaming = the_ensemble_params.f_streaming;
+		OECatalogStorage cat_storage = new OECatalogStorage();
+		OECatalogGenerator cat_generator = make_cat_generator (the_ensemble_params);
+
+		the_ensemble_params.initializer.begin_initialization();
+
+		OECatalogSeeder seeder = the_ensemble_params.initializer.make_seeder();
+		OECatalogSeedComm seed_comm = new OECatalogSeedComm();
+
+		OECatalogScanner cat_scanner = null;
+		if (f_streaming) {
+			for (OEEnsembleAccumulator accumulator : the_ensemble_params.accumulators) {
+				accumulator.begin_accumulation (1);
+			}
+			cat_scanner = new OECatalogScanner();
+			cat_scanner.setup (the_ensemble_params.accumulators);
+		}
+
+		gen_one_catalog (seeder, seed_comm, cat_generator, cat_storage, cat_scanner, rangen, f_streaming, catalog_index);
+
+		if (f_streaming) {
+			for (OEEnsembleAccumulator accumulator : the_ensemble_params.accumulators) {
+				accumulator.end_accumulation ();
+			}
+		}
+
+		the_ensemble_params.initializer.end_initialization();
+
+		return cat_storage;
+	}
+
+
+
+
 	//----- Testing -----
 
 
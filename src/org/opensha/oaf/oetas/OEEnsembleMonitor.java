@@ -0,0 +1,28 @@
+package org.opensha.oaf.oetas;
+
+
+// Interface for an ensemble accumulator that can report the convergence of its results.
+//
+// An accumulator that implements this interface can be used to control the number
+// of catalogs in an adaptive ensemble (see OEEnsembleParams.set_adaptive).  The
+// ensemble generator generates catalogs in rounds.  After each round, when all
+// worker threads are idle, it asks each monitor for the estimated error of its
+// monitored statistics, and stops once the largest error is within tolerance.
+//
+// The error is dimensionless, so that a single tolerance can apply to all monitors.
+// Each implementation documents what it measures.  Since errors decrease in
+// proportion to 1/sqrt(N), where N is the number of catalogs, the generator uses
+// the error to estimate how many more catalogs are needed.
+
+public interface OEEnsembleMonitor {
+
+	// Get the estimated error of the monitored statistics.
+	// Returns the largest estimated error, which must be >= 0.0, or
+	// Double.POSITIVE_INFINITY if there are too few catalogs to make an estimate.
+	// Threading: Called only between calls to begin_accumulation or increase_capacity
+	// and end_accumulation, when no other thread is accessing this object and none
+	// of its consumers are open.
+
+	public double get_convergence_error ();
+
+}
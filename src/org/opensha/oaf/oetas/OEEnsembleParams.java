@@ -26,6 +26,41 @@ public class OEEnsembleParams {
 
 	public int num_catalogs;
 
+	// The master seed for per-catalog random streams, or 0L if not used.
+	// If nonzero, each catalog is generated with its own random stream, determined
+	// by the master seed and the catalog number, so results are reproducible
+	// regardless of the number of threads.  If zero, each thread uses its own
+	// per-thread random number generator.
+
+	public long master_seed;
+
+	// True to generate and scan each catalog in a single pass.
+	// If true, each catalog is passed to the accumulators as it is generated, and only
+	// a few generations are held in memory at once (see OECatalogScanner.gen_and_scan).
+	// If false, each catalog is fully generated and stored, and then scanned.
+
+	public boolean f_streaming;
+
+	// The maximum number of catalogs for adaptive ensemble sizing, or 0 if not adaptive.
+	// If nonzero, num_catalogs is the number of catalogs in the first round, and
+	// additional rounds are generated until the accumulators that implement
+	// OEEnsembleMonitor report convergence within conv_tolerance, or until
+	// max_catalogs catalogs have been generated, or until the runtime limit.
+
+	public int max_catalogs;
+
+	// The convergence tolerance for adaptive ensemble sizing.
+
+	public double conv_tolerance;
+
+	// The generation size at which a catalog generates its next generation in fork/join mode,
+	// or 0 to never use fork/join mode.
+	// If nonzero, a single catalog with a very large generation uses the common fork/join pool
+	// to process it (see OECatalogGenerator.set_fork_join), so the other threads are not
+	// left waiting for it at the end of the run.
+
+	public int fj_threshold;
+
 
 
 
@@ -40,6 +75,11 @@ public class OEEnsembleParams {
 		initializer  = null;
 		accumulators = null;
 		num_catalogs = 0;
+		master_seed  = 0L;
+		f_streaming  = false;
+		max_catalogs = 0;
+		conv_tolerance = 0.0;
+		fj_threshold = 0;
 		return;
 	}
 
@@ -65,18 +105,91 @@ public class OEEnsembleParams {
 		this.initializer  = initializer;
 		this.accumulators = accumulators.toArray (new OEEnsembleAccumulator[0]);
 		this.num_catalogs = num_catalogs;
+		this.master_seed  = 0L;
+		this.f_streaming  = false;
+		this.max_catalogs = 0;
+		this.conv_tolerance = 0.0;
+		this.fj_threshold = 0;
+		return this;
+	}
+
+
+
+
+	// Set the master seed for per-catalog random streams, or 0L to not use them.
+
+	public OEEnsembleParams set_master_seed (long master_seed) {
+		this.master_seed  = master_seed;
+		return this;
+	}
+
+
+
+
+	// Set the flag to generate and scan each catalog in a single pass.
+
+	public OEEnsembleParams set_streaming (boolean f_streaming) {
+		this.f_streaming  = f_streaming;
+		return this;
+	}
+
+
+
+
+	// Set adaptive ensemble sizing.
+	// Parameters:
+	//  max_catalogs = Maximum number of catalogs, or 0 to generate exactly num_catalogs.
+	//  conv_tolerance = Convergence tolerance, must be > 0.0 if max_catalogs is nonzero.
+
+	public OEEnsembleParams set_adaptive (int max_catalogs, double conv_tolerance) {
+		this.max_catalogs = max_catalogs;
+		this.conv_tolerance = conv_tolerance;
+		return this;
+	}
+
+
+
+
+	// Set the generation size at which fork/join mode is used, or 0 to never use it.
+
+	public OEEnsembleParams set_fork_join (int fj_threshold) {
+		this.fj_threshold = fj_threshold;
 		return this;
 	}
 
 
 
 
+	// Return true if adaptive ensemble sizing is selected.
+
+	public boolean is_adaptive () {
+		return max_catalogs > 0;
+	}
+
+
+
+
+	// Return the largest number of catalogs that can be generated.
+	// This is max_catalogs if adaptive sizing is selected, otherwise num_catalogs.
+
+	public int get_catalog_limit () {
+		return (is_adaptive() ? max_catalogs : num_catalogs);
+	}
+
+
+
+
 	// Copy all values from the other object.
 
 	public OEEnsembleParams copy_from (OEEnsembleParams other) {
 		this.initializer  = other.initializer;
 		this.accumulators = other.accumulators;
 		this.num_catalogs = other.num_catalogs;
+		this.master_seed  = other.master_seed;
+		this.f_streaming  = other.f_streaming;
+		this.max_catalogs = other.max_catalogs;
+		this.conv_tolerance = other.conv_tolerance;
+		this.fj_threshold = other.fj_threshold;
 		return this;
 	}
 
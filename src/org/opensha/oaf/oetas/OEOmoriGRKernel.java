@@ -0,0 +1,635 @@
+package org.opensha.oaf.oetas;
+
+import java.util.Arrays;
+
+import static org.opensha.oaf.oetas.OEConstants.C_LOG_10;	// natural logarithm of 10
+
+
+// Precomputed Omori and Gutenberg-Richter kernels for one catalog.
+//
+// The functions omori_rate_shifted, omori_rescale_shifted, gr_rescale, and gr_rate
+// in OERandomGenerator, and calc_k_corr in OEStatsCalc, are called once per rupture
+// with the same p, c, b, and magnitude range, and recompute the same constants each
+// time.  This object holds those constants, computed once from OECatalogParams, and
+// provides batch versions that work on primitive arrays, writing into caller-provided
+// arrays without allocating.
+//
+// Constants are in three levels:
+//  - Per catalog, from set_params: q = 1 - p, beta = b*log(10), and the p ~ 1 flag.
+//  - Per generation, from set_mag_range: the G-R normalization for the magnitude
+//    range, and the productivity correction factors.
+//  - Per parent, inside omori_rescale_shifted_batch: the log-ratio of the interval
+//    endpoints, which is the same for all children of one parent.
+//
+// Each function evaluates exactly the same floating-point expressions as the
+// corresponding function in OERandomGenerator or OEStatsCalc, only moving
+// invariant subexpressions out of the loop, so results are bit-for-bit identical.
+// This means a catalog generated with the kernels is identical to one generated
+// with the per-rupture functions, from the same random number sequence.
+//
+// Only one thread at a time can call set_params or set_mag_range.  After they are
+// called, the batch functions only read the constants, so they may be called
+// concurrently from multiple threads (OECatalogGenerator does this in fork/join mode),
+// provided that no thread calls set_params or set_mag_range at the same time.
+
+public class OEOmoriGRKernel {
+
+	//----- Per-catalog constants -----
+
+	// Omori p and c, and the time interval and epsilon.
+
+	private double p;
+	private double c;
+	private double teps;
+	private double tbegin;
+	private double tend;
+
+	// q = 1 - p.
+
+	private double q;
+
+	// True if abs(q) is small enough to use the Taylor series in omori_rate.
+
+	private boolean f_small_q;
+
+	// G-R b, and beta = log(10) * b.
+
+	private double b;
+	private double beta;
+
+	// Reference magnitude.
+
+	private double mref;
+
+	// Productivity parameters.
+
+	private double a;
+	private double alpha;
+	private double msup;
+
+
+
+
+	//----- Per-generation constants -----
+
+	// Magnitude range for sampling.
+
+	private double mag_m1;
+	private double mag_m2;
+
+	// The G-R normalization, expm1(-beta*(m2 - m1)).
+
+	private double gr_expm1;
+
+	// The two productivity correction factors, applied in order.
+
+	private double k_corr_1;
+	private double k_corr_2;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Default constructor.
+
+	public OEOmoriGRKernel () {
+		set_params (1.0, 0.01, 0.0, 0.0, 1.0, 1.0, 3.0, 0.0, 1.0, 9.5);
+		set_mag_range (3.0, 9.5);
+	}
+
+
+
+
+	// Set up the per-catalog constants.
+	// Parameters:
+	//  p, c = Omori parameters, must satisfy c > 0.
+	//  teps = Time epsilon, the minimum time interval considered.
+	//  tbegin, tend = Time interval in days.
+	//  b = Gutenberg-Richter parameter.
+	//  mref = Reference magnitude.
+	//  a, alpha, msup = Productivity parameters (see OEStatsCalc.calc_k_corr).
+
+	public OEOmoriGRKernel set_params (double p, double c, double teps, double tbegin, double tend,
+			double b, double mref, double a, double alpha, double msup) {
+		this.p = p;
+		this.c = c;
+		this.teps = teps;
+		this.tbegin = tbegin;
+		this.tend = tend;
+		this.q = 1.0 - p;
+		this.f_small_q = (Math.abs(q) <= 1.0e-9);
+		this.b = b;
+		this.beta = C_LOG_10 * b;	// log(10) * b
+		this.mref = mref;
+		this.a = a;
+		this.alpha = alpha;
+		this.msup = msup;
+		return this;
+	}
+
+
+
+
+	// Set up the per-catalog constants from catalog parameters.
+
+	public OEOmoriGRKernel set_params (OECatalogParams cat_params) {
+		return set_params (
+			cat_params.p,
+			cat_params.c,
+			cat_params.teps,
+			cat_params.tbegin,
+			cat_params.tend,
+			cat_params.b,
+			cat_params.mref,
+			cat_params.a,
+			cat_params.alpha,
+			cat_params.msup
+		);
+	}
+
+
+
+
+	// Set up the per-generation constants.
+	// Parameters:
+	//  m1 = Lower magnitude for sampling and productivity correction.
+	//  m2 = Upper magnitude, must satisfy m2 > m1.
+	// This is the same as OEStatsCalc.calc_k_corr with mag_min = m1 and mag_max = m2.
+
+	public OEOmoriGRKernel set_mag_range (double m1, double m2) {
+		mag_m1 = m1;
+		mag_m2 = m2;
+
+		gr_expm1 = Math.expm1(-beta*(m2 - m1));
+
+		double v = C_LOG_10 * (alpha - b);
+		k_corr_1 = Math.exp(v*(mref - m1));
+
+		double delta_sup_ref = msup - mref;
+		double delta_max_min = m2 - m1;
+
+		if (Math.max (Math.abs(v*delta_sup_ref), Math.abs(v*delta_max_min)) <= 1.0e-16) {
+			k_corr_2 = (delta_sup_ref / delta_max_min);
+		} else {
+			k_corr_2 = (Math.expm1(v*delta_sup_ref) / Math.expm1(v*delta_max_min));
+		}
+		return this;
+	}
+
+
+
+
+	// Set up the per-generation constants from generation information.
+
+	public OEOmoriGRKernel set_mag_range (OEGenerationInfo gen_info) {
+		return set_mag_range (gen_info.gen_mag_min, gen_info.gen_mag_max);
+	}
+
+
+
+
+	// Return true if p is close enough to 1 that the Omori rate uses its Taylor series.
+
+	public boolean is_small_q () {
+		return f_small_q;
+	}
+
+
+
+
+	//----- Omori rate -----
+
+
+
+
+	// Return Integral(t1, t2, ((t+c)^(-p))*dt).
+	// Same as OERandomGenerator.omori_rate.
+
+	private double omori_rate (double t1, double t2) {
+		double lnr = Math.log((t2 + c)/(t1 + c));
+
+		if (f_small_q) {
+			double lns = Math.log((t2 + c)*(t1 + c));
+			return (0.5*lns*q + 1.0) * lnr;
+		}
+
+		return Math.pow(t1 + c, q) * Math.expm1(lnr*q) / q;
+	}
+
+
+
+
+	// Return the Omori rate for an earthquake at time t0, within the catalog's time interval.
+	// Same as OERandomGenerator.omori_rate_shifted (p, c, t0, teps, tbegin, tend).
+
+	public double omori_rate_shifted (double t0) {
+		if (t0 <= tbegin) {
+			if (tend <= tbegin + teps) {
+				return 0.0;
+			}
+			return omori_rate (tbegin - t0, tend - t0);
+		}
+		if (tend <= t0 + teps) {
+			return 0.0;
+		}
+		return omori_rate (0.0, tend - t0);
+	}
+
+
+
+
+	// Compute the Omori rate for a batch of earthquakes.
+	// Parameters:
+	//  t0 = Earthquake times, in days.
+	//  t0_off = Offset of the first time in t0.
+	//  out = Receives the rates.
+	//  out_off = Offset of the first rate in out.
+	//  n = Number of earthquakes.
+
+	public void omori_rate_shifted_batch (double[] t0, int t0_off, double[] out, int out_off, int n) {
+		for (int i = 0; i < n; ++i) {
+			out[out_off + i] = omori_rate_shifted (t0[t0_off + i]);
+		}
+		return;
+	}
+
+
+
+
+	// Compute the cumulative productivity-weighted Omori rate for a batch of earthquakes.
+	// Parameters:
+	//  t0 = Earthquake times, in days.
+	//  k_prod = Earthquake productivities.
+	//  in_off = Offset of the first earthquake in t0 and k_prod.
+	//  cum = Receives the cumulative rates.
+	//  cum_off = Offset of the first cumulative rate in cum.
+	//  n = Number of earthquakes.
+	//  total = Cumulative rate before the first earthquake.
+	// Returns the cumulative rate after the last earthquake.
+	// Element i of cum receives total + sum over j <= i of k_prod[j] * omori_rate_shifted(t0[j]),
+	// accumulated in order, as in OECatalogGenerator.calc_next_gen.
+
+	public double omori_rate_cum_batch (double[] t0, float[] k_prod, int in_off, double[] cum, int cum_off, int n, double total) {
+		double sum = total;
+		for (int i = 0; i < n; ++i) {
+			sum += ((double)(k_prod[in_off + i])) * omori_rate_shifted (t0[in_off + i]);
+			cum[cum_off + i] = sum;
+		}
+		return sum;
+	}
+
+
+
+
+	//----- Omori sampling -----
+
+
+
+
+	// Rescale a batch of uniform deviates to times, for children of an earthquake at time t0.
+	// Parameters:
+	//  t0 = Parent earthquake time, in days.
+	//  u = Uniform deviates between 0 and 1.
+	//  u_off = Offset of the first deviate in u.
+	//  out = Receives the times.
+	//  out_off = Offset of the first time in out.
+	//  n = Number of deviates.
+	// Each result is the same as OERandomGenerator.omori_rescale_shifted (p, c, t0, tbegin, tend, u[i]).
+	// The interval constants, which depend only on t0, are computed once for the batch.
+
+	public void omori_rescale_shifted_batch (double t0, double[] u, int u_off, double[] out, int out_off, int n) {
+
+		// Get the interval, relative to t0, and the limits for the result
+
+		double t1;
+		double t2 = tend - t0;
+		double lo;
+		if (t0 <= tbegin) {
+			t1 = tbegin - t0;
+			lo = tbegin;
+		} else {
+			t1 = 0.0;
+			lo = t0;
+		}
+
+		// Degenerate interval, or earthquake is after end of interval
+
+		if (tend <= lo) {
+			for (int i = 0; i < n; ++i) {
+				out[out_off + i] = tend;
+			}
+			return;
+		}
+
+		// Per-parent constants, as in OERandomGenerator.omori_rescale
+
+		double lnr = Math.log((t2 + c)/(t1 + c));
+		double qlnr = q*lnr;
+		double t1c = t1 + c;
+
+		// Taylor series case
+
+		if (Math.abs(qlnr) <= 0.01) {
+			for (int i = 0; i < n; ++i) {
+				double ui = u[u_off + i];
+				double c1 = (1.0 - ui)/2.0;
+				double c2 = ((2.0*ui - 3.0)*ui + 1.0)/6.0;
+				double c3 = (((-6.0*ui + 12.0)*ui - 7.0)*ui + 1.0)/24.0;
+				double y = (((c3*qlnr + c2)* qlnr + c1)*qlnr + 1.0)*ui*lnr;
+				out[out_off + i] = finish_rescale (y, t1c, t1, t2, t0, lo);
+			}
+		}
+
+		// Direct case, with the expm1 factor computed once
+
+		else {
+			double em1 = Math.expm1(qlnr);
+			for (int i = 0; i < n; ++i) {
+				double y = Math.log1p(em1*u[u_off + i])/q;
+				out[out_off + i] = finish_rescale (y, t1c, t1, t2, t0, lo);
+			}
+		}
+
+		return;
+	}
+
+
+
+
+	// Finish rescaling a time, applying the same clamps as omori_rescale and omori_rescale_shifted.
+
+	private double finish_rescale (double y, double t1c, double t1, double t2, double t0, double lo) {
+		double t = Math.exp(y)*t1c - c;
+		if (t > t2) {
+			t = t2;
+		}
+		if (t < t1) {
+			t = t1;
+		}
+		t = t + t0;
+		if (t > tend) {
+			t = tend;
+		}
+		if (t < lo) {
+			t = lo;
+		}
+		return t;
+	}
+
+
+
+
+	//----- Gutenberg-Richter -----
+
+
+
+
+	// Return the G-R rate Integral(m1, m2, (b*log(10)*10^(-b*(m - mref)))*dm).
+	// Same as OERandomGenerator.gr_rate (b, mref, m1, m2).
+
+	public double gr_rate (double m1, double m2) {
+		return -Math.exp(-beta*(m1 - mref))*Math.expm1(-beta*(m2 - m1));
+	}
+
+
+
+
+	// Rescale a batch of uniform deviates to magnitudes, in the current magnitude range.
+	// Parameters:
+	//  u = Uniform deviates between 0 and 1.
+	//  u_off = Offset of the first deviate in u.
+	//  out = Receives the magnitudes.
+	//  out_off = Offset of the first magnitude in out.
+	//  n = Number of deviates.
+	// Each result is the same as OERandomGenerator.gr_rescale (b, m1, m2, u[i]).
+
+	public void gr_rescale_batch (double[] u, int u_off, double[] out, int out_off, int n) {
+		for (int i = 0; i < n; ++i) {
+			double m = mag_m1 - (Math.log1p(u[u_off + i]*gr_expm1) / beta);
+			if (m > mag_m2) {
+				m = mag_m2;
+			}
+			if (m < mag_m1) {
+				m = mag_m1;
+			}
+			out[out_off + i] = m;
+		}
+		return;
+	}
+
+
+
+
+	// Compute the corrected productivity for a batch of magnitudes, in the current magnitude range.
+	// Parameters:
+	//  mag = Magnitudes.
+	//  mag_off = Offset of the first magnitude in mag.
+	//  out = Receives the productivities.
+	//  out_off = Offset of the first productivity in out.
+	//  n = Number of magnitudes.
+	// Each result is the same as OEStatsCalc.calc_k_corr (mag[i], a, b, alpha, mref, msup, m1, m2).
+
+	public void k_corr_batch (double[] mag, int mag_off, double[] out, int out_off, int n) {
+		for (int i = 0; i < n; ++i) {
+			double k = Math.pow (10.0, a + alpha*(mag[mag_off + i] - mref));
+			k = k * k_corr_1;
+			k = k * k_corr_2;
+			out[out_off + i] = k;
+		}
+		return;
+	}
+
+
+
+
+	//----- Testing -----
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("OEOmoriGRKernel : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  n  children  reps
+		// Benchmark the kernels against the per-rupture functions.
+		// For each of p = 1.0, p = 1.0 + 1.0e-10 (the Taylor series cases), and p = 1.08,
+		// make n random times and n*children uniform deviates.  Then reps times, compute
+		// the Omori rate for each time, rescale the deviates to times (children per parent)
+		// and magnitudes, and compute productivities, first with the functions in
+		// OERandomGenerator and OEStatsCalc, and then with the kernels.
+		// Display the time per value, and check that the results are identical.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// 3 additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("OEOmoriGRKernel : Invalid 'test1' subcommand");
+				return;
+			}
+
+			try {
+
+				int n = Integer.parseInt (args[1]);
+				int children = Integer.parseInt (args[2]);
+				int reps = Integer.parseInt (args[3]);
+
+				// Say hello
+
+				System.out.println ("Benchmarking Omori and G-R kernels");
+				System.out.println ("n = " + n);
+				System.out.println ("children = " + children);
+				System.out.println ("reps = " + reps);
+
+				// Random data, shared by all cases
+
+				OERandomGenerator rangen = OERandomGenerator.get_thread_rangen();
+
+				int nu = n * children;
+				double[] t0 = new double[n];
+				float[] k_prod = new float[n];
+				double[] u = new double[nu];
+				for (int j = 0; j < n; ++j) {
+					t0[j] = rangen.uniform_sample (-10.0, 365.0);
+					k_prod[j] = (float)(rangen.uniform_sample (0.1, 10.0));
+				}
+				for (int j = 0; j < nu; ++j) {
+					u[j] = rangen.uniform_sample (0.0, 1.0);
+				}
+
+				double[] cum1 = new double[n];
+				double[] cum2 = new double[n];
+				double[] t1 = new double[nu];
+				double[] t2 = new double[nu];
+				double[] m1 = new double[nu];
+				double[] m2 = new double[nu];
+				double[] k1 = new double[nu];
+				double[] k2 = new double[nu];
+
+				// Loop over cases
+
+				double[] p_values = {1.0, 1.0 + 1.0e-10, 1.08};
+
+				for (double p : p_values) {
+					OECatalogParams cat_params = (new OECatalogParams()).set_to_typical (
+						0.0,		// a
+						p,			// p
+						0.01,		// c
+						1.0,		// b
+						1.0,		// alpha
+						100,		// gen_size_target
+						100			// gen_count_max
+					);
+					cat_params.tbegin = 0.0;
+					cat_params.tend = 365.0;
+					double mag_min = 3.0;
+					double mag_max = 9.5;
+
+					OEOmoriGRKernel kernel = new OEOmoriGRKernel();
+
+					long nanos_rate_1 = 0L;
+					long nanos_rate_2 = 0L;
+					long nanos_samp_1 = 0L;
+					long nanos_samp_2 = 0L;
+
+					for (int rep = -Math.min (reps, 5); rep < reps; ++rep) {
+
+						// Per-rupture Omori rate
+
+						long start_nanos = System.nanoTime();
+						double sum = 0.0;
+						for (int j = 0; j < n; ++j) {
+							sum += ((double)(k_prod[j])) * OERandomGenerator.omori_rate_shifted (
+								cat_params.p, cat_params.c, t0[j], cat_params.teps, cat_params.tbegin, cat_params.tend);
+							cum1[j] = sum;
+						}
+						if (rep >= 0) {
+							nanos_rate_1 += (System.nanoTime() - start_nanos);
+						}
+
+						// Kernel Omori rate
+
+						start_nanos = System.nanoTime();
+						kernel.set_params (cat_params);
+						kernel.omori_rate_cum_batch (t0, k_prod, 0, cum2, 0, n, 0.0);
+						if (rep >= 0) {
+							nanos_rate_2 += (System.nanoTime() - start_nanos);
+						}
+
+						// Per-rupture sampling
+
+						start_nanos = System.nanoTime();
+						for (int j = 0; j < n; ++j) {
+							for (int i = j * children; i < (j + 1) * children; ++i) {
+								t1[i] = OERandomGenerator.omori_rescale_shifted (
+									cat_params.p, cat_params.c, t0[j], cat_params.tbegin, cat_params.tend, u[i]);
+								m1[i] = OERandomGenerator.gr_rescale (cat_params.b, mag_min, mag_max, u[i]);
+								k1[i] = OEStatsCalc.calc_k_corr (m1[i], cat_params, mag_min, mag_max);
+							}
+						}
+						if (rep >= 0) {
+							nanos_samp_1 += (System.nanoTime() - start_nanos);
+						}
+
+						// Kernel sampling
+
+						start_nanos = System.nanoTime();
+						kernel.set_mag_range (mag_min, mag_max);
+						for (int j = 0; j < n; ++j) {
+							kernel.omori_rescale_shifted_batch (t0[j], u, j * children, t2, j * children, children);
+						}
+						kernel.gr_rescale_batch (u, 0, m2, 0, nu);
+						kernel.k_corr_batch (m2, 0, k2, 0, nu);
+						if (rep >= 0) {
+							nanos_samp_2 += (System.nanoTime() - start_nanos);
+						}
+					}
+
+					// Display results
+
+					double total_rates = ((double)n) * ((double)reps);
+					double total_samps = ((double)nu) * ((double)reps);
+
+					System.out.println ();
+					System.out.println ("p = " + p + ", small_q = " + kernel.is_small_q());
+					System.out.println ("Omori rate: per-rupture ns = " + String.format ("%.2f", ((double)nanos_rate_1) / total_rates)
+						+ ", kernel ns = " + String.format ("%.2f", ((double)nanos_rate_2) / total_rates)
+						+ ", identical = " + Arrays.equals (cum1, cum2));
+					System.out.println ("Sampling: per-rupture ns = " + String.format ("%.2f", ((double)nanos_samp_1) / total_samps)
+						+ ", kernel ns = " + String.format ("%.2f", ((double)nanos_samp_2) / total_samps)
+						+ ", identical = " + (Arrays.equals (t1, t2) && Arrays.equals (m1, m2) && Arrays.equals (k1, k2)));
+				}
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("OEOmoriGRKernel : Unrecognized subcommand : " + args[0]);
+		return;
+
+	}
+
+}
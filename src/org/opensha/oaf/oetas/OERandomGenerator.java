@@ -24,6 +24,7 @@ import static org.opensha.oaf.oetas.OEConstants.C_LOG_10;	// natural logarithm o
 // Functions provided by this class:
 // * Holds the underlying pseudo random number generator.
 // * Provides a separate instance for each thread.
+// * Optionally, provides reproducible streams, one per catalog, derived from a master seed.
 // * Contains functions to generate the random distributions required for ETAS.
 
 public class OERandomGenerator {
@@ -32,7 +33,7 @@ public class OERandomGenerator {
 
 	// The underlying PRNG, from which all distributions are obtained.
 
-	DoubleMersenneTwister prng_engine;
+	DoubleRandomEngine prng_engine;
 
 	// Generates uniformly distributed random numbers.
 
@@ -122,6 +123,75 @@ public class OERandomGenerator {
 
 
 
+	// Constructor sets up the generators using a splittable engine, positioned at the start of a stream.
+	// Parameters:
+	//  master_seed = Master seed, which identifies a family of streams.
+	//  stream_index = Index of the stream within the family, typically the catalog number.
+	// All 64 bits of the master seed are used.
+
+	public OERandomGenerator (long master_seed, long stream_index) {
+		set_stream (master_seed, stream_index);
+	}
+
+
+
+
+	// Set up the generators to produce the given stream.
+	// Parameters:
+	//  master_seed = Master seed, which identifies a family of streams.
+	//  stream_index = Index of the stream within the family, typically the catalog number.
+	// After this call, the sequence of random values depends only on master_seed and
+	// stream_index, and not on any prior use of this object.  So, for example, a
+	// catalog can be regenerated by itself by setting the stream for its catalog number.
+	// Note: The distribution generators are re-created, so that no cached state
+	// carries over from the prior stream.
+
+	public void set_stream (long master_seed, long stream_index) {
+
+		// Splittable engine, re-positioned if we already have one
+
+		if (prng_engine instanceof OESplitMixEngine) {
+			((OESplitMixEngine)prng_engine).set_stream (master_seed, stream_index);
+		} else {
+			prng_engine = new OESplitMixEngine (master_seed, stream_index);
+		}
+
+		// Uniform and Poisson random number generators
+
+		gen_uniform = new DoubleUniform (0.0, 1.0, prng_engine);
+		gen_poisson = new Poisson (1.0, prng_engine);
+		return;
+	}
+
+
+
+
+	// Make a new generator of the same kind as this one, positioned at the start of a stream.
+	// Parameters:
+	//  master_seed = Master seed, which identifies a family of streams.
+	//  stream_index = Index of the stream within the family.
+	// This is used to create generators for sub-streams (such as fork/join blocks), so that
+	// they draw random numbers in the same way as this generator.  A subclass that overrides
+	// any sampling function must override this function to return an object of its own class.
+
+	public OERandomGenerator make_stream_rangen (long master_seed, long stream_index) {
+		return new OERandomGenerator (master_seed, stream_index);
+	}
+
+
+
+
+	// Sample a master seed for a family of sub-streams.
+	// The returned value can be passed to set_stream (with any stream index) to obtain
+	// streams that are determined by the current state of this generator.
+
+	public long stream_seed_sample () {
+		return prng_engine.nextLong();
+	}
+
+
+
+
 	//----- Threading -----
 
 
@@ -786,6 +856,37 @@ public class OERandomGenerator {
 
 
 
+	// Sample a batch of times and magnitudes for children of one earthquake.
+	// Parameters:
+	//  kernel = Omori and G-R kernel, set up with the catalog parameters and magnitude range.
+	//  t0 = Time of earthquake, in days.
+	//  t_out = Receives the times.
+	//  m_out = Receives the magnitudes.
+	//  off = Offset of the first result in t_out and m_out.
+	//  n = Number of children.
+	// The results are the same, and the random number sequence is consumed in the same order,
+	// as n pairs of calls to omori_sample_shifted and gr_sample, using the kernel's parameters.
+	// Note: A subclass that overrides omori_sample_shifted or gr_sample must override this too.
+
+	public void omori_gr_sample_batch (OEOmoriGRKernel kernel, double t0, double[] t_out, double[] m_out, int off, int n) {
+
+		// Draw the uniform deviates, alternating time and magnitude
+
+		for (int i = off; i < off + n; ++i) {
+			t_out[i] = uniform_sample (0.0, 1.0);
+			m_out[i] = uniform_sample (0.0, 1.0);
+		}
+
+		// Rescale in place
+
+		kernel.omori_rescale_shifted_batch (t0, t_out, off, t_out, off, n);
+		kernel.gr_rescale_batch (m_out, off, m_out, off, n);
+		return;
+	}
+
+
+
+
 	//----- Testing -----
 
 
@@ -0,0 +1,212 @@
+package org.opensha.oaf.oetas;
+
+
+// Class to give bulk access to a run of consecutive ruptures in a catalog.
+//
+// A segment is a set of primitive arrays, plus an offset, such that rupture
+// j_rup + k of some generation is found at index (offset + k) of each array,
+// for 0 <= k < length.  It is filled in by OECatalogView.get_rup_segment.
+//
+// When the catalog is held in OECatalogStorage or OECatalogWindowStorage, the
+// arrays are the catalog's own storage arrays, so no data is copied.  This
+// lets callers run simple loops over primitive arrays, instead of making an
+// interface call and filling in an OERupture object for each rupture.
+//
+// The arrays must be treated as read-only.  They remain valid only until the
+// catalog is modified, or the segment is filled in again.
+//
+// The types match the precision used by OECatalogStorage.  Converting each
+// element to double gives the same values that get_rup would return.
+
+public class OERupSegment {
+
+	//----- Contents -----
+
+	// Index of the first rupture of the segment, within each array.
+
+	public int offset;
+
+	// Number of ruptures in the segment.
+
+	public int length;
+
+	// Rupture time, in days.
+
+	public double[] t_day;
+
+	// Rupture magnitude.
+
+	public float[] rup_mag;
+
+	// Productivity "k" value.
+
+	public float[] k_prod;
+
+	// The parent rupture number, relative to the start of the prior generation.
+
+	public int[] rup_parent;
+
+	// The x coordinate, in km.
+
+	public float[] x_km;
+
+	// The y coordinate, in km.
+
+	public float[] y_km;
+
+
+
+
+	//----- Owned storage -----
+
+	// Arrays belonging to this segment, used when ruptures must be copied.
+	// These are kept separate from the public array references, so that a
+	// copy never overwrites arrays that belong to a catalog.
+
+	private double[] own_t_day;
+	private float[] own_rup_mag;
+	private float[] own_k_prod;
+	private int[] own_rup_parent;
+	private float[] own_x_km;
+	private float[] own_y_km;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Clear to empty.
+
+	public void clear () {
+		offset = 0;
+		length = 0;
+		t_day = null;
+		rup_mag = null;
+		k_prod = null;
+		rup_parent = null;
+		x_km = null;
+		y_km = null;
+		return;
+	}
+
+
+
+
+	// Default constructor.
+
+	public OERupSegment () {
+		clear();
+		own_t_day = null;
+		own_rup_mag = null;
+		own_k_prod = null;
+		own_rup_parent = null;
+		own_x_km = null;
+		own_y_km = null;
+	}
+
+
+
+
+	// Set the segment to refer to its own arrays, with at least the given capacity.
+	// Parameters:
+	//  length = Number of ruptures the caller will store, beginning at index 0.
+	// Returns the length.
+	// The owned arrays are re-used if large enough.  The caller then fills
+	// in elements 0 through length-1 of each array.
+
+	public int set_to_owned (int length) {
+		if (own_t_day == null || own_t_day.length < length) {
+			int cap = Math.max (length, 16);
+			own_t_day = new double[cap];
+			own_rup_mag = new float[cap];
+			own_k_prod = new float[cap];
+			own_rup_parent = new int[cap];
+			own_x_km = new float[cap];
+			own_y_km = new float[cap];
+		}
+		return set (0, length, own_t_day, own_rup_mag, own_k_prod, own_rup_parent, own_x_km, own_y_km);
+	}
+
+
+
+
+	// Set the segment to refer to the given arrays.
+	// Returns the length.
+
+	public int set (int offset, int length, double[] t_day, float[] rup_mag, float[] k_prod,
+			int[] rup_parent, float[] x_km, float[] y_km) {
+		this.offset = offset;
+		this.length = length;
+		this.t_day = t_day;
+		this.rup_mag = rup_mag;
+		this.k_prod = k_prod;
+		this.rup_parent = rup_parent;
+		this.x_km = x_km;
+		this.y_km = y_km;
+		return length;
+	}
+
+
+
+
+	// Get the k-th rupture of the segment.
+	// Parameters:
+	//  k = Index within the segment, 0 <= k < length.
+	//  rup = Structure to receive the rupture information.
+
+	public void get_rup (int k, OERupture rup) {
+		int index = offset + k;
+		rup.set (
+			t_day[index],
+			(double)(rup_mag[index]),
+			(double)(k_prod[index]),
+			rup_parent[index],
+			(double)(x_km[index]),
+			(double)(y_km[index])
+		);
+		return;
+	}
+
+
+
+
+	// Fill the segment by copying from a catalog view, one rupture at a time.
+	// Parameters:
+	//  view = Catalog view.
+	//  i_gen = Generation number.
+	//  j_rup = First rupture number, within the generation.
+	//  max_length = Maximum number of ruptures to copy.
+	// Returns the number of ruptures copied, which is 0 if j_rup is at or past
+	// the end of the generation.
+	// This is the fallback used by OECatalogView.get_rup_segment, for catalogs
+	// that do not store ruptures in primitive arrays.  The segment copies into
+	// its own arrays, which are re-used if large enough.
+
+	public int copy_from_view (OECatalogView view, int i_gen, int j_rup, int max_length) {
+		int n = Math.min (max_length, view.get_gen_size (i_gen) - j_rup);
+		if (n <= 0) {
+			offset = 0;
+			length = 0;
+			return 0;
+		}
+
+		set_to_owned (n);
+
+		OERupture rup = new OERupture();
+		for (int k = 0; k < n; ++k) {
+			view.get_rup (i_gen, j_rup + k, rup);
+			t_day[k] = rup.t_day;
+			rup_mag[k] = (float)(rup.rup_mag);
+			k_prod[k] = (float)(rup.k_prod);
+			rup_parent[k] = rup.rup_parent;
+			x_km[k] = (float)(rup.x_km);
+			y_km[k] = (float)(rup.y_km);
+		}
+
+		return n;
+	}
+
+}
@@ -0,0 +1,154 @@
+package org.opensha.oaf.oetas;
+
+import cern.jet.random.tdouble.engine.DoubleRandomEngine;
+
+
+// Splittable random number engine, for reproducible per-catalog random streams.
+//
+// This is the SplitMix64 generator (the algorithm used by java.util.SplittableRandom),
+// packaged as a Colt DoubleRandomEngine so it can drive the distributions in
+// OERandomGenerator.  The state is a 64-bit counter which advances by an odd
+// increment (the gamma) on each call, and each output is a strong 64-bit mix
+// of the counter.
+//
+// A stream is identified by a master seed and a stream index.  The counter
+// and the gamma are both derived from the master seed and stream index, so
+// distinct streams are statistically independent and do not overlap in practice.
+// The stream for any index can be constructed directly, without generating
+// any of the other streams.  This lets each catalog in an ensemble use its
+// own stream, so results do not depend on which thread generates which catalog.
+//
+// All 64 bits of the master seed are used.
+//
+// Only one thread at a time can use one of these objects.
+
+public class OESplitMixEngine extends DoubleRandomEngine {
+
+	//----- Constants -----
+
+	// The golden ratio increment, used to derive stream parameters.
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	// Scale factor to convert 52 bits to a double in [0, 1).
+
+	private static final double DOUBLE_UNIT = 0x1.0p-52;
+
+
+
+
+	//----- State -----
+
+	// The counter.
+
+	private long seed;
+
+	// The increment, which is always odd.
+
+	private long gamma;
+
+
+
+
+	//----- Mixing functions -----
+
+
+
+
+	// Mix 64 bits, used to produce output (Stafford variant 13).
+
+	private static long mix64 (long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+
+
+
+	// Mix 64 bits, used to produce gamma values (MurmurHash3 finalizer).
+	// The result is forced odd, and if it has too few bit transitions it is
+	// adjusted, because such gammas yield poorer sequences.
+
+	private static long mix_gamma (long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int n = Long.bitCount (z ^ (z >>> 1));
+		return (n < 24) ? (z ^ 0xAAAAAAAAAAAAAAAAL) : z;
+	}
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Set the engine to the start of a stream.
+	// Parameters:
+	//  master_seed = Master seed, which identifies a family of streams.
+	//  stream_index = Index of the stream within the family, typically the catalog number.
+
+	public void set_stream (long master_seed, long stream_index) {
+		long base = mix64 (master_seed);
+		long s = base + (stream_index + 1L) * GOLDEN_GAMMA;
+		seed = mix64 (s);
+		gamma = mix_gamma (s + GOLDEN_GAMMA);
+		return;
+	}
+
+
+
+
+	// Constructor sets the engine to the start of a stream.
+	// Parameters:
+	//  master_seed = Master seed, which identifies a family of streams.
+	//  stream_index = Index of the stream within the family, typically the catalog number.
+
+	public OESplitMixEngine (long master_seed, long stream_index) {
+		set_stream (master_seed, stream_index);
+	}
+
+
+
+
+	//----- Generation (Implementation of DoubleRandomEngine) -----
+
+
+
+
+	// Return a 64-bit uniformly distributed random number.
+
+	@Override
+	public long nextLong () {
+		seed += gamma;
+		return mix64 (seed);
+	}
+
+
+
+
+	// Return a 32-bit uniformly distributed random number.
+
+	@Override
+	public int nextInt () {
+		return (int)(nextLong() >>> 32);
+	}
+
+
+
+
+	// Return a random number uniformly distributed in the open interval (0.0, 1.0).
+	// Note: As with the Mersenne twister, 0.0 and 1.0 are excluded, so that callers
+	// may safely take logarithms.
+	// Note: Only 52 bits are used, so that adding 0.5 is exact; with 53 bits, the
+	// largest value would round up to exactly 1.0.
+
+	@Override
+	public double nextDouble () {
+		return (((double)(nextLong() >>> 12)) + 0.5) * DOUBLE_UNIT;
+	}
+
+}
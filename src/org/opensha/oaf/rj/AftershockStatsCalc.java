@@ -572,8 +572,61 @@ public class AftershockStatsCalc {
 	 *  H == 0
 	 *  magCat < magMin
 	 * This is useful for testing the numeric integration code, by comparing to the analytic formula.
+	 *
+	 * The numeric part is obtained from a cached MagCompIntegralTable, which is built once for
+	 * each (b, magMain, magCat, magCompFn, p, c) and then answers each range query in O(1).
 	 */
 	public static double getPageExpectedNumEvents(double a, double b, double magMain, double magCat, MagCompFn magCompFn, double p, double c, double tMinDays, double tMaxDays) {
+		return getPageExpectedNumEvents(a, b, magMain, magCat, magCompFn, p, c, tMinDays, tMaxDays, null);
+	}
+
+
+
+
+	/**
+	 * This returns the same value as the function above, using the given integral table.
+	 * @param table = Integral table for (b, magMain, magCat, magCompFn, p, c), or null to obtain it from the cache.
+	 * The other parameters are the same as the function above.
+	 * This lets a caller that needs many time ranges obtain the table only once.
+	 */
+	public static double getPageExpectedNumEvents(double a, double b, double magMain, double magCat, MagCompFn magCompFn, double p, double c, double tMinDays, double tMaxDays,
+			MagCompIntegralTable table) {
+		
+		// Transition time, when magnitude of completeness first becomes equal to magCat
+
+		double tPage = magCompFn.getTimeOfCompleteness(magMain, magCat);
+		
+		// Integral value
+
+		double s = 0.0;
+
+		// Tabulated integral for times before tPage
+
+		if (tPage > tMinDays) {
+			if (table == null) {
+				table = MagCompIntegralTable.get_table (b, magMain, magCat, magCompFn, p, c);
+			}
+			s += Math.pow(10.0, a) * table.get_integral (tMinDays, tMaxDays);
+		}
+
+		// Analytic formula for times after tPage
+
+		if (tPage < tMaxDays) {
+			s += getExpectedNumEvents(a, b, magMain, magCat, p, c, Math.max(tMinDays, tPage), tMaxDays);
+		}
+
+		return s;
+	}
+
+
+
+
+	/**
+	 * This returns the same value as getPageExpectedNumEvents, computed directly by adaptive
+	 * quadrature without using an integral table.
+	 * This is the original method, retained for testing.
+	 */
+	public static double getPageExpectedNumEventsQuad(double a, double b, double magMain, double magCat, MagCompFn magCompFn, double p, double c, double tMinDays, double tMaxDays) {
 		
 		// Transition time, when magnitude of completeness first becomes equal to magCat
 
@@ -618,9 +671,60 @@ public class AftershockStatsCalc {
 		return s;
 	}
 
+
+
+
+
+	/**
+	 * This returns the part of getPageExpectedNumEvents that is computed by numerical integration,
+	 * for productivity a = 0.
+	 * @param b = Gutenberg-Richter b-parameter.
+	 * @param magMain = Magnitude of mainshock.
+	 * @param magCat = Magnitude of completeness when there has not been a mainshock.
+	 * @param magCompFn = The magnitude of completeness function.
+	 * @param p = Omori p-parameter (exponent).
+	 * @param c = Omori c-parameter (time offset), in days.
+	 * @param tMinDays = Beginning of forecast time window (since origin time), in days.
+	 * @param tMaxDays = End of forecast time window (since origin time), in days.
+	 * @return
+	 * Returns the integral of lambda(t) from t=tMinDays to t=min(tMaxDays,tPage), with a = 0,
+	 * or 0.0 if tPage <= tMinDays (in which case getPageExpectedNumEvents uses only the analytic formula).
+	 * Since lambda(t) is proportional to 10^a, the numerically integrated part of
+	 * getPageExpectedNumEvents equals 10^a times the return value.
+	 * This lets a caller that needs many values of a do the numerical integration only once.
+	 */
+	public static double getPageExpectedNumEventsNumeric(double b, double magMain, double magCat, MagCompFn magCompFn, double p, double c, double tMinDays, double tMaxDays) {
+		
+		// Transition time, when magnitude of completeness first becomes equal to magCat
+
+		double tPage = magCompFn.getTimeOfCompleteness(magMain, magCat);
+
+		if (!( tPage > tMinDays )) {
+			return 0.0;
+		}
+
+		// Tabulated integral for times before tPage, same as getPageExpectedNumEvents
+
+		return MagCompIntegralTable.get_table (b, magMain, magCat, magCompFn, p, c).get_integral (tMinDays, tMaxDays);
+	}
+
 	
 	
 	
+	/**
+	 * Get the integral table for getPageExpectedNumEvents, or null if it is not needed
+	 * because the time of completeness is no later than tMinDays.
+	 */
+	private static MagCompIntegralTable getPageIntegralTable(double b, double magMain, double magCat, MagCompFn magCompFn, double p, double c, double tMinDays) {
+		if (magCompFn.getTimeOfCompleteness(magMain, magCat) > tMinDays) {
+			return MagCompIntegralTable.get_table (b, magMain, magCat, magCompFn, p, c);
+		}
+		return null;
+	}
+
+
+
+
 	/**
 	 * This returns the expected number of primary aftershocks as a function of time
 	 * 
@@ -666,10 +770,11 @@ public class AftershockStatsCalc {
 		// Construct the function
 		
 		EvenlyDiscretizedFunc func = new EvenlyDiscretizedFunc(x_min, x_max, num);
+		MagCompIntegralTable table = getPageIntegralTable(b, magMain, magCat, magCompFn, p, c, tMin);
 		for(int i=0;i<func.size();i++) {
 			double binTmin = func.getX(i) - x_delta/2;
 			double binTmax = func.getX(i) + x_delta/2;
-			double yVal = getPageExpectedNumEvents(a, b, magMain, magCat, magCompFn, p, c, binTmin, binTmax);
+			double yVal = getPageExpectedNumEvents(a, b, magMain, magCat, magCompFn, p, c, binTmin, binTmax, table);
 			func.set(i,yVal);
 		}
 
@@ -726,11 +831,12 @@ public class AftershockStatsCalc {
 		// Construct the function
 		
 		EvenlyDiscretizedFunc func = new EvenlyDiscretizedFunc(x_min, x_max, num);
+		MagCompIntegralTable table = getPageIntegralTable(b, magMain, magCat, magCompFn, p, c, tMin);
 		double yVal = 0.0;
 		for(int i=0;i<func.size();i++) {
 			double binTmin = func.getX(i) - x_delta/2;
 			double binTmax = func.getX(i) + x_delta/2;
-			yVal += getPageExpectedNumEvents(a, b, magMain, magCat, magCompFn, p, c, binTmin, binTmax);
+			yVal += getPageExpectedNumEvents(a, b, magMain, magCat, magCompFn, p, c, binTmin, binTmax, table);
 			func.set(i,yVal);
 		}
 
@@ -1290,7 +1396,7 @@ public class AftershockStatsCalc {
 	 * @return
 	 * Returns the integral of the function from a to b.
 	 */
-	private static double adapQuadSimpson (UnivariateFunction func,
+	static double adapQuadSimpson (UnivariateFunction func,
 			double a, double b, double abs_tol, double rel_tol, double max_h) {
 
 		// Check for zero length interval
@@ -7,6 +7,11 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupList;
 import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
@@ -20,6 +25,7 @@ import org.opensha.oaf.util.SphLatLon;
 import org.opensha.oaf.util.SphRegion;
 import org.opensha.oaf.util.SphRegionCircle;
 import org.opensha.oaf.util.SimpleUtils;
+import org.opensha.oaf.util.AutoExecutorService;
 
 import org.opensha.oaf.comcat.ComcatOAFAccessor;
 
@@ -40,6 +46,47 @@ public class AftershockStatsShadow {
 
 
 
+	// Interface for retrieving a list of earthquakes.
+	// This is normally done by calling Comcat, but it can be replaced for testing.
+	// Parameters have the same meaning as for ComcatOAFAccessor.fetchEventList.
+	// Threading: The function may be called concurrently from several threads.
+	// An exception from this function likely indicates a problem with Comcat.
+
+	public interface EventListFetcher {
+		public ObsEqkRupList fetch_event_list (String exclude_id, long startTime, long endTime,
+				double min_depth, double max_depth, SphRegion region, double min_mag);
+	}
+
+
+
+
+	// Event list fetcher that calls Comcat.
+	// A new accessor is created for each call, so that calls can be made concurrently.
+
+	public static class ComcatEventListFetcher implements EventListFetcher {
+
+		@Override
+		public ObsEqkRupList fetch_event_list (String exclude_id, long startTime, long endTime,
+				double min_depth, double max_depth, SphRegion region, double min_mag) {
+
+			ComcatOAFAccessor accessor = new ComcatOAFAccessor();
+
+			boolean wrapLon = false;
+			boolean extendedInfo = false;
+			int limit_per_call = 0;
+			int max_calls = 0;
+
+			return accessor.fetchEventList (exclude_id,
+						startTime, endTime,
+						min_depth, max_depth,
+						region, wrapLon, extendedInfo,
+						min_mag, limit_per_call, max_calls);
+		}
+	}
+
+
+
+
 	// This class holds a candidate shadowing event.
 
 	public static class CandidateShadow {
@@ -158,13 +205,46 @@ public class AftershockStatsShadow {
 							centroid_region, wrapLon, extendedInfo,
 							centroid_min_mag, limit_per_call, max_calls);
 
-				if (f_verbose) {
-					System.out.println ("AftershockStatsShadow.accum_from_comcat: Found " + aftershocks.size() + " aftershocks within " + String.format ("%.3f", centroid_radius) + " km of candidate event " + candidate_event_id);
-				}
-		
-				// For each aftershock ...
+				// Accumulate their unit vectors
+
+				accum_from_list (aftershocks, false, f_verbose);
+			}
+
+			return;
+		}
+
+		// Return true if there is a nonempty time and space region in which we need to look for aftershocks.
+		// This is the same test as in accum_from_comcat.
+
+		public boolean needs_aftershocks (long system_time_now) {
+			return centroid_time_lo < system_time_now
+				&& centroid_time_lo < centroid_time_hi
+				&& centroid_radius > 0.0
+				&& centroid_min_mag <= 9.9;
+		}
+
+		// Return true if the given aftershock contributes to the candidate centroid, that is, if it
+		// lies in the time interval, within the radius, has sufficient magnitude, and is not the candidate.
+
+		public boolean is_centroid_aftershock (ObsEqkRupture aftershock) {
+			return aftershock.getOriginTime() >= centroid_time_lo
+				&& aftershock.getOriginTime() <= centroid_time_hi
+				&& aftershock.getMag() >= centroid_min_mag
+				&& LocationUtils.horzDistance (aftershock.getHypocenterLocation(), candidate_hypo) <= centroid_radius
+				&& (!( aftershock.getEventId().equals (candidate_event_id) ));
+		}
+
+		// Accumulate the unit vectors of aftershocks from a list.
+		// If f_filter is true, then only aftershocks that pass is_centroid_aftershock are used,
+		// otherwise the list must contain only aftershocks that contribute to the centroid.
+
+		public void accum_from_list (ObsEqkRupList aftershocks, boolean f_filter, boolean f_verbose) {
+			int count = 0;
+
+			// For each aftershock ...
 
-				for (ObsEqkRupture aftershock : aftershocks) {
+			for (ObsEqkRupture aftershock : aftershocks) {
+				if ((!( f_filter )) || is_centroid_aftershock (aftershock)) {
 
 					// Get the aftershock parameters
 
@@ -178,9 +258,15 @@ public class AftershockStatsShadow {
 					x += (Math.cos(lat) * Math.cos(lon));
 					y += (Math.cos(lat) * Math.sin(lon));
 					z += Math.sin(lat);
+
+					++count;
 				}
 			}
 
+			if (f_verbose) {
+				System.out.println ("AftershockStatsShadow.accum_from_list: Found " + count + " aftershocks within " + String.format ("%.3f", centroid_radius) + " km of candidate event " + candidate_event_id);
+			}
+
 			return;
 		}
 
@@ -264,6 +350,183 @@ public class AftershockStatsShadow {
 
 
 
+	// This class holds a group of large candidates whose aftershocks are retrieved in
+	// a single call to Comcat, which covers the search regions of all the members.
+	// A group with one member uses exactly the same call as CandidateShadow.accum_from_comcat.
+
+	public static class CandidateGroup {
+
+		// The members of the group.
+
+		public ArrayList<CandidateShadow> members;
+
+		// The center of the query region, which is the hypocenter of the first member.
+
+		public Location center_hypo;
+
+		// The largest centroid radius of any member, in kilometers.
+
+		public double max_member_radius;
+
+		// The query radius, in kilometers.
+
+		public double query_radius;
+
+		// The query minimum magnitude, and the largest centroid minimum magnitude of any member.
+
+		public double query_min_mag;
+		public double max_member_min_mag;
+
+		// The query time interval, in milliseconds since the epoch.
+
+		public long query_time_lo;
+		public long query_time_hi;
+
+		// The list of possible aftershocks returned by the query, or null if not yet retrieved.
+
+		public ObsEqkRupList aftershocks;
+
+		// Constructor makes a group containing one candidate.
+
+		public CandidateGroup (CandidateShadow candidate) {
+			members = new ArrayList<CandidateShadow>();
+			members.add (candidate);
+			center_hypo = candidate.candidate_hypo;
+			max_member_radius = candidate.centroid_radius;
+			query_radius = candidate.centroid_radius;
+			query_min_mag = candidate.centroid_min_mag;
+			max_member_min_mag = candidate.centroid_min_mag;
+			query_time_lo = candidate.centroid_time_lo;
+			query_time_hi = candidate.centroid_time_hi;
+			aftershocks = null;
+		}
+
+		// Add the candidate to the group if its search region overlaps the group's query region
+		// in space and time, and the enlarged query is not much bigger than what the members need.
+		// Returns true if the candidate was added.
+
+		public boolean try_add (CandidateShadow candidate) {
+
+			// Time intervals must overlap
+
+			if (!( candidate.centroid_time_lo <= query_time_hi && candidate.centroid_time_hi >= query_time_lo )) {
+				return false;
+			}
+
+			// Magnitude ranges must be similar, so the query does not retrieve many more small events
+
+			double new_min_mag = Math.min (query_min_mag, candidate.centroid_min_mag);
+			double new_max_min_mag = Math.max (max_member_min_mag, candidate.centroid_min_mag);
+			if (new_max_min_mag - new_min_mag > GROUP_MAX_MAG_DIFF) {
+				return false;
+			}
+
+			// Circles must overlap, and the enlarged circle must be limited in size
+
+			double dist = LocationUtils.horzDistance (center_hypo, candidate.candidate_hypo);
+			if (!( dist < query_radius + candidate.centroid_radius )) {
+				return false;
+			}
+			double new_max_member_radius = Math.max (max_member_radius, candidate.centroid_radius);
+			double new_query_radius = Math.max (query_radius, dist + candidate.centroid_radius);
+			if (new_query_radius > GROUP_MAX_RADIUS_FACTOR * new_max_member_radius) {
+				return false;
+			}
+
+			// Add it
+
+			members.add (candidate);
+			max_member_radius = new_max_member_radius;
+			query_radius = new_query_radius;
+			query_min_mag = new_min_mag;
+			max_member_min_mag = new_max_min_mag;
+			query_time_lo = Math.min (query_time_lo, candidate.centroid_time_lo);
+			query_time_hi = Math.max (query_time_hi, candidate.centroid_time_hi);
+			return true;
+		}
+
+		// Make a task that retrieves the possible aftershocks.
+
+		public Callable<ObsEqkRupList> make_fetch_task (final EventListFetcher fetcher) {
+			final String exclude_id = (members.size() == 1) ? members.get(0).candidate_event_id : null;
+			final SphRegion query_region = SphRegion.makeCircle (new SphLatLon (center_hypo), query_radius);
+			return new Callable<ObsEqkRupList>() {
+				@Override
+				public ObsEqkRupList call () {
+					return fetcher.fetch_event_list (exclude_id,
+								query_time_lo, query_time_hi,
+								ComcatOAFAccessor.DEFAULT_MIN_DEPTH, ComcatOAFAccessor.DEFAULT_MAX_DEPTH,
+								query_region, query_min_mag);
+				}
+			};
+		}
+
+		// Distribute the retrieved aftershocks to the members.
+		// A single member receives all of them, since the query was made just for it.
+
+		public void distribute (boolean f_verbose) {
+			if (f_verbose) {
+				System.out.println ("AftershockStatsShadow.distribute: Found " + aftershocks.size() + " possible aftershocks within " + String.format ("%.3f", query_radius) + " km for a group of " + members.size() + " candidate events");
+			}
+			boolean f_filter = (members.size() > 1);
+			for (CandidateShadow candidate : members) {
+				candidate.accum_from_list (aftershocks, f_filter, f_verbose);
+			}
+			return;
+		}
+	}
+
+
+
+
+	// Run a list of fetch tasks, using up to max_threads concurrent threads.
+	// Returns the list of results, in the same order as the tasks.
+	// If max_threads is 1, or there is only one task, then the tasks are run in this thread.
+	// An exception thrown by any task is rethrown (wrapped in a RuntimeException if it is checked).
+
+	private static List<ObsEqkRupList> run_fetch_tasks (List<Callable<ObsEqkRupList>> tasks, int max_threads) {
+		List<ObsEqkRupList> results = new ArrayList<ObsEqkRupList>();
+
+		// Serial execution
+
+		if (max_threads <= 1 || tasks.size() <= 1) {
+			for (Callable<ObsEqkRupList> task : tasks) {
+				try {
+					results.add (task.call());
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException ("AftershockStatsShadow.run_fetch_tasks: Exception during fetch", e);
+				}
+			}
+			return results;
+		}
+
+		// Concurrent execution
+
+		try (
+			AutoExecutorService auto_executor = new AutoExecutorService (Math.min (max_threads, tasks.size()), 30000L, AutoExecutorService.AESTO_NO_WAIT);
+		){
+			List<Future<ObsEqkRupList>> futures = auto_executor.get_executor().invokeAll (tasks);
+			for (Future<ObsEqkRupList> future : futures) {
+				results.add (future.get());
+			}
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			}
+			throw new RuntimeException ("AftershockStatsShadow.run_fetch_tasks: Exception during fetch", cause);
+		} catch (InterruptedException e) {
+			throw new RuntimeException ("AftershockStatsShadow.run_fetch_tasks: Interrupted during fetch", e);
+		}
+
+		return results;
+	}
+
+
+
+
 	// Default parameter values for find_shadow.
 
 	public static final long YEAR_IN_MILLIS = 31536000000L;		// 1 year = 365 days
@@ -274,6 +537,14 @@ public class AftershockStatsShadow {
 
 	public static final double DEF_LARGE_MAG = 8.0;				// default large magnitude
 
+	public static final int DEF_MAX_FETCH_THREADS = 4;			// default maximum number of concurrent Comcat calls
+
+	// Limits on grouping large candidates into a single call to Comcat.
+
+	public static final double GROUP_MAX_RADIUS_FACTOR = 1.5;	// query radius can be at most this multiple of the largest member radius
+
+	public static final double GROUP_MAX_MAG_DIFF = 0.5;		// members' centroid magnitudes can differ by at most this much
+
 	
 
 
@@ -323,6 +594,12 @@ public class AftershockStatsShadow {
 	//    a W&C radius of 200 km, and so limits the combined call to a radius of 600 km.
 	//    This mechanism avoids the possiblity that the combined call might attempt to
 	//    retrieve all small earthquakes over a very large area.  Set to 10.0 to disable.
+	//    Large candidates whose regions overlap, and whose combined region is not much
+	//    larger than the individual regions, are grouped into a single call to Comcat
+	//    (see CandidateGroup).  The aftershocks for the group containing the largest
+	//    candidate are retrieved first.  The calls for the remaining groups and the small
+	//    candidates are made only if that group does not shadow the mainshock, and are
+	//    issued concurrently.
 	//  separation = A 2-element array that is used to return the separation between
 	//    the mainshock and the shadowing event.  If the mainshock is shadowed, then
 	//    separation[0] receives the separation in kilometers, and separation[1] receives
@@ -340,6 +617,31 @@ public class AftershockStatsShadow {
 					long centroid_rel_time_lo, long centroid_rel_time_hi,
 					double centroid_mag_floor, double large_mag, double[] separation) {
 
+		return find_shadow (mainshock, time_now,
+					search_radius, search_time_lo, search_time_hi,
+					centroid_rel_time_lo, centroid_rel_time_hi,
+					centroid_mag_floor, large_mag, separation,
+					new ComcatEventListFetcher(), DEF_MAX_FETCH_THREADS, true);
+	}
+
+
+
+
+	// Determine if a given mainshock is shadowed.
+	// Parameters are the same as above, plus:
+	//  fetcher = Object used to retrieve lists of earthquakes.
+	//  max_threads = Maximum number of concurrent calls to the fetcher, must be >= 1.
+	//  f_group = True to group large candidates with overlapping regions into a single call,
+	//    false to make a separate call for each large candidate.
+	// The result does not depend on max_threads.  If f_group is false, the calls are the same as
+	// would be made by calling CandidateShadow.accum_from_comcat for each large candidate.
+
+	public static ObsEqkRupture find_shadow (ObsEqkRupture mainshock, long time_now,
+					double search_radius, long search_time_lo, long search_time_hi,
+					long centroid_rel_time_lo, long centroid_rel_time_hi,
+					double centroid_mag_floor, double large_mag, double[] separation,
+					final EventListFetcher fetcher, int max_threads, boolean f_group) {
+
 		// Parameter validation
 
 		if (!( mainshock != null )) {
@@ -379,6 +681,12 @@ public class AftershockStatsShadow {
 			}
 		}
 
+		if (!( max_threads >= 1 )) {
+			throw new IllegalArgumentException ("AftershockStatsShadow.find_shadow: Invalid maximum number of threads"
+				+ ": max_threads = " + max_threads
+			);
+		}
+
 		// Verbose mode flag
 
 		boolean f_verbose = AftershockVerbose.get_verbose_mode();
@@ -395,10 +703,6 @@ public class AftershockStatsShadow {
 
 		ArrayList<CandidateShadow> combined_candidates = new ArrayList<CandidateShadow>();
 
-		// A Comcat accessor to use
-
-		ComcatOAFAccessor accessor = new ComcatOAFAccessor();
-
 		// Fetch object for magnitude of completeness parameters
 
 		MagCompPage_ParametersFetch mag_comp_fetch = new MagCompPage_ParametersFetch();
@@ -419,19 +723,13 @@ public class AftershockStatsShadow {
 		// Potentials must lie in the search region, within the search times,
 		// have magnitude at least equal to the mainshock, and not be the mainshock
 
-		double min_depth = ComcatOAFAccessor.DEFAULT_MIN_DEPTH;
-		double max_depth = ComcatOAFAccessor.DEFAULT_MAX_DEPTH;
-
-		boolean wrapLon = false;
-		boolean extendedInfo = false;
-		int limit_per_call = 0;
-		int max_calls = 0;
+		final double min_depth = ComcatOAFAccessor.DEFAULT_MIN_DEPTH;
+		final double max_depth = ComcatOAFAccessor.DEFAULT_MAX_DEPTH;
 
-		ObsEqkRupList potentials = accessor.fetchEventList (mainshock_event_id,
+		ObsEqkRupList potentials = fetcher.fetch_event_list (mainshock_event_id,
 					search_time_lo, Math.min (search_time_hi, time_now),
 					min_depth, max_depth,
-					search_region, wrapLon, extendedInfo,
-					mainshock_mag, limit_per_call, max_calls);
+					search_region, mainshock_mag);
 
 		if (f_verbose) {
 			System.out.println ("AftershockStatsShadow.find_shadow: Found " + potentials.size() + " potential shadowing events for mainshock " + mainshock_event_id);
@@ -545,14 +843,116 @@ public class AftershockStatsShadow {
 			System.out.println ("AftershockStatsShadow.find_shadow: Found " + (large_candidates.size() + small_candidates.size()) + " candidate shadowing events for mainshock " + mainshock_event_id);
 		}
 
-		// For each large candidate, with the best (largest) considered first ...
+		// Sort the large candidates, with the best (largest) first
 
 		large_candidates.sort (new CandidateComparator());
-		for (CandidateShadow candidate : large_candidates) {
 
-			// Accumulate its aftershocks now, in a separate call to Comcat
+		// Group the large candidates that need aftershocks, joining each to the first group that accepts it.
+		// Groups are created in candidate order, so the group containing the best candidate comes first.
+		// group_index[k] is the index of the group that contains the k-th large candidate, or -1 if none.
+
+		ArrayList<CandidateGroup> groups = new ArrayList<CandidateGroup>();
+		int[] group_index = new int[large_candidates.size()];
+
+		for (int k = 0; k < large_candidates.size(); ++k) {
+			CandidateShadow candidate = large_candidates.get(k);
+			group_index[k] = -1;
+			if (candidate.needs_aftershocks (system_time_now)) {
+				if (f_group) {
+					for (int n = 0; n < groups.size(); ++n) {
+						if (groups.get(n).try_add (candidate)) {
+							group_index[k] = n;
+							break;
+						}
+					}
+				}
+				if (group_index[k] < 0) {
+					group_index[k] = groups.size();
+					groups.add (new CandidateGroup (candidate));
+				}
+			}
+		}
+
+		// If there is a nonempty time and space region in which we need to look for aftershocks ...
+
+		boolean f_combined = (combined_centroid_time_lo < system_time_now
+			&& combined_centroid_time_lo < combined_centroid_time_hi
+			&& combined_centroid_radius > 0.0);
+
+		Callable<ObsEqkRupList> combined_task = null;
+
+		if (f_combined) {
+
+			// Construct a circle around the mainshock with the combined centroid radius
+
+			final SphRegion centroid_region = SphRegion.makeCircle (mainshock_sph_hypo, combined_centroid_radius);
+
+			// Make the call to Comcat to get a list of possible aftershocks
+			// Aftershocks must lie in the combined centroid region, within the combined centroid times,
+			// and have magnitude at least equal to the combined centroid magnitude
+
+			final long the_time_lo = combined_centroid_time_lo;
+			final long the_time_hi = combined_centroid_time_hi;
+			final double the_min_mag = combined_centroid_min_mag;
+
+			combined_task = new Callable<ObsEqkRupList>() {
+				@Override
+				public ObsEqkRupList call () {
+					return fetcher.fetch_event_list (null,
+								the_time_lo, the_time_hi,
+								min_depth, max_depth,
+								centroid_region, the_min_mag);
+				}
+			};
+		}
+
+		// The calls to Comcat are made in rounds, so that no more calls are made once a shadowing
+		// event is found.  The first round retrieves the aftershocks for the group that contains the
+		// best large candidate.  If no shadowing event is found before reaching a candidate in a
+		// later group, the second round retrieves the aftershocks for all the remaining groups and
+		// for the combined small candidates, concurrently.
+		// fetched_groups is the number of groups whose aftershocks have been retrieved.
 
-			candidate.accum_from_comcat (accessor, system_time_now, f_verbose);
+		int fetched_groups = 0;
+		ObsEqkRupList combined_aftershocks = null;
+
+		// For each large candidate, with the best (largest) considered first ...
+
+		for (int k = 0; k < large_candidates.size(); ++k) {
+			CandidateShadow candidate = large_candidates.get(k);
+
+			// If the aftershocks for this candidate have not been retrieved, make the next round of calls
+
+			if (group_index[k] >= fetched_groups) {
+				int round_end = ((fetched_groups == 0) ? 1 : groups.size());
+				boolean f_fetch_combined = (fetched_groups > 0 && combined_task != null);
+
+				List<Callable<ObsEqkRupList>> fetch_tasks = new ArrayList<Callable<ObsEqkRupList>>();
+				for (int n = fetched_groups; n < round_end; ++n) {
+					fetch_tasks.add (groups.get(n).make_fetch_task (fetcher));
+				}
+				if (f_fetch_combined) {
+					fetch_tasks.add (combined_task);
+				}
+
+				List<ObsEqkRupList> fetch_results = run_fetch_tasks (fetch_tasks, max_threads);
+
+				if (f_verbose) {
+					System.out.println ("AftershockStatsShadow.find_shadow: Made " + fetch_tasks.size() + " calls to retrieve aftershocks, for " + (round_end - fetched_groups) + " groups of large candidates");
+				}
+
+				// Distribute the aftershocks to the large candidates
+
+				for (int n = fetched_groups; n < round_end; ++n) {
+					CandidateGroup group = groups.get(n);
+					group.aftershocks = fetch_results.get (n - fetched_groups);
+					group.distribute (f_verbose);
+				}
+				if (f_fetch_combined) {
+					combined_aftershocks = fetch_results.get (fetch_results.size() - 1);
+				}
+				fetched_groups = round_end;
+			}
 
 			// Get the centroid
 
@@ -584,25 +984,19 @@ public class AftershockStatsShadow {
 			}
 		}
 
-		// If there is a nonempty time and space region in which we need to look for aftershocks ...
+		// If there is a combined call ...
 
-		if (combined_centroid_time_lo < system_time_now
-			&& combined_centroid_time_lo < combined_centroid_time_hi
-			&& combined_centroid_radius > 0.0) {
+		if (f_combined) {
 
-			// Construct a circle around the mainshock with the combined centroid radius
+			// Make the call, if it was not made together with the remaining groups
 
-			SphRegion centroid_region = SphRegion.makeCircle (mainshock_sph_hypo, combined_centroid_radius);
+			if (combined_aftershocks == null) {
+				List<Callable<ObsEqkRupList>> fetch_tasks = new ArrayList<Callable<ObsEqkRupList>>();
+				fetch_tasks.add (combined_task);
+				combined_aftershocks = run_fetch_tasks (fetch_tasks, max_threads).get (0);
+			}
 
-			// Get a list of possible aftershocks by calling Comcat
-			// Aftershocks must lie in the combined centroid region, within the combined centroid times,
-			// and have magnitude at least equal to the combined centroid magnitude
-
-			ObsEqkRupList aftershocks = accessor.fetchEventList (null,
-						combined_centroid_time_lo, combined_centroid_time_hi,
-						min_depth, max_depth,
-						centroid_region, wrapLon, extendedInfo,
-						combined_centroid_min_mag, limit_per_call, max_calls);
+			ObsEqkRupList aftershocks = combined_aftershocks;
 
 			if (f_verbose) {
 				System.out.println ("AftershockStatsShadow.find_shadow: Found " + aftershocks.size() + " possible aftershocks within " + String.format ("%.3f", combined_centroid_radius) + " km of mainshock " + mainshock_event_id);
@@ -708,6 +1102,68 @@ public class AftershockStatsShadow {
 
 	//----- Testing -----
 
+
+
+
+	// Event list fetcher that simulates Comcat, by searching an in-memory catalog.
+	// Each call waits for a fixed latency, to mimic the time needed for a call to Comcat.
+
+	private static class SimulatedEventListFetcher implements EventListFetcher {
+
+		// The catalog.
+
+		private List<ObsEqkRupture> catalog;
+
+		// The latency of each call, in milliseconds.
+
+		private long latency;
+
+		// Number of calls made.
+
+		private AtomicInteger call_count;
+
+		public SimulatedEventListFetcher (List<ObsEqkRupture> catalog, long latency) {
+			this.catalog = catalog;
+			this.latency = latency;
+			this.call_count = new AtomicInteger (0);
+		}
+
+		public int get_call_count () {
+			return call_count.get();
+		}
+
+		@Override
+		public ObsEqkRupList fetch_event_list (String exclude_id, long startTime, long endTime,
+				double min_depth, double max_depth, SphRegion region, double min_mag) {
+
+			call_count.incrementAndGet();
+			if (latency > 0L) {
+				try {
+					Thread.sleep (latency);
+				} catch (InterruptedException e) {
+				}
+			}
+
+			ObsEqkRupList result = new ObsEqkRupList();
+			for (ObsEqkRupture rup : catalog) {
+				Location hypo = rup.getHypocenterLocation();
+				if (   rup.getOriginTime() >= startTime
+					&& rup.getOriginTime() <= endTime
+					&& rup.getMag() >= min_mag
+					&& hypo.getDepth() >= min_depth
+					&& hypo.getDepth() <= max_depth
+					&& region.contains (hypo)
+					&& (exclude_id == null || (!( exclude_id.equals (rup.getEventId()) ))) ) {
+					result.add (rup);
+				}
+			}
+			return result;
+		}
+	}
+
+
+
+
 	public static void main(String[] args) {
 
 		// There needs to be at least one argument, which is the subcommand
@@ -848,6 +1304,113 @@ public class AftershockStatsShadow {
 
 
 
+		// Subcommand : Test #2
+		// Command format:
+		//  test2  num_candidate  num_aftershock  latency  max_threads  seed
+		// Test find_shadow against a simulated Comcat, for a swarm.
+		// The simulated catalog contains a magnitude 5.0 mainshock, num_candidate larger events
+		// with magnitudes 6.0 to 7.0 within 30 km of the mainshock, and num_aftershock smaller
+		// events within 100 km.  Each simulated call to Comcat takes latency milliseconds.
+		// The large magnitude is set to 6.0, so each candidate needs its own centroid.
+		// Run find_shadow with one call per candidate made one at a time, and then with grouped
+		// calls made using max_threads threads.  Display the number of calls, time, and result.
+
+		if (args[0].equalsIgnoreCase ("test2")) {
+
+			// Five additional arguments
+
+			if (args.length != 6) {
+				System.err.println ("AftershockStatsShadow : Invalid 'test2' subcommand");
+				return;
+			}
+
+			try {
+
+				int num_candidate = Integer.parseInt (args[1]);
+				int num_aftershock = Integer.parseInt (args[2]);
+				long latency = Long.parseLong (args[3]);
+				int max_threads = Integer.parseInt (args[4]);
+				long seed = Long.parseLong (args[5]);
+
+				// Build the simulated catalog
+
+				Random rangen = new Random (seed);
+				long time_now = System.currentTimeMillis() - ComcatOAFAccessor.day_millis;
+				long mainshock_time = time_now - 30L * ComcatOAFAccessor.day_millis;
+				double lat0 = 35.0;
+				double lon0 = -118.0;
+
+				ObsEqkRupture mainshock = new ObsEqkRupture ("sim_main", mainshock_time, new Location (lat0, lon0, 10.0), 5.0);
+				ArrayList<ObsEqkRupture> catalog = new ArrayList<ObsEqkRupture>();
+				catalog.add (mainshock);
+
+				for (int i = 0; i < num_candidate; ++i) {
+					double dlat = (rangen.nextDouble() - 0.5) * 0.5;
+					double dlon = (rangen.nextDouble() - 0.5) * 0.5;
+					long t = mainshock_time + (long)((rangen.nextDouble() - 0.7) * 100.0 * ComcatOAFAccessor.day_millis);
+					double mag = 6.0 + rangen.nextDouble();
+					catalog.add (new ObsEqkRupture ("sim_cand_" + i, t, new Location (lat0 + dlat, lon0 + dlon, 10.0), mag));
+				}
+
+				for (int i = 0; i < num_aftershock; ++i) {
+					double dlat = (rangen.nextDouble() - 0.5) * 1.8;
+					double dlon = (rangen.nextDouble() - 0.5) * 2.2;
+					long t = time_now - (long)(rangen.nextDouble() * 200.0 * ComcatOAFAccessor.day_millis);
+					double mag = 2.5 + 2.4 * rangen.nextDouble();
+					catalog.add (new ObsEqkRupture ("sim_as_" + i, t, new Location (lat0 + dlat, lon0 + dlon, 10.0), mag));
+				}
+
+				// Parameters
+
+				double search_radius = DEF_SEARCH_RADIUS;
+				long search_time_lo = mainshock_time - YEAR_IN_MILLIS;
+				long search_time_hi = mainshock_time + YEAR_IN_MILLIS;
+				long centroid_rel_time_lo = 0L;
+				long centroid_rel_time_hi = YEAR_IN_MILLIS;
+				double centroid_mag_floor = DEF_CENTROID_MAG_FLOOR;
+				double large_mag = 6.0;
+
+				// One call per candidate, serial
+
+				SimulatedEventListFetcher fetcher_1 = new SimulatedEventListFetcher (catalog, latency);
+				double[] separation_1 = new double[2];
+				long start_time_1 = System.currentTimeMillis();
+				ObsEqkRupture shadow_1 = find_shadow (mainshock, time_now,
+					search_radius, search_time_lo, search_time_hi,
+					centroid_rel_time_lo, centroid_rel_time_hi,
+					centroid_mag_floor, large_mag, separation_1,
+					fetcher_1, 1, false);
+				long elapsed_1 = System.currentTimeMillis() - start_time_1;
+
+				// Grouped calls, concurrent
+
+				SimulatedEventListFetcher fetcher_2 = new SimulatedEventListFetcher (catalog, latency);
+				double[] separation_2 = new double[2];
+				long start_time_2 = System.currentTimeMillis();
+				ObsEqkRupture shadow_2 = find_shadow (mainshock, time_now,
+					search_radius, search_time_lo, search_time_hi,
+					centroid_rel_time_lo, centroid_rel_time_hi,
+					centroid_mag_floor, large_mag, separation_2,
+					fetcher_2, max_threads, true);
+				long elapsed_2 = System.currentTimeMillis() - start_time_2;
+
+				// Display results
+
+				System.out.println ("Separate serial calls: calls = " + fetcher_1.get_call_count() + ", time = " + elapsed_1 + " ms"
+					+ ", shadow = " + ((shadow_1 == null) ? "none" : (shadow_1.getEventId() + String.format (" (%.3f km, %.3f days)", separation_1[0], separation_1[1]))));
+				System.out.println ("Grouped concurrent calls: calls = " + fetcher_2.get_call_count() + ", time = " + elapsed_2 + " ms"
+					+ ", shadow = " + ((shadow_2 == null) ? "none" : (shadow_2.getEventId() + String.format (" (%.3f km, %.3f days)", separation_2[0], separation_2[1]))));
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("AftershockStatsShadow : Unrecognized subcommand : " + args[0]);
@@ -0,0 +1,591 @@
+package org.opensha.oaf.rj;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Tabulated integral of the Reasenberg-Jones rate with time-dependent magnitude of completeness.
+ *
+ * AftershockStatsCalc.getPageExpectedNumEvents integrates the rate numerically for times before
+ * the time of completeness tPage.  For productivity a = 0, the integrand depends only on
+ * (b, magMain, magCat, magCompFn, p, c).  This class tabulates the cumulative integral
+ *  G(t) = INTEGRAL(lambda(s)*ds, 0 <= s <= t)    (with a = 0)
+ * so that the integral over any range [tMin, tMax] can be found in O(1) as G(tMax) - G(tMin).
+ *
+ * The table uses a grid that is uniform in u = log(t), from TABLE_MIN_DAYS to the lesser of tPage
+ * and TABLE_MAX_DAYS.  In terms of u, the integrand t*lambda(t) is smooth (the magnitude of
+ * completeness is typically linear in log(t)), so a 5-point Gauss-Legendre rule, which is exact
+ * for polynomials of degree 9, is very accurate even for wide panels.  The table holds G at the
+ * panel boundaries.  To find G at a time within a panel, the same rule is applied from the start
+ * of the panel to that time, which is a fixed cost of 5 function evaluations (this is equivalent
+ * to high-order interpolation, without having to store derivatives).  The grid is refined until
+ * the error in each panel, estimated by comparing the rule on the whole panel with the rule on
+ * its two halves, is below TABLE_REL_TOL relative to the integral over the panel.  The largest
+ * estimated error is available from get_error_bound().  If the tolerance is not met with
+ * MAX_PANELS_PER_DECADE panels per decade, the table is discarded and all integrals are direct.
+ *
+ * Times below TABLE_MIN_DAYS (about 1 second) or above TABLE_MAX_DAYS are handled by direct
+ * adaptive quadrature, in the same way as AftershockStatsCalc.getPageExpectedNumEvents.
+ *
+ * Tables are kept in a bounded least-recently-used cache, so that a long-running server can
+ * reuse them across forecasts for the same sequence.
+ */
+public class MagCompIntegralTable {
+
+	//----- Parameters -----
+
+	// Range of times covered by the table, in days.
+
+	public static final double TABLE_MIN_DAYS = 1.0e-5;
+	public static final double TABLE_MAX_DAYS = 1.0e5;
+
+	// Initial and maximum number of panels per decade.
+
+	private static final int MIN_PANELS_PER_DECADE = 4;
+	private static final int MAX_PANELS_PER_DECADE = 128;
+
+	// Error tolerance, relative to the integral over a panel.
+
+	public static final double TABLE_REL_TOL = 1.0e-10;
+
+	// Maximum number of tables in the cache.
+
+	public static final int CACHE_CAPACITY = 1024;
+
+	// Nodes and weights for 5-point Gauss-Legendre quadrature on [-1, 1].
+
+	private static final double[] GL_NODE = {
+		-0.9061798459386640, -0.5384693101056831, 0.0, 0.5384693101056831, 0.9061798459386640
+	};
+	private static final double[] GL_WEIGHT = {
+		0.2369268850561891, 0.4786286704993665, 0.5688888888888889, 0.4786286704993665, 0.2369268850561891
+	};
+
+
+
+
+	//----- Table contents -----
+
+	// Integrand, the rate with a = 0.
+
+	private final AftershockStatsCalc.funcExpectedEventsRate func;
+
+	// Time of completeness, in days.
+
+	private final double tPage;
+
+	// Range of the table, in days, and in log(days).
+
+	private final double t_lo;
+	private final double t_hi;
+	private final double u_lo;
+
+	// Number of panels, panel width in log(days), and its reciprocal.
+
+	private final int num_panels;
+	private final double h;
+	private final double inv_h;
+
+	// G at each panel boundary.
+
+	private final double[] cum;
+
+	// Largest error estimated while building the table, relative to the panel integral.
+
+	private final double error_bound;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	/**
+	 * Build the table.
+	 * @param b = Gutenberg-Richter b-parameter.
+	 * @param magMain = Magnitude of mainshock.
+	 * @param magCat = Magnitude of completeness when there has not been a mainshock.
+	 * @param magCompFn = The magnitude of completeness function.
+	 * @param p = Omori p-parameter (exponent).
+	 * @param c = Omori c-parameter (time offset), in days.
+	 * Note: Usually a table should be obtained from get_table, so that it can be shared.
+	 */
+	public MagCompIntegralTable (double b, double magMain, double magCat, MagCompFn magCompFn, double p, double c) {
+		func = new AftershockStatsCalc.funcExpectedEventsRate (0.0, b, magMain, magCat, magCompFn, p, c);
+		tPage = magCompFn.getTimeOfCompleteness (magMain, magCat);
+
+		// If the time of completeness is too small, there is no table and all integrals are direct
+
+		if (!( tPage > TABLE_MIN_DAYS * 2.0 )) {
+			t_lo = tPage;
+			t_hi = tPage;
+			u_lo = 0.0;
+			num_panels = 0;
+			h = 0.0;
+			inv_h = 0.0;
+			cum = null;
+			error_bound = 0.0;
+			return;
+		}
+
+		t_lo = TABLE_MIN_DAYS;
+		t_hi = Math.min (tPage, TABLE_MAX_DAYS);
+		u_lo = Math.log (t_lo);
+		double u_hi = Math.log (t_hi);
+		double decades = (u_hi - u_lo) / Math.log (10.0);
+
+		// Integral below the table
+
+		double cum_lo = direct (0.0, t_lo);
+
+		// Build with increasing density until the error is within tolerance
+
+		int the_num_panels = 0;
+		double[] the_cum = null;
+		double the_error_bound = 0.0;
+
+		for (int per_decade = MIN_PANELS_PER_DECADE; per_decade <= MAX_PANELS_PER_DECADE; per_decade *= 2) {
+			the_num_panels = Math.max (2, (int)Math.ceil (decades * per_decade));
+			double the_h = (u_hi - u_lo) / the_num_panels;
+
+			the_cum = new double[the_num_panels + 1];
+
+			double u0 = u_lo;
+			the_cum[0] = cum_lo;
+			the_error_bound = 0.0;
+
+			for (int i = 0; i < the_num_panels; ++i) {
+				double u1 = (i + 1 == the_num_panels) ? u_hi : (u_lo + (i + 1) * the_h);
+				double um = (u0 + u1) * 0.5;
+
+				// Integrate each half of the panel, and the whole panel to estimate the error
+
+				double halves = gauss_legendre (u0, um) + gauss_legendre (um, u1);
+				double whole = gauss_legendre (u0, u1);
+				the_cum[i+1] = the_cum[i] + halves;
+				if (halves > 0.0) {
+					the_error_bound = Math.max (the_error_bound, Math.abs (whole - halves) / halves);
+				}
+
+				u0 = u1;
+			}
+
+			if (the_error_bound <= TABLE_REL_TOL) {
+				break;
+			}
+		}
+
+		// If the tolerance could not be met, there is no table and all integrals are direct
+
+		if (!( the_error_bound <= TABLE_REL_TOL )) {
+			num_panels = 0;
+			h = 0.0;
+			inv_h = 0.0;
+			cum = null;
+			error_bound = the_error_bound;
+			return;
+		}
+
+		num_panels = the_num_panels;
+		h = (u_hi - u_lo) / num_panels;
+		inv_h = 1.0 / h;
+		cum = the_cum;
+		error_bound = the_error_bound;
+	}
+
+
+
+
+	// The integrand with respect to u = log(t), which is t*lambda(t).
+
+	private double integrand_u (double u) {
+		double t = Math.exp (u);
+		return t * func.value (t);
+	}
+
+
+	// Integrate over [u0, u1] with 5-point Gauss-Legendre quadrature.
+
+	private double gauss_legendre (double u0, double u1) {
+		double half = (u1 - u0) * 0.5;
+		double mid = (u1 + u0) * 0.5;
+		double s = 0.0;
+		for (int k = 0; k < GL_NODE.length; ++k) {
+			s += GL_WEIGHT[k] * integrand_u (mid + half * GL_NODE[k]);
+		}
+		return s * half;
+	}
+
+
+	// Direct integral over [t0, t1], with the same quadrature as AftershockStatsCalc.getPageExpectedNumEvents.
+
+	private double direct (double t0, double t1) {
+		double max_h = Math.max(1.0e-5, (t1 - t0) / 30.0);
+		double abs_tol = 0.0;
+		double rel_tol = 1.0e-7;
+		return AftershockStatsCalc.adapQuadSimpson (func, t0, t1, abs_tol, rel_tol, max_h);
+	}
+
+
+	// Get the panel that contains log-time u, for u_lo <= u <= u_hi.
+
+	private int panel_of (double u) {
+		int i = (int)((u - u_lo) * inv_h);
+		if (i >= num_panels) {
+			i = num_panels - 1;
+		} else if (i < 0) {
+			i = 0;
+		}
+		return i;
+	}
+
+
+	// Get the log-time at the start of panel i.
+
+	private double panel_start (int i) {
+		return u_lo + i * h;
+	}
+
+
+
+
+	//----- Queries -----
+
+
+
+
+	/**
+	 * Get the time of completeness, in days.
+	 */
+	public double get_tPage () {
+		return tPage;
+	}
+
+
+	/**
+	 * Get the number of panels in the table (zero if there is no table,
+	 * including if the table could not be built to within TABLE_REL_TOL).
+	 */
+	public int get_num_panels () {
+		return num_panels;
+	}
+
+
+	/**
+	 * Get the largest interpolation error measured while building the table,
+	 * relative to the integral over a panel.
+	 * If this exceeds TABLE_REL_TOL, the table was discarded.
+	 */
+	public double get_error_bound () {
+		return error_bound;
+	}
+
+
+
+
+	/**
+	 * Get the integral of the rate, with a = 0, from tMinDays to min(tMaxDays, tPage).
+	 * @param tMinDays = Beginning of time window (since origin time), in days.
+	 * @param tMaxDays = End of time window (since origin time), in days.
+	 * @return
+	 * Returns the part of getPageExpectedNumEvents that is computed by numerical integration, with a = 0,
+	 * or 0.0 if tPage <= tMinDays.
+	 */
+	public double get_integral (double tMinDays, double tMaxDays) {
+		if (!( tPage > tMinDays )) {
+			return 0.0;
+		}
+		double tUpper = Math.min(tMaxDays, tPage);
+
+		// Entirely below or above the table, or no table, integrate directly
+
+		if (num_panels == 0 || tUpper <= t_lo || tMinDays >= t_hi) {
+			return direct (tMinDays, tUpper);
+		}
+
+		// Lower limit, as a panel index and log-time, and the integral outside the table
+
+		double s = 0.0;
+
+		int i_min;
+		double u_min;
+		if (tMinDays < t_lo) {
+			s += ((tMinDays == 0.0) ? cum[0] : direct (tMinDays, t_lo));
+			i_min = 0;
+			u_min = u_lo;
+		} else {
+			u_min = Math.log (tMinDays);
+			i_min = panel_of (u_min);
+		}
+
+		// Upper limit, likewise
+
+		int i_max;
+		double u_max;
+		if (tUpper > t_hi) {
+			s += direct (t_hi, tUpper);
+			i_max = num_panels - 1;
+			u_max = Math.log (t_hi);
+		} else {
+			u_max = Math.log (tUpper);
+			i_max = panel_of (u_max);
+		}
+
+		// If both limits are in the same panel, integrate between them
+
+		if (i_min == i_max) {
+			return s + gauss_legendre (u_min, u_max);
+		}
+
+		// Otherwise, the partial panel at each end, plus the whole panels in between
+
+		return s + gauss_legendre (u_min, panel_start (i_min + 1))
+				+ (cum[i_max] - cum[i_min + 1])
+				+ gauss_legendre (panel_start (i_max), u_max);
+	}
+
+
+
+
+	//----- Cache -----
+
+
+
+
+	// Cache key.
+
+	private static class Key {
+		private final double b;
+		private final double magMain;
+		private final double magCat;
+		private final String fn;
+		private final double p;
+		private final double c;
+
+		public Key (double b, double magMain, double magCat, MagCompFn magCompFn, double p, double c) {
+			this.b = b;
+			this.magMain = magMain;
+			this.magCat = magCat;
+			this.fn = magCompFn.toString();
+			this.p = p;
+			this.c = c;
+		}
+
+		@Override
+		public boolean equals (Object obj) {
+			if (!( obj instanceof Key )) {
+				return false;
+			}
+			Key other = (Key)obj;
+			return Double.doubleToLongBits (b) == Double.doubleToLongBits (other.b)
+				&& Double.doubleToLongBits (magMain) == Double.doubleToLongBits (other.magMain)
+				&& Double.doubleToLongBits (magCat) == Double.doubleToLongBits (other.magCat)
+				&& Double.doubleToLongBits (p) == Double.doubleToLongBits (other.p)
+				&& Double.doubleToLongBits (c) == Double.doubleToLongBits (other.c)
+				&& fn.equals (other.fn);
+		}
+
+		@Override
+		public int hashCode () {
+			long h = Double.doubleToLongBits (b);
+			h = h * 31L + Double.doubleToLongBits (magMain);
+			h = h * 31L + Double.doubleToLongBits (magCat);
+			h = h * 31L + Double.doubleToLongBits (p);
+			h = h * 31L + Double.doubleToLongBits (c);
+			return (int)(h ^ (h >>> 32)) * 31 + fn.hashCode();
+		}
+	}
+
+
+	// The cache, in access order, with the least-recently used table evicted when full.
+
+	private static final Map<Key, MagCompIntegralTable> cache = new LinkedHashMap<Key, MagCompIntegralTable>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry (Map.Entry<Key, MagCompIntegralTable> eldest) {
+			return size() > CACHE_CAPACITY;
+		}
+	};
+
+
+
+
+	/**
+	 * Get the table for the given parameters, from the cache if possible.
+	 * @param b = Gutenberg-Richter b-parameter.
+	 * @param magMain = Magnitude of mainshock.
+	 * @param magCat = Magnitude of completeness when there has not been a mainshock.
+	 * @param magCompFn = The magnitude of completeness function.
+	 * @param p = Omori p-parameter (exponent).
+	 * @param c = Omori c-parameter (time offset), in days.
+	 * This function is thread-safe.  Tables are built outside the lock, so two threads
+	 * may occasionally build the same table, in which case the first one is kept.
+	 */
+	public static MagCompIntegralTable get_table (double b, double magMain, double magCat, MagCompFn magCompFn, double p, double c) {
+		Key key = new Key (b, magMain, magCat, magCompFn, p, c);
+
+		synchronized (cache) {
+			MagCompIntegralTable table = cache.get (key);
+			if (table != null) {
+				return table;
+			}
+		}
+
+		MagCompIntegralTable table = new MagCompIntegralTable (b, magMain, magCat, magCompFn, p, c);
+
+		synchronized (cache) {
+			MagCompIntegralTable existing = cache.get (key);
+			if (existing != null) {
+				return existing;
+			}
+			cache.put (key, table);
+		}
+		return table;
+	}
+
+
+
+
+	/**
+	 * Remove all tables from the cache.
+	 */
+	public static void clear_cache () {
+		synchronized (cache) {
+			cache.clear();
+		}
+		return;
+	}
+
+
+
+
+	/**
+	 * Get the number of tables in the cache.
+	 */
+	public static int get_cache_size () {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("MagCompIntegralTable : Missing subcommand");
+			return;
+		}
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_query  seed
+		// Compare the tabulated integral to direct adaptive quadrature.
+		// For several sets of magnitude of completeness parameters, and a range of p and c,
+		// build the table, then evaluate num_query random time ranges both ways.
+		// Display the table size, the measured error bound, the build time, the time per query
+		// for each method, and the largest relative difference between the two methods.
+		// Note that the direct quadrature has a relative tolerance of 1.0e-7.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// 2 additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("MagCompIntegralTable : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int num_query = Integer.parseInt (args[1]);
+			long seed = Long.parseLong (args[2]);
+
+			java.util.Random rand = new java.util.Random (seed);
+
+			double b = 1.0;
+			double magCat = 2.5;
+
+			// Mainshock magnitude and Page F, G, H
+
+			double[][] mc_params = {{7.5, 0.5, 1.25, 0.75}, {6.0, 0.5, 0.25, 1.0}, {8.5, 0.5, 1.0, 0.5}, {7.0, 0.0, -3.0, 0.0}};
+			double[] p_values = {0.6, 1.0, 1.08, 1.5};
+			double[] c_values = {1.0e-5, 0.018, 1.0};
+
+			for (double[] mc : mc_params) {
+				double magMain = mc[0];
+				MagCompFn magCompFn = MagCompFn.makePage (mc[1], mc[2], mc[3]);
+				double tPage = magCompFn.getTimeOfCompleteness (magMain, magCat);
+
+				System.out.println ();
+				System.out.println ("magMain = " + magMain + ", magCompFn = " + magCompFn.toString() + ", tPage = " + tPage);
+
+				for (double p : p_values) {
+					for (double c : c_values) {
+
+						long start_nanos = System.nanoTime();
+						MagCompIntegralTable table = new MagCompIntegralTable (b, magMain, magCat, magCompFn, p, c);
+						long build_nanos = System.nanoTime() - start_nanos;
+
+						// Random ranges, with log-uniform endpoints from 1e-7 to 1e3 days, and some starting at 0
+
+						double[] t_min = new double[num_query];
+						double[] t_max = new double[num_query];
+						for (int n = 0; n < num_query; ++n) {
+							double t1 = Math.pow (10.0, -7.0 + 10.0 * rand.nextDouble());
+							double t2 = Math.pow (10.0, -7.0 + 10.0 * rand.nextDouble());
+							t_min[n] = ((n % 8 == 0) ? 0.0 : Math.min (t1, t2));
+							t_max[n] = Math.max (t1, t2);
+						}
+
+						double[] tab_result = new double[num_query];
+						double[] quad_result = new double[num_query];
+
+						start_nanos = System.nanoTime();
+						for (int n = 0; n < num_query; ++n) {
+							tab_result[n] = table.get_integral (t_min[n], t_max[n]);
+						}
+						long tab_nanos = System.nanoTime() - start_nanos;
+
+						start_nanos = System.nanoTime();
+						for (int n = 0; n < num_query; ++n) {
+							quad_result[n] = AftershockStatsCalc.getPageExpectedNumEventsQuad (
+								0.0, b, magMain, magCat, magCompFn, p, c, t_min[n], t_max[n]);
+							if (tPage < t_max[n]) {
+								quad_result[n] -= AftershockStatsCalc.getExpectedNumEvents (
+									0.0, b, magMain, magCat, p, c, Math.max(t_min[n], tPage), t_max[n]);
+							}
+						}
+						long quad_nanos = System.nanoTime() - start_nanos;
+
+						double max_rel_diff = 0.0;
+						for (int n = 0; n < num_query; ++n) {
+							double scale = Math.max (Math.abs (quad_result[n]), Double.MIN_NORMAL);
+							max_rel_diff = Math.max (max_rel_diff, Math.abs (tab_result[n] - quad_result[n]) / scale);
+						}
+
+						System.out.println (String.format ("p = %5.2f, c = %7.1e: panels = %5d, error_bound = %9.2e, build ms = %8.3f, table us = %7.3f, quad us = %9.3f, max_rel_diff = %9.2e",
+							p, c, table.get_num_panels(), table.get_error_bound(),
+							((double)build_nanos) / 1.0e6,
+							((double)tab_nanos) / (1.0e3 * num_query),
+							((double)quad_nanos) / (1.0e3 * num_query),
+							max_rel_diff));
+					}
+				}
+			}
+
+			return;
+		}
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("MagCompIntegralTable : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+
+}
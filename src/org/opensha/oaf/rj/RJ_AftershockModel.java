@@ -2,8 +2,9 @@ package org.opensha.oaf.rj;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import org.apache.commons.math3.distribution.PoissonDistribution;
 import org.opensha.commons.data.function.ArbDiscrEmpiricalDistFunc;
 import org.opensha.commons.data.function.EvenlyDiscretizedFunc;
 import org.opensha.commons.data.function.HistogramFunction;
@@ -111,12 +112,14 @@ public abstract class RJ_AftershockModel {
 	protected int num_c = 1;
 
 	// Likelihood values for each parameter triple (a, p, c).
-	// The dimensions are apc_likelihood[num_a][num_p][num_c].
+	// This is a flat array of length num_a * num_p * num_c, so the entire grid is
+	// contiguous in memory.  The element for (aIndex, pIndex, cIndex) is at
+	// apc_likelihood[get_single_index(aIndex, pIndex, cIndex)].
 	// This array may contain either likelihood or log-likelihood depending on the context.
 	// Note: A subclass or user of this class must supply the likelihood values.
-	// They are not computed in this class.
+	// They are not computed in this class.  Use alloc_apc_likelihood() to allocate it.
 
-	protected double[][][] apc_likelihood = null;
+	protected double[] apc_likelihood = null;
 
 	// The fraction of the (a,p,c) probability distribution that can be ignored as negligably small.
 
@@ -125,7 +128,7 @@ public abstract class RJ_AftershockModel {
 	//----- Fields that are set and used by this class -----
 
 	// Index values for the maximum likelihood parameter triple (a, p, c).
-	// In other words, apc_likelihood[max_a_index][max_p_index][max_c_index] is the largest element in apc_likelihood.
+	// In other words, apc_likelihood[get_single_index(max_a_index, max_p_index, max_c_index)] is the largest element in apc_likelihood.
 	// Note: This identifies the maximum likelihood values, considering the parameters to form a triple (a, p, c).
 	// It does NOT identify the maximum likelihood values of each parameter considered separately.
 
@@ -180,10 +183,10 @@ public abstract class RJ_AftershockModel {
 	protected double stat_c_like = 0.0;
 
 	// This is a discrete function that represents likelihood as a function of the number of aftershocks
-	// of magnitude >= 5 during the time interval tMinDaysCurrent <= t <= tMaxDaysCurrent.
+	// of magnitude >= 5 during a time interval tMinDays <= t <= tMaxDays.
 	// Specifically, this function is a collection of points (x,y) where:
 	//  x = Expected number of aftershocks, as computed by the R&J formula.
-	//  y = Likelihood, obtained from apc_likelihood[aIndex][pIndex][cIndex].
+	//  y = Likelihood, obtained from apc_likelihood[get_single_index(aIndex, pIndex, cIndex)].
 	// The set of points is obtained by iterating aIndex, pIndex, and cIndex over their ranges.
 	// If two points have exactly the same x-value, they are combined by adding their y-values.
 	// (The combination is done in class EmpiricalPoint2DToleranceSortedList.)
@@ -207,17 +210,53 @@ public abstract class RJ_AftershockModel {
 	// numMag5_DistributionFunc.getStdDev(), and numMag5_DistributionFunc.getInterpolatedFractile(fractile)
 	// to get the mean, standard deviation, and fractile of the R&J expected number of
 	// aftershocks.  But, for example, a naive computation of the mode would be wrong.
+	//
+	// The distribution is held as an RJ_NumMag5Dist, which stores the same points in sorted
+	// primitive arrays and computes the mean, standard deviation, and fractiles directly.
+	// The ArbDiscrEmpiricalDistFunc and the Poisson mixture engine are built from it on demand.
+
+	// Cache of distributions for recently used time intervals, most recently used first.
+	// A forecast evaluates several time intervals (day, week, month, year) in turn, so
+	// holding several intervals avoids recomputing the distribution each time the interval
+	// changes.  The cache is cleared whenever apc_likelihood changes.
+
+	protected static final int NUM_MAG5_CACHE_SIZE = 8;
+
+	protected NumMag5CacheEntry[] numMag5_cache = new NumMag5CacheEntry[NUM_MAG5_CACHE_SIZE];
+
+	// Number of entries in use in numMag5_cache.
+
+	protected int numMag5_cache_count = 0;
+
+	// One entry in the cache.
+
+	protected static class NumMag5CacheEntry {
+
+		// The time interval, measured in days after the mainshock.
+
+		public final double tMinDays;
+		public final double tMaxDays;
+
+		// The distribution for this time interval.
+
+		public final RJ_NumMag5Dist dist;
 
-	protected ArbDiscrEmpiricalDistFunc numMag5_DistributionFunc = null;
+		// The distribution as a discrete function, or null if not yet constructed.
 
-	// The time interval used to calculate numMag5_DistributionFunc,
-	// measured in days after the mainshock.
-	// Note: The value of numMag5_DistributionFunc is cached so it need not be recomputed
-	// every time it is needed.  The values of tMinDaysCurrent and tMaxDaysCurrent are
-	// used to check whether recomputation is needed.
+		public ArbDiscrEmpiricalDistFunc func;
 
-	protected double tMinDaysCurrent = -1.0;
-	protected double tMaxDaysCurrent = -1.0;
+		// The Poisson mixture engine for the distribution, or null if not yet constructed.
+
+		public RJ_PoissonMixture mixture;
+
+		public NumMag5CacheEntry (double tMinDays, double tMaxDays, RJ_NumMag5Dist dist) {
+			this.tMinDays = tMinDays;
+			this.tMaxDays = tMaxDays;
+			this.dist = dist;
+			this.func = null;
+			this.mixture = null;
+		}
+	}
 
 	// The cumulative probability distribution of (a,p,c) values.
 	// The length of this array is apc_total_size.
@@ -334,7 +373,7 @@ public abstract class RJ_AftershockModel {
 	// Note: This is primarily for testing.
 
 	public double get_clipped_apc_prob (int aIndex, int pIndex, int cIndex) {
-		double result = apc_likelihood[aIndex][pIndex][cIndex];
+		double result = apc_likelihood[get_single_index (aIndex, pIndex, cIndex)];
 		if (result > apc_max_tail_element) {
 			result = result / apc_support_total;
 		} else {
@@ -422,6 +461,92 @@ public abstract class RJ_AftershockModel {
 
 
 
+	/**
+	 * Allocate the apc_likelihood array, for the current values of num_a, num_p, and num_c.
+	 * The array is filled with zeros.
+	 */
+	protected void alloc_apc_likelihood() {
+
+		// Error if matrix is so large it cannot be stored in a one-dimensional matrix.
+
+		if (((Integer.MAX_VALUE / num_a) / num_p) / num_c == 0) {
+			throw new RuntimeException("RJ_AftershockModel: Parameter likelihood matrix is too large");
+		}
+
+		apc_likelihood = new double[num_a * num_p * num_c];
+		return;
+	}
+
+
+
+
+	/**
+	 * Copy the (a,p,c) distribution from another model, which must be completely set up.
+	 * @param other = The model to copy.
+	 * This copies b, magMain, the parameter space, and all the fields that are set by apcFinish().
+	 * The apc_likelihood array is shared, not copied, so neither model may modify it afterwards
+	 * (apcFinish() is the only function that modifies it in place, and it is only called while
+	 * a model is being built).  The cache of distributions is not copied, so the two models can
+	 * be used independently, including by different threads.
+	 */
+	protected void copy_apc_from(RJ_AftershockModel other) {
+		b = other.b;
+		magMain = other.magMain;
+
+		min_a = other.min_a;
+		max_a = other.max_a;
+		delta_a = other.delta_a;
+		num_a = other.num_a;
+
+		min_p = other.min_p;
+		max_p = other.max_p;
+		delta_p = other.delta_p;
+		num_p = other.num_p;
+
+		min_c = other.min_c;
+		max_c = other.max_c;
+		delta_c = other.delta_c;
+		num_c = other.num_c;
+
+		apc_likelihood = other.apc_likelihood;
+		apc_tail_fraction = other.apc_tail_fraction;
+
+		max_a_index = other.max_a_index;
+		max_p_index = other.max_p_index;
+		max_c_index = other.max_c_index;
+
+		apc_total_size = other.apc_total_size;
+		apc_support_size = other.apc_support_size;
+		apc_support_total = other.apc_support_total;
+		apc_max_tail_element = other.apc_max_tail_element;
+
+		a_support_lo = other.a_support_lo;
+		a_support_hi = other.a_support_hi;
+		p_support_lo = other.p_support_lo;
+		p_support_hi = other.p_support_hi;
+		c_support_lo = other.c_support_lo;
+		c_support_hi = other.c_support_hi;
+
+		stat_a_mean = other.stat_a_mean;
+		stat_a_sdev = other.stat_a_sdev;
+		stat_a_like = other.stat_a_like;
+
+		stat_p_mean = other.stat_p_mean;
+		stat_p_sdev = other.stat_p_sdev;
+		stat_p_like = other.stat_p_like;
+
+		stat_c_mean = other.stat_c_mean;
+		stat_c_sdev = other.stat_c_sdev;
+		stat_c_like = other.stat_c_like;
+
+		clearNumMag5_Cache();
+		cum_apc_probability = null;
+		return;
+	}
+
+
+
+
 	/**
 	 * Return the name of this model.
 	 */
@@ -449,48 +574,35 @@ public abstract class RJ_AftershockModel {
 
 		// Invalidate the event count likelihood function
 
-		numMag5_DistributionFunc = null;
-		tMinDaysCurrent = -1.0;
-		tMaxDaysCurrent = -1.0;
+		clearNumMag5_Cache();
 
 		cum_apc_probability = null;
 
 		// Find the biggest element in the matrix
+		// (Strict comparison, so the first of several equal maxima is selected)
 
-		double max_element = apc_likelihood[0][0][0];
-		max_a_index = 0;
-		max_p_index = 0;
-		max_c_index = 0;
+		apc_total_size = num_a * num_p * num_c;
 
-		for (int aIndex = 0; aIndex < num_a; aIndex++) {
-			for (int pIndex = 0; pIndex < num_p; pIndex++) {
-				for (int cIndex = 0; cIndex < num_c; cIndex++) {
-					if (apc_likelihood[aIndex][pIndex][cIndex] > max_element) {
-						max_element = apc_likelihood[aIndex][pIndex][cIndex];
-						max_a_index = aIndex;
-						max_p_index = pIndex;
-						max_c_index = cIndex;
-					}
-				}
+		double max_element = apc_likelihood[0];
+		int max_index = 0;
+
+		for (int ix = 1; ix < apc_total_size; ++ix) {
+			if (apc_likelihood[ix] > max_element) {
+				max_element = apc_likelihood[ix];
+				max_index = ix;
 			}
 		}
 
-		// If matrix contains log likelihood, convert it to likelihood
+		max_a_index = max_index / (num_p * num_c);
+		max_p_index = (max_index / num_c) % num_p;
+		max_c_index = max_index % num_c;
+
+		// Check for nonzero probabilities (after conversion, the maximum log-likelihood becomes 1.0)
 
 		if (f_log) {
-			for (int aIndex = 0; aIndex < num_a; aIndex++) {
-				for (int pIndex = 0; pIndex < num_p; pIndex++) {
-					for (int cIndex = 0; cIndex < num_c; cIndex++) {
-						apc_likelihood[aIndex][pIndex][cIndex] = Math.exp(apc_likelihood[aIndex][pIndex][cIndex] - max_element);
-									// subtract max_element to avoid overflows
-					}
-				}
-			}
 			max_element = 1.0;
 		}
 
-		// Check for nonzero probabilities
-
 		if (max_element < Double.MIN_NORMAL * 1.0e16) {
 			throw new RuntimeException("RJ_AftershockModel: Parameter likelihood matrix effective zero");
 		}
@@ -509,16 +621,26 @@ public abstract class RJ_AftershockModel {
 		stat_c_sdev = 0.0;
 		stat_c_like = getMaxLikelihood_c();
 
-		// Calculate total weight of the matrix, and calculate the means
+		// If matrix contains log likelihood, convert it to likelihood (subtracting the
+		// maximum to avoid overflows), and in the same pass calculate the total weight
+		// of the matrix and the means
 
 		double total_weight = 0.0;
+		double log_max = (f_log ? apc_likelihood[max_index] : 0.0);
+		int ix = 0;
+
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			double a = get_a(aIndex);
 			for (int pIndex = 0; pIndex < num_p; pIndex++) {
 				double p = get_p(pIndex);
 				for (int cIndex = 0; cIndex < num_c; cIndex++) {
 					double c = get_c(cIndex);
-					double w = apc_likelihood[aIndex][pIndex][cIndex];
+					double w = apc_likelihood[ix];
+					if (f_log) {
+						w = Math.exp(w - log_max);
+						apc_likelihood[ix] = w;
+					}
+					++ix;
 					total_weight += w;
 					stat_a_mean += a * w;
 					stat_p_mean += p * w;
@@ -531,12 +653,9 @@ public abstract class RJ_AftershockModel {
 		stat_p_mean /= total_weight;
 		stat_c_mean /= total_weight;
 
-		// Normalize the matrix so it sums to 1.0, and dump the normalized values to a one-dimensional array,
-		// and compute the standard deviations
+		// Normalize the matrix so it sums to 1.0, and compute the standard deviations
 
-		apc_total_size = num_a * num_p * num_c;
-		double[] apc_sorted = new double[apc_total_size];
-		int sIndex = 0;
+		ix = 0;
 
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			double a = get_a(aIndex);
@@ -544,9 +663,9 @@ public abstract class RJ_AftershockModel {
 				double p = get_p(pIndex);
 				for (int cIndex = 0; cIndex < num_c; cIndex++) {
 					double c = get_c(cIndex);
-					double w = apc_likelihood[aIndex][pIndex][cIndex] / total_weight;
-					apc_likelihood[aIndex][pIndex][cIndex] = w;
-					apc_sorted[sIndex++] = w;
+					double w = apc_likelihood[ix] / total_weight;
+					apc_likelihood[ix] = w;
+					++ix;
 					stat_a_sdev += (a - stat_a_mean) * (a - stat_a_mean) * w;
 					stat_p_sdev += (p - stat_p_mean) * (p - stat_p_mean) * w;
 					stat_c_sdev += (c - stat_c_mean) * (c - stat_c_mean) * w;
@@ -573,27 +692,9 @@ public abstract class RJ_AftershockModel {
 			stat_c_sdev = 0.0;
 		}
 
-		// Sort the array from low to high
-
-		Arrays.sort (apc_sorted, 0, apc_total_size);
+		// Find the largest tail element
 
-		// Scan the sorted array to find the largest tail element
-
-		apc_max_tail_element = 0.0;
-		double tail_weight = apc_sorted[0];		// sum of all elements prior to sIndex
-		for (sIndex = 1; sIndex < apc_total_size && tail_weight <= apc_tail_fraction; ++sIndex) {
-
-			// If greater than the prior element, then the prior element could be the last element of the tail
-			// (Don't let the tail end in the middle of a run of equal elements)
-
-			if (apc_sorted[sIndex] > apc_sorted[sIndex - 1]) {
-				apc_max_tail_element = apc_sorted[sIndex - 1];
-			}
-
-			// Add current element to tail weight
-
-			tail_weight += apc_sorted[sIndex];
-		}
+		apc_max_tail_element = find_max_tail_element (apc_likelihood, apc_total_size, apc_tail_fraction);
 
 		// Get the support bounds and total
 
@@ -609,12 +710,15 @@ public abstract class RJ_AftershockModel {
 		c_support_lo = num_c;
 		c_support_hi = 0;
 
+		ix = 0;
+
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			for (int pIndex = 0; pIndex < num_p; pIndex++) {
 				for (int cIndex = 0; cIndex < num_c; cIndex++) {
-					if (apc_likelihood[aIndex][pIndex][cIndex] > apc_max_tail_element) {
+					double w = apc_likelihood[ix++];
+					if (w > apc_max_tail_element) {
 						++apc_support_size;
-						apc_support_total += apc_likelihood[aIndex][pIndex][cIndex];
+						apc_support_total += w;
 						a_support_lo = Math.min(a_support_lo, aIndex);
 						a_support_hi = Math.max(a_support_hi, aIndex + 1);
 						p_support_lo = Math.min(p_support_lo, pIndex);
@@ -645,54 +749,364 @@ public abstract class RJ_AftershockModel {
 	
 
 	
+	// Arrays with at most this many elements use a full sort to find the tail.
+
+	private static final int TAIL_SORT_THRESHOLD = 4096;
+
+	// The tail histogram classifies non-negative values by the high-order bits of
+	// their IEEE-754 representation (exponent plus 2 mantissa bits), which is monotone
+	// in the value.  Values in [0, 1] have keys in [0, 4092]; the last bucket catches
+	// anything larger.
+
+	private static final int TAIL_HIST_SHIFT = 50;
+	private static final int TAIL_HIST_SIZE = 4094;
+
+	private static int tail_bucket (double w) {
+		long key = Double.doubleToRawLongBits (w) >>> TAIL_HIST_SHIFT;
+		return (int)(Math.min (key, (long)(TAIL_HIST_SIZE - 1)));
+	}
+
+
+
+
 	/**
-	 * This computes the distribution of the number of M >= 5.0 events given all a, p, and c values, as well as the associated
-	 * weight for each set of values.  This is used as a reference function that can be scaled to other magnitudes for greater
-	 * efficiency.
+	 * Find the largest element in the tail of a normalized probability distribution.
+	 * @param prob = Array of probabilities, which should sum to 1.0.  It is not modified.
+	 * @param n = Number of elements in prob.
+	 * @param tail_fraction = Fraction of the distribution that can be ignored as negligably small.
+	 * @return
+	 * Returns the largest element that is in the tail, or 0.0 if the tail is empty.
+	 * The tail is found by discarding the smallest elements until their total reaches
+	 * tail_fraction, but never ending the tail in the middle of a run of equal elements.
+	 * The result is the same as sorting the array and scanning it from low to high
+	 * (see find_max_tail_element_by_sort), except that partial sums are accumulated in a
+	 * different order and so can differ in the last bit.  Only the elements in the
+	 * histogram bucket that contains the end of the tail are sorted.
+	 */
+	protected static double find_max_tail_element (double[] prob, int n, double tail_fraction) {
+
+		// Small arrays are sorted
+
+		if (n <= TAIL_SORT_THRESHOLD) {
+			return find_max_tail_element_by_sort (prob, n, tail_fraction);
+		}
+
+		// Build the histogram of counts and weights
+
+		int[] bucket_count = new int[TAIL_HIST_SIZE];
+		double[] bucket_weight = new double[TAIL_HIST_SIZE];
+
+		for (int i = 0; i < n; ++i) {
+			double w = prob[i];
+			int k = tail_bucket (w);
+			++bucket_count[k];
+			bucket_weight[k] += w;
+		}
+
+		// Find the bucket where the cumulative weight first exceeds the tail fraction,
+		// or the last non-empty bucket if it never does; lo_count and lo_weight are the
+		// count and weight of all lower buckets
+
+		int kb = -1;
+		int lo_count = 0;
+		double lo_weight = 0.0;
+
+		for (int k = 0; k < TAIL_HIST_SIZE; ++k) {
+			if (bucket_count[k] != 0) {
+				if (kb >= 0) {
+					lo_count += bucket_count[kb];
+					lo_weight += bucket_weight[kb];
+				}
+				kb = k;
+				if (lo_weight + bucket_weight[k] > tail_fraction) {
+					break;
+				}
+			}
+		}
+
+		// Collect the elements of the selected bucket, and the largest element below it
+
+		int nb = bucket_count[kb];
+		double[] sel = new double[nb];
+		int isel = 0;
+		double lo_max = 0.0;
+
+		for (int i = 0; i < n; ++i) {
+			double w = prob[i];
+			int k = tail_bucket (w);
+			if (k == kb) {
+				sel[isel++] = w;
+			} else if (k < kb && w > lo_max) {
+				lo_max = w;
+			}
+		}
+
+		Arrays.sort (sel, 0, nb);
+
+		// Continue the low-to-high scan into the selected bucket, to find the first
+		// element sel[j] that ends the scan; every element before it is in the tail
+
+		double tail_weight = lo_weight;		// sum of all elements prior to sel[j]
+		int j = 0;
+		while (j + 1 < nb && tail_weight + sel[j] <= tail_fraction) {
+			tail_weight += sel[j];
+			++j;
+		}
+
+		// The tail ends at the largest element strictly less than sel[j]
+
+		for (int i = j - 1; i >= 0; --i) {
+			if (sel[i] < sel[j]) {
+				return sel[i];
+			}
+		}
+		if (lo_count > 0) {
+			return lo_max;
+		}
+		return 0.0;
+	}
+
+
+
+
+	/**
+	 * Find the largest element in the tail of a normalized probability distribution, using a full sort.
+	 * @param prob = Array of probabilities, which should sum to 1.0.  It is not modified.
+	 * @param n = Number of elements in prob.
+	 * @param tail_fraction = Fraction of the distribution that can be ignored as negligably small.
+	 * @return
+	 * Returns the largest element that is in the tail, or 0.0 if the tail is empty.
+	 * This is the reference implementation for find_max_tail_element.
+	 */
+	protected static double find_max_tail_element_by_sort (double[] prob, int n, double tail_fraction) {
+
+		// Sort a copy of the array from low to high
+
+		double[] apc_sorted = Arrays.copyOf (prob, n);
+		Arrays.sort (apc_sorted, 0, n);
+
+		// Scan the sorted array to find the largest tail element
+
+		double max_tail_element = 0.0;
+		double tail_weight = apc_sorted[0];		// sum of all elements prior to sIndex
+		for (int sIndex = 1; sIndex < n && tail_weight <= tail_fraction; ++sIndex) {
+
+			// If greater than the prior element, then the prior element could be the last element of the tail
+			// (Don't let the tail end in the middle of a run of equal elements)
+
+			if (apc_sorted[sIndex] > apc_sorted[sIndex - 1]) {
+				max_tail_element = apc_sorted[sIndex - 1];
+			}
+
+			// Add current element to tail weight
+
+			tail_weight += apc_sorted[sIndex];
+		}
+
+		return max_tail_element;
+	}
+
+	
+
+
+	/**
+	 * Clear the cache of distributions of the number of M >= 5.0 events.
+	 */
+	protected void clearNumMag5_Cache() {
+		for (int i = 0; i < numMag5_cache_count; ++i) {
+			numMag5_cache[i] = null;
+		}
+		numMag5_cache_count = 0;
+		return;
+	}
+
+
+
+	
+	/**
+	 * Get the cache entry for the given time interval, computing it if necessary.
+	 * @param tMinDays = Beginning of the time interval, in days since the mainshock.
+	 * @param tMaxDays = End of the time interval, in days since the mainshock.
+	 * @return
+	 * The entry is moved to the front of the cache.  If a new entry is created and
+	 * the cache is full, the least recently used entry is discarded.
+	 */
+	protected NumMag5CacheEntry getNumMag5_CacheEntry(double tMinDays, double tMaxDays) {
+		NumMag5CacheEntry entry = findNumMag5_CacheEntry(tMinDays, tMaxDays);
+		if (entry == null) {
+			entry = insertNumMag5_CacheEntry(tMinDays, tMaxDays, calcNumMag5_Dist(tMinDays, tMaxDays));
+		}
+		return entry;
+	}
+
+
+
+	
+	/**
+	 * Find the cache entry for the given time interval, without computing it.
+	 * @param tMinDays = Beginning of the time interval, in days since the mainshock.
+	 * @param tMaxDays = End of the time interval, in days since the mainshock.
+	 * @return
+	 * Returns the entry, or null if it is not in the cache.
+	 * If found, the entry is moved to the front of the cache.
+	 */
+	protected NumMag5CacheEntry findNumMag5_CacheEntry(double tMinDays, double tMaxDays) {
+		for (int i = 0; i < numMag5_cache_count; ++i) {
+			NumMag5CacheEntry entry = numMag5_cache[i];
+			if (entry.tMinDays == tMinDays && entry.tMaxDays == tMaxDays) {
+				if (i > 0) {
+					System.arraycopy (numMag5_cache, 0, numMag5_cache, 1, i);
+					numMag5_cache[0] = entry;
+				}
+				return entry;
+			}
+		}
+		return null;
+	}
+
+
+
+	
+	/**
+	 * Insert a new cache entry at the front of the cache.
+	 * @param tMinDays = Beginning of the time interval, in days since the mainshock.
+	 * @param tMaxDays = End of the time interval, in days since the mainshock.
+	 * @param dist = Distribution for the time interval, from calcNumMag5_Dist.
+	 * @return
+	 * Returns the new entry.  If the cache is full, the least recently used entry is discarded.
+	 * The caller must ensure that the time interval is not already in the cache.
+	 */
+	protected NumMag5CacheEntry insertNumMag5_CacheEntry(double tMinDays, double tMaxDays, RJ_NumMag5Dist dist) {
+		NumMag5CacheEntry entry = new NumMag5CacheEntry (tMinDays, tMaxDays, dist);
+
+		int n = Math.min (numMag5_cache_count, NUM_MAG5_CACHE_SIZE - 1);
+		System.arraycopy (numMag5_cache, 0, numMag5_cache, 1, n);
+		numMag5_cache[0] = entry;
+		numMag5_cache_count = n + 1;
+
+		return entry;
+	}
+
+
+
+	
+	/**
+	 * Calculate the distribution of the number of M >= 5.0 events, for the given time interval.
 	 * @param tMinDays = Beginning of the time interval, in days since the mainshock.
 	 * @param tMaxDays = End of the time interval, in days since the mainshock.
 	 * @return
 	 * See comments for numMag5_DistributionFunc above.
 	 * This uses only the elements in the support of apc_likelihood.
+	 * Each expected number equals AftershockStatsCalc.getExpectedNumEvents, with the factor
+	 * that depends only on a computed once per a-value, and the factor that depends only on
+	 * p and c computed once per (p,c) pair.
+	 * This does not modify the model, so it may be called concurrently for different time intervals.
 	 */
-	public ArbDiscrEmpiricalDistFunc computeNumMag5_DistributionFunc(double tMinDays, double tMaxDays) {
-		
-		// If we already have a function computed for this time interval, then just return it
-
-		if(tMinDaysCurrent == tMinDays && tMaxDaysCurrent == tMaxDays && numMag5_DistributionFunc != null) { // already computed
-			return numMag5_DistributionFunc;
+	protected RJ_NumMag5Dist calcNumMag5_Dist(double tMinDays, double tMaxDays) {
+
+		// Time factor for each (p,c) in the support
+
+		int p_count = p_support_hi - p_support_lo;
+		int c_count = c_support_hi - c_support_lo;
+		double[] time_factor = new double[p_count * c_count];
+		for (int pIndex = p_support_lo; pIndex < p_support_hi; pIndex++) {
+			double p = get_p(pIndex);
+			for (int cIndex = c_support_lo; cIndex < c_support_hi; cIndex++) {
+				double c = get_c(cIndex);
+				time_factor[(pIndex - p_support_lo) * c_count + (cIndex - c_support_lo)] =
+					AftershockStatsCalc.pow_diff_div(c + tMaxDays, c + tMinDays, 1.0 - p);
+			}
 		}
 
-		// Allocate a new function for this time interval
-		
-		tMinDaysCurrent = tMinDays;
-		tMaxDaysCurrent = tMaxDays;
-		numMag5_DistributionFunc = new ArbDiscrEmpiricalDistFunc();
+		// Collect points, x = expected number of M5 aftershocks, y = probability of (a,p,c)
 
-		// Add points to the function, x = expected number of M5 aftershocks, y = probability of (a,p,c)
+		int capacity = (a_support_hi - a_support_lo) * p_count * c_count;
+		double[] raw_x = new double[capacity];
+		double[] raw_w = new double[capacity];
+		int n = 0;
 
 		for (int aIndex = a_support_lo; aIndex < a_support_hi; aIndex++) {
+			double k = AftershockStatsCalc.convertProductivityTo_k(get_a(aIndex), b, magMain, 5.0);
 			for (int pIndex = p_support_lo; pIndex < p_support_hi; pIndex++) {
+				int tf_base = (pIndex - p_support_lo) * c_count - c_support_lo;
 				for (int cIndex = c_support_lo; cIndex < c_support_hi; cIndex++) {
-					if (apc_likelihood[aIndex][pIndex][cIndex] > apc_max_tail_element) {
-						double numM5 = AftershockStatsCalc.getExpectedNumEvents(get_a(aIndex), b, magMain, 5.0, get_p(pIndex), get_c(cIndex), tMinDays, tMaxDays);
-						numMag5_DistributionFunc.set(numM5, apc_likelihood[aIndex][pIndex][cIndex] / apc_support_total);
+					double w = apc_likelihood[get_single_index (aIndex, pIndex, cIndex)];
+					if (w > apc_max_tail_element) {
+						raw_x[n] = k * time_factor[tf_base + cIndex];
+						raw_w[n] = w / apc_support_total;
+						++n;
 					}
 				}
 			}
 		}
 
+		RJ_NumMag5Dist dist = new RJ_NumMag5Dist (raw_x, raw_w, n);
+
 		// Debug or verbose output
 
 		if(D) {
-			System.out.println("M>=5 mean = " + String.format("%.6g", numMag5_DistributionFunc.getMean()));
-			//System.out.println("M>=5 mode (caution) = " + String.format("%.6g", numMag5_DistributionFunc.getApparentMode()));	// don't do this because it can throw
-			System.out.println("M>=5 median = " + String.format("%.6g", numMag5_DistributionFunc.getMedian()));
-			System.out.println("M>=5 2.5 Percentile = " + String.format("%.6g", numMag5_DistributionFunc.getInterpolatedFractile(0.025)));
-			System.out.println("M>=5 97.5 Percentile = " + String.format("%.6g", numMag5_DistributionFunc.getInterpolatedFractile(0.975)));
+			System.out.println("M>=5 mean = " + String.format("%.6g", dist.get_mean()));
+			System.out.println("M>=5 median = " + String.format("%.6g", dist.get_median()));
+			System.out.println("M>=5 2.5 Percentile = " + String.format("%.6g", dist.get_fractile(0.025)));
+			System.out.println("M>=5 97.5 Percentile = " + String.format("%.6g", dist.get_fractile(0.975)));
+		}
+
+		return dist;
+	}
+
+
+
+	
+	/**
+	 * Get the distribution of the number of M >= 5.0 events, for the given time interval.
+	 * @param tMinDays = Beginning of the time interval, in days since the mainshock.
+	 * @param tMaxDays = End of the time interval, in days since the mainshock.
+	 * @return
+	 * See comments for numMag5_DistributionFunc above.
+	 * The result is cached, and must not be modified.
+	 */
+	public RJ_NumMag5Dist getNumMag5_Dist(double tMinDays, double tMaxDays) {
+		return getNumMag5_CacheEntry(tMinDays, tMaxDays).dist;
+	}
+
+
+
+	
+	/**
+	 * This computes the distribution of the number of M >= 5.0 events given all a, p, and c values, as well as the associated
+	 * weight for each set of values.  This is used as a reference function that can be scaled to other magnitudes for greater
+	 * efficiency.
+	 * @param tMinDays = Beginning of the time interval, in days since the mainshock.
+	 * @param tMaxDays = End of the time interval, in days since the mainshock.
+	 * @return
+	 * See comments for numMag5_DistributionFunc above.
+	 * This uses only the elements in the support of apc_likelihood.
+	 * The result is cached, and must not be modified.
+	 */
+	public ArbDiscrEmpiricalDistFunc computeNumMag5_DistributionFunc(double tMinDays, double tMaxDays) {
+		NumMag5CacheEntry entry = getNumMag5_CacheEntry(tMinDays, tMaxDays);
+		if (entry.func == null) {
+			entry.func = entry.dist.get_dist_func();
 		}
+		return entry.func;
+	}
+
 
-		return numMag5_DistributionFunc;
+
+	
+	/**
+	 * Get the Poisson mixture engine for the number of aftershocks, for the given time interval.
+	 * @param tMinDays = Beginning of the time interval, in days since the mainshock.
+	 * @param tMaxDays = End of the time interval, in days since the mainshock.
+	 * @return
+	 * The engine is built from getNumMag5_Dist, and cached with it.
+	 */
+	protected RJ_PoissonMixture getNumMag5_Mixture(double tMinDays, double tMaxDays) {
+		NumMag5CacheEntry entry = getNumMag5_CacheEntry(tMinDays, tMaxDays);
+		if (entry.mixture == null) {
+			entry.mixture = new RJ_PoissonMixture(entry.dist);
+		}
+		return entry.mixture;
 	}
 	
 
@@ -752,25 +1166,29 @@ public abstract class RJ_AftershockModel {
 	 * which represents the epistemic uncertainty.
 	 */
 	public double getProbOneOrMoreEvents(double magMin, double tMinDays, double tMaxDays) {
-		double result = 0.0;
+		return getProbOneOrMoreEvents(new double[]{magMin}, tMinDays, tMaxDays)[0];
+	}
 
-		for (int aIndex = a_support_lo; aIndex < a_support_hi; aIndex++) {
-			for (int pIndex = p_support_lo; pIndex < p_support_hi; pIndex++) {
-				for (int cIndex = c_support_lo; cIndex < c_support_hi; cIndex++) {
-					if (apc_likelihood[aIndex][pIndex][cIndex] > apc_max_tail_element) {
-						double expectedVal = AftershockStatsCalc.getExpectedNumEvents(get_a(aIndex), b, magMain, magMin, get_p(pIndex), get_c(cIndex), tMinDays, tMaxDays);
-						double poissonProb = 1.0 - Math.exp(-expectedVal);
-						result += (poissonProb * apc_likelihood[aIndex][pIndex][cIndex] / apc_support_total);
-					}
-				}
-			}
-		}
 
-		if (result > 1.0) {
-			result = 1.0;		// in case rounding produces a result a little larger than 1.0
-		}
 
-		return result;
+	
+	/**
+	 * This gives the probability of one or more aftershocks above each of the given minimum magnitudes
+	 * and over the specified time span.  See getProbOneOrMoreEvents(double, double, double).
+	 * @param magMins = Minimum magnitudes of aftershocks to consider.
+	 * @param tMinDays = Start of time range, in days after the mainshock.
+	 * @param tMaxDays = End of time range, in days after the mainshock.
+	 * @return
+	 * Returns an array of length magMins.length, containing the probability for each magnitude.
+	 * The expected numbers of M >= 5 aftershocks in numMag5_DistributionFunc are scaled to each
+	 * magnitude, so the R&J integrals are computed once for all magnitudes.
+	 */
+	public double[] getProbOneOrMoreEvents(double[] magMins, double tMinDays, double tMaxDays) {
+		double[] scales = new double[magMins.length];
+		for (int m = 0; m < magMins.length; m++) {
+			scales[m] = RJ_PoissonMixture.get_mag_scale(b, magMins[m]);
+		}
+		return getNumMag5_Mixture(tMinDays, tMaxDays).get_prob_one_or_more(scales);
 	}
 	
 
@@ -911,8 +1329,7 @@ public abstract class RJ_AftershockModel {
 //		double m5val = mfd.getInterpolatedY(5.0);	// fails if minMag > 5 || maxMag < 5
 		double m5val = getModalNumEvents(5.0, tMinDays, tMaxDays);
 
-		computeNumMag5_DistributionFunc(tMinDays, tMaxDays);
-		mfd.scale(numMag5_DistributionFunc.getMean()/m5val);	// scale MFD to the mean at M5
+		mfd.scale(getNumMag5_Dist(tMinDays, tMaxDays).get_mean()/m5val);	// scale MFD to the mean at M5
 		mfd.setName("Mean Num Events");
 		mfd.setInfo("Cumulative distribution (greater than or equal to each magnitude)");
 		return mfd;
@@ -966,8 +1383,7 @@ public abstract class RJ_AftershockModel {
 //			m5val = mfd.getInterpolatedY(5.0);
 		double m5val = getModalNumEvents(5.0, tMinDays, tMaxDays);
 
-		computeNumMag5_DistributionFunc(tMinDays, tMaxDays);
-		mfd.scale(numMag5_DistributionFunc.getInterpolatedFractile(fractile)/m5val);
+		mfd.scale(getNumMag5_Dist(tMinDays, tMaxDays).get_fractile(fractile)/m5val);
 		mfd.setName(fractile+" Fractile for Num Events");
 		mfd.setInfo("Cumulative distribution (greater than or equal to each magnitude)");
 		return mfd;
@@ -1009,14 +1425,15 @@ public abstract class RJ_AftershockModel {
 			mfdArray[i].setName(fractileArray[i]+" Fractile for Num Events, including aleatory variability");
 			mfdArray[i].setInfo("Cumulative distribution (greater than or equal to each magnitude)");
 		}
+		double[] mags = new double[numMag];
+		for(int i=0;i<numMag;i++) {
+			mags[i] = mfdArray[0].getX(i);	// any MFD will do, as they all have the same x-axis values
+		}
+		double[][] valsArray = getCumNumFractileWithAleatory(fractileArray, mags, tMinDays, tMaxDays);
 		for(int i=0;i<numMag;i++) {
-			double mag = mfdArray[0].getX(i);	// any MFD will do, as they all have the same x-axis values
-			double[] valsArray = getCumNumFractileWithAleatory(fractileArray, mag, tMinDays, tMaxDays);
 			for(int j=0;j<fractileArray.length;j++) {
-				mfdArray[j].set(i,valsArray[j]);
-//				System.out.println("\tworking on "+mag);
+				mfdArray[j].set(i,valsArray[i][j]);
 			}
-
 		}
 		return mfdArray;
 	}
@@ -1050,71 +1467,36 @@ public abstract class RJ_AftershockModel {
 	 * Note that, although the return type is double[], the return values are integers.
 	 *
 	 * Implementation notes:
-	 * Documentation for PoissonDistribution is here:
-	 * http://commons.apache.org/proper/commons-math/javadocs/api-3.6/org/apache/commons/math3/distribution/PoissonDistribution.html
-	 * Since we do not generate samples from PoissonDistribution, it is better to use the constructor:
-	 * PoissonDistribution(RandomGenerator rng, double p, double epsilon, int maxIterations)
-	 * Set rng = null so that it does not create a random number generator.
-	 * Set epsilon and maxIterations to their default values.
-	 * However, this constructor is apparently planned for removal from Apache Math 4.0,
-	 * so leave the original constructor commented-out in case it needs to be restored.
+	 * The Poisson mixture is evaluated by RJ_PoissonMixture, which replaces the original
+	 * use of Apache PoissonDistribution for each component, and agrees with it to within
+	 * rounding error.
 	 */
 	public double[] getCumNumFractileWithAleatory(double[] fractileArray, double mag, double tMinDays, double tMaxDays) {
-		// compute the distribution for the expected num aftershocks with M >= 5 (which we will scale to other magnitudes)
-		computeNumMag5_DistributionFunc(tMinDays, tMaxDays);
-
-		// get the maximum expected num, which we will use to set the maximum num in the distribution function
-//System.out.print("\tworking on M "+mag+"\nunm="+numMag5_DistributionFunc.size()+"\n");
-		double maxExpNum = numMag5_DistributionFunc.getMaxX()*Math.pow(10d, b*(5-mag));
+		return getCumNumFractileWithAleatory(fractileArray, new double[]{mag}, tMinDays, tMaxDays)[0];
+	}
 
-//		PoissonDistribution poissDist = new PoissonDistribution(maxExpNum);
-		PoissonDistribution poissDist = new PoissonDistribution(null, maxExpNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
-		int maxAleatoryNum = poissDist.inverseCumulativeProbability(0.999);
-		
-		HistogramFunction cumDistFunc = new HistogramFunction(0d, (double)maxAleatoryNum,maxAleatoryNum+1);
-		double[] distFunc = new double[cumDistFunc.size()];
-		double totWt=0;
-		
-		for(int i=0;i<numMag5_DistributionFunc.size();i++) {
-//System.out.print(", "+i);
-			double expNum = numMag5_DistributionFunc.getX(i)*Math.pow(10d, b*(5-mag));
-			double wt = numMag5_DistributionFunc.getY(i);
-//			poissDist = new PoissonDistribution(expNum);
-			poissDist = new PoissonDistribution(null, expNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
-			totWt+=wt;
-			
-			int minLoopVal = poissDist.inverseCumulativeProbability(0.0001);
-			int maxLoopVal = poissDist.inverseCumulativeProbability(0.9999);
-			if(maxLoopVal>cumDistFunc.size()-1)
-				maxLoopVal=cumDistFunc.size()-1;
-			if(minLoopVal < 0)
-				minLoopVal = 0;
-			for(int j=minLoopVal;j<=maxLoopVal;j++) {
-				distFunc[j] += poissDist.probability(j)*wt;
-			}
-			
-		}
-		double sum=0;
-		for(int j=0;j<distFunc.length;j++) {
-			sum+=distFunc[j];
-			cumDistFunc.set(j,sum);
-		}
-//System.out.print("\n");
-		double[] fractValArray = new double[fractileArray.length];
-		for(int i=0;i<fractileArray.length;i++) {
-			double fractVal = (int)Math.round(cumDistFunc.getClosestXtoY(fractileArray[i]));
-			if(cumDistFunc.getY(fractVal)<fractVal)
-				fractVal += 1;	// this is how PoissonDistribution class does it	
-			fractValArray[i]=fractVal;
-		}
 
-		
-//		System.out.println("totWt="+totWt);
-//		System.out.println("cumDistFunc.getMaxY()="+cumDistFunc.getMaxY());
-//		System.out.println("fractVal="+fractVal+"\tfractile="+fractile);
-//		GraphWindow graph = new GraphWindow(cumDistFunc, "cumDistFunc"); 
 
-		return fractValArray;
+	
+	/**
+	 * This provides the cumulative number for the given fractiles, for each of the given magnitudes,
+	 * where aleatory variability is included in the result based on a Poisson distribution.
+	 * See getCumNumFractileWithAleatory(double[], double, double, double).
+	 * @param fractileArray = Desired fractiles (percentile/100) of the probability distribution.
+	 * @param mags = Minimum magnitudes of aftershocks considered.
+	 * @param tMinDays = Start of time range, in days after the mainshock.
+	 * @param tMaxDays = End of time range, in days after the mainshock.
+	 * @return
+	 * Returns an array dimensioned [mags.length][fractileArray.length], where element [m][i]
+	 * is the fractileArray[i] fractile of the number of aftershocks of magnitude mags[m] or greater.
+	 * All the magnitudes are computed in a single pass over numMag5_DistributionFunc.
+	 */
+	public double[][] getCumNumFractileWithAleatory(double[] fractileArray, double[] mags, double tMinDays, double tMaxDays) {
+		double[] scales = new double[mags.length];
+		for (int m = 0; m < mags.length; m++) {
+			scales[m] = RJ_PoissonMixture.get_mag_scale(b, mags[m]);
+		}
+		return getNumMag5_Mixture(tMinDays, tMaxDays).get_fractiles(fractileArray, scales);
 	}
 
 
@@ -1143,51 +1525,133 @@ public abstract class RJ_AftershockModel {
 	 * The i-th element of the return value is the probability of i aftershocks occurring.
 	 *
 	 * Implementation notes:
-	 * Documentation for PoissonDistribution is here:
-	 * http://commons.apache.org/proper/commons-math/javadocs/api-3.6/org/apache/commons/math3/distribution/PoissonDistribution.html
-	 * Since we do not generate samples from PoissonDistribution, it is better to use the constructor:
-	 * PoissonDistribution(RandomGenerator rng, double p, double epsilon, int maxIterations)
-	 * Set rng = null so that it does not create a random number generator.
-	 * Set epsilon and maxIterations to their default values.
-	 * However, this constructor is apparently planned for removal from Apache Math 4.0,
-	 * so leave the original constructor commented-out in case it needs to be restored.
+	 * The Poisson mixture is evaluated by RJ_PoissonMixture, which replaces the original
+	 * use of Apache PoissonDistribution for each component, and agrees with it to within
+	 * rounding error.
 	 */
 	public double[] getDistFuncWithAleatory(double mag, double tMinDays, double tMaxDays) {
-		// compute the distribution for the expected num aftershocks with M >= 5 (which we will scale to other magnitudes)
-		computeNumMag5_DistributionFunc(tMinDays, tMaxDays);
+		return getNumMag5_Mixture(tMinDays, tMaxDays).get_dist_func(RJ_PoissonMixture.get_mag_scale(b, mag));
+	}
 
-		// get the maximum expected num, which we will use to set the maximum num in the distribution function
-//System.out.print("\tworking on M "+mag+"\nunm="+numMag5_DistributionFunc.size()+"\n");
-		double maxExpNum = numMag5_DistributionFunc.getMaxX()*Math.pow(10d, b*(5-mag));
 
-//		PoissonDistribution poissDist = new PoissonDistribution(maxExpNum);
-		PoissonDistribution poissDist = new PoissonDistribution(null, maxExpNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
-		int maxAleatoryNum = poissDist.inverseCumulativeProbability(0.999);
-		
-		double[] distFunc = new double[maxAleatoryNum+1];
-		double totWt=0;
-		
-		for(int i=0;i<numMag5_DistributionFunc.size();i++) {
-//System.out.print(", "+i);
-			double expNum = numMag5_DistributionFunc.getX(i)*Math.pow(10d, b*(5-mag));
-			double wt = numMag5_DistributionFunc.getY(i);
-//			poissDist = new PoissonDistribution(expNum);
-			poissDist = new PoissonDistribution(null, expNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
-			totWt+=wt;
-			
-			int minLoopVal = poissDist.inverseCumulativeProbability(0.0001);
-			int maxLoopVal = poissDist.inverseCumulativeProbability(0.9999);
-			if(maxLoopVal>maxAleatoryNum)
-				maxLoopVal=maxAleatoryNum;
-			if(minLoopVal < 0)
-				minLoopVal = 0;
-			for(int j=minLoopVal;j<=maxLoopVal;j++) {
-				distFunc[j] += poissDist.probability(j)*wt;
+
+	
+	/**
+	 * This builds a table of forecast values for several time intervals and magnitudes.
+	 * @param fractileArray = Desired fractiles (percentile/100) of the probability distribution.
+	 * @param mags = Minimum magnitudes of aftershocks considered.
+	 * @param tMinDays = Start of each time range, in days after the mainshock.
+	 * @param tMaxDays = End of each time range, in days after the mainshock.
+	 * @param pool = Fork/join pool to use, or null to use the common pool.
+	 * @return
+	 * Returns a table which contains, for each time range and magnitude, the same values as
+	 * getCumNumFractileWithAleatory(fractileArray, mags, tMinDays[n], tMaxDays[n]) and
+	 * getProbOneOrMoreEvents(mags, tMinDays[n], tMaxDays[n]).
+	 * For each time range, the fractiles and probabilities for all magnitudes are computed in a
+	 * single pass over the (a,p,c) support.  Different time ranges are computed in parallel.
+	 * The distributions for the time ranges are added to the cache, so later calls for the same
+	 * time ranges do not need to recompute them.
+	 */
+	public RJ_ForecastTable getForecastTable(double[] fractileArray, double[] mags, double[] tMinDays, double[] tMaxDays, ForkJoinPool pool) {
+		RJ_ForecastTable table = new RJ_ForecastTable (tMinDays, tMaxDays, mags, fractileArray);
+		int num_interval = tMinDays.length;
+
+		double[] scales = new double[mags.length];
+		for (int m = 0; m < mags.length; m++) {
+			scales[m] = RJ_PoissonMixture.get_mag_scale(b, mags[m]);
+		}
+
+		// Get the distributions that are already cached, the rest are computed by the tasks
+
+		RJ_NumMag5Dist[] dists = new RJ_NumMag5Dist[num_interval];
+		boolean[] f_new = new boolean[num_interval];
+		for (int n = 0; n < num_interval; ++n) {
+			NumMag5CacheEntry entry = findNumMag5_CacheEntry(tMinDays[n], tMaxDays[n]);
+			if (entry != null) {
+				dists[n] = entry.dist;
+			} else {
+				f_new[n] = true;
 			}
-			
 		}
 
-		return distFunc;
+		// Compute the table, with each task using its own mixture engine
+
+		ForecastTableTask task = new ForecastTableTask (table, dists, fractileArray, scales, 0, num_interval);
+		if (num_interval <= 1) {
+			task.compute_intervals();
+		} else {
+			((pool == null) ? ForkJoinPool.commonPool() : pool).invoke (task);
+		}
+
+		// Add the newly computed distributions to the cache (a time range may appear more than once)
+
+		for (int n = 0; n < num_interval; ++n) {
+			if (f_new[n] && findNumMag5_CacheEntry(tMinDays[n], tMaxDays[n]) == null) {
+				insertNumMag5_CacheEntry(tMinDays[n], tMaxDays[n], dists[n]);
+			}
+		}
+
+		return table;
+	}
+
+
+
+	
+	/**
+	 * This builds a table of forecast values for several time intervals and magnitudes.
+	 * Same as above, using the common fork/join pool.
+	 */
+	public RJ_ForecastTable getForecastTable(double[] fractileArray, double[] mags, double[] tMinDays, double[] tMaxDays) {
+		return getForecastTable(fractileArray, mags, tMinDays, tMaxDays, null);
+	}
+
+
+
+
+	// Fork/join task to compute a range of time intervals for the forecast table.
+	// Each time interval writes only its own elements of dists and the table.
+
+	private class ForecastTableTask extends RecursiveAction {
+		private final RJ_ForecastTable table;
+		private final RJ_NumMag5Dist[] dists;
+		private final double[] fractileArray;
+		private final double[] scales;
+		private final int lo;
+		private final int hi;
+
+		public ForecastTableTask (RJ_ForecastTable table, RJ_NumMag5Dist[] dists, double[] fractileArray, double[] scales, int lo, int hi) {
+			this.table = table;
+			this.dists = dists;
+			this.fractileArray = fractileArray;
+			this.scales = scales;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute () {
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll (
+					new ForecastTableTask (table, dists, fractileArray, scales, lo, mid),
+					new ForecastTableTask (table, dists, fractileArray, scales, mid, hi)
+				);
+			} else {
+				compute_intervals();
+			}
+			return;
+		}
+
+		public void compute_intervals () {
+			for (int n = lo; n < hi; ++n) {
+				if (dists[n] == null) {
+					dists[n] = calcNumMag5_Dist(table.get_tMinDays(n), table.get_tMaxDays(n));
+				}
+				RJ_PoissonMixture mixture = new RJ_PoissonMixture(dists[n]);
+				table.set_interval (n, mixture.get_forecast_table(fractileArray, scales));
+			}
+			return;
+		}
 	}
 
 
@@ -1214,16 +1678,15 @@ public abstract class RJ_AftershockModel {
 
 			// Compute the cumulative distribution, neglecting elements in the tail
 
+			// (The flat likelihood array uses the same single-indexing scheme)
+
 			double cum_prob = 0.0;
-			for (int aIndex = 0; aIndex < num_a; aIndex++) {
-				for (int pIndex = 0; pIndex < num_p; pIndex++) {
-					for (int cIndex = 0; cIndex < num_c; cIndex++) {
-						if (apc_likelihood[aIndex][pIndex][cIndex] > apc_max_tail_element) {
-							cum_prob += apc_likelihood[aIndex][pIndex][cIndex];
-						}
-						cum_apc_probability[get_single_index (aIndex, pIndex, cIndex)] = cum_prob;
-					}
+			for (int ix = 0; ix < apc_total_size; ++ix) {
+				double w = apc_likelihood[ix];
+				if (w > apc_max_tail_element) {
+					cum_prob += w;
 				}
+				cum_apc_probability[ix] = cum_prob;
 			}
 		}
 
@@ -1277,10 +1740,11 @@ public abstract class RJ_AftershockModel {
 		}
 		else {
 			HistogramFunction hist = new HistogramFunction(min_a, num_a, delta_a);
+			int ix = 0;
 			for(int aIndex=0;aIndex<num_a;aIndex++) {
 				for(int pIndex=0;pIndex<num_p;pIndex++) {
 					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						hist.add(get_a(aIndex), apc_likelihood[aIndex][pIndex][cIndex]);
+						hist.add(get_a(aIndex), apc_likelihood[ix++]);
 					}
 				}
 			}
@@ -1312,10 +1776,11 @@ public abstract class RJ_AftershockModel {
 		}
 		else {
 			HistogramFunction hist = new HistogramFunction(min_p, num_p, delta_p);
+			int ix = 0;
 			for(int aIndex=0;aIndex<num_a;aIndex++) {
 				for(int pIndex=0;pIndex<num_p;pIndex++) {
 					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						hist.add(get_p(pIndex), apc_likelihood[aIndex][pIndex][cIndex]);
+						hist.add(get_p(pIndex), apc_likelihood[ix++]);
 					}
 				}
 			}
@@ -1346,10 +1811,11 @@ public abstract class RJ_AftershockModel {
 		}
 		else {
 			HistogramFunction hist = new HistogramFunction(min_c, num_c, delta_c);
+			int ix = 0;
 			for(int aIndex=0;aIndex<num_a;aIndex++) {
 				for(int pIndex=0;pIndex<num_p;pIndex++) {
 					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						hist.add(get_c(cIndex), apc_likelihood[aIndex][pIndex][cIndex]);
+						hist.add(get_c(cIndex), apc_likelihood[ix++]);
 					}
 				}
 			}
@@ -1380,14 +1846,20 @@ public abstract class RJ_AftershockModel {
 		}
 		else {
 			EvenlyDiscrXYZ_DataSet hist2D = new EvenlyDiscrXYZ_DataSet(num_a, num_p, min_a, min_p, delta_a, delta_p);
+			double[] marginal = new double[num_a * num_p];
+			int ix = 0;
 			for(int aIndex=0;aIndex<num_a;aIndex++) {
 				for(int pIndex=0;pIndex<num_p;pIndex++) {
 					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						double prevVal = hist2D.get(aIndex,pIndex);
-						hist2D.set(aIndex,pIndex, prevVal+apc_likelihood[aIndex][pIndex][cIndex]);
+						marginal[aIndex*num_p + pIndex] += apc_likelihood[ix++];
 					}
 				}
 			}
+			for(int aIndex=0;aIndex<num_a;aIndex++) {
+				for(int pIndex=0;pIndex<num_p;pIndex++) {
+					hist2D.set(aIndex,pIndex, marginal[aIndex*num_p + pIndex]);
+				}
+			}
 //			String name = "2D PDF of a vs p";
 //			if(num_c != 1)
 //				name += " (marginal)";
@@ -1414,14 +1886,20 @@ public abstract class RJ_AftershockModel {
 		}
 		else {
 			EvenlyDiscrXYZ_DataSet hist2D = new EvenlyDiscrXYZ_DataSet(num_a, num_c, min_a, min_c, delta_a, delta_c);
+			double[] marginal = new double[num_a * num_c];
+			int ix = 0;
 			for(int aIndex=0;aIndex<num_a;aIndex++) {
 				for(int pIndex=0;pIndex<num_p;pIndex++) {
 					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						double prevVal = hist2D.get(aIndex,cIndex);
-						hist2D.set(aIndex,cIndex, prevVal+apc_likelihood[aIndex][pIndex][cIndex]);
+						marginal[aIndex*num_c + cIndex] += apc_likelihood[ix++];
 					}
 				}
 			}
+			for(int aIndex=0;aIndex<num_a;aIndex++) {
+				for(int cIndex=0;cIndex<num_c;cIndex++) {
+					hist2D.set(aIndex,cIndex, marginal[aIndex*num_c + cIndex]);
+				}
+			}
 //			String name = "2D PDF of a vs c";
 //			if(num_p != 1)
 //				name += " (marginal)";
@@ -1448,14 +1926,20 @@ public abstract class RJ_AftershockModel {
 		}
 		else {
 			EvenlyDiscrXYZ_DataSet hist2D = new EvenlyDiscrXYZ_DataSet(num_c, num_p, min_c, min_p, delta_c, delta_p);
+			double[] marginal = new double[num_c * num_p];
+			int ix = 0;
 			for(int aIndex=0;aIndex<num_a;aIndex++) {
 				for(int pIndex=0;pIndex<num_p;pIndex++) {
 					for(int cIndex=0;cIndex<num_c;cIndex++) {
-						double prevVal = hist2D.get(cIndex,pIndex);
-						hist2D.set(cIndex,pIndex, prevVal+apc_likelihood[aIndex][pIndex][cIndex]);
+						marginal[cIndex*num_p + pIndex] += apc_likelihood[ix++];
 					}
 				}
 			}
+			for(int cIndex=0;cIndex<num_c;cIndex++) {
+				for(int pIndex=0;pIndex<num_p;pIndex++) {
+					hist2D.set(cIndex,pIndex, marginal[cIndex*num_p + pIndex]);
+				}
+			}
 //			String name = "2D PDF of c vs p";
 //			if(num_a != 1)
 //				name += " (marginal)";
@@ -1492,10 +1976,10 @@ public abstract class RJ_AftershockModel {
 		set_fixed_p(p);
 		set_fixed_c(c);
 		
-		apc_likelihood = new double[num_a][num_p][num_c];
+		alloc_apc_likelihood();
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			double wt = aValueFunc.getY(aIndex);
-			apc_likelihood[aIndex][0][0] = wt;
+			apc_likelihood[get_single_index (aIndex, 0, 0)] = wt;
 		}
 
 		// Complete the likelihood setup
@@ -1509,8 +1993,111 @@ public abstract class RJ_AftershockModel {
 
 
 	public static void main(String[] args) {
-		// TODO Auto-generated method stub
 
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_AftershockModel : Missing subcommand");
+			return;
+		}
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  reps  seed
+		// Compare and benchmark the histogram-selection tail search against the full sort.
+		// For several grid sizes, construct a normalized Gaussian-shaped (a,p,c) distribution
+		// with randomly perturbed log-likelihoods, then find the largest tail element reps
+		// times with each method, and display the time and whether the results agree.
+		// Each grid is done twice, the second time with values rounded to 4 significant
+		// bits so there are long runs of equal elements.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// 2 additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("RJ_AftershockModel : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int reps = Integer.parseInt (args[1]);
+			long seed = Long.parseLong (args[2]);
+
+			java.util.Random rangen = new java.util.Random (seed);
+			double tail_fraction = 0.0001;
+
+			int[][] grid_size = {{401, 1, 1}, {101, 31, 1}, {101, 31, 21}, {201, 61, 41}};
+
+			for (int ngrid = 0; ngrid < grid_size.length; ++ngrid) {
+				for (int f_quantize = 0; f_quantize < 2; ++f_quantize) {
+					int num_a = grid_size[ngrid][0];
+					int num_p = grid_size[ngrid][1];
+					int num_c = grid_size[ngrid][2];
+					int n = num_a * num_p * num_c;
+
+					// Gaussian in each index, centered off-grid, with noise in the log-likelihood
+
+					double[] prob = new double[n];
+					double total = 0.0;
+					int ix = 0;
+					for (int aIndex = 0; aIndex < num_a; aIndex++) {
+						double da = (aIndex - 0.4 * num_a) / (0.1 * num_a);
+						for (int pIndex = 0; pIndex < num_p; pIndex++) {
+							double dp = (pIndex - 0.55 * num_p) / (0.15 * num_p);
+							for (int cIndex = 0; cIndex < num_c; cIndex++) {
+								double dc = (cIndex - 0.3 * num_c) / (0.2 * num_c);
+								double w = Math.exp (-0.5 * (da*da + dp*dp + dc*dc) + 0.1 * rangen.nextGaussian());
+								if (f_quantize != 0) {
+									w = Double.longBitsToDouble (Double.doubleToRawLongBits (w) & 0xFFF8000000000000L);
+								}
+								prob[ix++] = w;
+								total += w;
+							}
+						}
+					}
+					for (ix = 0; ix < n; ++ix) {
+						prob[ix] /= total;
+					}
+
+					// Run both methods
+
+					double select_result = 0.0;
+					double sort_result = 0.0;
+					long select_nanos = 0L;
+					long sort_nanos = 0L;
+					for (int rep = 0; rep < reps; ++rep) {
+						long start_nanos = System.nanoTime();
+						select_result = find_max_tail_element (prob, n, tail_fraction);
+						select_nanos += (System.nanoTime() - start_nanos);
+
+						start_nanos = System.nanoTime();
+						sort_result = find_max_tail_element_by_sort (prob, n, tail_fraction);
+						sort_nanos += (System.nanoTime() - start_nanos);
+					}
+
+					int support = 0;
+					for (ix = 0; ix < n; ++ix) {
+						if (prob[ix] > select_result) {
+							++support;
+						}
+					}
+
+					System.out.println ();
+					System.out.println ("grid = " + num_a + " x " + num_p + " x " + num_c + ", quantized = " + (f_quantize != 0) + ", support = " + support);
+					System.out.println ("select ms = " + String.format ("%.3f", ((double)select_nanos) / (1.0e6 * reps))
+						+ ", sort ms = " + String.format ("%.3f", ((double)sort_nanos) / (1.0e6 * reps)));
+					System.out.println ("select = " + select_result + ", sort = " + sort_result + ", agree = " + (select_result == sort_result));
+				}
+			}
+
+			return;
+		}
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_AftershockModel : Unrecognized subcommand : " + args[0]);
 		return;
 	}
 
@@ -180,11 +180,11 @@ public class RJ_AftershockModel_Bayesian extends RJ_AftershockModel {
 		this.num_a = (int)Math.ceil((max_a-min_a)/minDelta) + 1;
 		this.delta_a = (max_a - min_a)/((double)(num_a - 1));
 		
-		apc_likelihood = new double[num_a][num_p][num_c];
+		alloc_apc_likelihood();
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			double a = get_a(aIndex);
 			double wt = aValFunc1.getInterpolatedY(a)*aValFunc2.getInterpolatedY(a);
-			apc_likelihood[aIndex][0][0] = wt;
+			apc_likelihood[get_single_index (aIndex, 0, 0)] = wt;
 		}
 
 		// Complete the likelihood setup
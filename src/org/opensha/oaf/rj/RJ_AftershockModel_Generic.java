@@ -3,6 +3,8 @@ package org.opensha.oaf.rj;
 import java.awt.Color;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.jfree.data.Range;
 import org.opensha.commons.data.function.ArbDiscrEmpiricalDistFunc;
@@ -179,6 +181,23 @@ public class RJ_AftershockModel_Generic extends RJ_AftershockModel {
 
 
 
+	/**
+	 * Create a copy of the given model.
+	 * The copy shares the apc_likelihood array with the original, which is not modified
+	 * after the model is built, but has its own cache of distributions.
+	 * The verbose mode is not copied.
+	 */
+	protected RJ_AftershockModel_Generic(RJ_AftershockModel_Generic other) {
+
+		copy_apc_from(other);
+
+		this.mean_a = other.mean_a;
+		this.sigma_a = other.sigma_a;
+	}
+
+
+
+
 	/**
 	 * Create a model with fixed parameters equal to the maximum liklihood
 	 * parameter values of the given model.
@@ -204,10 +223,10 @@ public class RJ_AftershockModel_Generic extends RJ_AftershockModel {
 
 		// Construct the Gaussian distribution
 		
-		apc_likelihood = new double[num_a][num_p][num_c];
+		alloc_apc_likelihood();
 		for (int aIndex = 0; aIndex < num_a; aIndex++) {
 			double wt = Math.exp(-(mean_a - get_a(aIndex))*(mean_a - get_a(aIndex))/(2.0*sigma_a*sigma_a));
-			apc_likelihood[aIndex][0][0] = wt;
+			apc_likelihood[get_single_index (aIndex, 0, 0)] = wt;
 		}
 
 		// Complete the likelihood setup
@@ -220,6 +239,162 @@ public class RJ_AftershockModel_Generic extends RJ_AftershockModel {
 
 
 
+	//----- Cache -----
+
+	// A generic model depends only on the mainshock magnitude and the generic parameters, and
+	// each forecast for a timeline needs the same generic model.  So recently built models are
+	// held in a cache, and a forecast receives a copy of the cached model.  (A copy is needed
+	// because each model has its own cache of distributions.)
+
+	// The maximum number of models in the cache.
+
+	public static final int CACHE_CAPACITY = 64;
+
+
+
+
+	// Cache key.
+	// It contains the arguments passed to the constructor, so the a-value sigma is the
+	// magnitude-dependent value.
+
+	private static class Key {
+		private final double magMain;
+		private final double mean_a;
+		private final double sigma_a;
+		private final double min_a;
+		private final double max_a;
+		private final double delta_a;
+		private final double b;
+		private final double p;
+		private final double c;
+
+		public Key (double magMain, GenericRJ_Parameters params) {
+			this.magMain = magMain;
+			this.mean_a = params.get_aValueMean();
+			this.sigma_a = params.get_aValueSigma(magMain);
+			this.min_a = params.get_aValue_min();
+			this.max_a = params.get_aValue_max();
+			this.delta_a = params.get_aValue_delta();
+			this.b = params.get_bValue();
+			this.p = params.get_pValue();
+			this.c = params.get_cValue();
+		}
+
+		@Override
+		public boolean equals (Object obj) {
+			if (!( obj instanceof Key )) {
+				return false;
+			}
+			Key other = (Key)obj;
+			return Double.doubleToLongBits (magMain) == Double.doubleToLongBits (other.magMain)
+				&& Double.doubleToLongBits (mean_a) == Double.doubleToLongBits (other.mean_a)
+				&& Double.doubleToLongBits (sigma_a) == Double.doubleToLongBits (other.sigma_a)
+				&& Double.doubleToLongBits (min_a) == Double.doubleToLongBits (other.min_a)
+				&& Double.doubleToLongBits (max_a) == Double.doubleToLongBits (other.max_a)
+				&& Double.doubleToLongBits (delta_a) == Double.doubleToLongBits (other.delta_a)
+				&& Double.doubleToLongBits (b) == Double.doubleToLongBits (other.b)
+				&& Double.doubleToLongBits (p) == Double.doubleToLongBits (other.p)
+				&& Double.doubleToLongBits (c) == Double.doubleToLongBits (other.c);
+		}
+
+		@Override
+		public int hashCode () {
+			long h = Double.doubleToLongBits (magMain);
+			h = h * 31L + Double.doubleToLongBits (mean_a);
+			h = h * 31L + Double.doubleToLongBits (sigma_a);
+			h = h * 31L + Double.doubleToLongBits (min_a);
+			h = h * 31L + Double.doubleToLongBits (max_a);
+			h = h * 31L + Double.doubleToLongBits (delta_a);
+			h = h * 31L + Double.doubleToLongBits (b);
+			h = h * 31L + Double.doubleToLongBits (p);
+			h = h * 31L + Double.doubleToLongBits (c);
+			return (int)(h ^ (h >>> 32));
+		}
+	}
+
+
+	// The cache, in access order, with the least-recently used model evicted when full.
+	// The models in the cache are never returned to callers, so they are never modified.
+
+	private static final Map<Key, RJ_AftershockModel_Generic> cache = new LinkedHashMap<Key, RJ_AftershockModel_Generic>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry (Map.Entry<Key, RJ_AftershockModel_Generic> eldest) {
+			return size() > CACHE_CAPACITY;
+		}
+	};
+
+
+
+
+	/**
+	 * Get a generic model for the given mainshock magnitude and parameters, using the cache if possible.
+	 * @param magMain - main shock magnitude
+	 * @param params - generic parameters
+	 * The result is the same as new RJ_AftershockModel_Generic(magMain, params), and is owned by the caller.
+	 * This function is thread-safe.  Models are built outside the lock, so two threads
+	 * may occasionally build the same model, in which case the first one is kept.
+	 */
+	public static RJ_AftershockModel_Generic get_cached(double magMain, GenericRJ_Parameters params) {
+		Key key = new Key (magMain, params);
+
+		RJ_AftershockModel_Generic prototype;
+		synchronized (cache) {
+			prototype = cache.get (key);
+		}
+
+		if (prototype == null) {
+			RJ_AftershockModel_Generic model = new RJ_AftershockModel_Generic (key.magMain, key.mean_a, key.sigma_a,
+					key.min_a, key.max_a, key.delta_a, key.b, key.p, key.c);
+
+			synchronized (cache) {
+				prototype = cache.get (key);
+				if (prototype == null) {
+					cache.put (key, new RJ_AftershockModel_Generic (model));
+					return model;
+				}
+			}
+		}
+
+		// Copy the cached model, writing the same output as the constructor
+
+		RJ_AftershockModel_Generic model = new RJ_AftershockModel_Generic (prototype);
+
+		if(model.D) {
+			System.out.println(String.format("mean_a=%.4g  sigma_a=%.4g",
+				model.mean_a, model.sigma_a));
+		}
+
+		return model;
+	}
+
+
+
+
+	/**
+	 * Remove all models from the cache.
+	 */
+	public static void clear_cache() {
+		synchronized (cache) {
+			cache.clear();
+		}
+		return;
+	}
+
+
+
+
+	/**
+	 * Get the number of models in the cache.
+	 */
+	public static int get_cache_size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+
+
+
 	public static void main(String[] args) {
 
 		// There needs to be at least one argument, which is the subcommand
@@ -349,6 +524,71 @@ public class RJ_AftershockModel_Generic extends RJ_AftershockModel {
 		}
 
 
+		// Subcommand : Test #3
+		// Command format:
+		//  test3  magMain  reps
+		// Compare models obtained from the cache with newly constructed models.
+		// Obtain the generic parameters for a location in California, then make reps models
+		// with each method, and display the times and the week-long fractiles of each.
+
+		if (args[0].equalsIgnoreCase ("test3")) {
+
+			// 2 additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("RJ_AftershockModel_Generic : Invalid 'test3' subcommand");
+				return;
+			}
+
+			try {
+
+				double magMain = Double.parseDouble (args[1]);
+				int reps = Integer.parseInt (args[2]);
+
+				GenericRJ_ParametersFetch fetch = new GenericRJ_ParametersFetch();
+				Location loc = new Location(33.0, -120, 6.0);
+				GenericRJ_Parameters params = fetch.get(loc);
+				AftershockVerbose.set_verbose_mode (false);
+
+				// Construct directly
+
+				long start_nanos = System.nanoTime();
+				RJ_AftershockModel_Generic gen = null;
+				for (int n = 0; n < reps; ++n) {
+					gen = new RJ_AftershockModel_Generic(magMain, params);
+				}
+				long gen_nanos = System.nanoTime() - start_nanos;
+
+				// Use the cache
+
+				clear_cache();
+				start_nanos = System.nanoTime();
+				RJ_AftershockModel_Generic cached = null;
+				for (int n = 0; n < reps; ++n) {
+					cached = get_cached(magMain, params);
+				}
+				long cached_nanos = System.nanoTime() - start_nanos;
+
+				// Display
+
+				double[] fractArray = {0.025, 0.5, 0.975};
+				double[] gen_vals = gen.getCumNumFractileWithAleatory(fractArray, 5.0, 0d, 7d);
+				double[] cached_vals = cached.getCumNumFractileWithAleatory(fractArray, 5.0, 0d, 7d);
+				for (int i = 0; i < fractArray.length; ++i) {
+					System.out.println (fractArray[i] + ": " + gen_vals[i] + " (cached " + cached_vals[i] + ")");
+				}
+				System.out.println ("cache size = " + get_cache_size());
+				System.out.println ("construct ms = " + String.format ("%.3f", ((double)gen_nanos) / 1.0e6)
+					+ ", cached ms = " + String.format ("%.3f", ((double)cached_nanos) / 1.0e6));
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
 
 
 		// Unrecognized subcommand.
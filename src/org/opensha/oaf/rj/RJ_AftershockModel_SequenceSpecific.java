@@ -72,6 +72,15 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 
 	protected int numAftershocks = 0;
 
+	// The sufficient statistics of the aftershocks, which can seed a later fit of the same sequence.
+	// This is null if the model was not built from an aftershock list.
+
+	protected RJ_SeqSpecStats seqSpecStats = null;
+
+	// True if the sufficient statistics were extended from prior statistics.
+
+	protected boolean f_incremental_stats = false;
+
 
 
 
@@ -94,6 +103,29 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 
 
 
+
+	/**
+	 * Get the sufficient statistics of the aftershocks used to determine parameters.
+	 * These can be passed to a constructor to build a later model of the same sequence,
+	 * with a longer data interval, without re-accumulating the earlier aftershocks.
+	 * Returns null if the model was not built from an aftershock list.
+	 */
+	public RJ_SeqSpecStats get_seq_spec_stats () {
+		return seqSpecStats;
+	}
+
+
+
+
+	/**
+	 * Return true if this model was built by extending prior sufficient statistics.
+	 */
+	public boolean is_incremental_stats () {
+		return f_incremental_stats;
+	}
+
+
+
 	
 	/**
 	 * Use this constructor to initialize from parameter holders.
@@ -108,12 +140,37 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 				double dataStartTimeDays, double dataEndTimeDays,
 				MagCompPage_Parameters mcParam, SeqSpecRJ_Parameters sqParam) {
 		
+		this(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, mcParam, sqParam, null);
+
+	}
+
+
+
+	
+	/**
+	 * Use this constructor to initialize from parameter holders, starting from prior sufficient statistics.
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events with mag below magCat will be filtered out
+	 * @param dataStartTimeDays - start time for data, in days since the mainshock
+	 * @param dataEndTimeDays - end time for data, in days since the mainshock
+	 * @param mcParam - magnitude of completeness parameters
+	 * @param sqParam - sequence-specific range parameters
+	 * @param priorStats - sufficient statistics from an earlier model of this sequence, or null if none
+	 * If priorStats applies to this model, and the aftershocks within its data interval are unchanged,
+	 * then only the aftershocks after the end of its data interval are accumulated.  Otherwise, priorStats
+	 * is ignored.  Either way, the resulting model is the same (to within rounding).
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+				double dataStartTimeDays, double dataEndTimeDays,
+				MagCompPage_Parameters mcParam, SeqSpecRJ_Parameters sqParam, RJ_SeqSpecStats priorStats) {
+		
 		this(mainShock, aftershockList,
 				mcParam.get_magCat(mainShock.getMag()), mcParam.get_magCompFn(),
 				sqParam.get_b(), dataStartTimeDays, dataEndTimeDays,
 				sqParam.get_min_a(), sqParam.get_max_a(), sqParam.get_num_a(),
 				sqParam.get_min_p(), sqParam.get_max_p(), sqParam.get_num_p(),
-				sqParam.get_min_c(), sqParam.get_max_c(), sqParam.get_num_c());
+				sqParam.get_min_c(), sqParam.get_max_c(), sqParam.get_num_c(),
+				priorStats);
 
 	}
 
@@ -186,6 +243,31 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 											double min_p, double max_p, int num_p, 
 											double min_c, double max_c, int num_c) {
 		
+		this(mainShock, aftershockList, magCat, magCompFn, b, dataStartTimeDays, dataEndTimeDays,
+				min_a, max_a, num_a, min_p, max_p, num_p, min_c, max_c, num_c, null);
+
+	}
+
+
+
+	
+	/**
+	 * This solves for the Reasenberg-Jones parameters, as in the constructor above, starting from
+	 * prior sufficient statistics.
+	 * @param priorStats - sufficient statistics from an earlier model of this sequence, or null if none
+	 * Other parameters are the same as the constructor above.
+	 * If priorStats applies to this model, and the aftershocks within its data interval are unchanged,
+	 * then only the aftershocks after the end of its data interval are accumulated.  Otherwise, priorStats
+	 * is ignored.  Either way, the resulting model is the same (to within rounding).
+	 */
+	public RJ_AftershockModel_SequenceSpecific(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+			 								double magCat, MagCompFn magCompFn,
+											double b, double dataStartTimeDays, double dataEndTimeDays,
+											double min_a, double max_a, int num_a, 
+											double min_p, double max_p, int num_p, 
+											double min_c, double max_c, int num_c,
+											RJ_SeqSpecStats priorStats) {
+		
 		// check range values
 		if(num_a == 1 && min_a != max_a) {
 			throw new RuntimeException("RJ_AftershockModel_SequenceSpecific: num_a == 1 && min_a != max_a");
@@ -243,7 +325,7 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 			this.delta_c = 0.0;
 		}
 
-		apc_build(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays);
+		apc_build(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, priorStats);
 		
 	}
 
@@ -270,6 +352,23 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 	 * @param dataEndTimeDays - end time for data, in days since the mainshock
 	 */
 	public void apc_build(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList, double dataStartTimeDays, double dataEndTimeDays) {
+		apc_build(mainShock, aftershockList, dataStartTimeDays, dataEndTimeDays, null);
+		return;
+	}
+
+
+
+
+	/**
+	 * Build the apc_likelihood matrix, starting from prior sufficient statistics.
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events with mag below magCat will be filtered out
+	 * @param dataStartTimeDays - start time for data, in days since the mainshock
+	 * @param dataEndTimeDays - end time for data, in days since the mainshock
+	 * @param priorStats - sufficient statistics from an earlier model of this sequence, or null if none
+	 */
+	public void apc_build(ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList, double dataStartTimeDays, double dataEndTimeDays,
+							RJ_SeqSpecStats priorStats) {
 
 		// Save the parameters
 
@@ -282,84 +381,31 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 
 		// Allocate the array
 
-		apc_likelihood = new double[num_a][num_p][num_c];
-		double ln10 = Math.log(10);
-
-		// Sum of magMain - magMin(t_i)
-
-		double sum1 = 0.0;
-
-		// Sum of log(t_i + c)
+		alloc_apc_likelihood();
 
-		double[] sum2 = new double[num_c];
-		for(int cIndex = 0; cIndex < num_c; cIndex++) {
-			sum2[cIndex] = 0.0;
-		}
-
-		// Number of aftershocks
-
-		int numEvents = 0;
+		// Accumulate the sufficient statistics of the aftershocks, then compute
+		// the log-likelihood, with the (p,c) plane spread across the common fork/join pool
 
-		// Scan list of aftershocks
+		RJ_ApcLikelihood engine = new RJ_ApcLikelihood (
+			min_a, delta_a, num_a,
+			min_p, delta_p, num_p,
+			min_c, delta_c, num_c,
+			b, magMain, magCat, magCompFn,
+			dataStartTimeDays, dataEndTimeDays);
 
-		for(ObsEqkRupture rup:aftershockList) {
-
-			// Get time since the mainshock in days, skip it if it is outside our time interval
-
-			double timeSinceMainDays = (double)(rup.getOriginTime()-mainShock.getOriginTime()) / (double)AftershockStatsCalc.MILLISEC_PER_DAY;
-			if(timeSinceMainDays < dataStartTimeDays || timeSinceMainDays > dataEndTimeDays) { // not necessary if list already filtered
-				continue;
-			}
+		numAftershocks = engine.accumulate_incremental (mainShock, aftershockList, priorStats);
+		seqSpecStats = engine.get_stats (mainShock);
+		f_incremental_stats = engine.is_incremental();
 
-			// Get the magnitude of completeness at this time
-
-			double magMin = magCompFn.getMagCompleteness (magMain, magCat, timeSinceMainDays);
-
-			// If the aftershock magnitude is at least the magnitude of completeness, accumulate it
-
-			if(rup.getMag() >= magMin) {
-				numEvents += 1;
-				sum1 += (magMain - magMin);
-				for(int cIndex = 0; cIndex < num_c; cIndex++) {
-					double c = get_c(cIndex);
-					sum2[cIndex] += Math.log(timeSinceMainDays + c);
-				}
-				++numAftershocks;
-			}
-		}
-
-		// Now loop over p and a
-
-		for(int pIndex=0;pIndex<num_p;pIndex++) {
-			double p = get_p(pIndex);
-			for(int aIndex=0;aIndex<num_a;aIndex++) {
-				double a = get_a(aIndex);
-				for(int cIndex = 0; cIndex < num_c; cIndex++) {
-					double c = get_c(cIndex);
-
-					// Compute the integral of the aftershock rate over the time interval
-
-					double integral = AftershockStatsCalc.getPageExpectedNumEvents(
-						a, b, magMain, magCat, magCompFn, p, c, dataStartTimeDays, dataEndTimeDays);
-
-					// Form the log likelihood
-
-					double logLike = numEvents*a*ln10 + b*ln10*sum1 - p*sum2[cIndex] - integral;
-
-					// Save it as the array element
-
-					apc_likelihood[aIndex][pIndex][cIndex] = logLike;
-				}
-			}
-		}
+		engine.fill_log_likelihood (apc_likelihood, null);
 
 		// Complete the likelihood setup
 
 		apcFinish (true);	// true means array contains log-likelihood
 
 		if(D) {
-			System.out.println(String.format("magCompFn=%s  magCat=%.4g  tStart=%.8g  tEnd=%.8g  nEvents=%d",
-				magCompFn.toString(), magCat, dataStartTimeDays, dataEndTimeDays, numAftershocks));
+			System.out.println(String.format("magCompFn=%s  magCat=%.4g  tStart=%.8g  tEnd=%.8g  nEvents=%d  incremental=%b",
+				magCompFn.toString(), magCat, dataStartTimeDays, dataEndTimeDays, numAftershocks, f_incremental_stats));
 		}
 		
 		return;
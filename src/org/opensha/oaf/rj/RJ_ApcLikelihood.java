@@ -0,0 +1,737 @@
+package org.opensha.oaf.rj;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupList;
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
+
+
+/**
+ * Log-likelihood engine for the sequence-specific Reasenberg-Jones model.
+ *
+ * For a parameter triple (a,p,c), the log-likelihood is (see RJ_AftershockModel_SequenceSpecific):
+ *  log L(a,p,c) = N*a*log(10) + b*log(10)*SUM(magMain - magMin(t_i)) - p*SUM(log(t_i + c)) - I(a,p,c)
+ * where I(a,p,c) is the integral of the aftershock rate over the data interval.
+ *
+ * The integral is separable: I(a,p,c) = 10^a * J(p,c) + k(a) * D(p,c), where J is the part
+ * computed by numerical integration (before the time of completeness) with a = 0, and
+ * k(a)*D(p,c) is the part computed by the analytic formula (after the time of completeness).
+ * So the numerical integration, which is expensive, is done once for each (p,c) instead of
+ * once for each (a,p,c).  The (p,c) plane is divided among tasks in a fork/join pool.
+ *
+ * Both parts are computed with the same floating-point operations as
+ * AftershockStatsCalc.getPageExpectedNumEvents (the numerical part comes from the same
+ * cached MagCompIntegralTable), so the result is bit-for-bit identical to calling that
+ * function for each triple.
+ *
+ * Usage: Construct with the grid and magnitude of completeness, call accumulate to
+ * obtain the sufficient statistics of the aftershock sequence, then call fill_log_likelihood.
+ * When refitting a sequence over a longer interval, accumulate_incremental can start from
+ * the statistics of the earlier fit (see RJ_SeqSpecStats), so only the new aftershocks are
+ * accumulated.  The integral term is always computed over the full interval.
+ */
+public class RJ_ApcLikelihood {
+
+	//----- Parameters -----
+
+	// Grid, with the same conventions as RJ_AftershockModel.
+
+	private double min_a;
+	private double delta_a;
+	private int num_a;
+	private double min_p;
+	private double delta_p;
+	private int num_p;
+	private double min_c;
+	private double delta_c;
+	private int num_c;
+
+	// Gutenberg-Richter b-value.
+
+	private double b;
+
+	// Mainshock magnitude, and magnitude of completeness.
+
+	private double magMain;
+	private double magCat;
+	private MagCompFn magCompFn;
+
+	// Data interval, in days since the mainshock.
+
+	private double dataStartTimeDays;
+	private double dataEndTimeDays;
+
+	// Minimum number of (p,c) cells handled by one fork/join task.
+
+	private static final int LEAF_CELLS = 4;
+
+
+
+
+	//----- Sufficient statistics -----
+
+	// Number of aftershocks at or above the magnitude of completeness.
+
+	private int numEvents;
+
+	// Sum of magMain - magMin(t_i).
+
+	private double sum1;
+
+	// Sum of log(t_i + c), for each c.
+
+	private double[] sum2;
+
+	// Fingerprint of the aftershocks within the data interval, of any magnitude, see RJ_SeqSpecStats.
+
+	private int windowCount;
+	private long windowHash;
+
+	// True if the statistics were extended from prior statistics.
+
+	private boolean f_incremental;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	/**
+	 * Set up the engine.
+	 * Grid values are get_a(aIndex) = min_a + aIndex*delta_a, and similarly for p and c.
+	 */
+	public RJ_ApcLikelihood (
+			double min_a, double delta_a, int num_a,
+			double min_p, double delta_p, int num_p,
+			double min_c, double delta_c, int num_c,
+			double b, double magMain, double magCat, MagCompFn magCompFn,
+			double dataStartTimeDays, double dataEndTimeDays) {
+
+		if (!( num_a > 0 && num_p > 0 && num_c > 0 )) {
+			throw new IllegalArgumentException ("RJ_ApcLikelihood: Invalid grid size: num_a = " + num_a + ", num_p = " + num_p + ", num_c = " + num_c);
+		}
+
+		this.min_a = min_a;
+		this.delta_a = delta_a;
+		this.num_a = num_a;
+		this.min_p = min_p;
+		this.delta_p = delta_p;
+		this.num_p = num_p;
+		this.min_c = min_c;
+		this.delta_c = delta_c;
+		this.num_c = num_c;
+		this.b = b;
+		this.magMain = magMain;
+		this.magCat = magCat;
+		this.magCompFn = magCompFn;
+		this.dataStartTimeDays = dataStartTimeDays;
+		this.dataEndTimeDays = dataEndTimeDays;
+
+		clear_stats();
+	}
+
+
+	// Clear the sufficient statistics.
+
+	private void clear_stats () {
+		numEvents = 0;
+		sum1 = 0.0;
+		sum2 = new double[num_c];
+		windowCount = 0;
+		windowHash = 0L;
+		f_incremental = false;
+		return;
+	}
+
+
+	private double get_a (int aIndex) {return min_a+aIndex*delta_a;}
+
+	private double get_p (int pIndex) {return min_p+pIndex*delta_p;}
+
+	private double get_c (int cIndex) {return min_c+cIndex*delta_c;}
+
+
+
+
+	//----- Statistics -----
+
+
+
+
+	/**
+	 * Accumulate the sufficient statistics for a list of aftershocks.
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events outside the data interval,
+	 *        or with mag below the magnitude of completeness, are skipped
+	 * @return
+	 * Returns the number of aftershocks accumulated.
+	 * Note: Statistics accumulate, so calling this twice with the same list counts the list twice.
+	 */
+	public int accumulate (ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList) {
+		int count = 0;
+
+		for(ObsEqkRupture rup:aftershockList) {
+
+			// Get time since the mainshock in days, skip it if it is outside our time interval
+
+			double timeSinceMainDays = (double)(rup.getOriginTime()-mainShock.getOriginTime()) / (double)AftershockStatsCalc.MILLISEC_PER_DAY;
+			if(timeSinceMainDays < dataStartTimeDays || timeSinceMainDays > dataEndTimeDays) {
+				continue;
+			}
+
+			// Accumulate it
+
+			if (accumulate_event (rup, timeSinceMainDays)) {
+				++count;
+			}
+		}
+
+		return count;
+	}
+
+
+	// Accumulate one aftershock that lies within the data interval.
+	// Returns true if it is at or above the magnitude of completeness.
+
+	private boolean accumulate_event (ObsEqkRupture rup, double timeSinceMainDays) {
+
+		// Include it in the fingerprint
+
+		++windowCount;
+		windowHash += RJ_SeqSpecStats.event_hash (rup);
+
+		// Get the magnitude of completeness at this time
+
+		double magMin = magCompFn.getMagCompleteness (magMain, magCat, timeSinceMainDays);
+
+		// If the aftershock magnitude is at least the magnitude of completeness, accumulate it
+
+		if(rup.getMag() >= magMin) {
+			numEvents += 1;
+			sum1 += (magMain - magMin);
+			for(int cIndex = 0; cIndex < num_c; cIndex++) {
+				double c = get_c(cIndex);
+				sum2[cIndex] += Math.log(timeSinceMainDays + c);
+			}
+			return true;
+		}
+		return false;
+	}
+
+
+
+
+	/**
+	 * Accumulate the sufficient statistics for a list of aftershocks, starting from prior statistics.
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events outside the data interval,
+	 *        or with mag below the magnitude of completeness, are skipped
+	 * @param prior - prior statistics, from an earlier fit of the same sequence, or null if none
+	 * @return
+	 * Returns the number of aftershocks accumulated.
+	 * This must be called on a newly-constructed engine.  If the prior statistics can be extended
+	 * to our setup, and the aftershocks in the prior data interval are the same as when the prior
+	 * statistics were made, then only aftershocks after the end of the prior data interval are
+	 * accumulated.  Otherwise, all aftershocks are accumulated, exactly as in accumulate().
+	 * The number of aftershocks and the sum of magnitudes are exactly the same as accumulate(),
+	 * and the logarithm sums agree to within rounding (they are identical if the list is in time order).
+	 */
+	public int accumulate_incremental (ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList, RJ_SeqSpecStats prior) {
+		if (windowCount != 0) {
+			throw new IllegalStateException ("RJ_ApcLikelihood.accumulate_incremental: Statistics have already been accumulated");
+		}
+
+		// If the prior statistics do not apply, accumulate everything
+
+		if (prior == null || !( prior.is_extendable_to (mainShock.getOriginTime(), magMain, magCat, magCompFn,
+									min_c, delta_c, num_c, dataStartTimeDays, dataEndTimeDays) )) {
+			return accumulate (mainShock, aftershockList);
+		}
+
+		// Start from the prior statistics
+
+		numEvents = prior.numEvents;
+		sum1 = prior.sum1;
+		sum2 = Arrays.copyOf (prior.sum2, num_c);
+
+		// Scan the list, fingerprinting the prior interval and accumulating the new interval
+
+		double priorEndTimeDays = prior.dataEndTimeDays;
+		int priorCount = 0;
+		long priorHash = 0L;
+
+		for(ObsEqkRupture rup:aftershockList) {
+			double timeSinceMainDays = (double)(rup.getOriginTime()-mainShock.getOriginTime()) / (double)AftershockStatsCalc.MILLISEC_PER_DAY;
+			if(timeSinceMainDays < dataStartTimeDays || timeSinceMainDays > dataEndTimeDays) {
+				continue;
+			}
+			if (timeSinceMainDays <= priorEndTimeDays) {
+				++priorCount;
+				priorHash += RJ_SeqSpecStats.event_hash (rup);
+			} else {
+				accumulate_event (rup, timeSinceMainDays);
+			}
+		}
+
+		// If the aftershocks in the prior interval have changed, start over
+
+		if (!( priorCount == prior.windowCount && priorHash == prior.windowHash )) {
+			clear_stats();
+			return accumulate (mainShock, aftershockList);
+		}
+
+		// Include the prior interval in the fingerprint
+
+		windowCount += priorCount;
+		windowHash += priorHash;
+		f_incremental = true;
+		return numEvents;
+	}
+
+
+	/**
+	 * Get the sufficient statistics, which can be passed to accumulate_incremental in a later fit.
+	 * @param mainShock - the mainshock
+	 */
+	public RJ_SeqSpecStats get_stats (ObsEqkRupture mainShock) {
+		return new RJ_SeqSpecStats (mainShock.getOriginTime(), magMain, magCat, magCompFn,
+			min_c, delta_c, num_c,
+			dataStartTimeDays, dataEndTimeDays,
+			windowCount, windowHash,
+			numEvents, sum1, Arrays.copyOf (sum2, num_c));
+	}
+
+
+	/**
+	 * Return true if the last call to accumulate_incremental was able to use the prior statistics.
+	 */
+	public boolean is_incremental () {
+		return f_incremental;
+	}
+
+
+	/**
+	 * Get the number of aftershocks accumulated.
+	 */
+	public int get_num_events () {
+		return numEvents;
+	}
+
+
+
+
+	//----- Log-likelihood -----
+
+
+
+
+	/**
+	 * Fill in the log-likelihood for the grid.
+	 * @param apc_log_like = Flat array of length num_a*num_p*num_c to receive the log-likelihood,
+	 *  with the single-indexing scheme of RJ_AftershockModel (c-index varies most rapidly).
+	 * @param pool = Fork/join pool to use, or null to use the common pool.
+	 */
+	public void fill_log_likelihood (double[] apc_log_like, ForkJoinPool pool) {
+
+		// Per-a values, 10^a for the numeric part and k for the analytic part
+
+		double[] pow10_a = new double[num_a];
+		double[] k_a = new double[num_a];
+		for(int aIndex = 0; aIndex < num_a; aIndex++) {
+			double a = get_a(aIndex);
+			pow10_a[aIndex] = Math.pow(10.0, a);
+			k_a[aIndex] = AftershockStatsCalc.convertProductivityTo_k(a, b, magMain, magCat);
+		}
+
+		// Fill the (p,c) plane
+
+		PlaneTask task = new PlaneTask (apc_log_like, pow10_a, k_a, 0, num_p * num_c);
+		if (num_p * num_c <= LEAF_CELLS) {
+			task.fill_cells();
+		} else {
+			((pool == null) ? ForkJoinPool.commonPool() : pool).invoke (task);
+		}
+		return;
+	}
+
+
+
+
+	// Fork/join task to fill a range of cells in the (p,c) plane, for all a.
+	// Cells are numbered pIndex*num_c + cIndex, so the element for (a,p,c) is
+	// at aIndex*num_p*num_c + cell in the flat array.
+
+	private class PlaneTask extends RecursiveAction {
+		private final double[] apc_log_like;
+		private final double[] pow10_a;
+		private final double[] k_a;
+		private final int lo;
+		private final int hi;
+
+		public PlaneTask (double[] apc_log_like, double[] pow10_a, double[] k_a, int lo, int hi) {
+			this.apc_log_like = apc_log_like;
+			this.pow10_a = pow10_a;
+			this.k_a = k_a;
+			this.lo = lo;
+			this.hi = hi;
+		}
+
+		@Override
+		protected void compute () {
+			if (hi - lo > LEAF_CELLS) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll (
+					new PlaneTask (apc_log_like, pow10_a, k_a, lo, mid),
+					new PlaneTask (apc_log_like, pow10_a, k_a, mid, hi)
+				);
+			} else {
+				fill_cells();
+			}
+			return;
+		}
+
+		public void fill_cells () {
+			double ln10 = Math.log(10);
+			double tPage = magCompFn.getTimeOfCompleteness(magMain, magCat);
+			boolean f_numeric = (tPage > dataStartTimeDays);
+			boolean f_analytic = (tPage < dataEndTimeDays);
+			int plane = num_p * num_c;
+
+			for (int cell = lo; cell < hi; ++cell) {
+				int pIndex = cell / num_c;
+				int cIndex = cell % num_c;
+				double p = get_p(pIndex);
+				double c = get_c(cIndex);
+
+				// The (p,c) factors of the integral, see AftershockStatsCalc.getPageExpectedNumEvents
+
+				double numeric = 0.0;
+				if (f_numeric) {
+					numeric = AftershockStatsCalc.getPageExpectedNumEventsNumeric(
+						b, magMain, magCat, magCompFn, p, c, dataStartTimeDays, dataEndTimeDays);
+				}
+
+				double analytic = 0.0;
+				if (f_analytic) {
+					analytic = AftershockStatsCalc.pow_diff_div (c+dataEndTimeDays, c+Math.max(dataStartTimeDays, tPage), 1.0 - p);
+				}
+
+				// Fill in all values of a
+
+				for(int aIndex = 0; aIndex < num_a; aIndex++) {
+					double a = get_a(aIndex);
+
+					double integral = 0.0;
+					if (f_numeric) {
+						integral += pow10_a[aIndex] * numeric;
+					}
+					if (f_analytic) {
+						integral += k_a[aIndex] * analytic;
+					}
+
+					// Form the log likelihood, with the same order of operations as the direct method
+
+					apc_log_like[aIndex*plane + cell] = numEvents*a*ln10 + b*ln10*sum1 - p*sum2[cIndex] - integral;
+				}
+			}
+			return;
+		}
+	}
+
+
+
+
+	/**
+	 * Fill in the log-likelihood for the grid, directly evaluating the integral for each triple.
+	 * @param apc_log_like = Flat array of length num_a*num_p*num_c to receive the log-likelihood.
+	 * This is the original (single-threaded) method, retained for testing.
+	 */
+	public void fill_log_likelihood_direct (double[] apc_log_like) {
+		double ln10 = Math.log(10);
+
+		for(int pIndex=0;pIndex<num_p;pIndex++) {
+			double p = get_p(pIndex);
+			for(int aIndex=0;aIndex<num_a;aIndex++) {
+				double a = get_a(aIndex);
+				for(int cIndex = 0; cIndex < num_c; cIndex++) {
+					double c = get_c(cIndex);
+
+					// Compute the integral of the aftershock rate over the time interval
+
+					double integral = AftershockStatsCalc.getPageExpectedNumEvents(
+						a, b, magMain, magCat, magCompFn, p, c, dataStartTimeDays, dataEndTimeDays);
+
+					// Form the log likelihood
+
+					double logLike = numEvents*a*ln10 + b*ln10*sum1 - p*sum2[cIndex] - integral;
+
+					// Save it as the array element
+
+					apc_log_like[((aIndex * num_p) + pIndex) * num_c + cIndex] = logLike;
+				}
+			}
+		}
+		return;
+	}
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_ApcLikelihood : Missing subcommand");
+			return;
+		}
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  reps
+		// Benchmark the separable engine against direct evaluation.
+		// Generate a simulated aftershock sequence, with Page time-dependent magnitude of completeness.
+		// Then for several grid sizes, fill the log-likelihood reps times with each method,
+		// and display the time, the number of bit-identical values, and the maximum difference.
+		// The grid sizes are the production configuration (401 x 1 x 1, from the generic
+		// parameters with a from -4.5 to -0.5 in steps of 0.01), the test configuration
+		// (101 x 31 x 1), and a fine 3-dimensional grid (101 x 31 x 21).
+		// Each is done with the data starting at time 0 (so numerical integration is needed)
+		// and starting at 10 days (after the time of completeness, so it is not).
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// 1 additional argument
+
+			if (args.length != 2) {
+				System.err.println ("RJ_ApcLikelihood : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int reps = Integer.parseInt (args[1]);
+
+			// Parameter values
+
+			double a = -1.67;
+			double b = 0.91;
+			double c = 0.05;
+			double p = 1.08;
+			double magMain = 7.5;
+			double magCat = 2.5;
+			double capF = 0.5;
+			double capG = 1.25;
+			double capH = 0.75;
+			double dataEndTimeDays = 30.0;
+
+			MagCompFn magCompFn = MagCompFn.makePageOrConstant (capF, capG, capH);
+
+			ObsEqkRupList aftershockList = AftershockStatsCalc.simAftershockSequence(a, b, magMain, magCat, magCompFn, p, c, 0.0, dataEndTimeDays);
+			ObsEqkRupture mainShock = new ObsEqkRupture("0", 0L, null, magMain);
+
+			System.out.println ("Benchmarking separable likelihood engine");
+			System.out.println ("reps = " + reps);
+			System.out.println ("aftershocks = " + aftershockList.size());
+			System.out.println ("tPage = " + magCompFn.getTimeOfCompleteness(magMain, magCat));
+
+			// Grids: num_a, num_p, num_c, and ranges
+
+			int[][] grid_size = {{401, 1, 1}, {101, 31, 1}, {101, 31, 21}};
+			double[][] grid_range = {{-4.5, -0.5, 1.08, 1.08, 0.018, 0.018}, {-2.0, -1.0, 0.9, 1.2, 0.05, 0.05}, {-2.0, -1.0, 0.9, 1.2, 0.01, 0.1}};
+			double[] start_times = {0.0, 10.0};
+
+			for (int ngrid = 0; ngrid < grid_size.length; ++ngrid) {
+				for (double dataStartTimeDays : start_times) {
+					int num_a = grid_size[ngrid][0];
+					int num_p = grid_size[ngrid][1];
+					int num_c = grid_size[ngrid][2];
+					double[] r = grid_range[ngrid];
+
+					RJ_ApcLikelihood engine = new RJ_ApcLikelihood (
+						r[0], (num_a > 1) ? (r[1]-r[0])/((double)num_a - 1.0) : 0.0, num_a,
+						r[2], (num_p > 1) ? (r[3]-r[2])/((double)num_p - 1.0) : 0.0, num_p,
+						r[4], (num_c > 1) ? (r[5]-r[4])/((double)num_c - 1.0) : 0.0, num_c,
+						b, magMain, magCat, magCompFn, dataStartTimeDays, dataEndTimeDays);
+					engine.accumulate (mainShock, aftershockList);
+
+					double[] direct = new double[num_a * num_p * num_c];
+					double[] separable = new double[num_a * num_p * num_c];
+
+					long direct_nanos = 0L;
+					long separable_nanos = 0L;
+					for (int rep = 0; rep < reps; ++rep) {
+						long start_nanos = System.nanoTime();
+						engine.fill_log_likelihood_direct (direct);
+						direct_nanos += (System.nanoTime() - start_nanos);
+
+						start_nanos = System.nanoTime();
+						engine.fill_log_likelihood (separable, null);
+						separable_nanos += (System.nanoTime() - start_nanos);
+					}
+
+					int identical = 0;
+					double max_diff = 0.0;
+					for (int ix = 0; ix < direct.length; ++ix) {
+						double x = direct[ix];
+						double y = separable[ix];
+						if (x == y) {
+							++identical;
+						}
+						max_diff = Math.max (max_diff, Math.abs (x - y));
+					}
+
+					System.out.println ();
+					System.out.println ("grid = " + num_a + " x " + num_p + " x " + num_c + ", dataStartTimeDays = " + dataStartTimeDays + ", events = " + engine.get_num_events());
+					System.out.println ("direct ms = " + String.format ("%.3f", ((double)direct_nanos) / (1.0e6 * reps))
+						+ ", separable ms = " + String.format ("%.3f", ((double)separable_nanos) / (1.0e6 * reps)));
+					System.out.println ("identical = " + identical + " of " + (num_a * num_p * num_c) + ", max_diff = " + max_diff);
+				}
+			}
+
+			return;
+		}
+
+
+		// Subcommand : Test #2
+		// Command format:
+		//  test2  reps
+		// Test incremental accumulation of the sufficient statistics.
+		// Generate a simulated aftershock sequence, with Page time-dependent magnitude of completeness.
+		// Then, for a series of increasing data end times, accumulate the statistics from scratch,
+		// and also incrementally starting from the statistics for the previous end time, and compare
+		// the statistics and the resulting log-likelihoods.  Then revise the magnitude of one early
+		// aftershock, and check that the incremental method detects the change and starts over.
+		// Time each method, doing each accumulation reps times.
+
+		if (args[0].equalsIgnoreCase ("test2")) {
+
+			// 1 additional argument
+
+			if (args.length != 2) {
+				System.err.println ("RJ_ApcLikelihood : Invalid 'test2' subcommand");
+				return;
+			}
+
+			int reps = Integer.parseInt (args[1]);
+
+			// Parameter values
+
+			double a = -1.67;
+			double b = 0.91;
+			double c = 0.05;
+			double p = 1.08;
+			double magMain = 7.5;
+			double magCat = 2.5;
+			double capF = 0.5;
+			double capG = 1.25;
+			double capH = 0.75;
+			double dataStartTimeDays = 0.0;
+
+			MagCompFn magCompFn = MagCompFn.makePageOrConstant (capF, capG, capH);
+
+			ObsEqkRupList aftershockList = AftershockStatsCalc.simAftershockSequence(a, b, magMain, magCat, magCompFn, p, c, 0.0, 365.0);
+			ObsEqkRupture mainShock = new ObsEqkRupture("0", 0L, null, magMain);
+
+			System.out.println ("Testing incremental sufficient statistics");
+			System.out.println ("reps = " + reps);
+			System.out.println ("aftershocks = " + aftershockList.size());
+
+			// Grid of 101 x 31 x 21
+
+			int num_a = 101;
+			int num_p = 31;
+			int num_c = 21;
+			double min_a = -2.0;
+			double delta_a = 1.0 / 100.0;
+			double min_p = 0.9;
+			double delta_p = 0.3 / 30.0;
+			double min_c = 0.01;
+			double delta_c = 0.09 / 20.0;
+
+			double[] end_times = {1.0, 2.0, 3.0, 7.0, 14.0, 30.0, 60.0, 90.0, 180.0, 365.0};
+
+			double[] full_like = new double[num_a * num_p * num_c];
+			double[] incr_like = new double[num_a * num_p * num_c];
+
+			RJ_SeqSpecStats prior = null;
+			long full_nanos = 0L;
+			long incr_nanos = 0L;
+
+			for (double dataEndTimeDays : end_times) {
+				RJ_ApcLikelihood full_engine = null;
+				RJ_ApcLikelihood incr_engine = null;
+
+				for (int rep = 0; rep < reps; ++rep) {
+					long start_nanos = System.nanoTime();
+					full_engine = new RJ_ApcLikelihood (
+						min_a, delta_a, num_a, min_p, delta_p, num_p, min_c, delta_c, num_c,
+						b, magMain, magCat, magCompFn, dataStartTimeDays, dataEndTimeDays);
+					full_engine.accumulate (mainShock, aftershockList);
+					full_nanos += (System.nanoTime() - start_nanos);
+
+					start_nanos = System.nanoTime();
+					incr_engine = new RJ_ApcLikelihood (
+						min_a, delta_a, num_a, min_p, delta_p, num_p, min_c, delta_c, num_c,
+						b, magMain, magCat, magCompFn, dataStartTimeDays, dataEndTimeDays);
+					incr_engine.accumulate_incremental (mainShock, aftershockList, prior);
+					incr_nanos += (System.nanoTime() - start_nanos);
+				}
+
+				RJ_SeqSpecStats full_stats = full_engine.get_stats (mainShock);
+				RJ_SeqSpecStats incr_stats = incr_engine.get_stats (mainShock);
+
+				double max_sum2_diff = 0.0;
+				for (int cIndex = 0; cIndex < num_c; ++cIndex) {
+					max_sum2_diff = Math.max (max_sum2_diff, Math.abs (full_stats.sum2[cIndex] - incr_stats.sum2[cIndex]));
+				}
+
+				full_engine.fill_log_likelihood (full_like, null);
+				incr_engine.fill_log_likelihood (incr_like, null);
+				double max_like_diff = 0.0;
+				for (int ix = 0; ix < full_like.length; ++ix) {
+					max_like_diff = Math.max (max_like_diff, Math.abs (full_like[ix] - incr_like[ix]));
+				}
+
+				System.out.println ();
+				System.out.println ("dataEndTimeDays = " + dataEndTimeDays + ", incremental = " + incr_engine.is_incremental());
+				System.out.println ("numEvents: full = " + full_stats.numEvents + ", incremental = " + incr_stats.numEvents);
+				System.out.println ("sum1 identical = " + (full_stats.sum1 == incr_stats.sum1)
+					+ ", fingerprint identical = " + (full_stats.windowCount == incr_stats.windowCount && full_stats.windowHash == incr_stats.windowHash));
+				System.out.println ("max sum2 diff = " + max_sum2_diff + ", max log-likelihood diff = " + max_like_diff);
+
+				prior = incr_stats;
+			}
+
+			System.out.println ();
+			System.out.println ("full accumulate ms = " + String.format ("%.3f", ((double)full_nanos) / (1.0e6 * reps))
+				+ ", incremental accumulate ms = " + String.format ("%.3f", ((double)incr_nanos) / (1.0e6 * reps)));
+
+			// Revise the magnitude of the first aftershock, and check that the prior statistics are rejected
+
+			ObsEqkRupture first = aftershockList.get(0);
+			aftershockList.set (0, new ObsEqkRupture(first.getEventId(), first.getOriginTime(), first.getHypocenterLocation(), first.getMag() + 0.1));
+
+			RJ_ApcLikelihood revised_engine = new RJ_ApcLikelihood (
+				min_a, delta_a, num_a, min_p, delta_p, num_p, min_c, delta_c, num_c,
+				b, magMain, magCat, magCompFn, dataStartTimeDays, 365.0);
+			revised_engine.accumulate_incremental (mainShock, aftershockList, prior);
+
+			System.out.println ();
+			System.out.println ("After revising the first aftershock, incremental = " + revised_engine.is_incremental());
+
+			return;
+		}
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_ApcLikelihood : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+}
@@ -0,0 +1,181 @@
+package org.opensha.oaf.rj;
+
+
+/**
+ * Table of aftershock forecast values, for several time intervals and magnitudes.
+ *
+ * For each time interval and minimum magnitude, this holds fractiles of the number of
+ * aftershocks (including aleatory variability, as in RJ_AftershockModel.getCumNumFractileWithAleatory)
+ * and the probability of one or more aftershocks (as in RJ_AftershockModel.getProbOneOrMoreEvents).
+ *
+ * The table is built by RJ_AftershockModel.getForecastTable, which computes all the magnitudes
+ * for a time interval in a single pass over the (a,p,c) support, and different time intervals
+ * in parallel.  The values are the same as those returned by the individual functions.
+ *
+ * Objects of this class are not modified after they are created.
+ */
+public class RJ_ForecastTable {
+
+	//----- Grid -----
+
+	// Time intervals, in days since the mainshock.
+
+	private final double[] tMinDays;
+	private final double[] tMaxDays;
+
+	// Minimum magnitudes.
+
+	private final double[] mags;
+
+	// Fractiles (percentile/100).
+
+	private final double[] fractiles;
+
+
+
+
+	//----- Values -----
+
+	// Fractile values, dimensioned [interval][mag][fractile].
+
+	private final double[][][] fractile_values;
+
+	// Probability of one or more aftershocks, dimensioned [interval][mag].
+
+	private final double[][] probs;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	/**
+	 * Construct with the given grid, and values initialized to zero.
+	 * The arrays are copied.
+	 */
+	RJ_ForecastTable (double[] tMinDays, double[] tMaxDays, double[] mags, double[] fractiles) {
+		if (!( tMinDays.length == tMaxDays.length )) {
+			throw new IllegalArgumentException ("RJ_ForecastTable: Time interval arrays have different lengths: tMinDays.length = " + tMinDays.length + ", tMaxDays.length = " + tMaxDays.length);
+		}
+		this.tMinDays = tMinDays.clone();
+		this.tMaxDays = tMaxDays.clone();
+		this.mags = mags.clone();
+		this.fractiles = fractiles.clone();
+		this.fractile_values = new double[tMinDays.length][mags.length][fractiles.length];
+		this.probs = new double[tMinDays.length][mags.length];
+	}
+
+
+
+
+	/**
+	 * Set the values for one time interval.
+	 * @param n = Time interval index.
+	 * @param table = Array dimensioned [mags.length][fractiles.length + 1], as returned
+	 *  by RJ_PoissonMixture.get_forecast_table.
+	 */
+	void set_interval (int n, double[][] table) {
+		int num_frac = fractiles.length;
+		for (int m = 0; m < mags.length; ++m) {
+			System.arraycopy (table[m], 0, fractile_values[n][m], 0, num_frac);
+			probs[n][m] = table[m][num_frac];
+		}
+		return;
+	}
+
+
+
+
+	//----- Access -----
+
+
+
+
+	/**
+	 * Get the number of time intervals.
+	 */
+	public int get_num_intervals () {
+		return tMinDays.length;
+	}
+
+
+	/**
+	 * Get the number of magnitudes.
+	 */
+	public int get_num_mags () {
+		return mags.length;
+	}
+
+
+	/**
+	 * Get the number of fractiles.
+	 */
+	public int get_num_fractiles () {
+		return fractiles.length;
+	}
+
+
+	/**
+	 * Get the start of time interval n, in days since the mainshock.
+	 */
+	public double get_tMinDays (int n) {
+		return tMinDays[n];
+	}
+
+
+	/**
+	 * Get the end of time interval n, in days since the mainshock.
+	 */
+	public double get_tMaxDays (int n) {
+		return tMaxDays[n];
+	}
+
+
+	/**
+	 * Get magnitude m.
+	 */
+	public double get_mag (int m) {
+		return mags[m];
+	}
+
+
+	/**
+	 * Get fractile i.
+	 */
+	public double get_fractile (int i) {
+		return fractiles[i];
+	}
+
+
+
+
+	/**
+	 * Get the value of fractile i of the number of aftershocks with magnitude >= mags[m],
+	 * in time interval n.
+	 */
+	public double get_fractile_value (int n, int m, int i) {
+		return fractile_values[n][m][i];
+	}
+
+
+	/**
+	 * Get all the fractile values of the number of aftershocks with magnitude >= mags[m],
+	 * in time interval n.  The returned array is a copy, of length get_num_fractiles().
+	 */
+	public double[] get_fractile_values (int n, int m) {
+		return fractile_values[n][m].clone();
+	}
+
+
+	/**
+	 * Get the probability of one or more aftershocks with magnitude >= mags[m],
+	 * in time interval n.
+	 */
+	public double get_prob (int n, int m) {
+		return probs[n][m];
+	}
+
+}
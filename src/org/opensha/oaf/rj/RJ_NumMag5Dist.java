@@ -0,0 +1,398 @@
+package org.opensha.oaf.rj;
+
+import org.opensha.commons.data.function.ArbDiscrEmpiricalDistFunc;
+
+
+/**
+ * Distribution of the expected number of M >= 5 aftershocks, in primitive arrays.
+ *
+ * This holds the same distribution as RJ_AftershockModel.computeNumMag5_DistributionFunc
+ * (x = expected number of M >= 5 aftershocks in a time interval, y = probability of the
+ * corresponding (a,p,c) triple), as sorted parallel arrays.  Points with equal x are merged
+ * by adding their probabilities, in the order they were supplied, as ArbDiscrEmpiricalDistFunc does.
+ *
+ * The mean, standard deviation, median, and interpolated fractile use the same definitions
+ * as ArbDiscrEmpiricalDistFunc, but without building any intermediate discretized functions.
+ * In particular, the interpolated fractile is found by linear interpolation in the normalized
+ * cumulative distribution, and a fraction below the first cumulative value yields the smallest x.
+ *
+ * Objects of this class are not modified after they are created.
+ */
+public class RJ_NumMag5Dist {
+
+	//----- Contents -----
+
+	// Number of points.
+
+	private final int num_point;
+
+	// Expected number of M >= 5 aftershocks, in strictly increasing order.
+
+	private final double[] exp_num5;
+
+	// Probability of each point (not necessarily normalized).
+
+	private final double[] weight;
+
+	// Cumulative probability, normalized so the last element is 1.
+
+	private final double[] norm_cum;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	/**
+	 * Build the distribution from unsorted points.
+	 * @param raw_x = Expected numbers of M >= 5 aftershocks.
+	 * @param raw_w = Corresponding probabilities.
+	 * @param n = Number of points, must be at least 1.  Only the first n elements of each array are used.
+	 * The arrays are not modified and not retained.
+	 */
+	public RJ_NumMag5Dist (double[] raw_x, double[] raw_w, int n) {
+		if (n <= 0) {
+			throw new IllegalArgumentException ("RJ_NumMag5Dist: Empty distribution");
+		}
+
+		// Stable sort of the indexes by x, so merged weights add in the original order
+
+		int[] index = new int[n];
+		for (int i = 0; i < n; ++i) {
+			index[i] = i;
+		}
+		stable_sort (index, raw_x);
+
+		// Merge equal x values
+
+		double[] xs = new double[n];
+		double[] ws = new double[n];
+		int m = 0;
+		for (int i = 0; i < n; ++i) {
+			double x = raw_x[index[i]];
+			double w = raw_w[index[i]];
+			if (m > 0 && xs[m - 1] == x) {
+				ws[m - 1] += w;
+			} else {
+				xs[m] = x;
+				ws[m] = w;
+				++m;
+			}
+		}
+
+		num_point = m;
+		exp_num5 = (m == n) ? xs : java.util.Arrays.copyOf (xs, m);
+		weight = (m == n) ? ws : java.util.Arrays.copyOf (ws, m);
+
+		// Cumulative distribution, scaled by the reciprocal of the total as in getNormalizedCumDist
+
+		norm_cum = new double[m];
+		double sum = 0.0;
+		for (int i = 0; i < m; ++i) {
+			sum += weight[i];
+			norm_cum[i] = sum;
+		}
+		double scale = 1.0 / sum;
+		for (int i = 0; i < m; ++i) {
+			norm_cum[i] *= scale;
+		}
+	}
+
+
+
+
+	// Stable merge sort of index by key[index[i]].
+
+	private static void stable_sort (int[] index, double[] key) {
+		int n = index.length;
+		int[] src = index;
+		int[] dst = new int[n];
+		for (int width = 1; width < n; width *= 2) {
+			for (int lo = 0; lo < n; lo += 2 * width) {
+				int mid = Math.min (lo + width, n);
+				int hi = Math.min (lo + 2 * width, n);
+				int i = lo;
+				int j = mid;
+				int k = lo;
+				while (i < mid && j < hi) {
+					dst[k++] = (key[src[j]] < key[src[i]]) ? src[j++] : src[i++];
+				}
+				while (i < mid) {
+					dst[k++] = src[i++];
+				}
+				while (j < hi) {
+					dst[k++] = src[j++];
+				}
+			}
+			int[] t = src;
+			src = dst;
+			dst = t;
+		}
+		if (src != index) {
+			System.arraycopy (src, 0, index, 0, n);
+		}
+		return;
+	}
+
+
+
+
+	//----- Access -----
+
+
+
+
+	/**
+	 * Get the number of distinct points.
+	 */
+	public int size () {
+		return num_point;
+	}
+
+
+	/**
+	 * Get the i-th expected number of M >= 5 aftershocks, in increasing order.
+	 */
+	public double get_exp_num5 (int i) {
+		return exp_num5[i];
+	}
+
+
+	/**
+	 * Get the probability of the i-th point.
+	 */
+	public double get_weight (int i) {
+		return weight[i];
+	}
+
+
+	/**
+	 * Get the largest expected number of M >= 5 aftershocks.
+	 */
+	public double get_max_exp_num5 () {
+		return exp_num5[num_point - 1];
+	}
+
+
+
+
+	/**
+	 * Get the mean expected number of M >= 5 aftershocks.
+	 */
+	public double get_mean () {
+		double sumXY = 0.0;
+		double sumY = 0.0;
+		for (int i = 0; i < num_point; ++i) {
+			sumXY += exp_num5[i] * weight[i];
+			sumY += weight[i];
+		}
+		return sumXY / sumY;
+	}
+
+
+
+
+	/**
+	 * Get the standard deviation of the expected number of M >= 5 aftershocks.
+	 */
+	public double get_std_dev () {
+		double mean = get_mean();
+		double sumVar = 0.0;
+		double sumY = 0.0;
+		for (int i = 0; i < num_point; ++i) {
+			double dx = exp_num5[i] - mean;
+			sumVar += dx * dx * weight[i];
+			sumY += weight[i];
+		}
+		return Math.sqrt (sumVar / sumY);
+	}
+
+
+
+
+	/**
+	 * Get the interpolated fractile of the expected number of M >= 5 aftershocks.
+	 * @param fraction = Fractile, must be between 0 and 1.
+	 */
+	public double get_fractile (double fraction) {
+		if (!( fraction >= 0.0 && fraction <= 1.0 )) {
+			throw new IllegalArgumentException ("RJ_NumMag5Dist.get_fractile: Fraction must be between 0 and 1: fraction = " + fraction);
+		}
+
+		// Below the first cumulative value, or a single point, return the smallest value
+
+		if (fraction < norm_cum[0] || num_point == 1) {
+			return exp_num5[0];
+		}
+
+		// Find the first segment that contains the fraction, which starts at the last
+		// cumulative value < fraction (the cumulative values are non-decreasing)
+
+		int lo = 0;
+		int hi = num_point - 1;
+		while (hi - lo > 1) {
+			int mid = (lo + hi) >>> 1;
+			if (norm_cum[mid] < fraction) {
+				lo = mid;
+			} else {
+				hi = mid;
+			}
+		}
+
+		double y1 = norm_cum[lo];
+		double y2 = norm_cum[lo + 1];
+		double x1 = exp_num5[lo];
+		double x2 = exp_num5[lo + 1];
+		if (y1 == y2) {
+			return x1;
+		}
+		return ((fraction - y1) * (x2 - x1)) / (y2 - y1) + x1;
+	}
+
+
+
+
+	/**
+	 * Get the median expected number of M >= 5 aftershocks.
+	 */
+	public double get_median () {
+		return get_fractile (0.5);
+	}
+
+
+
+
+	/**
+	 * Make an ArbDiscrEmpiricalDistFunc containing this distribution.
+	 */
+	public ArbDiscrEmpiricalDistFunc get_dist_func () {
+		ArbDiscrEmpiricalDistFunc func = new ArbDiscrEmpiricalDistFunc();
+		for (int i = 0; i < num_point; ++i) {
+			func.set (exp_num5[i], weight[i]);
+		}
+		return func;
+	}
+
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_NumMag5Dist : Missing subcommand");
+			return;
+		}
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_point  num_distinct  seed
+		// Compare against ArbDiscrEmpiricalDistFunc built one point at a time.
+		// Construct num_point points with random weights, whose expected numbers of M >= 5 aftershocks
+		// are drawn from num_distinct log-uniformly distributed values (so some are merged).
+		// Then compute the mean, standard deviation, median, and several fractiles, by both methods,
+		// and display the results and times.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// 3 additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("RJ_NumMag5Dist : Invalid 'test1' subcommand");
+				return;
+			}
+
+			try {
+
+				int num_point = Integer.parseInt (args[1]);
+				int num_distinct = Integer.parseInt (args[2]);
+				long seed = Long.parseLong (args[3]);
+
+				double[] fractileArray = {0.0, 0.001, 0.025, 0.25, 0.5, 0.75, 0.975, 0.999, 1.0};
+
+				// Make the points
+
+				java.util.Random rangen = new java.util.Random (seed);
+				double[] values = new double[num_distinct];
+				for (int i = 0; i < num_distinct; ++i) {
+					values[i] = 1.0e-3 * Math.pow (1.0e6, rangen.nextDouble());
+				}
+				double[] raw_x = new double[num_point];
+				double[] raw_w = new double[num_point];
+				double total_wt = 0.0;
+				for (int i = 0; i < num_point; ++i) {
+					raw_x[i] = values[rangen.nextInt (num_distinct)];
+					raw_w[i] = rangen.nextDouble();
+					total_wt += raw_w[i];
+				}
+				for (int i = 0; i < num_point; ++i) {
+					raw_w[i] /= total_wt;
+				}
+
+				// Primitive arrays
+
+				long start_nanos = System.nanoTime();
+				RJ_NumMag5Dist dist = new RJ_NumMag5Dist (raw_x, raw_w, num_point);
+				double[] dist_result = new double[fractileArray.length + 3];
+				dist_result[0] = dist.get_mean();
+				dist_result[1] = dist.get_std_dev();
+				dist_result[2] = dist.get_median();
+				for (int i = 0; i < fractileArray.length; ++i) {
+					dist_result[i + 3] = dist.get_fractile (fractileArray[i]);
+				}
+				long dist_nanos = System.nanoTime() - start_nanos;
+
+				// Reference
+
+				start_nanos = System.nanoTime();
+				ArbDiscrEmpiricalDistFunc func = new ArbDiscrEmpiricalDistFunc();
+				for (int i = 0; i < num_point; ++i) {
+					func.set (raw_x[i], raw_w[i]);
+				}
+				double[] func_result = new double[fractileArray.length + 3];
+				func_result[0] = func.getMean();
+				func_result[1] = func.getStdDev();
+				func_result[2] = func.getMedian();
+				for (int i = 0; i < fractileArray.length; ++i) {
+					func_result[i + 3] = func.getInterpolatedFractile (fractileArray[i]);
+				}
+				long func_nanos = System.nanoTime() - start_nanos;
+
+				// Display
+
+				System.out.println ("points = " + dist.size() + " (" + func.size() + ")");
+				System.out.println ("mean = " + dist_result[0] + " (" + func_result[0] + ")");
+				System.out.println ("std_dev = " + dist_result[1] + " (" + func_result[1] + ")");
+				System.out.println ("median = " + dist_result[2] + " (" + func_result[2] + ")");
+				for (int i = 0; i < fractileArray.length; ++i) {
+					System.out.println ("fractile " + fractileArray[i] + " = " + dist_result[i + 3] + " (" + func_result[i + 3] + ")");
+				}
+				double max_rel_diff = 0.0;
+				for (int i = 0; i < dist_result.length; ++i) {
+					max_rel_diff = Math.max (max_rel_diff, Math.abs (dist_result[i] - func_result[i]) / Math.max (Math.abs (func_result[i]), Double.MIN_NORMAL));
+				}
+				System.out.println ("max_rel_diff = " + max_rel_diff);
+				System.out.println ("dist ms = " + String.format ("%.3f", ((double)dist_nanos) / 1.0e6)
+					+ ", func ms = " + String.format ("%.3f", ((double)func_nanos) / 1.0e6));
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_NumMag5Dist : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+
+}
@@ -0,0 +1,638 @@
+package org.opensha.oaf.rj;
+
+import org.apache.commons.math3.distribution.PoissonDistribution;
+import org.opensha.commons.data.function.ArbDiscrEmpiricalDistFunc;
+import org.opensha.commons.data.function.HistogramFunction;
+
+
+/**
+ * Poisson mixture engine for the Reasenberg-Jones model.
+ *
+ * The number of aftershocks of magnitude >= mag, in a given time interval, has a probability
+ * distribution that is a mixture of Poisson distributions.  Each component corresponds to a
+ * value of the R&J expected number of M >= 5 aftershocks (from the epistemic distribution
+ * of the parameter triple (a,p,c), see RJ_AftershockModel.computeNumMag5_DistributionFunc),
+ * and the Poisson mean for magnitude mag is that expected number times 10^(b*(5 - mag)).
+ *
+ * This engine evaluates the same mixture as RJ_AftershockModel.getCumNumFractileWithAleatory
+ * and RJ_AftershockModel.getDistFuncWithAleatory did with Apache PoissonDistribution,
+ * including the truncation of each component to its 0.0001 to 0.9999 fractiles, and of the
+ * mixture to the 0.999 fractile of the largest component.  But instead of constructing a
+ * PoissonDistribution for each component, the probability mass function is computed by
+ * recurrence outward from the mode, over a window wide enough to hold all but a negligible
+ * part of the distribution, and then normalized.  This needs only a multiply and a divide
+ * per term, and the inverse cumulative probabilities come from the same pass.  The results
+ * agree with PoissonDistribution to within rounding error.
+ *
+ * The component expected numbers are held in primitive arrays, so one engine serves all
+ * magnitudes for a given time interval, and the functions that take an array of magnitude
+ * scale factors evaluate all magnitudes in a single pass over the components.
+ *
+ * This class is not thread-safe, because it uses internal work buffers.
+ */
+public class RJ_PoissonMixture {
+
+	//----- Mixture -----
+
+	// Number of components.
+
+	private int num_comp;
+
+	// Expected number of M >= 5 aftershocks for each component.
+
+	private double[] exp_num5;
+
+	// Weight of each component.
+
+	private double[] weight;
+
+	// The largest expected number of M >= 5 aftershocks.
+
+	private double max_exp_num5;
+
+
+
+
+	//----- Parameters -----
+
+	// Fractiles that bound the portion of each component that is added to the mixture.
+
+	private static final double COMP_LO_FRACTILE = 0.0001;
+	private static final double COMP_HI_FRACTILE = 0.9999;
+
+	// Fractile of the largest component that bounds the mixture.
+
+	private static final double MAX_ALEATORY_FRACTILE = 0.999;
+
+	// The probability mass function is computed for j within PMF_SIGMAS standard deviations
+	// plus PMF_MARGIN of the mode.  The probability outside this window is less than 1e-25.
+
+	private static final double PMF_SIGMAS = 12.0;
+	private static final int PMF_MARGIN = 12;
+
+	// Largest mean for which the probability mass function is computed by recurrence.
+	// Above this, the window is too long for the recurrence to stay accurate, and
+	// PoissonDistribution is used instead, as in the original code.
+
+	private static final double PMF_MAX_LAMBDA = 1.0e9;
+
+
+
+
+	//----- Work buffers -----
+
+	// Probability mass function for one Poisson distribution, pmf_buf[j - pmf_lo] is the probability of j.
+
+	private double[] pmf_buf = new double[256];
+	private int pmf_lo;
+	private int pmf_hi;
+
+	// Range where the cumulative distribution first reaches COMP_LO_FRACTILE and COMP_HI_FRACTILE.
+
+	private int pmf_frac_lo;
+	private int pmf_frac_hi;
+
+	// If the mean exceeds PMF_MAX_LAMBDA, the Poisson distribution to use in place of pmf_buf, otherwise null.
+
+	private PoissonDistribution pmf_large;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	/**
+	 * Set up the engine from the distribution of the expected number of M >= 5 aftershocks.
+	 * @param numMag5_func = Distribution, where x = expected number of M >= 5 aftershocks,
+	 *  and y = probability.  See RJ_AftershockModel.computeNumMag5_DistributionFunc.
+	 */
+	public RJ_PoissonMixture (ArbDiscrEmpiricalDistFunc numMag5_func) {
+		num_comp = numMag5_func.size();
+		if (num_comp <= 0) {
+			throw new IllegalArgumentException ("RJ_PoissonMixture: Empty distribution");
+		}
+
+		exp_num5 = new double[num_comp];
+		weight = new double[num_comp];
+		for (int i = 0; i < num_comp; ++i) {
+			exp_num5[i] = numMag5_func.getX(i);
+			weight[i] = numMag5_func.getY(i);
+		}
+		max_exp_num5 = numMag5_func.getMaxX();
+	}
+
+
+
+
+	/**
+	 * Set up the engine from the distribution of the expected number of M >= 5 aftershocks.
+	 * @param numMag5_dist = Distribution of the expected number of M >= 5 aftershocks.
+	 *  See RJ_AftershockModel.getNumMag5_Dist.
+	 */
+	public RJ_PoissonMixture (RJ_NumMag5Dist numMag5_dist) {
+		num_comp = numMag5_dist.size();
+
+		exp_num5 = new double[num_comp];
+		weight = new double[num_comp];
+		for (int i = 0; i < num_comp; ++i) {
+			exp_num5[i] = numMag5_dist.get_exp_num5(i);
+			weight[i] = numMag5_dist.get_weight(i);
+		}
+		max_exp_num5 = numMag5_dist.get_max_exp_num5();
+	}
+
+
+
+
+	/**
+	 * Get the factor that converts an expected number of M >= 5 aftershocks to magnitude mag.
+	 */
+	public static double get_mag_scale (double b, double mag) {
+		return Math.pow(10d, b*(5-mag));
+	}
+
+
+
+
+	//----- Poisson distribution -----
+
+
+
+
+	// Compute the probability mass function of a Poisson distribution with the given mean,
+	// into pmf_buf, and find the inverse cumulative probabilities of COMP_LO_FRACTILE and
+	// COMP_HI_FRACTILE (the smallest j such that the probability of j or fewer is at least
+	// the fractile, as in PoissonDistribution.inverseCumulativeProbability).
+	// On return, pmf_buf[j - pmf_lo] is the probability of j, for pmf_lo <= j <= pmf_hi.
+	// If hi_fractile is not COMP_HI_FRACTILE, then pmf_frac_hi is its inverse cumulative
+	// probability instead.
+	// If lambda exceeds PMF_MAX_LAMBDA, then pmf_buf is not filled, and instead pmf_large is
+	// set to a PoissonDistribution, which supplies the probabilities and fractiles.
+
+	private void fill_pmf (double lambda, double hi_fractile) {
+		pmf_large = null;
+
+		// Degenerate distribution if the mean is zero (can only occur by underflow)
+
+		if (!( lambda > 0.0 )) {
+			pmf_lo = 0;
+			pmf_hi = 0;
+			pmf_buf[0] = 1.0;
+			pmf_frac_lo = 0;
+			pmf_frac_hi = 0;
+			return;
+		}
+
+		// Very large mean, use PoissonDistribution
+
+		if (lambda > PMF_MAX_LAMBDA) {
+			pmf_large = new PoissonDistribution(null, lambda, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
+			pmf_frac_lo = pmf_large.inverseCumulativeProbability(COMP_LO_FRACTILE);
+			pmf_frac_hi = pmf_large.inverseCumulativeProbability(hi_fractile);
+			pmf_lo = pmf_frac_lo;
+			pmf_hi = pmf_frac_hi;
+			return;
+		}
+
+		// Window around the mode
+
+		int mode = (int)Math.floor(lambda);
+		int span = (int)Math.ceil(PMF_SIGMAS * Math.sqrt(lambda)) + PMF_MARGIN;
+		pmf_lo = Math.max (0, mode - span);
+		pmf_hi = mode + span;
+
+		int len = pmf_hi - pmf_lo + 1;
+		if (pmf_buf.length < len) {
+			pmf_buf = new double[Math.max (len, 2 * pmf_buf.length)];
+		}
+
+		// Unnormalized values, 1 at the mode, by recurrence p(j+1) = p(j)*lambda/(j+1)
+
+		int imode = mode - pmf_lo;
+		double q = 1.0;
+		pmf_buf[imode] = q;
+		for (int j = mode + 1; j <= pmf_hi; ++j) {
+			q = q * lambda / j;
+			pmf_buf[j - pmf_lo] = q;
+		}
+		q = 1.0;
+		for (int j = mode - 1; j >= pmf_lo; --j) {
+			q = q * (j + 1) / lambda;
+			pmf_buf[j - pmf_lo] = q;
+		}
+
+		// Normalize
+
+		double total = 0.0;
+		for (int i = 0; i < len; ++i) {
+			total += pmf_buf[i];
+		}
+		double inv_total = 1.0 / total;
+		for (int i = 0; i < len; ++i) {
+			pmf_buf[i] *= inv_total;
+		}
+
+		// Inverse cumulative probabilities
+
+		double cum = 0.0;
+		int i = 0;
+		for ( ; i < len - 1; ++i) {
+			cum += pmf_buf[i];
+			if (cum >= COMP_LO_FRACTILE) {
+				break;
+			}
+		}
+		pmf_frac_lo = pmf_lo + i;
+
+		for ( ; i < len - 1; ++i) {
+			if (cum >= hi_fractile) {
+				break;
+			}
+			cum += pmf_buf[i + 1];
+		}
+		pmf_frac_hi = pmf_lo + i;
+
+		return;
+	}
+
+
+
+
+	// Get the largest number of aftershocks in the mixture, for the given magnitude scale.
+
+	private int get_max_aleatory_num (double scale) {
+		fill_pmf (max_exp_num5 * scale, MAX_ALEATORY_FRACTILE);
+		return pmf_frac_hi;
+	}
+
+
+
+
+	// Add one component to the mixture.
+	// dist = Mixture probability distribution, with length max_num + 1.
+
+	private void add_component (double[] dist, int max_num, double lambda, double wt) {
+		fill_pmf (lambda, COMP_HI_FRACTILE);
+
+		int j_lo = Math.max (0, pmf_frac_lo);
+		int j_hi = Math.min (max_num, pmf_frac_hi);
+		if (pmf_large != null) {
+			for (int j = j_lo; j <= j_hi; ++j) {
+				dist[j] += pmf_large.probability(j) * wt;
+			}
+			return;
+		}
+		for (int j = j_lo; j <= j_hi; ++j) {
+			dist[j] += pmf_buf[j - pmf_lo] * wt;
+		}
+		return;
+	}
+
+
+
+
+	//----- Mixture distribution -----
+
+
+
+
+	/**
+	 * Get the probability distribution of the number of aftershocks.
+	 * @param scale = Magnitude scale factor, from get_mag_scale.
+	 * @return
+	 * Returns an array whose length is one more than the maximum number of aftershocks that
+	 * has a significantly non-zero probability.  The i-th element is the probability of i aftershocks.
+	 * See RJ_AftershockModel.getDistFuncWithAleatory.
+	 */
+	public double[] get_dist_func (double scale) {
+		int max_num = get_max_aleatory_num (scale);
+		double[] dist = new double[max_num + 1];
+
+		for (int i = 0; i < num_comp; ++i) {
+			add_component (dist, max_num, exp_num5[i] * scale, weight[i]);
+		}
+
+		return dist;
+	}
+
+
+
+
+	// Accumulate the mixture over the components, for several magnitudes, in a single pass.
+	// Parameters:
+	//  fractileArray = Desired fractiles (percentile/100) of the probability distribution,
+	//    or null if no fractiles are wanted.
+	//  scales = Magnitude scale factors, from get_mag_scale, one for each magnitude.
+	//  f_prob = True to compute the probability of one or more aftershocks.
+	// Returns an array dimensioned [scales.length][num_frac + (f_prob ? 1 : 0)], where num_frac is
+	// the length of fractileArray (0 if null).  Element [m][i] is the fractileArray[i] fractile for
+	// magnitude m, and if f_prob is true, element [m][num_frac] is the probability of one or more
+	// aftershocks for magnitude m.
+	// This is the common code for get_fractiles, get_prob_one_or_more, and get_forecast_table.
+
+	private double[][] accum_mixture (double[] fractileArray, double[] scales, boolean f_prob) {
+		int num_mag = scales.length;
+		int num_frac = ((fractileArray == null) ? 0 : fractileArray.length);
+
+		// Allocate the distribution for each magnitude, if fractiles are wanted
+
+		int[] max_num = null;
+		double[][] dist = null;
+		if (fractileArray != null) {
+			max_num = new int[num_mag];
+			dist = new double[num_mag][];
+			for (int m = 0; m < num_mag; ++m) {
+				max_num[m] = get_max_aleatory_num (scales[m]);
+				dist[m] = new double[max_num[m] + 1];
+			}
+		}
+
+		// Accumulate the mixture and the probabilities
+
+		double[] prob = new double[num_mag];
+
+		for (int i = 0; i < num_comp; ++i) {
+			double lambda5 = exp_num5[i];
+			double wt = weight[i];
+			for (int m = 0; m < num_mag; ++m) {
+				double lambda = lambda5 * scales[m];
+				if (dist != null) {
+					add_component (dist[m], max_num[m], lambda, wt);
+				}
+				if (f_prob) {
+					double poissonProb = 1.0 - Math.exp(-lambda);
+					prob[m] += (poissonProb * wt);
+				}
+			}
+		}
+
+		// Convert to cumulative distributions and find the fractiles
+
+		double[][] result = new double[num_mag][];
+		for (int m = 0; m < num_mag; ++m) {
+			result[m] = new double[num_frac + (f_prob ? 1 : 0)];
+			if (dist != null) {
+				double[] cum = dist[m];
+				double sum = 0.0;
+				for (int j = 0; j < cum.length; ++j) {
+					sum += cum[j];
+					cum[j] = sum;
+				}
+				for (int i = 0; i < num_frac; ++i) {
+					result[m][i] = cum_fractile (cum, fractileArray[i]);
+				}
+			}
+			if (f_prob) {
+				result[m][num_frac] = Math.min (prob[m], 1.0);	// in case rounding produces a result a little larger than 1.0
+			}
+		}
+
+		return result;
+	}
+
+
+
+
+	// Find a fractile in a cumulative distribution.
+	// This selects the first j whose cumulative probability is closest to the fractile (as
+	// DiscretizedFunc.getClosestXtoY does), and then applies the same adjustment as the original
+	// code in RJ_AftershockModel.getCumNumFractileWithAleatory, so results are unchanged.
+
+	private static double cum_fractile (double[] cum, double fractile) {
+		int jbest = 0;
+		double dist = Double.POSITIVE_INFINITY;
+		for (int j = 0; j < cum.length; ++j) {
+			double d = Math.abs (fractile - cum[j]);
+			if (d < dist) {
+				dist = d;
+				jbest = j;
+			}
+		}
+
+		double fractVal = (double)jbest;
+		if (cum[jbest] < fractVal) {
+			fractVal += 1;
+		}
+		return fractVal;
+	}
+
+
+
+
+	/**
+	 * Get fractiles of the number of aftershocks, for several magnitudes.
+	 * @param fractileArray = Desired fractiles (percentile/100) of the probability distribution.
+	 * @param scales = Magnitude scale factors, from get_mag_scale, one for each magnitude.
+	 * @return
+	 * Returns an array dimensioned [scales.length][fractileArray.length], where element [m][i]
+	 * is the fractileArray[i] fractile for magnitude m.  See RJ_AftershockModel.getCumNumFractileWithAleatory.
+	 * All the magnitudes are accumulated in a single pass over the mixture components.
+	 */
+	public double[][] get_fractiles (double[] fractileArray, double[] scales) {
+		return accum_mixture (fractileArray, scales, false);
+	}
+
+
+
+
+	/**
+	 * Get the probability of one or more aftershocks, for several magnitudes.
+	 * @param scales = Magnitude scale factors, from get_mag_scale, one for each magnitude.
+	 * @return
+	 * Returns an array of length scales.length, containing the weighted average over the
+	 * components of the Poisson probability of one or more aftershocks.
+	 * See RJ_AftershockModel.getProbOneOrMoreEvents.
+	 */
+	public double[] get_prob_one_or_more (double[] scales) {
+		double[][] table = accum_mixture (null, scales, true);
+
+		double[] result = new double[scales.length];
+		for (int m = 0; m < scales.length; ++m) {
+			result[m] = table[m][0];
+		}
+
+		return result;
+	}
+
+
+
+
+	/**
+	 * Get fractiles of the number of aftershocks, and the probability of one or more aftershocks,
+	 * for several magnitudes.
+	 * @param fractileArray = Desired fractiles (percentile/100) of the probability distribution.
+	 * @param scales = Magnitude scale factors, from get_mag_scale, one for each magnitude.
+	 * @return
+	 * Returns an array dimensioned [scales.length][fractileArray.length + 1], where element [m][i]
+	 * is the fractileArray[i] fractile for magnitude m, and element [m][fractileArray.length] is
+	 * the probability of one or more aftershocks for magnitude m.
+	 * The results are the same as get_fractiles and get_prob_one_or_more, but both are
+	 * accumulated in a single pass over the mixture components.
+	 */
+	public double[][] get_forecast_table (double[] fractileArray, double[] scales) {
+		return accum_mixture (fractileArray, scales, true);
+	}
+
+
+
+
+	//----- Testing -----
+
+
+
+
+	// Reference implementation, the original code from RJ_AftershockModel.getCumNumFractileWithAleatory.
+
+	private static double[] reference_fractiles (ArbDiscrEmpiricalDistFunc numMag5_DistributionFunc, double[] fractileArray, double b, double mag) {
+		double maxExpNum = numMag5_DistributionFunc.getMaxX()*Math.pow(10d, b*(5-mag));
+
+		PoissonDistribution poissDist = new PoissonDistribution(null, maxExpNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
+		int maxAleatoryNum = poissDist.inverseCumulativeProbability(0.999);
+		
+		HistogramFunction cumDistFunc = new HistogramFunction(0d, (double)maxAleatoryNum,maxAleatoryNum+1);
+		double[] distFunc = new double[cumDistFunc.size()];
+		
+		for(int i=0;i<numMag5_DistributionFunc.size();i++) {
+			double expNum = numMag5_DistributionFunc.getX(i)*Math.pow(10d, b*(5-mag));
+			double wt = numMag5_DistributionFunc.getY(i);
+			poissDist = new PoissonDistribution(null, expNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
+			
+			int minLoopVal = poissDist.inverseCumulativeProbability(0.0001);
+			int maxLoopVal = poissDist.inverseCumulativeProbability(0.9999);
+			if(maxLoopVal>cumDistFunc.size()-1)
+				maxLoopVal=cumDistFunc.size()-1;
+			if(minLoopVal < 0)
+				minLoopVal = 0;
+			for(int j=minLoopVal;j<=maxLoopVal;j++) {
+				distFunc[j] += poissDist.probability(j)*wt;
+			}
+		}
+		double sum=0;
+		for(int j=0;j<distFunc.length;j++) {
+			sum+=distFunc[j];
+			cumDistFunc.set(j,sum);
+		}
+		double[] fractValArray = new double[fractileArray.length];
+		for(int i=0;i<fractileArray.length;i++) {
+			double fractVal = (int)Math.round(cumDistFunc.getClosestXtoY(fractileArray[i]));
+			if(cumDistFunc.getY(fractVal)<fractVal)
+				fractVal += 1;
+			fractValArray[i]=fractVal;
+		}
+		return fractValArray;
+	}
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_PoissonMixture : Missing subcommand");
+			return;
+		}
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_comp  min_exp_num5  max_exp_num5  seed
+		// Compare the mixture engine against the original implementation using PoissonDistribution.
+		// Construct a mixture of num_comp components, with expected numbers of M >= 5 aftershocks
+		// log-uniformly distributed between min_exp_num5 and max_exp_num5, and random weights.
+		// Then compute the 2.5, 50, and 97.5 percentiles for magnitudes 3 through 8, by both methods,
+		// and display the results and times.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// 4 additional arguments
+
+			if (args.length != 5) {
+				System.err.println ("RJ_PoissonMixture : Invalid 'test1' subcommand");
+				return;
+			}
+
+			try {
+
+				int num_comp = Integer.parseInt (args[1]);
+				double min_exp_num5 = Double.parseDouble (args[2]);
+				double max_exp_num5 = Double.parseDouble (args[3]);
+				long seed = Long.parseLong (args[4]);
+
+				double b = 1.0;
+				double[] fractileArray = {0.025, 0.5, 0.975};
+				double[] mags = {3.0, 4.0, 5.0, 6.0, 7.0, 8.0};
+
+				// Build the mixture
+
+				java.util.Random rangen = new java.util.Random (seed);
+				ArbDiscrEmpiricalDistFunc numMag5_func = new ArbDiscrEmpiricalDistFunc();
+				double[] raw_wt = new double[num_comp];
+				double total_wt = 0.0;
+				for (int i = 0; i < num_comp; ++i) {
+					raw_wt[i] = rangen.nextDouble();
+					total_wt += raw_wt[i];
+				}
+				for (int i = 0; i < num_comp; ++i) {
+					double x = min_exp_num5 * Math.pow (max_exp_num5 / min_exp_num5, rangen.nextDouble());
+					numMag5_func.set (x, raw_wt[i] / total_wt);
+				}
+
+				// Engine, all magnitudes in one pass
+
+				long start_nanos = System.nanoTime();
+				RJ_PoissonMixture mixture = new RJ_PoissonMixture (numMag5_func);
+				double[] scales = new double[mags.length];
+				for (int m = 0; m < mags.length; ++m) {
+					scales[m] = get_mag_scale (b, mags[m]);
+				}
+				double[][] engine_result = mixture.get_fractiles (fractileArray, scales);
+				long engine_nanos = System.nanoTime() - start_nanos;
+
+				// Reference
+
+				start_nanos = System.nanoTime();
+				double[][] reference_result = new double[mags.length][];
+				for (int m = 0; m < mags.length; ++m) {
+					reference_result[m] = reference_fractiles (numMag5_func, fractileArray, b, mags[m]);
+				}
+				long reference_nanos = System.nanoTime() - start_nanos;
+
+				// Display
+
+				System.out.println ("components = " + numMag5_func.size());
+				int mismatch = 0;
+				for (int m = 0; m < mags.length; ++m) {
+					StringBuilder sb = new StringBuilder();
+					sb.append ("mag = " + mags[m] + ":");
+					for (int i = 0; i < fractileArray.length; ++i) {
+						sb.append ("  " + engine_result[m][i] + " (" + reference_result[m][i] + ")");
+						if (engine_result[m][i] != reference_result[m][i]) {
+							++mismatch;
+						}
+					}
+					System.out.println (sb.toString());
+				}
+				System.out.println ("mismatch = " + mismatch);
+				System.out.println ("engine ms = " + String.format ("%.3f", ((double)engine_nanos) / 1.0e6)
+					+ ", reference ms = " + String.format ("%.3f", ((double)reference_nanos) / 1.0e6));
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_PoissonMixture : Unrecognized subcommand : " + args[0]);
+		return;
+	}
+
+}
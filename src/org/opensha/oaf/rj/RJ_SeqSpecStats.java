@@ -0,0 +1,342 @@
+package org.opensha.oaf.rj;
+
+import java.util.Arrays;
+
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
+
+import org.opensha.oaf.util.MarshalReader;
+import org.opensha.oaf.util.MarshalWriter;
+import org.opensha.oaf.util.MarshalException;
+
+
+/**
+ * Sufficient statistics of an aftershock sequence, for the sequence-specific Reasenberg-Jones model.
+ *
+ * The sequence-specific log-likelihood depends on the aftershocks only through the number of
+ * aftershocks N, the sum of magMain - magMin(t_i), and the sum of log(t_i + c) for each c
+ * (see RJ_ApcLikelihood).  This object holds those sums, so that a later fit of the same
+ * sequence over a longer data interval only needs to accumulate the newly arrived aftershocks.
+ *
+ * To check that the statistics still apply, it also holds everything that the sums depend on:
+ * the mainshock, the magnitude of completeness, the c-grid, and the data interval.  It also
+ * holds a fingerprint (count and order-independent hash of time and magnitude) of all the
+ * aftershocks that fall within the data interval, regardless of magnitude.  If the catalog
+ * is later revised within the old interval (events added, deleted, moved, or re-rated),
+ * the fingerprint will not match and the statistics are recomputed from scratch.
+ *
+ * Objects of this class are not modified after they are created.
+ */
+public class RJ_SeqSpecStats {
+
+	//----- Key -----
+
+	// Mainshock origin time, in milliseconds since the epoch, and magnitude.
+
+	long mainshockTime;
+	double magMain;
+
+	// Magnitude of completeness.
+
+	double magCat;
+	MagCompFn magCompFn;
+
+	// Grid of c-values.
+
+	double min_c;
+	double delta_c;
+	int num_c;
+
+	// Data interval, in days since the mainshock.
+
+	double dataStartTimeDays;
+	double dataEndTimeDays;
+
+	// Fingerprint of the aftershocks within the data interval, of any magnitude.
+
+	int windowCount;
+	long windowHash;
+
+
+
+
+	//----- Statistics -----
+
+	// Number of aftershocks at or above the magnitude of completeness.
+
+	int numEvents;
+
+	// Sum of magMain - magMin(t_i).
+
+	double sum1;
+
+	// Sum of log(t_i + c), for each c.
+
+	double[] sum2;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	/**
+	 * Default constructor.
+	 * This is intended for use in database retrieval.
+	 */
+	public RJ_SeqSpecStats () {}
+
+
+
+
+	/**
+	 * Construct with the given contents.
+	 * Note: The sum2 array is retained, so the caller must not modify it afterward.
+	 */
+	RJ_SeqSpecStats (long mainshockTime, double magMain, double magCat, MagCompFn magCompFn,
+			double min_c, double delta_c, int num_c,
+			double dataStartTimeDays, double dataEndTimeDays,
+			int windowCount, long windowHash,
+			int numEvents, double sum1, double[] sum2) {
+
+		this.mainshockTime = mainshockTime;
+		this.magMain = magMain;
+		this.magCat = magCat;
+		this.magCompFn = magCompFn;
+		this.min_c = min_c;
+		this.delta_c = delta_c;
+		this.num_c = num_c;
+		this.dataStartTimeDays = dataStartTimeDays;
+		this.dataEndTimeDays = dataEndTimeDays;
+		this.windowCount = windowCount;
+		this.windowHash = windowHash;
+		this.numEvents = numEvents;
+		this.sum1 = sum1;
+		this.sum2 = sum2;
+	}
+
+
+
+
+	/**
+	 * Getters.
+	 */
+	public double get_dataStartTimeDays () {return dataStartTimeDays;}
+	public double get_dataEndTimeDays () {return dataEndTimeDays;}
+	public int get_numEvents () {return numEvents;}
+
+
+
+
+	/**
+	 * Return true if these statistics can be extended to the given model setup.
+	 * The mainshock, magnitude of completeness, c-grid, and data start time must all be
+	 * the same, and the data end time must be no earlier than ours.
+	 * The caller must still check the fingerprint of the aftershocks within our data interval.
+	 */
+	public boolean is_extendable_to (long the_mainshockTime, double the_magMain, double the_magCat, MagCompFn the_magCompFn,
+			double the_min_c, double the_delta_c, int the_num_c,
+			double the_dataStartTimeDays, double the_dataEndTimeDays) {
+
+		return mainshockTime == the_mainshockTime
+			&& magMain == the_magMain
+			&& magCat == the_magCat
+			&& magCompFn.toString().equals (the_magCompFn.toString())
+			&& min_c == the_min_c
+			&& delta_c == the_delta_c
+			&& num_c == the_num_c
+			&& sum2.length == the_num_c
+			&& dataStartTimeDays == the_dataStartTimeDays
+			&& dataEndTimeDays <= the_dataEndTimeDays;
+	}
+
+
+
+
+	/**
+	 * Hash of one aftershock, for the fingerprint.
+	 * The fingerprint of a set of aftershocks is the wrapping sum of the hashes,
+	 * so it does not depend on the order of the aftershock list.
+	 */
+	static long event_hash (ObsEqkRupture rup) {
+		long h = rup.getOriginTime() * 0x9E3779B97F4A7C15L + Double.doubleToLongBits (rup.getMag());
+		h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+		h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+		return h ^ (h >>> 31);
+	}
+
+
+
+
+	@Override
+	public String toString() {
+		return "RJ_SeqSpecStats:" + "\n" +
+			"mainshockTime        = " + mainshockTime + "\n" +
+			"magMain              = " + magMain + "\n" +
+			"magCat               = " + magCat + "\n" +
+			"magCompFn            = " + magCompFn.toString() + "\n" +
+			"min_c                = " + min_c + "\n" +
+			"delta_c              = " + delta_c + "\n" +
+			"num_c                = " + num_c + "\n" +
+			"dataStartTimeDays    = " + dataStartTimeDays + "\n" +
+			"dataEndTimeDays      = " + dataEndTimeDays + "\n" +
+			"windowCount          = " + windowCount + "\n" +
+			"windowHash           = " + windowHash + "\n" +
+			"numEvents            = " + numEvents + "\n" +
+			"sum1                 = " + sum1 + "\n" +
+			"sum2                 = " + Arrays.toString (sum2);
+	}
+
+
+
+
+	//----- Marshaling -----
+
+	// Marshal version number.
+
+	private static final int MARSHAL_VER_1 = 85001;
+
+	private static final String M_VERSION_NAME = "RJ_SeqSpecStats";
+
+	// Marshal type code.
+
+	protected static final int MARSHAL_NULL = 85000;
+	protected static final int MARSHAL_SEQ_SPEC_STATS = 85001;
+
+	protected static final String M_TYPE_NAME = "ClassType";
+
+	// Get the type code.
+
+	protected int get_marshal_type () {
+		return MARSHAL_SEQ_SPEC_STATS;
+	}
+
+	// Marshal object, internal.
+
+	protected void do_marshal (MarshalWriter writer) {
+
+		// Version
+
+		writer.marshalInt (M_VERSION_NAME, MARSHAL_VER_1);
+
+		// Contents
+
+		writer.marshalLong        ("mainshockTime"     , mainshockTime     );
+		writer.marshalDouble      ("magMain"           , magMain           );
+		writer.marshalDouble      ("magCat"            , magCat            );
+		MagCompFn.marshal_poly    (writer, "magCompFn" , magCompFn         );
+		writer.marshalDouble      ("min_c"             , min_c             );
+		writer.marshalDouble      ("delta_c"           , delta_c           );
+		writer.marshalInt         ("num_c"             , num_c             );
+		writer.marshalDouble      ("dataStartTimeDays" , dataStartTimeDays );
+		writer.marshalDouble      ("dataEndTimeDays"   , dataEndTimeDays   );
+		writer.marshalInt         ("windowCount"       , windowCount       );
+		writer.marshalLong        ("windowHash"        , windowHash        );
+		writer.marshalInt         ("numEvents"         , numEvents         );
+		writer.marshalDouble      ("sum1"              , sum1              );
+		writer.marshalDoubleArray ("sum2"              , sum2              );
+
+		return;
+	}
+
+	// Unmarshal object, internal.
+
+	protected void do_umarshal (MarshalReader reader) {
+
+		// Version
+
+		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_1);
+
+		// Contents
+
+		mainshockTime     = reader.unmarshalLong        ("mainshockTime"     );
+		magMain           = reader.unmarshalDouble      ("magMain"           );
+		magCat            = reader.unmarshalDouble      ("magCat"            );
+		magCompFn         = MagCompFn.unmarshal_poly    (reader, "magCompFn" );
+		min_c             = reader.unmarshalDouble      ("min_c"             );
+		delta_c           = reader.unmarshalDouble      ("delta_c"           );
+		num_c             = reader.unmarshalInt         ("num_c"             );
+		dataStartTimeDays = reader.unmarshalDouble      ("dataStartTimeDays" );
+		dataEndTimeDays   = reader.unmarshalDouble      ("dataEndTimeDays"   );
+		windowCount       = reader.unmarshalInt         ("windowCount"       );
+		windowHash        = reader.unmarshalLong        ("windowHash"        );
+		numEvents         = reader.unmarshalInt         ("numEvents"         );
+		sum1              = reader.unmarshalDouble      ("sum1"              );
+		sum2              = reader.unmarshalDoubleArray ("sum2"              );
+
+		if (magCompFn == null || sum2.length != num_c) {
+			throw new MarshalException ("RJ_SeqSpecStats.do_umarshal: Inconsistent statistics: num_c = " + num_c + ", sum2.length = " + sum2.length);
+		}
+
+		return;
+	}
+
+	// Marshal object.
+
+	public void marshal (MarshalWriter writer, String name) {
+		writer.marshalMapBegin (name);
+		do_marshal (writer);
+		writer.marshalMapEnd ();
+		return;
+	}
+
+	// Unmarshal object.
+
+	public RJ_SeqSpecStats unmarshal (MarshalReader reader, String name) {
+		reader.unmarshalMapBegin (name);
+		do_umarshal (reader);
+		reader.unmarshalMapEnd ();
+		return this;
+	}
+
+	// Marshal object, polymorphic.
+
+	public static void marshal_poly (MarshalWriter writer, String name, RJ_SeqSpecStats obj) {
+
+		writer.marshalMapBegin (name);
+
+		if (obj == null) {
+			writer.marshalInt (M_TYPE_NAME, MARSHAL_NULL);
+		} else {
+			writer.marshalInt (M_TYPE_NAME, obj.get_marshal_type());
+			obj.do_marshal (writer);
+		}
+
+		writer.marshalMapEnd ();
+
+		return;
+	}
+
+	// Unmarshal object, polymorphic.
+
+	public static RJ_SeqSpecStats unmarshal_poly (MarshalReader reader, String name) {
+		RJ_SeqSpecStats result;
+
+		reader.unmarshalMapBegin (name);
+
+		// Switch according to type
+
+		int type = reader.unmarshalInt (M_TYPE_NAME);
+
+		switch (type) {
+
+		default:
+			throw new MarshalException ("RJ_SeqSpecStats.unmarshal_poly: Unknown class type code: type = " + type);
+
+		case MARSHAL_NULL:
+			result = null;
+			break;
+
+		case MARSHAL_SEQ_SPEC_STATS:
+			result = new RJ_SeqSpecStats();
+			result.do_umarshal (reader);
+			break;
+		}
+
+		reader.unmarshalMapEnd ();
+
+		return result;
+	}
+
+}
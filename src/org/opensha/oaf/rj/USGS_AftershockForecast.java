@@ -178,6 +178,8 @@ public class USGS_AftershockForecast {
 		if (f_verbose) {
 			System.out.println("Start date: "+df.format(Date.from(startDate)));
 		}
+		double[] tMinDaysArray = new double[durations.length];
+		double[] tMaxDaysArray = new double[durations.length];
 		for (int i=0; i<durations.length; i++) {
 			Duration duration = durations[i];
 			Instant endDate = duration.getEndDate(startDate);
@@ -192,19 +194,28 @@ public class USGS_AftershockForecast {
 					"tMaxDays must be greter than tMinDays: %s <= %s", tMaxDays, tMinDays);
 			
 			endDates[i] = endDate;
+			tMinDaysArray[i] = tMinDays;
+			tMaxDaysArray[i] = tMaxDays;
+		}
+		
+		// the whole table is computed together: all magnitudes for a duration share the
+		// Poisson mixture, and the durations are computed in parallel
+		
+		RJ_ForecastTable table = model.getForecastTable(calcFractiles, calcMags, tMinDaysArray, tMaxDaysArray);
+		
+		for (int i=0; i<durations.length; i++) {
+			Duration duration = durations[i];
 			
 			for (int m=0; m<calcMags.length; m++) {
 				double minMag = calcMags[m];
 				
-				double[] fractiles = model.getCumNumFractileWithAleatory(calcFractiles, minMag, tMinDays, tMaxDays);
-				
-				numEventsLower.put(duration, minMag, fractiles[0]);
-				numEventsUpper.put(duration, minMag, fractiles[1]);
+				numEventsLower.put(duration, minMag, table.get_fractile_value(i, m, 0));
+				numEventsUpper.put(duration, minMag, table.get_fractile_value(i, m, 1));
 //				double rate = model.getModalNumEvents(minMag, tMinDays, tMaxDays);
 
 //				double expectedVal = model.getModalNumEvents(minMag, tMinDays, tMaxDays);
 //				double poissonProb = 1 - Math.exp(-expectedVal);
-				double poissonProb = model.getProbOneOrMoreEvents(minMag, tMinDays, tMaxDays);
+				double poissonProb = table.get_prob(i, m);
 
 				if (poissonProb < 1.0e-12) {
 					poissonProb = 0.0;	// fewer than 4 significant digits available
@@ -0,0 +1,34 @@
+package org.opensha.oaf.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+
+/**
+ * Class for unmarshaling parameters/data from an in-memory byte array.
+ *
+ * This reads data written by MarshalImpBinaryWriter.  The data must be unmarshaled
+ * in exactly the same order, and with exactly the same types, as it was marshaled.
+ */
+public class MarshalImpBinaryReader extends MarshalImpDataReader {
+
+	//----- Construction -----
+
+	/**
+	 * Create an object that reads from the given byte array, which can be null for none.
+	 * The array is not copied, and must not be modified while the reader is in use.
+	 */
+	public MarshalImpBinaryReader (byte[] data) {
+		super (new DataInputStream (new ByteArrayInputStream ((data == null) ? (new byte[0]) : data)), MarshalImpBinaryWriter.BINARY_STORE_NAMES);
+	}
+
+	//----- Control -----
+
+	/**
+	 * Check read status, return true if read complete, false if nothing read, exception if in progress.
+	 * (This matches MarshalImpJsonReader.check_read_complete.)
+	 */
+	public boolean is_read_complete () {
+		return check_read_complete() > 0L;
+	}
+
+}
@@ -0,0 +1,67 @@
+package org.opensha.oaf.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+
+/**
+ * Class for marshaling parameters/data to an in-memory byte array.
+ *
+ * This uses the same binary encoding as MarshalImpDataWriter, without field names.
+ * It is intended for payloads that are stored in the database as a BSON binary
+ * value, which avoids the cost of producing and parsing a JSON string.
+ *
+ * The data can be read back with MarshalImpBinaryReader.  Because field names are
+ * not stored, the data must be unmarshaled in exactly the same order, and with
+ * exactly the same types, as it was marshaled.
+ */
+public class MarshalImpBinaryWriter extends MarshalImpDataWriter {
+
+	//----- Data storage -----
+
+	// Flag, true if field names are stored.  (Shared with MarshalImpBinaryReader.)
+
+	static final boolean BINARY_STORE_NAMES = false;
+
+	// The byte array that receives the data.
+
+	private ByteArrayOutputStream byte_out;
+
+	//----- Construction -----
+
+	/**
+	 * Create an empty object, suitable for writing.
+	 */
+	public MarshalImpBinaryWriter () {
+		this (new ByteArrayOutputStream());
+	}
+
+	private MarshalImpBinaryWriter (ByteArrayOutputStream byte_out) {
+		super (new DataOutputStream (byte_out), BINARY_STORE_NAMES);
+		this.byte_out = byte_out;
+	}
+
+	//----- Control -----
+
+	/**
+	 * Check write status, return true if write complete, false if nothing written, exception if in progress.
+	 * (This matches MarshalImpJsonWriter.check_write_complete.)
+	 */
+	public boolean is_write_complete () {
+		return check_write_complete() > 0L;
+	}
+
+	/**
+	 * Get the marshaled data, as a newly-allocated byte array.
+	 */
+	public byte[] get_byte_array () {
+		return byte_out.toByteArray();
+	}
+
+	/**
+	 * Get the number of bytes of marshaled data.
+	 */
+	public int get_byte_count () {
+		return byte_out.size();
+	}
+
+}